@@ -0,0 +1,416 @@
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * AdaptiveCalls puts a deadline on remote calls, adapted to the latency
+ * observed on each peer and method, and hedges reads that can be answered by
+ * more than one peer.
+ *
+ * Latencies are kept per peer and method in a window of recent calls. Once
+ * enough calls are seen, a call times out after {@link #TIMEOUT_FACTOR} times
+ * the 99th percentile, within set bounds; before that it gets the initial
+ * timeout. Each timeout doubles the timeout of that peer and method until a
+ * call succeeds again. A hedged call is sent to an alternate peer when the
+ * first hasn't answered by its 95th percentile, the first answer wins and the
+ * other call is cancelled.
+ *
+ * On a transport that delivers calls on the calling thread with simulated
+ * latency, deadlines and hedges are applied to the simulated clock instead.
+ *
+ * Timeouts are set with the system properties chord.rpc.timeout (initial),
+ * chord.rpc.timeout.min and chord.rpc.timeout.max, in milliseconds.
+ *
+ * @author Anurag Malik, am3926
+ *
+ */
+public class AdaptiveCalls {
+
+	static final long INITIAL_TIMEOUT = Long.getLong("chord.rpc.timeout", 10000) * 1000;
+	static final long MIN_TIMEOUT = Long.getLong("chord.rpc.timeout.min", 50) * 1000;
+	static final long MAX_TIMEOUT = Long.getLong("chord.rpc.timeout.max", 60000) * 1000;
+	static final int TIMEOUT_FACTOR = 3;
+
+	// calls per window, and calls seen before percentiles are trusted
+	static final int WINDOW = 256;
+	static final int MIN_SAMPLES = 16;
+
+	// methods with deadlines of their own, or whose time grows with the
+	// files they move rather than with the peer : a download carried through
+	// forwardRequest, a transfer and its commit, a delta, a file pushed to a
+	// client; missing a deadline learnt from small calls doesn't mean the
+	// peer is dead
+	private static final Set<String> UNTIMED = new HashSet<String>(Arrays.asList("query", "addNewServer",
+			"addNewServers", "handOffFiles", "handOverKeys", "forwardRequest", "requestFile", "insertFile",
+			"beginTransfer", "writeChunk", "commitTransfer", "applyDelta", "pushFile"));
+
+	/**
+	 * A remote call, run on a worker thread when it has a deadline.
+	 */
+	public interface RemoteCall<T> {
+		T call() throws RemoteException;
+	}
+
+	/**
+	 * Latencies of recent calls to one peer and method. A new window starts
+	 * every {@link AdaptiveCalls#WINDOW} calls, percentiles are taken over the
+	 * current and the previous window.
+	 */
+	private static class Latency {
+		Histogram current = new Histogram();
+		Histogram previous = new Histogram();
+		long p95 = -1;
+		long p99 = -1;
+		int backoff = 1;
+
+		synchronized void record(long micros) {
+			backoff = 1;
+			current.record(micros);
+			if (current.getCount() >= WINDOW) {
+				previous = current;
+				current = new Histogram();
+			}
+			long count = current.getCount() + previous.getCount();
+			if (count >= MIN_SAMPLES && count % 8 == 0) {
+				Histogram recent = new Histogram();
+				recent.add(previous);
+				recent.add(current);
+				p95 = recent.getPercentile(95);
+				p99 = recent.getPercentile(99);
+			}
+		}
+
+		synchronized void timedOut() {
+			backoff = Math.min(backoff * 2, 1024);
+		}
+
+		synchronized long timeout() {
+			long timeout = p99 < 0 ? INITIAL_TIMEOUT : Math.max(MIN_TIMEOUT, TIMEOUT_FACTOR * p99);
+			return Math.min(MAX_TIMEOUT, timeout * backoff);
+		}
+
+		synchronized long hedgeDelay() {
+			return p95;
+		}
+	}
+
+	private final Transport transport;
+	private final Metrics metrics;
+	private final ExecutorService workers;
+	private final ConcurrentHashMap<String, Latency> latencies;
+
+	/**
+	 * @param transport
+	 *            : transport the calls go through, for its clock
+	 * @param metrics
+	 *            : metrics counting timeouts and hedges
+	 */
+	public AdaptiveCalls(Transport transport, Metrics metrics) {
+		this.transport = transport;
+		this.metrics = metrics;
+		latencies = new ConcurrentHashMap<String, Latency>();
+		workers = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "chord-rpc");
+			thread.setDaemon(true);
+			return thread;
+		});
+		metrics.gauge(Metrics.HEDGE_RATE, () -> {
+			long calls = metrics.count(Metrics.HEDGE_CALLS);
+			return calls == 0 ? 0 : metrics.count(Metrics.HEDGES) * 1000000 / calls;
+		});
+	}
+
+	private Latency latency(String peer, String method) {
+		return latencies.computeIfAbsent(peer + " " + method, key -> new Latency());
+	}
+
+	/**
+	 * Return timeout of the next call to a peer and method.
+	 *
+	 * @return microseconds
+	 */
+	public long timeout(String peer, String method) {
+		return latency(peer, method).timeout();
+	}
+
+	/**
+	 * Return delay after which a call to a peer and method is hedged.
+	 *
+	 * @return microseconds, -1 until enough calls are seen
+	 */
+	public long hedgeDelay(String peer, String method) {
+		return latency(peer, method).hedgeDelay();
+	}
+
+	/**
+	 * Forget the latencies of a peer that left.
+	 *
+	 * @param peer
+	 */
+	public void forget(String peer) {
+		latencies.keySet().removeIf(key -> key.startsWith(peer + " "));
+	}
+
+	/**
+	 * Return a stub whose calls all get an adaptive deadline.
+	 *
+	 * @param stub
+	 * @param type
+	 *            : remote interface of the stub
+	 * @param peer
+	 *            : peer the stub calls
+	 * @return stub with deadlines
+	 */
+	public <T extends Remote> T withDeadlines(T stub, Class<T> type, String peer) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+				(proxy, method, args) -> {
+					if (method.getDeclaringClass() == Object.class) {
+						if (method.getName().equals("equals"))
+							return proxy == args[0];
+						if (method.getName().equals("hashCode"))
+							return System.identityHashCode(proxy);
+						return "Deadline[" + stub + "]";
+					}
+					RemoteCall<Object> call = () -> {
+						try {
+							return method.invoke(stub, args);
+						} catch (IllegalAccessException e) {
+							throw new IllegalStateException(e);
+						} catch (InvocationTargetException e) {
+							Throwable cause = e.getCause();
+							if (cause instanceof RemoteException)
+								throw (RemoteException) cause;
+							if (cause instanceof RuntimeException)
+								throw (RuntimeException) cause;
+							if (cause instanceof Error)
+								throw (Error) cause;
+							throw new RemoteException("Call " + method.getName() + " to " + peer + " failed", cause);
+						}
+					};
+					if (UNTIMED.contains(method.getName()))
+						return call.call();
+					return call(peer, method.getName(), call);
+				}));
+	}
+
+	/**
+	 * Make a call to a peer within the adaptive timeout of the peer and
+	 * method.
+	 *
+	 * @param peer
+	 * @param method
+	 * @param call
+	 * @return result of the call
+	 * @throws RemoteException
+	 *             if the call fails or times out
+	 */
+	public <T> T call(String peer, String method, RemoteCall<T> call) throws RemoteException {
+		Latency latency = latency(peer, method);
+		long timeout = latency.timeout();
+		long start = transport.clockMicros();
+
+		if (transport.isSimulated()) {
+			T result = call.call();
+			long elapsed = transport.clockMicros() - start;
+			if (elapsed > timeout) {
+				// the caller gave up at the deadline, the callee went on
+				transport.adjustClock(timeout - elapsed);
+				throw timedOut(latency, peer, method, timeout);
+			}
+			latency.record(elapsed);
+			return result;
+		}
+
+		Future<T> future = workers.submit(call::call);
+		try {
+			T result = future.get(timeout, TimeUnit.MICROSECONDS);
+			latency.record(transport.clockMicros() - start);
+			return result;
+		} catch (TimeoutException e) {
+			future.cancel(true);
+			throw timedOut(latency, peer, method, timeout);
+		} catch (ExecutionException e) {
+			throw failure(e.getCause(), peer, method);
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new RemoteException("Interrupted calling " + method + " on " + peer);
+		}
+	}
+
+	private RemoteException timedOut(Latency latency, String peer, String method, long timeout) {
+		latency.timedOut();
+		metrics.increment(Metrics.RPC_TIMEOUTS);
+		return new RemoteException("Call " + method + " to " + peer + " timed out after " + timeout / 1000 + " ms");
+	}
+
+	private static RemoteException failure(Throwable cause, String peer, String method) {
+		if (cause instanceof RemoteException)
+			return (RemoteException) cause;
+		if (cause instanceof RuntimeException)
+			throw (RuntimeException) cause;
+		if (cause instanceof Error)
+			throw (Error) cause;
+		return new RemoteException("Call " + method + " to " + peer + " failed", cause);
+	}
+
+	/**
+	 * Make a read that two peers can answer : the first peer is called, and
+	 * if it hasn't answered by the 95th percentile of its latency, the
+	 * alternate peer too. The first answer wins, the other call is cancelled.
+	 * Each call keeps its own deadline.
+	 *
+	 * @param method
+	 * @param primary
+	 *            : peer called first
+	 * @param first
+	 *            : call to the first peer
+	 * @param alternate
+	 *            : peer called on a hedge, null if there is none
+	 * @param second
+	 *            : call to the alternate peer
+	 * @return result of the first successful call
+	 * @throws RemoteException
+	 *             if both calls fail
+	 */
+	public <T> T hedge(String method, String primary, RemoteCall<T> first, String alternate, RemoteCall<T> second)
+			throws RemoteException {
+		metrics.increment(Metrics.HEDGE_CALLS);
+		long delay = hedgeDelay(primary, method);
+		if (alternate == null || delay < 0)
+			return call(primary, method, first);
+		if (transport.isSimulated())
+			return simulatedHedge(method, primary, first, alternate, second, delay);
+
+		// each leg runs its call on one worker, the deadlines are kept here so
+		// that cancelling a leg interrupts the call itself
+		CompletionService<T> completion = new ExecutorCompletionService<T>(workers);
+		long start = transport.clockMicros();
+		Leg<T> primaryLeg = new Leg<T>(primary, latency(primary, method), start, completion.submit(first::call));
+		Leg<T> hedgeLeg = null;
+		RemoteException failure = null;
+		try {
+			while (primaryLeg.pending() || hedgeLeg != null && hedgeLeg.pending()) {
+				long wakeup = Math.min(primaryLeg.wakeup(), hedgeLeg == null ? start + delay : hedgeLeg.wakeup());
+				Future<T> done = completion.poll(Math.max(0, wakeup - transport.clockMicros()), TimeUnit.MICROSECONDS);
+				long now = transport.clockMicros();
+				if (done == null) {
+					for (Leg<T> leg : Arrays.asList(primaryLeg, hedgeLeg))
+						if (leg != null && leg.pending() && now >= leg.deadline) {
+							leg.future.cancel(true);
+							failure = timedOut(leg.latency, leg.peer, method, leg.deadline - leg.start);
+						}
+					if (hedgeLeg == null && primaryLeg.pending() && now >= start + delay) {
+						metrics.increment(Metrics.HEDGES);
+						hedgeLeg = new Leg<T>(alternate, latency(alternate, method), now, completion.submit(second::call));
+					}
+					continue;
+				}
+				Leg<T> leg = done == primaryLeg.future ? primaryLeg : hedgeLeg;
+				if (leg == null || done != leg.future || done.isCancelled())
+					continue;
+				leg.finished = true;
+				try {
+					T result = done.get();
+					leg.latency.record(now - leg.start);
+					if (leg == hedgeLeg)
+						metrics.increment(Metrics.HEDGE_WINS);
+					return result;
+				} catch (ExecutionException e) {
+					failure = failure(e.getCause(), leg.peer, method);
+				}
+			}
+			throw failure;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RemoteException("Interrupted calling " + method + " on " + primary);
+		} finally {
+			primaryLeg.future.cancel(true);
+			if (hedgeLeg != null)
+				hedgeLeg.future.cancel(true);
+		}
+	}
+
+	/**
+	 * One of the calls of a hedged read, with its own deadline.
+	 */
+	private static class Leg<T> {
+		final String peer;
+		final Latency latency;
+		final long start;
+		final long deadline;
+		final Future<T> future;
+		boolean finished;
+
+		Leg(String peer, Latency latency, long start, Future<T> future) {
+			this.peer = peer;
+			this.latency = latency;
+			this.start = start;
+			this.deadline = start + latency.timeout();
+			this.future = future;
+		}
+
+		boolean pending() {
+			return !finished && !future.isCancelled();
+		}
+
+		long wakeup() {
+			return pending() ? deadline : Long.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * Hedge on the simulated clock : both calls run one after the other, and
+	 * the clock is set to when the winner would have answered.
+	 */
+	private <T> T simulatedHedge(String method, String primary, RemoteCall<T> first, String alternate,
+			RemoteCall<T> second, long delay) throws RemoteException {
+		long start = transport.clockMicros();
+		T result = null;
+		RemoteException failure = null;
+		try {
+			result = call(primary, method, first);
+		} catch (RemoteException e) {
+			failure = e;
+		}
+		long elapsed = transport.clockMicros() - start;
+		if (elapsed <= delay) {
+			if (failure != null)
+				throw failure;
+			return result;
+		}
+
+		metrics.increment(Metrics.HEDGES);
+		transport.adjustClock(delay - elapsed);
+		try {
+			T hedged = call(alternate, method, second);
+			long hedgedElapsed = transport.clockMicros() - start;
+			if (failure != null || hedgedElapsed < elapsed) {
+				metrics.increment(Metrics.HEDGE_WINS);
+				return hedged;
+			}
+			transport.adjustClock(elapsed - hedgedElapsed);
+			return result;
+		} catch (RemoteException e) {
+			long hedgedElapsed = transport.clockMicros() - start;
+			if (hedgedElapsed < elapsed)
+				transport.adjustClock(elapsed - hedgedElapsed);
+			if (failure != null)
+				throw failure;
+			return result;
+		}
+	}
+}
@@ -1,4 +1,5 @@
 import java.io.Serializable;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * This class represents a new server add request packet. It includes details of
@@ -12,10 +13,21 @@ public class AddRequest implements Serializable {
 	private static final long serialVersionUID = 1L;
 	int destination;
 	String hostName;
+	long requestId;
 
 	public AddRequest(String hostName2, int dest) {
 		this.hostName = hostName2;
 		this.destination = dest;
+		this.requestId = ThreadLocalRandom.current().nextLong();
+	}
+
+	/**
+	 * Get id correlating all events logged for this add request.
+	 * 
+	 * @return
+	 */
+	public long getRequestId() {
+		return requestId;
 	}
 
 	/**
@@ -0,0 +1,164 @@
+import java.io.Serializable;
+
+/**
+ * BloomFilter summarizes a set of file names in a fixed number of bits. A
+ * lookup can answer "definitely not present" or "maybe present"; the rate of
+ * wrong "maybe" answers is bounded by the false positive rate the filter was
+ * sized for.
+ *
+ * A server keeps a counting filter, with a small counter behind every bit, so
+ * that names can also be removed. The filter shared with other servers is a
+ * plain bit copy created by {@link #summary()}, which only supports adding
+ * names.
+ *
+ * @author Anurag Malik, am3926
+ *
+ */
+public class BloomFilter implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long[] bits;
+	private final int bitCount;
+	private final int hashCount;
+	private final int capacity;
+	private int size;
+
+	// counter per bit, only on the counting filter kept by the owner
+	private final byte[] counters;
+
+	/**
+	 * Create a counting filter sized for a number of names and a false
+	 * positive rate.
+	 *
+	 * @param capacity
+	 *            : number of names expected
+	 * @param falsePositiveRate
+	 *            : wanted rate of wrong "maybe" answers at capacity
+	 */
+	public BloomFilter(int capacity, double falsePositiveRate) {
+		this.capacity = Math.max(1, capacity);
+		int size = (int) Math.ceil(-this.capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+		bitCount = Math.max(64, (size + 63) / 64 * 64);
+		hashCount = Math.max(1, (int) Math.round((double) bitCount / this.capacity * Math.log(2)));
+		bits = new long[bitCount / 64];
+		counters = new byte[bitCount];
+	}
+
+	private BloomFilter(BloomFilter filter) {
+		capacity = filter.capacity;
+		bitCount = filter.bitCount;
+		hashCount = filter.hashCount;
+		synchronized (filter) {
+			bits = filter.bits.clone();
+			size = filter.size;
+		}
+		counters = null;
+	}
+
+	/**
+	 * Return a plain bit copy of this filter that can be sent to other
+	 * servers.
+	 *
+	 * @return summary filter
+	 */
+	public BloomFilter summary() {
+		return new BloomFilter(this);
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Return number of names added and not removed.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	public synchronized void add(String name) {
+		long hash = hash(name);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 0; i < hashCount; i++) {
+			int bit = index(h1 + i * h2);
+			bits[bit >>> 6] |= 1L << bit;
+			if (counters != null && counters[bit] != -1)
+				counters[bit]++;
+		}
+		size++;
+	}
+
+	/**
+	 * Remove a name added earlier, only supported by the counting filter.
+	 *
+	 * @param name
+	 */
+	public synchronized void remove(String name) {
+		if (counters == null)
+			throw new UnsupportedOperationException("Summary filters don't support removal");
+		if (!mightContain(name))
+			return;
+		long hash = hash(name);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 0; i < hashCount; i++) {
+			int bit = index(h1 + i * h2);
+			// saturated counters stay set, as their real count is unknown
+			if (counters[bit] != -1 && --counters[bit] == 0)
+				bits[bit >>> 6] &= ~(1L << bit);
+		}
+		size--;
+	}
+
+	/**
+	 * Check if a name may have been added.
+	 *
+	 * @param name
+	 * @return false if the name was definitely never added
+	 */
+	public boolean mightContain(String name) {
+		long hash = hash(name);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 0; i < hashCount; i++) {
+			int bit = index(h1 + i * h2);
+			if ((bits[bit >>> 6] & (1L << bit)) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Estimate current false positive rate from the fraction of bits set.
+	 *
+	 * @return probability of a wrong "maybe" answer
+	 */
+	public double expectedFalsePositiveRate() {
+		long set = 0;
+		for (long word : bits)
+			set += Long.bitCount(word);
+		return Math.pow((double) set / bitCount, hashCount);
+	}
+
+	private int index(int hash) {
+		return (hash & Integer.MAX_VALUE) % bitCount;
+	}
+
+	/**
+	 * 64 bit FNV-1a hash of a name, split into two 32 bit hashes.
+	 */
+	private static long hash(String name) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < name.length(); i++) {
+			hash ^= name.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		// spread the bits so that both halves depend on every character
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
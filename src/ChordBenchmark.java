@@ -0,0 +1,274 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * ChordBenchmark measures the per-request hot paths of a {@link ChordServer}:
+ * key hashing and range checks, trace building, serialization of request
+ * packets, file reads and writes at several sizes and the key range split done
+ * when a predecessor joins.
+ *
+ * Each benchmark is warmed up and then measured over several fixed-time
+ * iterations, reporting the average time per operation with its error, in the
+ * same layout as JMH. Arguments select benchmarks whose name contains any of
+ * them; iteration count and time can be set with -Dbench.iterations and
+ * -Dbench.time (milliseconds).
+ *
+ * @author Anurag Malik, am3926
+ *
+ */
+public class ChordBenchmark {
+
+	private static final int[] FILE_SIZES = { 1024, 64 * 1024, 1024 * 1024, 16 * 1024 * 1024 };
+	private static final int[] TRACE_HOPS = { 1, 8, 64 };
+	private static final int[] FILE_COUNTS = { 1000, 10000 };
+
+	/**
+	 * A benchmarked operation, its result is consumed so that it can't be
+	 * optimized away.
+	 */
+	private interface Operation {
+		Object run(int invocation) throws Exception;
+	}
+
+	private final int iterations;
+	private final long iterationMillis;
+	private final List<String> filters;
+	private final List<String[]> results;
+	private final PrintStream report;
+
+	// consumes results of benchmarked operations
+	private volatile int sink;
+
+	public ChordBenchmark(int iterations, long iterationMillis, List<String> filters, PrintStream report) {
+		this.report = report;
+		this.iterations = iterations;
+		this.iterationMillis = iterationMillis;
+		this.filters = filters;
+		results = new ArrayList<String[]>();
+	}
+
+	private boolean selected(String name) {
+		if (filters.isEmpty())
+			return true;
+		for (String filter : filters)
+			if (name.contains(filter))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Warm up and measure an operation, recording its average time.
+	 */
+	private void measure(String name, Operation operation) throws Exception {
+		if (!selected(name))
+			return;
+		report.println("# Benchmark: " + name);
+
+		// warm up for as many iterations as are measured
+		for (int i = 0; i < iterations; i++)
+			iteration(operation);
+
+		double[] scores = new double[iterations];
+		for (int i = 0; i < iterations; i++) {
+			scores[i] = iteration(operation);
+			report.printf("Iteration %2d: %.3f ns/op%n", i + 1, scores[i]);
+		}
+
+		double mean = 0;
+		for (double score : scores)
+			mean += score;
+		mean /= iterations;
+		double variance = 0;
+		for (double score : scores)
+			variance += (score - mean) * (score - mean);
+		double error = iterations > 1 ? 2 * Math.sqrt(variance / (iterations - 1)) : 0;
+		results.add(new String[] { name, String.format("%.3f", mean), String.format("%.3f", error) });
+	}
+
+	/**
+	 * Run an operation repeatedly for one iteration period.
+	 *
+	 * @return average nanoseconds per operation
+	 */
+	private double iteration(Operation operation) throws Exception {
+		long deadline = System.nanoTime() + iterationMillis * 1000000L;
+		long operations = 0;
+		int batch = 1;
+		long start = System.nanoTime();
+		long now = start;
+		do {
+			// check the clock once per batch, growing batches of fast operations
+			long batchStart = now;
+			for (int i = 0; i < batch; i++)
+				sink += System.identityHashCode(operation.run((int) operations++));
+			now = System.nanoTime();
+			if (now - batchStart < 100000 && batch < 4096)
+				batch *= 2;
+		} while (now < deadline);
+		return (double) (now - start) / operations;
+	}
+
+	private void printResults() {
+		report.printf("%n%-40s %4s %5s %16s %12s %6s%n", "Benchmark", "Mode", "Cnt", "Score", "Error", "Units");
+		for (String[] result : results)
+			report.printf("%-40s %4s %5d %16s +- %10s %6s%n", result[0], "avgt", iterations, result[1], result[2],
+					"ns/op");
+	}
+
+	public void run() throws Exception {
+		File directory = Files.createTempDirectory("chord-bench").toFile();
+		try {
+			ChordServer server = new ChordServer(config("bench", directory), new LocalNetwork().transport("bench"));
+			benchmarkRouting(server);
+			benchmarkTrace();
+			benchmarkSerialization();
+			benchmarkFiles(server);
+			benchmarkRangeSplit(directory);
+		} finally {
+			delete(directory);
+		}
+		printResults();
+	}
+
+	private void benchmarkRouting(final ChordServer server) throws Exception {
+		final String[] names = new String[1024];
+		Random random = new Random(1);
+		for (int i = 0; i < names.length; i++)
+			names[i] = "file-" + Long.toHexString(random.nextLong()) + ".dat";
+		server.updatePredecessor("bench", 250, 750);
+
+		measure("routing.keyPosition", i -> server.getPosition(names[i & 1023]));
+		measure("routing.inKeyMap", i -> server.inKeyMap(i % 1000));
+		measure("routing.keyPositionInKeyMap", i -> server.inKeyMap(server.getPosition(names[i & 1023])));
+	}
+
+	private void benchmarkTrace() throws Exception {
+		for (final int hops : TRACE_HOPS) {
+			Trace.setSampleRate(1);
+			measure("trace.spans.hops" + hops, i -> traceOf(hops));
+			final Trace trace = traceOf(hops);
+			measure("trace.getTrace.hops" + hops, i -> trace.getTrace());
+
+			Trace.setSampleRate(0);
+			measure("trace.unsampled.hops" + hops, i -> traceOf(hops));
+		}
+		Trace.setSampleRate(1);
+	}
+
+	private static Trace traceOf(int hops) {
+		Trace trace = new Trace();
+		for (int hop = 0; hop < hops; hop++) {
+			String node = "server" + (hop & 7) + ".cs.rit.edu";
+			trace.arrive(node);
+			trace.startProcessing();
+			trace.depart(node, hop == hops - 1 ? Trace.Action.HIT : Trace.Action.FORWARD);
+		}
+		trace.setStatus(true);
+		return trace;
+	}
+
+	private void benchmarkSerialization() throws Exception {
+		final Request request = new Request();
+		request.setFileName("file-0123456789.dat");
+		request.setDestination(512);
+		final AddRequest addRequest = new AddRequest("kansas.cs.rit.edu", 512);
+		final byte[] requestBytes = serialize(request);
+		final byte[] addRequestBytes = serialize(addRequest);
+
+		measure("codec.request.write", i -> serialize(request));
+		measure("codec.request.read", i -> deserialize(requestBytes));
+		measure("codec.addRequest.write", i -> serialize(addRequest));
+		measure("codec.addRequest.read", i -> deserialize(addRequestBytes));
+	}
+
+	private void benchmarkFiles(final ChordServer server) throws Exception {
+		for (final int size : FILE_SIZES) {
+			final byte[] data = new byte[size];
+			new Random(size).nextBytes(data);
+			final String name = "bench-" + size + ".dat";
+			server.fileInsert(data, name);
+			final File file = server.getFile(name);
+
+			measure("storage.readFile." + label(size), i -> server.readFile(file));
+			measure("storage.fileInsert." + label(size), i -> server.fileInsert(data, name));
+		}
+	}
+
+	private void benchmarkRangeSplit(File directory) throws Exception {
+		for (int count : FILE_COUNTS) {
+			if (!selected("migration.filesBelowRange.files" + count))
+				continue;
+			File files = new File(directory, "split" + count);
+			files.mkdirs();
+			final ChordServer server = new ChordServer(config("split", files), new LocalNetwork().transport("split"));
+			for (int i = 0; i < count; i++)
+				server.fileInsert(new byte[0], "file-" + i + ".dat");
+
+			// half of the key range is handed to a new predecessor
+			server.updatePredecessor("split", 500, -1);
+			measure("migration.filesBelowRange.files" + count, i -> server.filesBelowRange());
+		}
+	}
+
+	private static NodeConfig config(String name, File directory) {
+		NodeConfig config = new NodeConfig();
+		config.setHostName(name);
+		config.setDomain("");
+		config.setEntryServers(Arrays.asList(name));
+		config.setLookupDirectory(directory.getPath());
+		return config;
+	}
+
+	private static String label(int size) {
+		return size >= 1024 * 1024 ? size / (1024 * 1024) + "MB" : size / 1024 + "KB";
+	}
+
+	private static byte[] serialize(Object packet) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream output = new ObjectOutputStream(bytes);
+		output.writeObject(packet);
+		output.close();
+		return bytes.toByteArray();
+	}
+
+	private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+		return new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children)
+				delete(child);
+		file.delete();
+	}
+
+	public static void main(String[] args) throws Exception {
+		List<String> filters = new ArrayList<String>();
+		for (String arg : args)
+			filters.add(arg);
+		int iterations = Integer.getInteger("bench.iterations", 5);
+		long time = Long.getLong("bench.time", 1000L);
+
+		// servers print on every file insertion, keep the report readable
+		PrintStream report = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+		}));
+		new ChordBenchmark(iterations, time, filters, report).run();
+		report.flush();
+	}
+}
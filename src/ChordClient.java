@@ -0,0 +1,489 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * ChordClient is the client library of the chord network. Uploads and
+ * downloads run in the background and return a {@link CompletableFuture}, so
+ * that many of them can be in flight at once.
+ *
+ * A client exports a single callback for its whole life. Every download
+ * carries a request id, and the trace a server pushes back when the request
+ * is answered completes the download with that id. Connections to servers are
+ * looked up once and reused until a call on them fails.
+ *
+ * The client learns servers of the ring and their key ranges from any seed
+ * and from the owners its uploads locate, and sends each request straight to
+ * the server owning its key as far as it knows, or else to the closest server
+ * before it. First hops are spread over the ring this way instead of all
+ * going to one entry server, and seeds, tried in random order, are only
+ * fallbacks. Membership is learned again every chord.client.refresh
+ * milliseconds (default 30000).
+ *
+ * Downloaded files are kept in a {@link ClientCache}, and downloading a cached
+ * file again asks its owner to send it only if it changed. The cache is
+ * bounded by the system property chord.client.cache (bytes, default 256MB, 0
+ * to cache nothing).
+ *
+ * The time a download waits for its answer is set with the system property
+ * chord.client.timeout (milliseconds, default 120000).
+ *
+ * @author Anurag Malik, am3926
+ *
+ */
+public class ChordClient implements AutoCloseable {
+
+	static final long TIMEOUT = Long.getLong("chord.client.timeout", 120000);
+	static final long CACHE_BYTES = Long.getLong("chord.client.cache", 256L * 1024 * 1024);
+	static final long REFRESH = Long.getLong("chord.client.refresh", 30000);
+
+	private final Transport transport;
+	private final List<String> entryServers;
+	private final String lookupDirectory;
+	private final int keySpace;
+	private final TransferStore transfers;
+	private final ClientCache cache;
+	private final ConcurrentHashMap<Long, CompletableFuture<Trace>> pending;
+	private final ConcurrentHashMap<String, S2CInterface> servers;
+
+	// servers of the ring known to the client by the end of their key range
+	private final ConcurrentSkipListMap<Integer, NodeInfo> members;
+	private final AtomicBoolean refreshing;
+	private volatile long refreshed;
+	private final ExecutorService workers;
+	private final ClientImplementation endpoint;
+	private ClientInterface callback;
+
+	/**
+	 * @param transport
+	 *            : transport used to reach the servers
+	 * @param entryServers
+	 *            : servers requests are sent to, in order of preference
+	 * @param lookupDirectory
+	 *            : directory files are uploaded from and downloaded to,
+	 *            ending with a separator
+	 * @param keySpace
+	 *            : size of the key space of the chord network
+	 */
+	public ChordClient(Transport transport, List<String> entryServers, String lookupDirectory, int keySpace) {
+		this(transport, entryServers, lookupDirectory, keySpace, CACHE_BYTES);
+	}
+
+	/**
+	 * @param transport
+	 *            : transport used to reach the servers
+	 * @param entryServers
+	 *            : servers requests are sent to, in order of preference
+	 * @param lookupDirectory
+	 *            : directory files are uploaded from and downloaded to,
+	 *            ending with a separator
+	 * @param keySpace
+	 *            : size of the key space of the chord network
+	 * @param cacheBytes
+	 *            : bytes of downloaded files cached at most, 0 to cache
+	 *            nothing
+	 */
+	public ChordClient(Transport transport, List<String> entryServers, String lookupDirectory, int keySpace,
+			long cacheBytes) {
+		this.transport = transport;
+		this.entryServers = new ArrayList<String>(entryServers);
+		this.lookupDirectory = lookupDirectory;
+		this.keySpace = keySpace;
+		String directory = lookupDirectory.substring(0, lookupDirectory.length() - 1);
+		transfers = new TransferStore(new File(directory + ".transfers"), false);
+		cache = new ClientCache(new File(directory + ".cache"), cacheBytes);
+		pending = new ConcurrentHashMap<Long, CompletableFuture<Trace>>();
+		servers = new ConcurrentHashMap<String, S2CInterface>();
+		members = new ConcurrentSkipListMap<Integer, NodeInfo>();
+		refreshing = new AtomicBoolean();
+		workers = Executors.newCachedThreadPool(task -> {
+			Thread thread = new Thread(task, "chord-client");
+			thread.setDaemon(true);
+			return thread;
+		});
+		endpoint = new ClientImplementation(this);
+	}
+
+	/**
+	 * Return the callback servers answer this client on, exporting it on first
+	 * use.
+	 */
+	private synchronized ClientInterface callback() throws RemoteException {
+		if (callback == null)
+			callback = transport.exportCallback(endpoint, ClientInterface.class);
+		return callback;
+	}
+
+	/**
+	 * Return a connection to a server, reusing an earlier one.
+	 */
+	private S2CInterface server(String address) throws RemoteException {
+		S2CInterface server = servers.get(address);
+		if (server == null) {
+			server = transport.lookup(address, Transport.CHORD, S2CInterface.class);
+			servers.put(address, server);
+		}
+		return server;
+	}
+
+	/**
+	 * Drop a connection after a failed call, so that the next call looks the
+	 * server up again, and stop sending requests to the server first.
+	 */
+	private void evict(String address) {
+		servers.remove(address);
+		members.values().removeIf(member -> member.getNodeId().equals(address));
+	}
+
+	/**
+	 * Return servers to send a request for a key position to, in order : the
+	 * server owning it as far as the client knows, or else the closest known
+	 * server before it, then the seeds in random order.
+	 *
+	 * @param position
+	 * @return node ids of the servers
+	 */
+	private List<String> firstHops(int position) {
+		learnMembers();
+		List<String> hops = new ArrayList<String>();
+		Map.Entry<Integer, NodeInfo> owner = members.ceilingEntry(position);
+		if (owner == null || owner.getValue().getStart() > position) {
+			owner = members.lowerEntry(position);
+			if (owner == null)
+				owner = members.lastEntry();
+		}
+		if (owner != null)
+			hops.add(owner.getValue().getNodeId());
+		List<String> seeds = new ArrayList<String>(entryServers);
+		Collections.shuffle(seeds);
+		for (String seed : seeds)
+			if (!hops.contains(seed))
+				hops.add(seed);
+		return hops;
+	}
+
+	/**
+	 * Learn servers of the ring from a seed or a server already known, once
+	 * the membership is older than the refresh period. One request learns
+	 * while the others go on with what is known.
+	 */
+	private void learnMembers() {
+		if (!members.isEmpty() && System.currentTimeMillis() - refreshed < REFRESH)
+			return;
+		if (!refreshing.compareAndSet(false, true))
+			return;
+		try {
+			List<String> sources = new ArrayList<String>(entryServers);
+			Collections.shuffle(sources);
+			List<NodeInfo> known = new ArrayList<NodeInfo>(members.values());
+			if (!known.isEmpty())
+				sources.add(0, known.get(ThreadLocalRandom.current().nextInt(known.size())).getNodeId());
+			for (String address : sources) {
+				try {
+					for (NodeInfo member : server(address).getMembers())
+						learn(member);
+					refreshed = System.currentTimeMillis();
+					return;
+				} catch (RemoteException e) {
+					evict(address);
+				}
+			}
+		} finally {
+			refreshing.set(false);
+		}
+	}
+
+	/**
+	 * Record the key range of a server, replacing what was known of it and
+	 * of servers whose range it now covers.
+	 */
+	private void learn(NodeInfo member) {
+		members.values().removeIf(known -> known.getNodeId().equals(member.getNodeId())
+				|| (known.getEnd() >= member.getStart() && known.getEnd() <= member.getEnd()));
+		members.put(member.getEnd(), member);
+	}
+
+	/**
+	 * Return number of servers of the ring known to the client.
+	 */
+	public int getKnownServers() {
+		return members.size();
+	}
+
+	/**
+	 * Return position of a file name in the chord key space.
+	 */
+	int getPosition(String fileName) {
+		return Math.abs(fileName.hashCode()) % keySpace;
+	}
+
+	/**
+	 * Download a file from the chord network into the lookup directory.
+	 *
+	 * @param fileName
+	 * @return future completed with the trace of the request once the file is
+	 *         stored, or once the network answered it doesn't have it
+	 */
+	public CompletableFuture<Trace> download(String fileName) {
+		Request request = new Request();
+		request.setFileName(fileName);
+		request.setDestination(getPosition(fileName));
+
+		// a cached file is only sent again if it changed
+		Long version = cache.version(fileName);
+		if (version != null)
+			request.setVersion(version);
+
+		CompletableFuture<Trace> result = new CompletableFuture<Trace>();
+		pending.put(request.getRequestId(), result);
+		result.orTimeout(TIMEOUT, TimeUnit.MILLISECONDS)
+				.whenComplete((trace, error) -> pending.remove(request.getRequestId(), result));
+		send(request, result);
+		return result;
+	}
+
+	/**
+	 * Send a download request through the first entry server reachable.
+	 */
+	private void send(Request request, CompletableFuture<Trace> result) {
+		workers.execute(() -> {
+			IOException failure = new IOException("No entry server configured");
+			for (String address : firstHops(request.getDestination())) {
+				try {
+					request.setClient(callback());
+					// misses and downloads are answered through the callback
+					// before the call returns, a refusal isn't
+					if (!server(address).requestFile(request) && !result.isDone())
+						result.completeExceptionally(
+								new IOException("Request for " + request.getFileName() + " failed on " + address));
+					return;
+				} catch (RemoteException e) {
+					evict(address);
+					failure = e;
+				}
+			}
+			result.completeExceptionally(failure);
+		});
+	}
+
+	/**
+	 * Upload a file from the lookup directory to the server owning it. If the
+	 * server holds an older version, only the changes are sent, else an upload
+	 * interrupted earlier resumes where it stopped.
+	 *
+	 * @param fileName
+	 * @return future completed with the number of bytes sent
+	 */
+	public CompletableFuture<Long> upload(String fileName) {
+		return upload(new File(lookupDirectory + fileName), fileName);
+	}
+
+	/**
+	 * Upload a file, from any directory, under another name.
+	 *
+	 * @param file
+	 * @param fileName
+	 *            : name the file is stored under on the chord network
+	 * @return future completed with the number of bytes sent
+	 */
+	public CompletableFuture<Long> upload(File file, String fileName) {
+		CompletableFuture<Long> result = new CompletableFuture<Long>();
+		workers.execute(() -> {
+			try {
+				if (!file.exists())
+					throw new FileNotFoundException(file.getPath());
+				String owner = locate(getPosition(fileName));
+				try {
+					// only the changes are sent when the owner has an older
+					// copy
+					long sent = DeltaSync.send(server(owner), file, fileName, null);
+					if (sent < 0)
+						sent = FileTransfer.send(server(owner), FileTransfer.transferId(getHostName(), file), file,
+								fileName, null);
+					result.complete(sent);
+				} catch (RemoteException e) {
+					evict(owner);
+					throw e;
+				}
+			} catch (IOException | RuntimeException e) {
+				result.completeExceptionally(e);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Find node id of the server owning a key position, starting from the
+	 * closest server known.
+	 */
+	private String locate(int position) throws RemoteException {
+		RemoteException failure = new RemoteException("No entry server configured");
+		for (String address : firstHops(position)) {
+			try {
+				NodeInfo owner = server(address).locate(position);
+				learn(owner);
+				return owner.getNodeId();
+			} catch (RemoteException e) {
+				evict(address);
+				failure = e;
+			}
+		}
+		throw failure;
+	}
+
+	/**
+	 * Complete the download a trace pushed by a server answers. Traces of
+	 * downloads already completed or timed out are ignored.
+	 *
+	 * @param trace
+	 */
+	void answer(Trace trace) {
+		CompletableFuture<Trace> result = pending.remove(trace.getRequestId());
+		if (result != null)
+			result.complete(trace);
+	}
+
+	/**
+	 * Complete a download whose file didn't change from the version cached,
+	 * with the cached copy. If the copy was evicted meanwhile, the file is
+	 * requested again without a version.
+	 *
+	 * @param trace
+	 * @param fileName
+	 * @param version
+	 *            : version the owner confirmed
+	 */
+	void notModified(Trace trace, String fileName, long version) {
+		if (cache.restore(fileName, version, new File(lookupDirectory + fileName))) {
+			answer(trace);
+			return;
+		}
+		CompletableFuture<Trace> result = pending.get(trace.getRequestId());
+		if (result == null)
+			return;
+		Request request = new Request();
+		request.setFileName(fileName);
+		request.setDestination(getPosition(fileName));
+		request.setRequestId(trace.getRequestId());
+		send(request, result);
+	}
+
+	/**
+	 * Write file data pushed whole by a server into the lookup directory.
+	 *
+	 * @param data
+	 * @param fileName
+	 * @return true if the file is stored
+	 */
+	boolean fileInsert(byte[] data, String fileName) {
+		try {
+			new File(lookupDirectory).mkdirs();
+			File file = new File(lookupDirectory + fileName);
+			Files.write(file.toPath(), data);
+			cache.store(fileName, file);
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Start or resume receiving a file sent by a server in chunks.
+	 *
+	 * @return offset the server continues from
+	 * @throws RemoteException
+	 */
+	long beginTransfer(String transferId, String fileName, long size) throws RemoteException {
+		try {
+			return transfers.begin(transferId, fileName, size);
+		} catch (IOException e) {
+			throw new RemoteException("Failed to start download of " + fileName, e);
+		}
+	}
+
+	/**
+	 * Write a chunk of a file being down-loaded.
+	 *
+	 * @return offset the server continues from
+	 * @throws RemoteException
+	 */
+	long writeChunk(String transferId, long offset, byte[] data) throws RemoteException {
+		try {
+			return transfers.write(transferId, offset, data);
+		} catch (IOException e) {
+			throw new RemoteException("Failed to write downloaded data", e);
+		}
+	}
+
+	/**
+	 * Move a completely down-loaded file into the lookup directory.
+	 *
+	 * @return true once the file is stored
+	 * @throws RemoteException
+	 */
+	boolean commitTransfer(String transferId) throws RemoteException {
+		try {
+			new File(lookupDirectory).mkdirs();
+			File file = transfers.complete(transferId, new File(lookupDirectory));
+			if (file != null)
+				cache.store(file.getName(), file);
+			return true;
+		} catch (IOException e) {
+			throw new RemoteException("Failed to store downloaded file", e);
+		}
+	}
+
+	/**
+	 * Return cache of the files downloaded.
+	 */
+	public ClientCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Return number of downloads waiting for their answer.
+	 */
+	public int getPending() {
+		return pending.size();
+	}
+
+	public String getHostName() {
+		try {
+			return InetAddress.getLocalHost().getHostName();
+		} catch (UnknownHostException e) {
+			return "localhost";
+		}
+	}
+
+	/**
+	 * Release the callback and fail downloads still waiting.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (callback != null)
+				transport.unexport(endpoint);
+			callback = null;
+		}
+		workers.shutdown();
+		for (CompletableFuture<Trace> result : pending.values())
+			result.completeExceptionally(new IOException("Client closed"));
+		pending.clear();
+	}
+}
@@ -5,18 +5,38 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
-import java.net.InetAddress;
-import java.net.MalformedURLException;
-import java.net.UnknownHostException;
 import java.nio.file.Files;
-import java.rmi.Naming;
-import java.rmi.NotBoundException;
+import java.nio.file.StandardCopyOption;
 import java.rmi.RemoteException;
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * 
@@ -33,21 +53,214 @@ public class ChordServer extends Thread implements Serializable {
 
 	private static final long serialVersionUID = 1L;
 	static final int PORT = 4040;
-	private HashSet<String> fileMap;
-	private boolean inChord;
+	private Set<String> fileMap;
+	private volatile boolean inChord;
 	private String lookupDirectory;
 	private int[] keyRange;
 	private int MAX_RANGE = 1000;
 
-	// entry server for chord network
-	private static String ENTRY_SERVER = "kansas.cs.rit.edu";
-	private String pServer;
-	private String sServer;
-	private static String domain = ".cs.rit.edu";
+	// key filter sizing, grown when more files are stored
+	static final int FILTER_KEYS = Integer.getInteger("chord.bloom.keys", 10000);
+	static final double FILTER_FPP = Double.parseDouble(System.getProperty("chord.bloom.fpp", "0.01"));
+
+	// a server hands keys to a neighbor only if it carries this many times
+	// the load of the neighbor, and at least this share more of their
+	// combined requests and bytes; after a boundary moves both servers wait
+	// some balancing periods before moving it again
+	static final double BALANCE_RATIO = 1.25;
+	static final double BALANCE_MIN_EXCESS = 0.1;
+	static final int BALANCE_COOLDOWN = 3;
+
+	// finger routing falls back to successors after this many hops, in case
+	// finger tables are too stale to make progress
+	static final int FINGER_HOP_LIMIT = 64;
+
+	// a finger getting at least this share of the progress of the best one
+	// is comparable to it, and the one with the lowest round trip time among
+	// comparable fingers is taken; 1 always takes the most progress
+	static final double PROXIMITY_PROGRESS = Double.parseDouble(System.getProperty("chord.proximity", "0.5"));
+
+	// servers measured after the owner of each finger position when choosing
+	// the nearest one as finger, 0 keeps the owners
+	static final int PROXIMITY_SAMPLES = Integer.getInteger("chord.proximity.samples", 4);
+
+	// time allowed for cluster queries started from the console
+	static final long QUERY_TIMEOUT = 5000;
+
+	// files rebuilt from fragments kept for the next reads
+	static final int REBUILT_FILES = 16;
+
+	// rounds of moving the files left when leaving, before the leave is
+	// given up
+	static final int LEAVE_ATTEMPTS = Integer.getInteger("chord.leave.attempts", 3);
+
+	// bytes of a file that transfers running at the same time share in
+	// memory once it is sent more than once at a time, a file sent once is
+	// streamed from disk, and larger files only share the chunk read at the
+	// same time
+	static final long SHARED_READ_MAX = Long.getLong("chord.read.shared", 64L * 1024 * 1024);
+
+	// shared by all servers of the JVM for periodic maintenance
+	private static final ScheduledExecutorService maintenance = Executors.newScheduledThreadPool(1, runnable -> {
+		Thread thread = new Thread(runnable, "chord-maintenance");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	// shared by all servers of the JVM to query children of a broadcast tree
+	// in parallel
+	private static final ExecutorService queryWorkers = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "chord-query");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	// shared by all servers of the JVM to apply the places of a bulk join in
+	// parallel
+	private static final ExecutorService joinWorkers = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "chord-join");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	// seeds of the chord network, the first one starts the network
+	private List<String> entryServers;
+	private volatile String pServer;
+	private volatile String sServer;
+	private NodeConfig config;
+	private String hostName;
+	private String nodeId;
+	private transient Transport transport;
+	private transient Metrics metrics;
+	private transient EventLog log;
+
+	// counting filter of files in the lookup directory, guarded by filterLock
+	// together with file deletion
+	private transient BloomFilter keyFilter;
+	private final transient Object filterLock = new Object();
+
+	// key filters shared by other servers, with the key range they cover
+	private transient Map<String, KeySummary> summaries;
+
+	// servers holding a copy of our key filter
+	private transient Set<String> summaryHolders;
+
+	// requests per key position since the last balancing round, decayed
+	// requests of earlier rounds and their total over the key range
+	private transient volatile Map<Integer, LongAdder> requestCounts;
+	private transient Map<Integer, Double> requestHistory;
+	private transient volatile double requestRate;
+	private transient volatile long lastRangeChange;
+
+	// guards the neighbors and key range, local or remote updates of them
+	// and reads of the key range as a pair; never held over remote calls,
+	// which may come back to this server on another thread
+	private final transient Object ringLock = new Object();
+	// serialize joins accepted, and bulk joins coordinated, by this server
+	private final transient Object joinLock = new Object();
+	private final transient Object bootstrapLock = new Object();
+	private transient ScheduledFuture<?> balancer;
+
+	// finger i is the owner of the position 2^i after the end of our key
+	// range, finger 0 the successor
+	private transient volatile NodeInfo[] fingers;
+	private transient ScheduledFuture<?> stabilizer;
+
+	// journal making inserts durable, null unless configured
+	private transient GroupCommit commitLog;
+
+	// files being received in chunks, see TransferInterface
+	private transient TransferStore transfers;
+
+	// round trip times to other servers, for proximity routing
+	private transient RttEstimator rtts;
+
+	// deadlines of calls to other servers and clients, and hedged reads
+	private transient AdaptiveCalls calls;
+
+	// endpoint of this server for other servers
+	private transient S2SInterface self;
+
+	// disk reads in flight, shared by concurrent requests for the same file
+	private transient SingleFlight<String, byte[]> reads;
+
+	// transfers running per version of a file sent
+	private transient ConcurrentHashMap<String, Integer> sending;
+
+	// erasure code, fragments held and files rebuilt from fragments, when
+	// files are stored erasure-coded
+	private transient ReedSolomon erasure;
+	private transient FragmentStore fragments;
+	private transient File rebuiltDirectory;
+	private transient Map<String, File> rebuilt;
+	private transient ScheduledFuture<?> repairer;
+
+	// names and content digests of the files stored, compared with the
+	// neighbors to find keys left on the wrong server
+	private transient MerkleTree merkle;
+	private transient ScheduledFuture<?> reconciler;
+	private transient ScheduledFuture<?> expirer;
+
+	// snapshot of the place of this server in the ring, for warm restarts
+	private transient File stateFile;
+
+	// key ranges of all servers in one-hop mode, null otherwise
+	private transient MembershipTable membership;
+	private transient ScheduledFuture<?> gossiper;
+
+	/**
+	 * Print partial results of a cluster query started from the console.
+	 */
+	private static class QueryProgress implements QueryListener {
+		@Override
+		public void partialResult(long queryId, QueryResult partial) {
+			System.out.println("Partial result : " + partial.getNodeCount() + " servers, " + partial.getKeyCount()
+					+ " keys, " + partial.getBytes() + " bytes");
+		}
+	}
+
+	/**
+	 * Key filter of another server and the key range it was shared for.
+	 */
+	private static class KeySummary {
+		final int start;
+		final int end;
+		final BloomFilter filter;
+
+		KeySummary(int start, int end, BloomFilter filter) {
+			this.start = start;
+			this.end = end;
+			this.filter = filter;
+		}
+	}
 
 	public ChordServer() {
-		pServer = getHostName() + domain;
-		sServer = getHostName() + domain;
+		this(new NodeConfig());
+	}
+
+	public ChordServer(NodeConfig config) {
+		this(config, Transport.newTransport(PORT));
+	}
+
+	/**
+	 * Create a server with the identity, port, entry servers and data
+	 * directory given by its configuration, used when several servers share
+	 * one machine or one JVM.
+	 * 
+	 * @param config
+	 *            : settings of this server instance
+	 * @param transport
+	 *            : transport used to reach other servers
+	 */
+	public ChordServer(NodeConfig config, Transport transport) {
+		this.config = config;
+		this.hostName = config.getHostName();
+		this.nodeId = config.getNodeId();
+		this.entryServers = config.getEntryServers();
+		this.MAX_RANGE = config.getKeySpace();
+
+		pServer = nodeId;
+		sServer = nodeId;
 
 		keyRange = new int[2];
 		keyRange[0] = 0;
@@ -55,9 +268,59 @@ public class ChordServer extends Thread implements Serializable {
 
 		inChord = false;
 
-		fileMap = new HashSet<String>();
-		lookupDirectory = System.getProperty("user.home") + "/Courses/chord/" + getHostName() + "/";
+		fileMap = ConcurrentHashMap.newKeySet();
+		lookupDirectory = config.getLookupDirectory();
+		this.transport = transport;
+
+		metrics = new Metrics();
+		metrics.gauge(Metrics.KEYS_STORED, () -> fileMap.size());
+		metrics.gauge(Metrics.LOG_DROPPED, EventLog::getDropped);
+		log = EventLog.forNode(nodeId);
+
+		// replay durable inserts a crash may have left out of the directory
+		// before looking at its files
+		if (config.isDurable()) {
+			try {
+				commitLog = new GroupCommit(new File(config.getJournalFile()), lookupDirectory,
+						config.getCommitBatch(), config.getCommitDelay(), metrics);
+			} catch (IOException e) {
+				log.error(0, "Failed to open journal {} : {}", config.getJournalFile(), e);
+				throw new IllegalStateException("Durable inserts unavailable", e);
+			}
+		}
 
+		transfers = new TransferStore(new File(config.getTransferDirectory()), config.isDurable());
+		stateFile = new File(config.getStateFile());
+		reads = new SingleFlight<String, byte[]>(metrics, Metrics.READS_COALESCED);
+		sending = new ConcurrentHashMap<String, Integer>();
+		rtts = new RttEstimator();
+		calls = new AdaptiveCalls(transport, metrics);
+		metrics.gauge(Metrics.READS_IN_FLIGHT, reads::size);
+		if (config.isOneHop()) {
+			membership = new MembershipTable(MAX_RANGE);
+			metrics.gauge(Metrics.MEMBERS, membership::size);
+		}
+		if (config.isErasureCoded())
+			openFragments();
+		// files an earlier run left in the lookup directory are served until
+		// the server knows which of them it owns
+		String[] stored = new File(lookupDirectory).list();
+		keyFilter = buildKeyFilter(FILTER_KEYS,
+				stored == null ? Collections.<String>emptyList() : Arrays.asList(stored));
+		merkle = buildMerkleTree();
+		summaries = new ConcurrentHashMap<String, KeySummary>();
+		summaryHolders = ConcurrentHashMap.newKeySet();
+
+		requestCounts = new ConcurrentHashMap<Integer, LongAdder>();
+		requestHistory = new HashMap<Integer, Double>();
+		metrics.gauge(Metrics.LOAD_REQUESTS, () -> (long) requestRate);
+		metrics.gauge(Metrics.LOAD_BYTES, this::storedBytes);
+		metrics.gauge(Metrics.BLOOM_FPP, () -> {
+			long positives = metrics.count(Metrics.BLOOM_FALSE_POSITIVES);
+			long lookups = positives + metrics.count(Metrics.BLOOM_NEGATIVES);
+			return lookups == 0 ? 0 : positives * 1000000 / lookups;
+		});
+		metrics.gauge(Metrics.BLOOM_FPP_ESTIMATED, () -> (long) (keyFilter.expectedFalsePositiveRate() * 1000000));
 	}
 
 	@Override
@@ -66,52 +329,179 @@ public class ChordServer extends Thread implements Serializable {
 	}
 
 	/**
-	 * This method is run through a thread, to start the server and register its
-	 * instance with RMI registry
+	 * This method is run through a thread, to start the server and export its
+	 * instances on the configured transport
 	 */
 	public void execServer() {
 
 		try {
-			// export rmi instance for Server to Client interaction
-			S2CInterface exportedObj = new S2CImplementation(this);
-
-			// export rmi instance for Server to Server interaction
-			S2SInterface serverInterface = new S2SImplementation(this);
-
-			// bind exported instanced on RMI registry
-			Registry registry = LocateRegistry.createRegistry(PORT);
-			registry.rebind("chord", exportedObj);
-			registry.rebind("server", serverInterface);
-
-			// if the server is itself entry point for chord, set its inChord
-			// flag true.
-			if (ENTRY_SERVER.equals(getHostName() + domain))
+			// start listening for connections on the configured transport
+			new File(lookupDirectory).mkdirs();
+			transport.listen(config.getNodeId());
+
+			// export instance for Server to Client interaction
+			transport.export(Transport.CHORD, new S2CImplementation(this), S2CInterface.class);
+
+			// export instance for Server to Server interaction
+			self = transport.export(Transport.SERVER, new S2SImplementation(this), S2SInterface.class);
+
+			// expose metrics of this server over JMX
+			metrics.register(nodeId);
+
+			// balance key ranges with the neighbors and refresh the finger
+			// table in the background
+			balancer = schedule(this::balance, config.getBalancePeriod(), "Key range balancing");
+			stabilizer = schedule(this::fixFingers, config.getStabilizePeriod(), "Finger table refresh");
+			expirer = schedule(transfers::expire, config.getStabilizePeriod(), "Transfer expiry");
+			if (erasure != null)
+				repairer = schedule(this::repairFragments, config.getStabilizePeriod(), "Fragment repair");
+			reconciler = schedule(this::antiEntropy, config.getStabilizePeriod(), "Anti-entropy");
+			if (membership != null)
+				gossiper = schedule(this::gossip, config.getGossipPeriod(), "Gossip");
+
+			// take the place of the last snapshot again if the neighbors still
+			// agree with it, without joining
+			restoreState();
+
+			// the first seed starts the chord network
+			if (!inChord && foundsRing())
 				inChord = true;
-			System.out.println("Server Name : " + getHostName());
+			System.out.println("Server Name : " + nodeId);
 			System.out.println("Lookup directory : " + lookupDirectory);
 
 		} catch (Exception exp) {
-			System.out.println("Exception @ Server: " + exp);
+			log.error(0, "Exception @ Server: {}", exp);
 		}
 	}
 
+	/**
+	 * Run a maintenance task of this server periodically.
+	 * 
+	 * @param task
+	 * @param period
+	 *            : seconds between two runs, 0 to never run it
+	 * @param name
+	 *            : name of the task in the event log
+	 * @return handle to cancel the task, null if not scheduled
+	 */
+	private ScheduledFuture<?> schedule(Runnable task, int period, String name) {
+		if (period <= 0)
+			return null;
+		return maintenance.scheduleWithFixedDelay(() -> {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				log.error(0, "{} failed : {}", name, e);
+			}
+		}, period, period, TimeUnit.SECONDS);
+	}
+
 	/**
 	 * Return host name for this server
 	 * 
 	 * @return host name of the current server.
 	 */
 	public String getHostName() {
-		try {
-			return InetAddress.getLocalHost().getHostName();
-		} catch (UnknownHostException e) {
-			e.printStackTrace();
+		return hostName;
+	}
+
+	/**
+	 * Return address other servers use to reach this server, host name with
+	 * domain and the port if it isn't the default one.
+	 * 
+	 * @return node id of the current server
+	 */
+	public String getNodeId() {
+		return nodeId;
+	}
+
+	/**
+	 * Check if this server is part of the chord network, it isn't before it
+	 * joins or after it leaves.
+	 * 
+	 * @return True if the server is in chord
+	 */
+	boolean isInChord() {
+		return inChord;
+	}
+
+	/**
+	 * Check if this server starts the chord network : the first seed does,
+	 * unless another seed is already in chord, as when the first seed starts
+	 * again after leaving. It is otherwise a server like the others.
+	 * 
+	 * @return true if the server starts the network
+	 */
+	private boolean foundsRing() {
+		if (entryServers.isEmpty() || !entryServers.get(0).equals(nodeId))
+			return false;
+		for (String seed : entryServers) {
+			if (seed.equals(nodeId))
+				continue;
+			try {
+				if (!transport.lookup(seed, Transport.CHORD, S2CInterface.class).getMembers().isEmpty()) {
+					log.info(0, "Seed {} is in chord, not starting another network", seed);
+					return false;
+				}
+			} catch (RemoteException e) {
+				// not started yet
+			}
 		}
-		return null;
+		return true;
+	}
+
+	/**
+	 * Return servers of the ring known to the current server : itself and
+	 * the servers of its finger table, for clients to learn where to send
+	 * their requests.
+	 * 
+	 * @return key ranges of the servers, empty if not in chord
+	 */
+	public ArrayList<NodeInfo> getMembers() {
+		ArrayList<NodeInfo> members = new ArrayList<NodeInfo>();
+		if (!inChord)
+			return members;
+
+		// in one-hop mode clients get the whole table, to send their requests
+		// straight to the owners
+		if (membership != null && membership.isFresh(staleAfter())) {
+			for (Member member : membership.live())
+				members.add(member.toNodeInfo());
+			return members;
+		}
+		members.add(getInfo());
+		NodeInfo[] table = fingers;
+		Set<String> known = new HashSet<String>();
+		known.add(nodeId);
+		if (table != null)
+			for (NodeInfo finger : table)
+				if (known.add(finger.getNodeId()))
+					members.add(finger);
+		return members;
+	}
+
+	/**
+	 * Return event log of this server.
+	 * 
+	 * @return event log
+	 */
+	public EventLog getLog() {
+		return log;
+	}
+
+	/**
+	 * Return metrics of this server.
+	 * 
+	 * @return metrics registry
+	 */
+	public Metrics getMetrics() {
+		return metrics;
 	}
 
 	/**
 	 * This method allows for a file to be inserted /down-loaded into default
-	 * lookup directory of a server.
+	 * lookup directory of a server. In durable mode the insert returns only
+	 * once its group commit is synced.
 	 * 
 	 * @param data
 	 *            : file data
@@ -120,579 +510,3232 @@ public class ChordServer extends Thread implements Serializable {
 	 * @return True if file insertion is successful, False otherwise
 	 */
 	public boolean fileInsert(byte[] data, String fileName) {
+		long start = System.nanoTime();
 		FileOutputStream fos;
 		try {
 			fos = new FileOutputStream(lookupDirectory + fileName);
 			fos.write(data);
 			fos.close();
-			System.out.println(fileName + " : new file inserted.");
-			fileMap.add(fileName);
+			if (commitLog != null)
+				commitLog.commit(fileName, data);
+			fileStored(fileName, data.length, start);
 			return true;
 		} catch (IOException e) {
-			System.out.println("Failed to read input file.");
-			e.printStackTrace();
+			log.error(0, "Failed to write file {} : {}", fileName, e);
 		}
 		return false;
 	}
 
+	private void fileStored(String fileName, long bytes, long start) {
+		log.info(0, "{} : new file inserted.", fileName);
+		fileMap.add(fileName);
+		addToKeyFilter(fileName);
+		try {
+			merkle.put(fileName, getPosition(fileName), MerkleTree.digest(new File(lookupDirectory + fileName)));
+		} catch (IOException e) {
+			log.warn(0, "Failed to digest {} : {}", fileName, e);
+		}
+		if (erasure != null)
+			spreadFragments(fileName);
+		metrics.add(Metrics.BYTES_IN, bytes);
+		metrics.time(Metrics.INSERT, start);
+	}
+
 	/**
-	 * Check if a file exists in default lookup directory of a server.
+	 * This method is used to start receiving a file in chunks, or to resume
+	 * receiving it from the last checkpoint.
 	 * 
+	 * @param transferId
 	 * @param fileName
-	 *            : file being searched
-	 * @return File instance if file is found.
+	 * @param size
+	 * @return offset the sender continues from
+	 * @throws RemoteException
 	 */
-	public File getFile(String fileName) {
-		File file = new File(lookupDirectory + fileName);
-		if (file.exists())
-			return file;
-		else
-			return null;
+	public long beginTransfer(String transferId, String fileName, long size) throws RemoteException {
+		try {
+			long offset = transfers.begin(transferId, fileName, size);
+			if (offset > 0 && offset == size)
+				log.info(0, "Transfer of {} already committed", fileName);
+			else if (offset > 0)
+				log.info(0, "Resuming transfer of {} at {} of {} bytes", fileName, offset, size);
+			return offset;
+		} catch (IOException e) {
+			log.error(0, "Failed to start transfer of {} : {}", fileName, e);
+			throw new RemoteException("Failed to start transfer of " + fileName, e);
+		}
 	}
 
 	/**
-	 * Utility function to read a requested file from default lookup directory
-	 * on a server
+	 * This method is used to receive a chunk of a file.
 	 * 
-	 * @param file
-	 *            : file to be read
-	 * @return bytes of file data
-	 * @throws FileNotFoundException
+	 * @param transferId
+	 * @param offset
+	 * @param data
+	 * @return offset the sender continues from
+	 * @throws RemoteException
 	 */
-	private byte[] readFile(File file) throws FileNotFoundException {
-		if (!file.exists())
-			throw new FileNotFoundException();
-
-		byte buffer[] = new byte[(int) file.length()];
+	public long writeChunk(String transferId, long offset, byte[] data) throws RemoteException {
 		try {
-			BufferedInputStream input = new BufferedInputStream(new FileInputStream(file.getPath()));
-			input.read(buffer, 0, buffer.length);
-			input.close();
-		} catch (Exception exp) {
-			exp.printStackTrace();
+			return transfers.write(transferId, offset, data);
+		} catch (IOException e) {
+			log.error(0, "Failed to write chunk of transfer {} : {}", transferId, e);
+			throw new RemoteException("Failed to write chunk of transfer " + transferId, e);
 		}
-		return (buffer);
 	}
 
 	/**
-	 * This method is used to send a file to the client who requested it.
+	 * This method is used to store a file received in chunks in the lookup
+	 * directory of the server. The chunks are already synced, so in durable
+	 * mode only the directory entry is synced, and the file journaled as
+	 * stored so that a replay doesn't write an earlier insert over it.
 	 * 
-	 * @param file
-	 *            : file to be sent
-	 * @param request
-	 *            : request packet
-	 * @param trace
-	 *            : trace data for this request
+	 * @param transferId
+	 * @return True once the file is stored
+	 * @throws RemoteException
+	 *             if the file isn't completely received
 	 */
-	public void sendFile(File file, Request request, Trace trace) {
-
-		ClientInterface client = request.getClient();
-		S2SInterface server = request.getServer();
+	public boolean commitTransfer(String transferId) throws RemoteException {
+		long start = System.nanoTime();
+		String fileName = transfers.getFileName(transferId);
 		try {
-			// check if this is a file download request from client
-			if (client != null) {
-				// read file from server directory and send it to client
-				byte[] buffer = readFile(file);
-				trace.addToTrace(getHostName());
-				trace.setStatus(true);
-
-				// send file data along with whole trace of this request
-				client.pushFile(buffer, trace.getTrace(), file.getName());
-			}
-			// check if this is a file search request from another server
-			else if (server != null) {
-				trace.addToTrace(getHostName());
-				trace.setStatus(true);
-
-				// push the trace of file search to the requesting server
-				server.pushMessage(trace.getTrace());
-			}
-
-		} catch (Exception e) {
-			System.out.println("File read & transfer error.");
-			try {
-				// just send the trace to the client
-				if (client != null)
-					client.pushTrace(trace.getTrace());
-			} catch (RemoteException e1) {
-				System.out.println("Lost connection with client. Exiting.");
-				return;
+			File file = transfers.complete(transferId, new File(lookupDirectory));
+			if (file == null)
+				return true;
+			if (commitLog != null) {
+				GroupCommit.syncDirectory(new File(lookupDirectory));
+				commitLog.stored(file.getName());
 			}
-			return;
+			fileStored(file.getName(), file.length(), start);
+			return true;
+		} catch (IOException e) {
+			log.error(0, "Failed to commit transfer of {} : {}", fileName, e);
+			throw new RemoteException("Failed to commit transfer of " + fileName, e);
 		}
 	}
 
 	/**
-	 * If a file being requested from this server is not found, then forward
-	 * request to another parent server.
+	 * This method is used to return block checksums of a file stored on the
+	 * current server, so that a new version can be sent as its changes.
 	 * 
-	 * @param request
-	 * @param trace
-	 * @return
+	 * @param fileName
+	 * @return signature, null if the file isn't stored whole here
 	 */
-	public boolean forwardRequest(Request request, Trace trace) {
-		trace.addToTrace(getHostName());
+	public FileSignature getSignature(String fileName) {
+		File file = new File(lookupDirectory + fileName);
+		if (!inKeyMap(getPosition(fileName)) || !file.exists() || file.length() > DeltaSync.MAX_SIZE)
+			return null;
 		try {
-			S2SInterface server = getConnectionToServer(sServer);
-			System.out.println("Forwarding " + request.getFileName() + " search request to server: " + sServer);
-			return server.forwardRequest(request, trace);
-
-		} catch (RemoteException e) {
-			System.out.println("@" + getHostName() + ": Failure connecting to -" + sServer);
-			e.printStackTrace();
+			return DeltaSync.signature(fileName, readFile(file));
+		} catch (FileNotFoundException e) {
+			return null;
 		}
-
-		return false;
 	}
 
 	/**
-	 * This method is used by a server in chord to redirect the file insertion
-	 * request to its Successor server
+	 * This method is used to store a new version of a file from the changes
+	 * to the copy on the current server.
 	 * 
-	 * @param data
-	 * @param fileName
-	 * @param destination
+	 * @param delta
+	 * @return True once the new version is stored
+	 * @throws RemoteException
+	 *             if the copy changed since its signature was taken, the
+	 *             sender then sends the whole file
 	 */
-	public void forwardFileInsert(byte[] data, String fileName, int destination) {
+	public boolean applyDelta(FileDelta delta) throws RemoteException {
+		String fileName = delta.getFileName();
+		File file = new File(lookupDirectory + fileName);
 		try {
-			System.out.println("Forwarding file insert request :" + sServer);
-			S2SInterface server = getConnectionToServer(sServer);
-
-			// forward all details and data to successor node
-			server.insertFile(data, fileName, destination);
-		} catch (RemoteException e) {
-			System.out.println("Forwarding file insert request : Failed to connect - " + sServer);
-			e.printStackTrace();
+			byte[] data = DeltaSync.apply(readFile(file), delta);
+			if (!fileInsert(data, fileName))
+				return false;
+			metrics.increment(Metrics.DELTA_SYNCS);
+			metrics.add(Metrics.DELTA_SAVED, Math.max(0, data.length - delta.getWireBytes()));
+			log.debug(0, "{} rebuilt from {} of {} bytes sent", fileName, delta.getLiteralBytes(), data.length);
+			return true;
+		} catch (IOException e) {
+			log.warn(0, "Failed to apply delta of {} : {}", fileName, e);
+			throw new RemoteException("Failed to apply delta of " + fileName, e);
 		}
 	}
 
 	/**
-	 * Program execution starts with creating new instance of the ChordServer
-	 * and displaying the appropriate options on server for either joining a
-	 * Chord Distributed network, exiting from Chord, View information on server
-	 * or to upload or download a file onto network.
+	 * Send a file to a server holding an older copy as its changes, or in
+	 * resumable chunks if the server has none.
 	 * 
-	 * @param args
+	 * @param server
+	 * @param file
+	 * @return number of bytes sent
+	 * @throws IOException
 	 */
-	public static void main(String[] args) {
-		Scanner scr = new Scanner(System.in);
-		ChordServer server = new ChordServer();
+	private long syncFile(S2SInterface server, File file) throws IOException {
+		long sent = DeltaSync.send(server, file, file.getName(), metrics);
+		if (sent < 0)
+			return transferFile(server, file);
+		metrics.add(Metrics.BYTES_OUT, sent);
+		return sent;
+	}
 
-		// start execution thread
-		server.start();
+	/**
+	 * Send a file to a server in resumable chunks.
+	 * 
+	 * @param target
+	 * @param file
+	 * @return number of bytes sent
+	 * @throws IOException
+	 */
+	private long transferFile(TransferInterface target, File file) throws IOException {
+		return transferFile(target, FileTransfer.transferId(nodeId, file), file);
+	}
+
+	/**
+	 * Send a file to a server or client in resumable chunks.
+	 * 
+	 * @param target
+	 * @param transferId
+	 * @param file
+	 * @return number of bytes sent
+	 * @throws IOException
+	 */
+	private long transferFile(TransferInterface target, String transferId, File file) throws IOException {
+		long size = file.length();
+		String key = file.getPath() + ":" + file.lastModified() + ":" + size;
+		long bytes;
+		boolean shared = sending.merge(key, 1, Integer::sum) > 1 && size <= SHARED_READ_MAX;
 		try {
-			Thread.sleep(1500);
-		} catch (InterruptedException e) {
+			if (!shared) {
+				bytes = FileTransfer.send(target, transferId, file, file.getName(), metrics,
+						(offset, length) -> readChunk(file, offset, length));
+			} else {
+				// transfers joining one of the same version of a file, like
+				// downloads of a file that became popular, share one read
+				byte[] data = reads.acquire(key, () -> FileTransfer.readChunk(file, 0, (int) size));
+				try {
+					bytes = FileTransfer.send(target, transferId, file, file.getName(), metrics,
+							(offset, length) -> Arrays.copyOfRange(data, (int) offset, (int) offset + length));
+				} finally {
+					reads.release(key);
+				}
+			}
+		} finally {
+			sending.computeIfPresent(key, (k, count) -> count == 1 ? null : count - 1);
 		}
-		int option = 0;
-
-		// display options and take appropriate action on input
-		while (option != 5) {
-			System.out.print("Options:\n\t1. ");
-			if (!server.inChord)
-				System.out.println("Join Chord");
-			else
-				System.out.println("Exit Chord");
+		metrics.add(Metrics.BYTES_OUT, bytes);
+		return bytes;
+	}
 
-			System.out.println("\n\t2. View Server Information");
-			System.out.println("\n\t3. Upload file");
-			System.out.println("\n\t4. Search file");
-			System.out.println("\n\t5. Exit Server");
-			option = scr.nextInt();
+	/**
+	 * Check if a file exists in default lookup directory of a server. The key
+	 * filter is checked first, so that the disk is only touched for files
+	 * that may be stored here.
+	 * 
+	 * @param fileName
+	 *            : file being searched
+	 * @return File instance if file is found.
+	 */
+	public File getFile(String fileName) {
+		requestCounts.computeIfAbsent(getPosition(fileName), position -> new LongAdder()).increment();
+		if (!keyFilter.mightContain(fileName)) {
+			metrics.increment(Metrics.BLOOM_NEGATIVES);
+			return null;
+		}
+		File file = new File(lookupDirectory + fileName);
+		if (file.exists())
+			return file;
+		if (erasure != null && fileMap.contains(fileName))
+			return rebuild(fileName);
+		metrics.increment(Metrics.BLOOM_FALSE_POSITIVES);
+		return null;
+	}
 
-			if (option == 1) {
-				if (!server.inChord) {
-					server.enterNetwork();
-				} else {
-					server.exitNetwork();
-				}
+	/**
+	 * Open the fragments held by this server and the code they are encoded
+	 * with. Files rebuilt for earlier reads are dropped, they may be stale.
+	 */
+	private void openFragments() {
+		erasure = new ReedSolomon(config.getDataFragments(), config.getParityFragments());
+		fragments = new FragmentStore(new File(config.getFragmentDirectory()));
+		rebuiltDirectory = new File(config.getFragmentDirectory(), "rebuilt");
+		rebuiltDirectory.mkdirs();
+		File[] stale = rebuiltDirectory.listFiles();
+		if (stale != null)
+			for (File file : stale)
+				file.delete();
+		rebuilt = Collections.synchronizedMap(new LinkedHashMap<String, File>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, File> eldest) {
+				if (size() <= REBUILT_FILES)
+					return false;
+				eldest.getValue().delete();
+				return true;
 			}
+		});
+		metrics.gauge(Metrics.FRAGMENTS_STORED, () -> fragments.names().size());
+	}
 
-			if (option == 2)
-				server.viewInfo();
+	/**
+	 * Return number of fragments each file is stored as.
+	 */
+	private int fragmentCount() {
+		return erasure.getDataFragments() + erasure.getParityFragments();
+	}
 
-			if (option == 3 || option == 4) {
-				System.out.print("Enter file name.. \t");
-				if (option == 3)
-					server.uploadFile(scr.next());
-				else
-					server.searchFile(scr.next());
+	/**
+	 * This method is used to list the servers holding the fragments of the
+	 * files a server owns : the server itself and its successors, one per
+	 * fragment. In a ring of fewer servers than fragments the servers repeat.
+	 * 
+	 * @param owner
+	 * @param count
+	 *            : number of fragments
+	 * @param partial
+	 *            : true to return the servers found before an unreachable
+	 *            one, enough for reads
+	 * @return node ids, fragment i is held by the server at i
+	 * @throws RemoteException
+	 *             if a successor can't be found
+	 */
+	private List<String> fragmentChain(NodeInfo owner, int count, boolean partial) throws RemoteException {
+		List<String> chain = new ArrayList<String>();
+		NodeInfo node = owner;
+		while (chain.size() < count) {
+			if (!chain.isEmpty() && node.getNodeId().equals(owner.getNodeId())) {
+				for (int i = 0; chain.size() < count; i++)
+					chain.add(chain.get(i));
+				break;
+			}
+			chain.add(node.getNodeId());
+			if (chain.size() == count)
+				break;
+			try {
+				node = findOwner((node.getEnd() + 1) % (MAX_RANGE + 1), 0);
+			} catch (RemoteException e) {
+				if (!partial)
+					throw e;
+				log.warn(0, "Fragment chain of {} cut after {} : {}", owner.getNodeId(), node.getNodeId(), e);
+				break;
 			}
 		}
+		return chain;
+	}
 
-		if (server.inChord)
-			server.exitNetwork();
+	private List<String> fragmentChain(NodeInfo owner, int count) throws RemoteException {
+		return fragmentChain(owner, count, false);
+	}
 
-		System.out.println("Server shutting down");
-		// System.exit(0);
-		scr.close();
+	private S2SInterface fragmentHolder(String peer) throws RemoteException {
+		S2SInterface server = getConnectionToServer(peer);
+		if (server == null)
+			throw new RemoteException("Server unreachable : " + peer);
+		return server;
 	}
 
 	/**
-	 * This method is used by a server to search a file on the network, a file
-	 * search request is first send to the successor of the current server.
-	 * Also, the server checks if the file being searched is present on
-	 * localhost.
+	 * Encode a file stored on the current server and store its fragments on
+	 * the current server and its successors, in parallel. The whole file is
+	 * deleted once all fragments are stored, else it is kept and encoded
+	 * again by the next repair.
 	 * 
 	 * @param fileName
 	 */
-	private void searchFile(String fileName) {
-
-		// check if file exist on localhost
+	private void spreadFragments(String fileName) {
+		long start = System.nanoTime();
 		File file = new File(lookupDirectory + fileName);
-		if (file.exists()) {
+		try {
+			byte[] data = Files.readAllBytes(file.toPath());
+			byte[][] shards = erasure.encode(data);
+			List<String> chain = fragmentChain(getInfo(), shards.length);
+			List<CompletableFuture<Void>> stores = new ArrayList<CompletableFuture<Void>>();
+			for (int i = 0; i < shards.length; i++) {
+				Fragment fragment = new Fragment(fileName, i, erasure.getDataFragments(),
+						erasure.getParityFragments(), data.length, file.lastModified(), shards[i]);
+				String peer = chain.get(i);
+				stores.add(CompletableFuture.runAsync(() -> {
+					try {
+						fragmentHolder(peer).storeFragment(fragment);
+					} catch (RemoteException e) {
+						metrics.peerError(peer);
+						throw new IllegalStateException("Fragment not stored on " + peer, e);
+					}
+				}, queryWorkers));
+			}
+			CompletableFuture.allOf(stores.toArray(new CompletableFuture<?>[0])).get(QUERY_TIMEOUT,
+					TimeUnit.MILLISECONDS);
+		} catch (Exception e) {
+			log.warn(0, "Failed to spread fragments of {}, whole file kept : {}", fileName, e);
+			return;
+		}
+
+		// the fragments replace the whole file
+		try {
+			merkle.remove(fileName, getPosition(fileName));
+			if (Files.deleteIfExists(file.toPath()) && commitLog != null)
+				commitLog.delete(fileName);
+		} catch (IOException e) {
+			log.warn(0, "Failed to delete {} after encoding : {}", fileName, e);
+		}
+		dropRebuilt(fileName);
+		log.debug(0, "{} stored as {} fragments in {} us", fileName, fragmentCount(),
+				(System.nanoTime() - start) / 1000);
+	}
+
+	/**
+	 * Gather fragments of a file from servers, in parallel, until enough of
+	 * its newest version arrived to decode it.
+	 * 
+	 * @param fileName
+	 * @param peers
+	 * @return fragments of the newest version by index, null if fewer than
+	 *         needed are found
+	 */
+	private Fragment[] gatherFragments(String fileName, Collection<String> peers) {
+		CompletionService<Fragment[]> completion = new ExecutorCompletionService<Fragment[]>(queryWorkers);
+		int pending = 0;
+		for (String peer : peers) {
+			completion.submit(() -> fragmentHolder(peer).getFragments(fileName));
+			pending++;
+		}
+
+		TreeMap<Long, Fragment[]> versions = new TreeMap<Long, Fragment[]>();
+		long deadline = System.currentTimeMillis() + QUERY_TIMEOUT;
+		for (; pending > 0; pending--) {
+			Future<Fragment[]> done = null;
+			try {
+				long wait = deadline - System.currentTimeMillis();
+				if (wait > 0)
+					done = completion.poll(wait, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (done == null)
+				break;
+			try {
+				for (Fragment fragment : done.get())
+					if (fragment.isIntact() && fragment.getIndex() < fragmentCount())
+						versions.computeIfAbsent(fragment.getModified(),
+								version -> new Fragment[fragmentCount()])[fragment.getIndex()] = fragment;
+			} catch (ExecutionException e) {
+				log.debug(0, "Fragments of {} unavailable on a server : {}", fileName, e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			// the newest version decides, older ones are left by earlier
+			// inserts of the same file
+			if (!versions.isEmpty() && decodable(versions.lastEntry().getValue()))
+				return versions.lastEntry().getValue();
+		}
+		for (Fragment[] version : versions.descendingMap().values())
+			if (decodable(version))
+				return version;
+		return null;
+	}
+
+	private boolean decodable(Fragment[] version) {
+		int count = 0;
+		for (Fragment fragment : version)
+			if (fragment != null)
+				count++;
+		return count >= erasure.getDataFragments();
+	}
+
+	/**
+	 * Decode a file from its fragments.
+	 */
+	private byte[] decode(Fragment[] version) {
+		byte[][] shards = new byte[version.length][];
+		int length = 0;
+		for (Fragment fragment : version) {
+			if (fragment == null)
+				continue;
+			shards[fragment.getIndex()] = fragment.getData();
+			length = fragment.getLength();
+		}
+		return erasure.decode(shards, length);
+	}
+
+	/**
+	 * This method is used to rebuild an erasure-coded file owned by the
+	 * current server from any k of its fragments, fetched in parallel from
+	 * the servers holding them. Rebuilt files are kept for the next reads,
+	 * concurrent reads share one rebuild.
+	 * 
+	 * @param fileName
+	 * @return rebuilt file, null if too few fragments are found
+	 */
+	private File rebuild(String fileName) {
+		File file = new File(rebuiltDirectory, fileName);
+		if (rebuilt.get(fileName) != null && file.exists())
+			return file;
+
+		long start = System.nanoTime();
+		try {
+			reads.get(file.getPath() + ":rebuild", () -> {
+				// fragments moved by a change of the ring may be one server
+				// further, the chain is searched twice as far when needed
+				List<String> chain = fragmentChain(getInfo(), fragmentCount(), true);
+				Fragment[] version = gatherFragments(fileName, new LinkedHashSet<String>(chain));
+				if (version == null) {
+					Set<String> further = new LinkedHashSet<String>(
+							fragmentChain(getInfo(), 2 * fragmentCount(), true));
+					further.addAll(chain);
+					version = gatherFragments(fileName, further);
+				}
+				if (version == null)
+					throw new IOException("Fewer than " + erasure.getDataFragments() + " fragments found");
+
+				byte[] data = decode(version);
+				File temporary = new File(rebuiltDirectory, fileName + ".tmp");
+				Files.write(temporary.toPath(), data);
+				for (Fragment fragment : version)
+					if (fragment != null) {
+						temporary.setLastModified(fragment.getModified());
+						break;
+					}
+				Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				rebuilt.put(fileName, file);
+				return data;
+			});
+		} catch (IOException e) {
+			log.warn(0, "Failed to rebuild {} : {}", fileName, e);
+			metrics.increment(Metrics.FRAGMENTS_LOST);
+			return null;
+		}
+		metrics.time(Metrics.REBUILD, start);
+		return file;
+	}
+
+	private void dropRebuilt(String fileName) {
+		File file = rebuilt.remove(fileName);
+		if (file != null)
+			file.delete();
+	}
+
+	/**
+	 * This method is used to place the fragments of an erasure-coded file on
+	 * the servers of its chain, one distinct fragment per server of the
+	 * chain. Fragments already on the chain stay, missing ones are moved from
+	 * servers that dropped out of the chain, or computed again from the other
+	 * fragments when no server holds them anymore. Fragments outside the
+	 * chain are deleted only once all are placed.
+	 * 
+	 * @param fileName
+	 * @param chain
+	 *            : servers that should hold the fragments
+	 * @param window
+	 *            : servers that may hold them, the chain included
+	 * @throws IOException
+	 *             if a fragment can't be placed
+	 */
+	private void placeFragments(String fileName, List<String> chain, Set<String> window) throws IOException {
+		long version = fragments.getVersion(fileName);
+		Map<String, int[]> held = new LinkedHashMap<String, int[]>();
+		for (String peer : window) {
+			try {
+				held.put(peer, fragmentHolder(peer).heldFragments(fileName, version));
+			} catch (RemoteException e) {
+				metrics.peerError(peer);
+			}
+		}
+
+		// keep one distinct fragment per slot of the chain where it is held
+		Map<String, Integer> slots = new LinkedHashMap<String, Integer>();
+		for (String peer : chain)
+			slots.merge(peer, 1, Integer::sum);
+		Map<String, Set<Integer>> kept = new HashMap<String, Set<Integer>>();
+		boolean[] placed = new boolean[fragmentCount()];
+		for (Map.Entry<String, Integer> slot : slots.entrySet()) {
+			Set<Integer> keep = new HashSet<Integer>();
+			for (int index : held.getOrDefault(slot.getKey(), new int[0]))
+				if (index < placed.length && !placed[index] && keep.size() < slot.getValue()) {
+					keep.add(index);
+					placed[index] = true;
+				}
+			kept.put(slot.getKey(), keep);
+		}
+
+		// fill the empty slots
+		Fragment[] regenerated = null;
+		for (Map.Entry<String, Integer> slot : slots.entrySet()) {
+			Set<Integer> keep = kept.get(slot.getKey());
+			while (keep.size() < slot.getValue()) {
+				int index = 0;
+				while (placed[index])
+					index++;
+				Fragment fragment = fetchFragment(fileName, index, held);
+				if (fragment != null) {
+					metrics.increment(Metrics.FRAGMENTS_MOVED);
+				} else {
+					if (regenerated == null)
+						regenerated = regenerate(fileName, held.keySet());
+					fragment = regenerated[index];
+					metrics.increment(Metrics.FRAGMENTS_REGENERATED);
+				}
+				fragmentHolder(slot.getKey()).storeFragment(fragment);
+				keep.add(index);
+				placed[index] = true;
+			}
+		}
+
+		for (Map.Entry<String, int[]> holder : held.entrySet()) {
+			Set<Integer> keep = kept.getOrDefault(holder.getKey(), Collections.<Integer> emptySet());
+			for (int index : holder.getValue())
+				if (!keep.contains(index))
+					fragmentHolder(holder.getKey()).dropFragment(fileName, index);
+		}
+	}
+
+	/**
+	 * Fetch a fragment from one of the servers holding it.
+	 * 
+	 * @return fragment, null if no server holding it can be reached
+	 */
+	private Fragment fetchFragment(String fileName, int index, Map<String, int[]> held) {
+		for (Map.Entry<String, int[]> holder : held.entrySet()) {
+			for (int candidate : holder.getValue()) {
+				if (candidate != index)
+					continue;
+				try {
+					for (Fragment fragment : fragmentHolder(holder.getKey()).getFragments(fileName))
+						if (fragment.getIndex() == index && fragment.isIntact())
+							return fragment;
+				} catch (RemoteException e) {
+					metrics.peerError(holder.getKey());
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Compute all fragments of a file again from the fragments left.
+	 * 
+	 * @throws IOException
+	 *             if fewer fragments than needed are left
+	 */
+	private Fragment[] regenerate(String fileName, Collection<String> peers) throws IOException {
+		Fragment[] version = gatherFragments(fileName, peers);
+		if (version == null) {
+			metrics.increment(Metrics.FRAGMENTS_LOST);
+			throw new IOException("Fewer than " + erasure.getDataFragments() + " fragments left of " + fileName);
+		}
+		byte[][] shards = erasure.encode(decode(version));
+		Fragment sample = null;
+		for (Fragment fragment : version)
+			if (fragment != null)
+				sample = fragment;
+		Fragment[] all = new Fragment[shards.length];
+		for (int i = 0; i < shards.length; i++)
+			all[i] = version[i] != null ? version[i] : sample.withData(i, shards[i]);
+		return all;
+	}
+
+	/**
+	 * Place the fragments of an erasure-coded file after the server taking
+	 * it over, before the key range moves.
+	 * 
+	 * @param fileName
+	 * @param server
+	 *            : new owner
+	 * @throws IOException
+	 */
+	private void followOwner(String fileName, S2SInterface server) throws IOException {
+		NodeInfo owner = server.getInfo();
+		List<String> chain = fragmentChain(owner, fragmentCount());
+		Set<String> window = new LinkedHashSet<String>(fragmentChain(owner, fragmentCount() + 1));
+		window.add(nodeId);
+		placeFragments(fileName, chain, window);
+	}
+
+	/**
+	 * Hand all fragments held to the successor, before leaving the chord
+	 * network. The successor adopts those of files in its new key range.
+	 */
+	private void handOverFragments(S2SInterface server) throws RemoteException {
+		int count = 0;
+		for (String name : new ArrayList<String>(fragments.names())) {
+			for (Fragment fragment : fragments.get(name)) {
+				server.storeFragment(fragment);
+				fragments.drop(name, fragment.getIndex());
+				count++;
+			}
+		}
+		metrics.add(Metrics.FRAGMENTS_MOVED, count);
+		log.info(0, "{} fragments handed over to {}", count, sServer);
+	}
+
+	/**
+	 * Own the erasure-coded files held here whose position is in the key
+	 * range of the current server, and place their fragments after it.
+	 */
+	private void adoptFragments() {
+		Set<String> adopted = new HashSet<String>();
+		for (String name : fragments.names())
+			if (inKeyMap(getPosition(name)) && fileMap.add(name)) {
+				addToKeyFilter(name);
+				adopted.add(name);
+			}
+		if (!adopted.isEmpty())
+			queryWorkers.execute(() -> repairFragments(adopted));
+	}
+
+	/**
+	 * This method is used to run one round of fragment repair on the files
+	 * owned by the current server : files not yet encoded are spread, and
+	 * fragments of the others are placed again on the chain after changes of
+	 * the ring.
+	 */
+	void repairFragments() {
+		if (inChord)
+			repairFragments(new HashSet<String>(fileMap));
+	}
+
+	private void repairFragments(Set<String> names) {
+		for (String name : names) {
+			if (!fileMap.contains(name))
+				continue;
+			if (new File(lookupDirectory + name).exists()) {
+				spreadFragments(name);
+				continue;
+			}
+			try {
+				List<String> chain = fragmentChain(getInfo(), fragmentCount());
+				placeFragments(name, chain, new LinkedHashSet<String>(fragmentChain(getInfo(), fragmentCount() + 1)));
+			} catch (IOException e) {
+				log.warn(0, "Failed to repair fragments of {} : {}", name, e);
+			}
+		}
+	}
+
+	/**
+	 * Return indices of the fragments of a file held here.
+	 * 
+	 * @param fileName
+	 * @param version
+	 *            : version of the file asked for, -1 for any; older
+	 *            fragments held are deleted
+	 * @return indices, empty if none of that version is held
+	 */
+	public int[] heldFragments(String fileName, long version) {
+		if (fragments == null)
+			return new int[0];
+		fragments.dropOlder(fileName, version);
+		if (version >= 0 && fragments.getVersion(fileName) != version)
+			return new int[0];
+		return fragments.getIndices(fileName);
+	}
+
+	/**
+	 * Return all fragments of a file held here.
+	 * 
+	 * @param fileName
+	 * @return fragments
+	 */
+	public Fragment[] getFragments(String fileName) {
+		if (fragments == null)
+			return new Fragment[0];
+		return fragments.get(fileName).toArray(new Fragment[0]);
+	}
+
+	/**
+	 * This method is used to store a fragment of an erasure-coded file. The
+	 * file is owned from then on if it lies in the key range.
+	 * 
+	 * @param fragment
+	 * @throws RemoteException
+	 */
+	public void storeFragment(Fragment fragment) throws RemoteException {
+		if (fragments == null)
+			throw new RemoteException(nodeId + " doesn't store erasure-coded files");
+		String name = fragment.getFileName();
+		try {
+			long version = fragments.getVersion(name);
+			if (fragments.store(fragment) && version < fragment.getModified())
+				dropRebuilt(name);
+		} catch (IOException e) {
+			log.error(0, "Failed to store fragment {} of {} : {}", fragment.getIndex(), name, e);
+			throw new RemoteException("Failed to store fragment of " + name, e);
+		}
+		metrics.add(Metrics.BYTES_IN, fragment.getData().length);
+		if (inKeyMap(getPosition(name)) && fileMap.add(name))
+			addToKeyFilter(name);
+	}
+
+	/**
+	 * Delete a fragment of a file held here.
+	 * 
+	 * @param fileName
+	 * @param index
+	 */
+	public void dropFragment(String fileName, int index) {
+		if (fragments != null)
+			fragments.drop(fileName, index);
+	}
+
+	/**
+	 * Build a key filter of the files owned, whole or erasure-coded, and of
+	 * the fragments held for other servers.
+	 * 
+	 * @param capacity
+	 *            : number of files the filter is sized for
+	 * @param others
+	 *            : other files to add
+	 * @return counting filter
+	 */
+	private BloomFilter buildKeyFilter(int capacity, Collection<String> others) {
+		Set<String> names = new HashSet<String>(fileMap);
+		if (fragments != null)
+			names.addAll(fragments.names());
+		names.addAll(others);
+		BloomFilter filter = new BloomFilter(Math.max(capacity, 2 * names.size()), FILTER_FPP);
+		for (String name : names)
+			filter.add(name);
+		return filter;
+	}
+
+	/**
+	 * Build the Merkle tree of all files in the lookup directory.
+	 * 
+	 * @return tree of names and content digests
+	 */
+	private MerkleTree buildMerkleTree() {
+		MerkleTree tree = new MerkleTree(MAX_RANGE + 1);
+		File[] files = new File(lookupDirectory).listFiles();
+		if (files != null)
+			for (File file : files) {
+				try {
+					if (file.isFile())
+						tree.put(file.getName(), getPosition(file.getName()), MerkleTree.digest(file));
+				} catch (IOException e) {
+					log.warn(0, "Failed to digest {} : {}", file.getName(), e);
+				}
+			}
+		return tree;
+	}
+
+	/**
+	 * This method is used to run one round of anti-entropy with the
+	 * predecessor and the successor, the servers keys of the current key
+	 * range are left on when a move fails or is interrupted by a crash.
+	 */
+	void antiEntropy() {
+		if (!inChord || sServer.equals(nodeId))
+			return;
+		Set<String> peers = new LinkedHashSet<String>();
+		peers.add(pServer);
+		peers.add(sServer);
+		peers.remove(nodeId);
+		for (String peer : peers)
+			reconcile(peer);
+	}
+
+	/**
+	 * This method is used to take over the files of the key range of the
+	 * current server held by another server. The Merkle trees of both servers
+	 * are compared top-down over the key range, one call per level. Files
+	 * have a single owner, so the tree of the other server should be empty
+	 * over the key range : a node is descended only where it isn't, and the
+	 * calls and hashes exchanged grow with the number of misplaced files, not
+	 * with the files stored. At the leaves the digests of both servers are
+	 * compared : files the other server holds and the current server lacks,
+	 * or holds an older copy of, are handed over; its other copies are
+	 * deleted.
+	 * 
+	 * @param peer
+	 * @return number of files handed over
+	 */
+	int reconcile(String peer) {
+		long begin = System.nanoTime();
+		S2SInterface server = getConnectionToServer(peer);
+		if (server == null)
+			return 0;
+		int[] range = range();
+		int start = range[0];
+		int end = range[1];
+		int compared = 0;
+		int handed = 0;
+		try {
+			List<Integer> frontier = new ArrayList<Integer>();
+			frontier.add(0);
+			List<Integer> leaves = new ArrayList<Integer>();
+			for (int level = 0; level <= merkle.getDepth() && !frontier.isEmpty(); level++) {
+
+				// nodes inside the key range are compared, nodes across its
+				// boundary hold keys of other ranges and are always descended
+				List<Integer> inside = new ArrayList<Integer>();
+				List<Integer> differing = new ArrayList<Integer>();
+				for (int index : frontier) {
+					int first = merkle.start(level, index);
+					int last = merkle.end(level, index);
+					if (last < start || first > end || first > last)
+						continue;
+					if (first >= start && last <= end)
+						inside.add(index);
+					else
+						differing.add(index);
+				}
+				if (!inside.isEmpty()) {
+					int[] indices = inside.stream().mapToInt(Integer::intValue).toArray();
+					long[] theirs = server.merkleHashes(level, indices);
+					compared += indices.length;
+					for (int i = 0; i < indices.length; i++)
+						if (theirs[i] != 0)
+							differing.add(indices[i]);
+				}
+
+				if (level == merkle.getDepth()) {
+					leaves = differing;
+					break;
+				}
+				frontier = new ArrayList<Integer>();
+				for (int index : differing)
+					for (int child = 0; child < MerkleTree.FANOUT; child++)
+						frontier.add(index * MerkleTree.FANOUT + child);
+			}
+
+			// the current server owns the key range, the other server's copy
+			// is kept only if it is newer
+			Map<String, Long> theirs = leaves.isEmpty() ? new HashMap<String, Long>()
+					: server.merkleKeys(leaves.stream().mapToInt(Integer::intValue).toArray());
+			HashMap<String, Long> wanted = new HashMap<String, Long>();
+			for (Map.Entry<String, Long> key : theirs.entrySet()) {
+				int position = getPosition(key.getKey());
+				if (!inKeyMap(position))
+					continue;
+				Long ours = merkle.digest(key.getKey(), position);
+				if (ours == null)
+					wanted.put(key.getKey(), -1L);
+				else if (!ours.equals(key.getValue()))
+					wanted.put(key.getKey(), new File(lookupDirectory + key.getKey()).lastModified());
+				else
+					wanted.put(key.getKey(), Long.MAX_VALUE);
+			}
+			if (!wanted.isEmpty())
+				handed = server.handOverKeys(nodeId, wanted);
+		} catch (RemoteException e) {
+			log.warn(0, "Anti-entropy with {} failed : {}", peer, e);
+			metrics.peerError(peer);
+		}
+		metrics.add(Metrics.SYNC_HASHES, compared);
+		metrics.add(Metrics.SYNC_KEYS, handed);
+		metrics.time(Metrics.SYNC, begin);
+		if (handed > 0)
+			log.info(0, "{} files of key range {} - {} taken over from {}", handed, start, end, peer);
+		return handed;
+	}
+
+	/**
+	 * Return hashes of nodes of one level of the Merkle tree.
+	 * 
+	 * @param level
+	 * @param indices
+	 * @return hash of each node
+	 */
+	public long[] merkleHashes(int level, int[] indices) {
+		return merkle.hashes(level, indices);
+	}
+
+	/**
+	 * Return names and content digests of the files at some positions.
+	 * 
+	 * @param positions
+	 * @return digest by name
+	 */
+	public HashMap<String, Long> merkleKeys(int[] positions) {
+		return merkle.keys(positions);
+	}
+
+	/**
+	 * This method is used to hand files outside the key range of the current
+	 * server to their owner. A file is sent only if it is newer than the
+	 * copy of the owner; it is deleted here either way.
+	 * 
+	 * @param owner
+	 *            : node id of the owner
+	 * @param modified
+	 *            : modification time of the owner's copy of each file, -1
+	 *            if the owner has none
+	 * @return number of files sent
+	 * @throws RemoteException
+	 *             if the owner can't be reached
+	 */
+	public int handOverKeys(String owner, Map<String, Long> modified) throws RemoteException {
+		S2SInterface server = getConnectionToServer(owner);
+		if (server == null)
+			throw new RemoteException("Server unreachable : " + owner);
+		int count = 0;
+		for (Map.Entry<String, Long> key : modified.entrySet()) {
+			String name = key.getKey();
+			File file = new File(lookupDirectory + name);
+			if (inKeyMap(getPosition(name)) || !file.exists())
+				continue;
+			try {
+				if (file.lastModified() > key.getValue()) {
+					if (key.getValue() >= 0)
+						syncFile(server, file);
+					else
+						transferFile(server, file);
+					count++;
+				}
+				releaseFile(name);
+			} catch (RemoteException e) {
+				throw e;
+			} catch (IOException e) {
+				log.warn(0, "Failed to hand {} over to {} : {}", name, owner, e);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Add a stored file to the key filter and to the copies shared with other
+	 * servers. The copies are updated before the insert completes, so that
+	 * another server never answers a miss for a file stored here.
+	 * 
+	 * @param fileName
+	 */
+	private void addToKeyFilter(String fileName) {
+		boolean grown = false;
+		synchronized (filterLock) {
+			keyFilter.add(fileName);
+			if (keyFilter.size() > keyFilter.getCapacity()) {
+				keyFilter = buildKeyFilter(2 * keyFilter.getCapacity(), Collections.singleton(fileName));
+				grown = true;
+			}
+		}
+		if (grown) {
+			publishSummary();
+			return;
+		}
+		for (String peer : summaryHolders) {
+			S2SInterface server = getConnectionToServer(peer);
+			try {
+				if (server != null) {
+					long begin = transport.clockMicros();
+					server.addSummaryKey(nodeId, fileName);
+					recordRtt(peer, begin);
+				}
+			} catch (RemoteException e) {
+				log.warn(0, "Failed to share key {} with {} : {}", fileName, peer, e);
+				metrics.peerError(peer);
+			}
+		}
+	}
+
+	/**
+	 * Return servers the key filter is shared with : predecessor and
+	 * successor. Requests start on any server, so seeds get no copy of every
+	 * filter.
+	 */
+	private Set<String> summaryPeers() {
+		Set<String> peers = new LinkedHashSet<String>();
+		peers.add(pServer);
+		peers.add(sServer);
+		peers.remove(nodeId);
+		return peers;
+	}
+
+	/**
+	 * Share a copy of the key filter and the current key range with
+	 * neighboring servers, done whenever the key range or a
+	 * neighbor changes. Servers that are no longer neighbors stop receiving
+	 * new keys, so their copy is withdrawn.
+	 */
+	void publishSummary() {
+		Set<String> peers = summaryPeers();
+		for (String holder : summaryHolders)
+			if (!peers.contains(holder))
+				shareSummary(holder, null);
+		BloomFilter summary = keyFilter.summary();
+		for (String peer : peers)
+			shareSummary(peer, summary);
+	}
+
+	/**
+	 * Withdraw the key filter from all servers holding it, when leaving chord.
+	 */
+	private void withdrawSummary() {
+		for (String holder : summaryHolders)
+			shareSummary(holder, null);
+	}
+
+	private void shareSummary(String peer, BloomFilter summary) {
+		S2SInterface server = getConnectionToServer(peer);
+		try {
+			if (server != null) {
+				long begin = transport.clockMicros();
+				int[] range = range();
+				server.pushSummary(nodeId, range[0], range[1], summary);
+				recordRtt(peer, begin);
+				if (summary != null)
+					summaryHolders.add(peer);
+				else
+					summaryHolders.remove(peer);
+			}
+		} catch (RemoteException e) {
+			log.warn(0, "Failed to share key filter with {} : {}", peer, e);
+			metrics.peerError(peer);
+		}
+	}
+
+	/**
+	 * This method is used to store the key filter shared by another server.
+	 * 
+	 * @param server
+	 *            : node id of the server
+	 * @param start
+	 *            : start of its key range
+	 * @param end
+	 *            : end of its key range
+	 * @param summary
+	 *            : its key filter, null if it left chord
+	 */
+	public void receiveSummary(String server, int start, int end, BloomFilter summary) {
+		if (summary == null || server.equals(nodeId))
+			summaries.remove(server);
+		else
+			summaries.put(server, new KeySummary(start, end, summary));
+	}
+
+	/**
+	 * This method is used to add a new file to the key filter shared by
+	 * another server.
+	 * 
+	 * @param server
+	 * @param fileName
+	 */
+	public void receiveSummaryKey(String server, String fileName) {
+		KeySummary summary = summaries.get(server);
+		if (summary != null)
+			summary.filter.add(fileName);
+	}
+
+	/**
+	 * Check the key filters shared by other servers for a file. A file is
+	 * known to be missing only if at least one filter covers its position and
+	 * none of the filters covering it may contain it.
+	 * 
+	 * @param fileName
+	 * @param position
+	 *            : position of the file in the key space
+	 * @return true if the file is definitely not stored on chord
+	 */
+	public boolean isKnownMiss(String fileName, int position) {
+		boolean covered = false;
+		for (KeySummary summary : summaries.values()) {
+			if (position < summary.start || position > summary.end)
+				continue;
+			if (summary.filter.mightContain(fileName))
+				return false;
+			covered = true;
+		}
+		if (covered)
+			metrics.increment(Metrics.BLOOM_EARLY_MISSES);
+		return covered;
+	}
+
+	/**
+	 * This method is used to answer a request for a file that is not stored on
+	 * chord, the trace is pushed to the client or server that asked for it.
+	 * 
+	 * @param request
+	 * @param trace
+	 * @throws RemoteException
+	 */
+	public void sendMiss(Request request, Trace trace) throws RemoteException {
+		metrics.increment(Metrics.LOOKUP_MISS);
+		metrics.histogram(Metrics.HOPS).record(trace.getHopCount());
+		trace.setRequestId(request.getRequestId());
+		trace.depart(getHostName(), Trace.Action.MISS);
+		if (request.getClient() != null)
+			request.getClient().pushTrace(trace);
+		else if (request.getServer() != null)
+			request.getServer().pushTrace(trace);
+	}
+
+	/**
+	 * Utility function to read a requested file from default lookup directory
+	 * on a server
+	 * 
+	 * @param file
+	 *            : file to be read
+	 * @return bytes of file data
+	 * @throws FileNotFoundException
+	 */
+	byte[] readFile(File file) throws FileNotFoundException {
+		if (!file.exists())
+			throw new FileNotFoundException();
+
+		try {
+			// concurrent reads of the same file share one disk read and buffer
+			return reads.get(file.getPath() + ":all", () -> {
+				byte buffer[] = new byte[(int) file.length()];
+				try (BufferedInputStream input = new BufferedInputStream(new FileInputStream(file.getPath()))) {
+					input.read(buffer, 0, buffer.length);
+				}
+				return buffer;
+			});
+		} catch (FileNotFoundException e) {
+			throw e;
+		} catch (IOException exp) {
+			log.error(0, "Failed to read file {} : {}", file.getName(), exp);
+		}
+		return new byte[0];
+	}
+
+	/**
+	 * Read a chunk of a file streamed from disk. Transfers of the same file
+	 * running in step share one disk read and buffer per chunk.
+	 * 
+	 * @param file
+	 * @param offset
+	 * @param length
+	 * @return chunk data
+	 * @throws IOException
+	 */
+	private byte[] readChunk(File file, long offset, int length) throws IOException {
+		return reads.get(file.getPath() + ":" + offset + ":" + length,
+				() -> FileTransfer.readChunk(file, offset, length));
+	}
+
+	/**
+	 * This method is used to send a file to the client who requested it.
+	 * 
+	 * @param file
+	 *            : file to be sent
+	 * @param request
+	 *            : request packet
+	 * @param trace
+	 *            : trace data for this request
+	 */
+	public void sendFile(File file, Request request, Trace trace) {
+
+		long start = System.nanoTime();
+		metrics.histogram(Metrics.HOPS).record(trace.getHopCount());
+		trace.setRequestId(request.getRequestId());
+		ClientInterface client = request.getClient();
+		S2SInterface server = request.getServer();
+
+		// a client that stopped answering, or a server waiting for its trace,
+		// must not hold this server forever; callbacks share the latencies of
+		// all clients, so that they aren't kept per callback
+		if (client != null)
+			client = calls.withDeadlines(client, ClientInterface.class, "client");
+		if (server != null)
+			server = calls.withDeadlines(server, S2SInterface.class, "requester");
+		try {
+			// a client holding the current version only gets told so
+			if (client != null && request.isConditional() && request.getVersion() == version(file)) {
+				trace.setStatus(true);
+				trace.depart(getHostName(), Trace.Action.NOT_MODIFIED);
+				client.pushNotModified(trace, request.getFileName(), request.getVersion());
+				metrics.increment(Metrics.NOT_MODIFIED);
+				metrics.add(Metrics.NOT_MODIFIED_SAVED, file.length());
+				metrics.time(Metrics.DOWNLOAD, start);
+			}
+			// check if this is a file download request from client
+			else if (client != null) {
+				// send file from server directory to client in chunks, a
+				// download interrupted earlier resumes where it stopped
+				// downloads of the same file by one client run apart
+				transferFile(client, FileTransfer.transferId(nodeId, file, request.getRequestId()), file);
+				trace.setStatus(true);
+				trace.depart(getHostName(), Trace.Action.HIT);
+
+				// send whole trace of this request
+				client.pushTrace(trace);
+				metrics.time(Metrics.DOWNLOAD, start);
+			}
+			// check if this is a file search request from another server
+			else if (server != null) {
+				trace.setStatus(true);
+				trace.depart(getHostName(), Trace.Action.HIT);
+
+				// push the trace of file search to the requesting server
+				server.pushTrace(trace);
+			}
+
+		} catch (Exception e) {
+			log.warn(request.getRequestId(), "File read & transfer error : {}", e);
+			if (e instanceof RemoteException)
+				metrics.peerError(client != null ? "client" : "server");
+			try {
+				// just send the trace to the client
+				trace.setStatus(false);
+				trace.depart(getHostName(), Trace.Action.ERROR);
+				if (client != null)
+					client.pushTrace(trace);
+			} catch (RemoteException e1) {
+				log.warn(request.getRequestId(), "Lost connection with client.");
+				return;
+			}
+			return;
+		}
+	}
+
+	/**
+	 * Return version of a file stored, the digest of its content kept in the
+	 * Merkle tree, or computed for files rebuilt from fragments.
+	 * 
+	 * @param file
+	 * @return digest of the file content
+	 * @throws IOException
+	 */
+	private long version(File file) throws IOException {
+		Long digest = merkle.digest(file.getName(), getPosition(file.getName()));
+		return digest != null ? digest : MerkleTree.digest(file);
+	}
+
+	/**
+	 * If a file being requested from this server is not found, then forward
+	 * request to another parent server.
+	 * 
+	 * @param request
+	 * @param trace
+	 * @return
+	 */
+	public boolean forwardRequest(Request request, Trace trace) {
+		long start = System.nanoTime();
+		trace.depart(getHostName(), Trace.Action.FORWARD);
+
+		// go through the finger table, falling back to the successor if the
+		// finger can't be reached
+		String next = nextHop(request.getDestination(), trace.getHopCount());
+		try {
+			S2SInterface server = getConnectionToServer(next);
+			if (server != null) {
+				log.info(request.getRequestId(), "Forwarding {} search request to server: {}",
+						request.getFileName(), next);
+				return server.forwardRequest(request, trace);
+			}
+		} catch (RemoteException e) {
+			log.warn(request.getRequestId(), "Failure connecting to {} : {}", next, e);
+			metrics.peerError(next);
+			if (next.equals(sServer))
+				return false;
+			dropFinger(next);
+		} finally {
+			metrics.time(Metrics.FORWARD, start);
+		}
+		if (next.equals(sServer))
+			return false;
+
+		try {
+			S2SInterface server = getConnectionToServer(sServer);
+			log.info(request.getRequestId(), "Forwarding {} search request to server: {}", request.getFileName(),
+					sServer);
+			return server != null && server.forwardRequest(request, trace);
+
+		} catch (RemoteException e) {
+			log.warn(request.getRequestId(), "Failure connecting to {} : {}", sServer, e);
+			metrics.peerError(sServer);
+		}
+
+		return false;
+	}
+
+	/**
+	 * This method is used by a server in chord to redirect the file insertion
+	 * request to its Successor server
+	 * 
+	 * @param data
+	 * @param fileName
+	 * @param destination
+	 */
+	public void forwardFileInsert(byte[] data, String fileName, int destination) {
+		try {
+			log.info(0, "Forwarding file insert request for {} : {}", fileName, sServer);
+			S2SInterface server = getConnectionToServer(sServer);
+
+			// forward all details and data to successor node
+			server.insertFile(data, fileName, destination);
+			metrics.add(Metrics.BYTES_OUT, data.length);
+		} catch (RemoteException e) {
+			log.warn(0, "Forwarding file insert request : Failed to connect - {} : {}", sServer, e);
+			metrics.peerError(sServer);
+		}
+	}
+
+	/**
+	 * Program execution starts with creating new instance of the ChordServer
+	 * and displaying the appropriate options on server for either joining a
+	 * Chord Distributed network, exiting from Chord, View information on server
+	 * or to upload or download a file onto network.
+	 * 
+	 * @param args
+	 *            : name=value settings of this instance, see {@link NodeConfig}
+	 */
+	public static void main(String[] args) {
+		Scanner scr = new Scanner(System.in);
+		ChordServer server = new ChordServer(NodeConfig.fromArgs(args));
+
+		// start execution thread
+		server.start();
+		try {
+			Thread.sleep(1500);
+		} catch (InterruptedException e) {
+		}
+		int option = 0;
+
+		// display options and take appropriate action on input
+		while (option != 5) {
+			System.out.print("Options:\n\t1. ");
+			if (!server.inChord)
+				System.out.println("Join Chord");
+			else
+				System.out.println("Exit Chord");
+
+			System.out.println("\n\t2. View Server Information");
+			System.out.println("\n\t3. Upload file");
+			System.out.println("\n\t4. Search file");
+			System.out.println("\n\t5. Exit Server");
+			System.out.println("\n\t6. Cluster statistics");
+			System.out.println("\n\t7. List files on cluster");
+			option = scr.nextInt();
+
+			if (option == 1) {
+				if (!server.inChord) {
+					server.enterNetwork();
+				} else {
+					server.exitNetwork();
+				}
+			}
+
+			if (option == 2)
+				server.viewInfo();
+
+			if (option == 6)
+				server.queryCluster(null);
+
+			if (option == 7) {
+				System.out.print("Enter file name prefix.. \t");
+				server.queryCluster(scr.next());
+			}
+
+			if (option == 3 || option == 4) {
+				System.out.print("Enter file name.. \t");
+				if (option == 3)
+					server.uploadFile(scr.next());
+				else
+					server.searchFile(scr.next());
+			}
+		}
+
+		if (server.inChord)
+			server.exitNetwork();
+
+		System.out.println("Server shutting down");
+		server.shutdown();
+		// System.exit(0);
+		scr.close();
+	}
+
+	/**
+	 * Stop the maintenance tasks of the server, close its journal and stop
+	 * accepting connections.
+	 */
+	void shutdown() {
+		if (balancer != null)
+			balancer.cancel(false);
+		if (stabilizer != null)
+			stabilizer.cancel(false);
+		if (repairer != null)
+			repairer.cancel(false);
+		if (reconciler != null)
+			reconciler.cancel(false);
+		if (gossiper != null)
+			gossiper.cancel(false);
+		if (expirer != null)
+			expirer.cancel(false);
+		saveState();
+		if (commitLog != null)
+			commitLog.close();
+		EventLog.flush();
+		metrics.unregister();
+		transport.shutdown();
+	}
+
+	/**
+	 * Save a snapshot of the place of the current server in the ring, done
+	 * when it changes and with every finger table refresh.
+	 */
+	void saveState() {
+		if (!inChord)
+			return;
+		NodeState state;
+		synchronized (ringLock) {
+			state = new NodeState(nodeId, MAX_RANGE, keyRange[0], keyRange[1], pServer, sServer, fingers, fileMap);
+		}
+		synchronized (stateFile) {
+			try {
+				state.write(stateFile);
+			} catch (IOException e) {
+				log.warn(0, "Failed to save node state : {}", e);
+			}
+		}
+	}
+
+	/**
+	 * This method is used on start to take the place of the last snapshot of
+	 * the current server again. The snapshot is still valid if the
+	 * predecessor's key range ends right before ours and the successor's
+	 * starts right after it, with the current server as its predecessor :
+	 * then no server took over the key range meanwhile, and the files on disk
+	 * are still ours. Files of the index no longer on disk are dropped, files
+	 * on disk in the key range but missing from it, stored after the snapshot,
+	 * are added.
+	 * 
+	 * @return true if the server is back in chord
+	 */
+	boolean restoreState() {
+		NodeState state = NodeState.read(stateFile);
+		if (state == null)
+			return false;
+		long start = System.nanoTime();
+		if (!state.getNodeId().equals(nodeId) || state.getKeySpace() != MAX_RANGE || !neighborsAgree(state)) {
+			log.info(0, "Node state saved {} is stale, joining again", state.getSaved());
+			metrics.increment(Metrics.RESTORE_STALE);
+			synchronized (stateFile) {
+				stateFile.delete();
+			}
+			return false;
+		}
+
+		synchronized (ringLock) {
+			keyRange[0] = state.getStart();
+			keyRange[1] = state.getEnd();
+			pServer = state.getPredecessor();
+			sServer = state.getSuccessor();
+			fingers = state.getFingers();
+		}
+		for (String name : state.getFiles())
+			if (inKeyMap(getPosition(name)) && (erasure != null || new File(lookupDirectory + name).exists())
+					&& fileMap.add(name))
+				addToKeyFilter(name);
+		String[] stored = new File(lookupDirectory).list();
+		if (stored != null)
+			for (String name : stored)
+				if (inKeyMap(getPosition(name)))
+					fileMap.add(name);
+		inChord = true;
+		publishSummary();
+
+		metrics.increment(Metrics.RESTORED);
+		metrics.time(Metrics.RESTORE, start);
+		log.info(0, "Restored key range {} - {} between {} and {} with {} files", keyRange[0], keyRange[1], pServer,
+				sServer, fileMap.size());
+		return true;
+	}
+
+	/**
+	 * Check with the neighbors of a snapshot that the key range it holds is
+	 * still ours.
+	 */
+	private boolean neighborsAgree(NodeState state) {
+		if (state.getPredecessor().equals(nodeId) && state.getSuccessor().equals(nodeId))
+			return true;
+		int ring = MAX_RANGE + 1;
+		try {
+			S2SInterface successor = getConnectionToServer(state.getSuccessor());
+			S2SInterface predecessor = getConnectionToServer(state.getPredecessor());
+			if (successor == null || predecessor == null)
+				return false;
+			LoadReport next = successor.getLoad();
+			NodeInfo previous = predecessor.getInfo();
+			return next.getPredecessor().equals(nodeId) && next.getStart() == (state.getEnd() + 1) % ring
+					&& previous.getEnd() == (state.getStart() - 1 + ring) % ring;
+		} catch (RemoteException e) {
+			log.warn(0, "Failed to check node state with the neighbors : {}", e);
+			return false;
+		}
+	}
+
+	/**
+	 * This method is used by a server to search a file on the network, a file
+	 * search request is first send to the successor of the current server.
+	 * Also, the server checks if the file being searched is present on
+	 * localhost.
+	 * 
+	 * @param fileName
+	 */
+	private void searchFile(String fileName) {
+
+		// check if file exist on localhost
+		File file = new File(lookupDirectory + fileName);
+		if (file.exists()) {
 			System.out.println("File found at localhost");
 			return;
 		}
 
-		// check if there are no other servers in chord network.
-		if (sServer.equals(getHostName() + domain))
+		// check if there are no other servers in chord network.
+		if (sServer.equals(nodeId))
+			return;
+
+		// check if the key filters shared by other servers rule out the file
+		if (isKnownMiss(fileName, getPosition(fileName))) {
+			System.out.println("File not Found");
+			return;
+		}
+
+		// create a new file search request packet and forward to successor
+		// server
+		long start = System.nanoTime();
+		Request packet = new Request();
+		packet.setFileName(fileName);
+		packet.setDestination(getPosition(fileName));
+		try {
+			// traces come back through the endpoint exported for other
+			// servers, instead of a callback exported per search
+			packet.setServer(self);
+			S2SInterface server = getConnectionToServer(sServer);
+			server.forwardRequest(packet, null);
+			metrics.time(Metrics.LOOKUP, start);
+		} catch (RemoteException e) {
+			log.warn(packet.getRequestId(), "Failed to connect : {} : {}", sServer, e);
+			metrics.peerError(sServer);
+		}
+	}
+
+	/**
+	 * ViewMessage method is used for message passing. The current server can
+	 * receive messages from another servers.
+	 * 
+	 * @param message
+	 */
+	public void viewMessage(String message) {
+		System.out.println(message);
+	}
+
+	/**
+	 * This method is used by a server on chord distributed system to upload a
+	 * file from its directory onto the network and it is saved at its right
+	 * destination server.
+	 * 
+	 * @param fileName
+	 */
+	private void uploadFile(String fileName) {
+
+		if (sServer.equals(nodeId))
+			return;
+
+		int dest = getPosition(fileName);
+		File file = new File(lookupDirectory + fileName);
+		String owner = sServer;
+		try {
+			// send file data straight to the server owning it, only the
+			// changes if it holds an older copy
+			owner = findOwner(dest, 0).getNodeId();
+			log.info(0, "Inserting file {} - owner @{}", fileName, owner);
+			S2SInterface server = getConnectionToServer(owner);
+			syncFile(server, file);
+
+			// delete the uploaded file from local directory
+			fileMap.remove(fileName);
+			deleteFile(file);
+
+		} catch (FileNotFoundException e) {
+			System.out.println("Error : File not found.");
+		} catch (IOException e) {
+			System.out.println("Error : Failed to upload file, run upload again to resume.");
+			log.warn(0, "Failed to insert {} on {} : {}", fileName, owner, e);
+		}
+	}
+
+	/**
+	 * This method is used to display all the information of the current server,
+	 * details include the host name, predecessor and successor nodes, and all
+	 * the files stored on this server.
+	 */
+	private void viewInfo() {
+
+		System.out.println("***SERVER INFORMATION***");
+		System.out.println("Hostname : " + getHostName());
+		System.out.println("Connected servers:");
+		System.out.println("\tPredecessor : " + pServer);
+		System.out.println("\tSuccessor : " + sServer);
+		int[] range = range();
+		System.out.println("\tKey range : " + range[0] + " - " + range[1]);
+		System.out.println("\tKey filters : " + summaries.keySet());
+		System.out.println("\tRound trip times (us) : " + rtts.snapshot());
+
+		int count = 0;
+		System.out.println("\nFiles:");
+		Iterator<String> itr = fileMap.iterator();
+		while (itr.hasNext()) {
+			System.out.println("\t" + ++count + ". " + itr.next());
+		}
+
+		System.out.println("\nMetrics:");
+		System.out.print(metrics.dump());
+
+		System.out.println("*************************\n");
+	}
+
+	/**
+	 * This method is used by a server to exit from a chord distributed network.
+	 * The server leaving from the network is responsible for sending all its
+	 * files on its successor server and also notify/ update both its successor
+	 * and predecessors details. Key ranges don't wrap around the end of the
+	 * key space, so the server owning its end hands its range and files to its
+	 * predecessor instead. If some files can't be moved, the server stays in
+	 * the network with them.
+	 * 
+	 * @return true once the server left
+	 */
+	boolean exitNetwork() {
+
+		if (!inChord || pServer.equals(nodeId) || sServer.equals(nodeId))
+			return false;
+
+		int[] range = range();
+		boolean last = range[1] == MAX_RANGE;
+
+		// move files to the server taking over the key range, the files that
+		// failed are sent again
+		String heir = last ? pServer : sServer;
+		int left = moveFilesToServer(heir, true);
+		for (int attempt = 1; left > 0 && attempt < LEAVE_ATTEMPTS; attempt++)
+			left = moveFilesToServer(heir, true);
+		if (left > 0) {
+			log.error(0, "Leave given up, {} files could not be moved to {}", left, heir);
+			return false;
+		}
+
+		// connect to predecessor and update its successor
+		// update predecessor -> successor = current -> successor
+		S2SInterface server = getConnectionToServer(pServer);
+		log.info(0, "Updating values on: {}", pServer);
+		try {
+			if (last) {
+				// the predecessor keeps its own predecessor, unless it is
+				// left alone
+				String previous = server.getLoad().getPredecessor();
+				server.updatePredecessor(previous.equals(nodeId) ? pServer : previous, -1, MAX_RANGE);
+			}
+			server.updateSuccessor(sServer);
+
+			// connect to successor server and update its predecessor, and range
+			// value
+			server = getConnectionToServer(sServer);
+			log.info(0, "Updating values on: {}", sServer);
+			server.updatePredecessor(pServer, last ? -1 : range[0], -1);
+
+			// other servers must no longer answer misses from our key filter
+			withdrawSummary();
+
+			// neighbors spread the news the server left to the other tables
+			announceLeave();
+
+			// reset predecessor and successor nodes to self, the server no
+			// longer has a place to restart in
+			inChord = false;
+			pServer = nodeId;
+			sServer = nodeId;
+			synchronized (stateFile) {
+				stateFile.delete();
+			}
+			return true;
+		} catch (RemoteException e) {
+			log.error(0, "Failed to leave chord : {}", e);
+			return false;
+		}
+	}
+
+	/**
+	 * While leaving a chord distributed network or while accepting a new server
+	 * as its predecessor, the current server moves some or all of its files
+	 * onto its adjacent servers in the network.
+	 * 
+	 * @param serverName
+	 * @param allFiles
+	 * @return number of files that couldn't be moved
+	 */
+	public int moveFilesToServer(String serverName, boolean allFiles) {
+
+		// if not all files has to be copied, fetch files with hash-code less
+		// than key range start
+		Set<String> files = allFiles ? new HashSet<String>(fileMap) : filesBelowRange();
+		return files.size() - moveFiles(serverName, files, allFiles);
+	}
+
+	/**
+	 * Move files of the current server onto another server.
+	 * 
+	 * @param serverName
+	 * @param files
+	 *            : names of the files to move
+	 * @param allFiles
+	 *            : true if the current server is leaving
+	 * @return number of files moved
+	 */
+	private int moveFiles(String serverName, Set<String> files, boolean allFiles) {
+		long start = System.nanoTime();
+		int count = 0;
+		try {
+			S2SInterface server = getConnectionToServer(serverName);
+			if (server == null)
+				throw new RemoteException(serverName + " unreachable");
+
+			// a server leaving hands all fragments it holds to its successor
+			if (allFiles && fragments != null)
+				handOverFragments(server);
+
+			for (String name : files) {
+
+				// fragments of an erasure-coded file stay on the successors,
+				// they are only placed again after the new owner
+				File file = new File(lookupDirectory + name);
+				if (erasure != null && !file.exists()) {
+					if (!allFiles)
+						followOwner(name, server);
+					releaseFile(name);
+					count++;
+					continue;
+				}
+
+				// send each file in resumable chunks to the required server
+				try {
+					transferFile(server, file);
+				} catch (FileNotFoundException e) {
+					log.warn(0, "Replication skipped {}, file not found.", name);
+				}
+
+				// delete this file from the current server only once the
+				// other server stored it
+				fileMap.remove(name);
+				deleteFile(file);
+				metrics.increment(Metrics.MIGRATED_FILES);
+				count++;
+			}
+
+			log.info(0, "{} files copied to Server : {}", count, serverName);
+			metrics.time(Metrics.MIGRATION, start);
+
+		} catch (Exception e) {
+			if (e instanceof RemoteException)
+				metrics.peerError(serverName);
+			log.error(0, "Replication to {} failed after {} of {} files, the rest is kept : {}", serverName, count,
+					files.size(), e);
+		}
+		return count;
+	}
+
+	/**
+	 * Return names of all files on the current server whose position lies
+	 * before the start of its key range.
+	 * 
+	 * @return file names
+	 */
+	HashSet<String> filesBelowRange() {
+		HashSet<String> files = new HashSet<String>();
+		for (String file : fileMap)
+			if (getPosition(file) < keyRange[0])
+				files.add(file);
+		return files;
+	}
+
+	/**
+	 * Return position of a file or server name in the chord key space.
+	 * 
+	 * @param name
+	 * @return position between 0 and key space size
+	 */
+	int getPosition(String name) {
+		return Math.abs(name.hashCode() % MAX_RANGE);
+	}
+
+	/**
+	 * This method is used to delete a file from the local directory of current
+	 * server
+	 * 
+	 * @param file
+	 */
+	private void deleteFile(File file) {
+		try {
+			synchronized (filterLock) {
+				if (Files.deleteIfExists(file.toPath())) {
+					keyFilter.remove(file.getName());
+					merkle.remove(file.getName(), getPosition(file.getName()));
+					if (commitLog != null)
+						commitLog.delete(file.getName());
+				}
+			}
+		} catch (IOException e) {
+			log.error(0, "Error : File to be deleted not found : {}", e);
+		}
+	}
+
+	/**
+	 * This method is used to raise request for joining the chord distributed
+	 * network. The current server is added to the chord network at its correct
+	 * position based upon its hash value. Seeds are tried in random order, so
+	 * that joins are spread over them, and the seed reached only finds the
+	 * server owning the position, which the request is then sent to directly.
+	 * 
+	 */
+	void enterNetwork() {
+
+		// create a new add request packet and send it to the owner of its
+		// position, found through the first seed that can be reached.
+		AddRequest addReq = joinRequest();
+		List<String> seeds = new ArrayList<String>(entryServers);
+		Collections.shuffle(seeds);
+		for (String entry : seeds) {
+			if (entry.equals(nodeId))
+				continue;
+			S2SInterface entryServer = getConnectionToServer(entry);
+			if (entryServer == null)
+				continue;
+			try {
+				S2SInterface owner = null;
+				try {
+					owner = getConnectionToServer(entryServer.findOwner(addReq.getDestination(), 0).getNodeId());
+				} catch (RemoteException e) {
+					log.warn(addReq.getRequestId(), "Owner of {} not found through {}, joining through it : {}",
+							addReq.getDestination(), entry, e);
+				}
+				(owner != null ? owner : entryServer).addNewServer(addReq);
+				inChord = true;
+				saveState();
+				return;
+			} catch (RemoteException e) {
+				log.warn(addReq.getRequestId(), "Not added to Chord Network. Failure connecting - {} : {}", entry,
+						e);
+			}
+		}
+		System.out.println("Not added to Chord Network. No seed reachable : " + entryServers);
+	}
+
+	/**
+	 * Return a request for adding the current server to the chord network, at
+	 * the position of its name.
+	 * 
+	 * @return add request
+	 */
+	AddRequest joinRequest() {
+		return new AddRequest(nodeId, getPosition(config.getName()));
+	}
+
+	/**
+	 * This method is used by a server in the distributed network to get
+	 * connection to another server in the network, through a transport lookup.
+	 * 
+	 * @param serverName
+	 * @return
+	 */
+	private S2SInterface getConnectionToServer(String serverName) {
+		log.debug(0, "Connecting to : {}", serverName);
+		try {
+			// every call on the connection, and the lookup itself, gets a
+			// deadline adapted to the latency of the server
+			S2SInterface server = calls.call(serverName, "lookup",
+					() -> transport.lookup(serverName, Transport.SERVER, S2SInterface.class));
+			return calls.withDeadlines(server, S2SInterface.class, serverName);
+		} catch (RemoteException e) {
+			log.warn(0, "Failure connecting to - {}", serverName);
+			metrics.peerError(serverName);
+		}
+		return null;
+	}
+
+	/**
+	 * Connect to a server without deadlines, for calls the caller times
+	 * itself.
+	 * 
+	 * @param serverName
+	 * @return connection to the server
+	 * @throws RemoteException
+	 *             if the server can't be reached
+	 */
+	private S2SInterface untimedConnection(String serverName) throws RemoteException {
+		return transport.lookup(serverName, Transport.SERVER, S2SInterface.class);
+	}
+
+	/**
+	 * Return host-name of the successor server of the current server.
+	 * 
+	 * @return successor host-name
+	 */
+	String getSuccessor() {
+		return sServer;
+	}
+
+	/**
+	 * Return number of files stored on the current server.
+	 * 
+	 * @return number of files
+	 */
+	int getKeyCount() {
+		return fileMap.size();
+	}
+
+	/**
+	 * This method is used to check if a value lies in the key range of current
+	 * server.
+	 * 
+	 * @param position
+	 * @return true/ false
+	 */
+	public boolean inKeyMap(int position) {
+		int[] range = range();
+		return position >= range[0] && position <= range[1] ? true : false;
+	}
+
+	/**
+	 * Return a copy of the key range of the current server, both ends taken
+	 * at once.
+	 */
+	private int[] range() {
+		synchronized (ringLock) {
+			return keyRange.clone();
+		}
+	}
+
+	/**
+	 * This method is used to update host-name of the successor server of the
+	 * current server.
+	 * 
+	 * @param hostName
+	 */
+	public void updateSuccessor(String hostName) {
+		synchronized (ringLock) {
+			sServer = hostName;
+		}
+		publishSummary();
+		saveState();
+	}
+
+	/**
+	 * This method is used to update the Predecessor Hostname, key Space of the
+	 * current server
+	 * 
+	 * @param hostName
+	 * @param start
+	 * @param end
+	 */
+	public void updatePredecessor(String hostName, int start, int end) {
+		synchronized (ringLock) {
+			pServer = hostName;
+			if (start >= 0)
+				this.keyRange[0] = start;
+			if (end >= 0)
+				this.keyRange[1] = end;
+			lastRangeChange = System.nanoTime();
+		}
+
+		// take over erasure-coded files of the new key range held here
+		if (erasure != null)
+			adoptFragments();
+
+		// share the key filter for the new key range
+		publishSummary();
+		saveState();
+	}
+
+	/**
+	 * This method is responsible for forwarding a new server add request to its
+	 * successor server in the chord distributed network.
+	 * 
+	 * @param request
+	 */
+	public void forwardServerAddRequest(AddRequest request) {
+		try {
+			if (sServer.equals(nodeId))
+				return;
+
+			// get connection and forward request to its successor server
+			S2SInterface server = getConnectionToServer(sServer);
+			log.info(request.getRequestId(), "Forwarding new node adding request to successor server : {}",
+					sServer);
+			server.addNewServer(request);
+
+		} catch (RemoteException e) {
+			log.warn(request.getRequestId(),
+					"Error : Couldn't forward new server add request to successor server : {}", sServer);
+		}
+
+	}
+
+	/**
+	 * This method is responsible for accepting a new server add request in the
+	 * key space of the current server. It includes updating the predecessor
+	 * details and updating values on new server.
+	 * 
+	 * @param request
+	 */
+	public void insertPredecessorNode(AddRequest request) {
+		synchronized (joinLock) {
+			insertPredecessor(request);
+		}
+	}
+
+	private void insertPredecessor(AddRequest request) {
+
+		// check if the new server wants to get added at the same position as
+		// the current server, return with a failure in such a case
+		String oldPredecessor;
+		int oldStartRange;
+		boolean taken;
+		synchronized (ringLock) {
+			oldPredecessor = pServer;
+			oldStartRange = keyRange[0];
+			taken = request.getDestination() == keyRange[1];
+			if (!taken) {
+				// update predecessor and starting key space on current server
+				pServer = request.getHostName();
+				keyRange[0] = request.getDestination() + 1;
+				lastRangeChange = System.nanoTime();
+			}
+		}
+		if (taken) {
+			S2SInterface server = getConnectionToServer(request.getHostName());
+			try {
+				server.pushMessage("Failure : Another server already exist at same position in Chord");
+			} catch (RemoteException e) {
+				log.warn(request.getRequestId(), "Failed to reject {} : {}", request.getHostName(), e);
+			}
+			return;
+		}
+
+		// update previous predecessor
+		S2SInterface server = getConnectionToServer(oldPredecessor);
+		log.info(request.getRequestId(), "Updating successor for: {}", oldPredecessor);
+		try {
+			server.updateSuccessor(request.getHostName());
+
+			// update new predecessor server, with details of its successor and
+			// predecessors
+			server = getConnectionToServer(pServer);
+			log.info(request.getRequestId(), "Updating values on: {}", pServer);
+			server.updatePredecessor(oldPredecessor, oldStartRange, request.getDestination());
+			server.updateSuccessor(nodeId);
+		} catch (RemoteException e) {
+			log.error(request.getRequestId(), "Failed to insert predecessor {} : {}", request.getHostName(), e);
+		}
+
+		// move files to new predecessor server
+		moveFilesToServer(pServer, false);
+
+		// share the key filter for the reduced key range
+		publishSummary();
+		saveState();
+	}
+
+	/**
+	 * This method is used to add many new servers to the chord network at
+	 * once, to bootstrap a cluster. Instead of each new server being routed
+	 * to its place and moving files on its own, the current ring is read
+	 * once, the final place of every server is computed in one pass, and the
+	 * servers then take their neighbors, key range and finger table in
+	 * parallel. Servers whose key range shrank hand the files they no longer
+	 * own to the new servers afterwards, also in parallel.
+	 * 
+	 * Bulk joins through the same server run one at a time; single joins or
+	 * balancing rounds running meanwhile elsewhere in the ring aren't seen.
+	 * 
+	 * @param requests
+	 *            : add requests of the new servers
+	 * @return places of the servers added, without those unreachable or at a
+	 *         position already taken
+	 */
+	public ArrayList<NodeInfo> addNewServers(List<AddRequest> requests) {
+		synchronized (bootstrapLock) {
+			if (!inChord) {
+				log.warn(0, "Bulk join of {} servers refused, not in chord", requests.size());
+				return new ArrayList<NodeInfo>();
+			}
+			long start = System.nanoTime();
+			List<LoadReport> ring = readRing();
+			if (ring == null)
+				return new ArrayList<NodeInfo>();
+
+			// positions of the servers, existing ones and those joining
+			TreeMap<Integer, String> positions = new TreeMap<Integer, String>();
+			Map<String, LoadReport> existing = new HashMap<String, LoadReport>();
+			int first = MAX_RANGE;
+			for (LoadReport report : ring) {
+				positions.put(report.getEnd(), report.getHostName());
+				existing.put(report.getHostName(), report);
+				first = Math.min(first, report.getStart());
+			}
+			Set<String> joining = new HashSet<String>();
+			for (AddRequest request : reachable(requests)) {
+				if (existing.containsKey(request.getHostName()) || joining.contains(request.getHostName()))
+					continue;
+				if (positions.containsKey(request.getDestination())) {
+					reject(request);
+					continue;
+				}
+				positions.put(request.getDestination(), request.getHostName());
+				joining.add(request.getHostName());
+			}
+			if (joining.isEmpty())
+				return new ArrayList<NodeInfo>();
+
+			// each server starts right after its predecessor in the ring
+			List<NodeInfo> places = new ArrayList<NodeInfo>();
+			int previous = first - 1;
+			for (Map.Entry<Integer, String> position : positions.entrySet()) {
+				places.add(new NodeInfo(position.getValue(), previous + 1, position.getKey()));
+				previous = position.getKey();
+			}
+
+			Map<String, Callable<Integer>> moves = new HashMap<String, Callable<Integer>>();
+			Map<String, Callable<Integer>> updates = new HashMap<String, Callable<Integer>>();
+			int count = places.size();
+			for (int i = 0; i < count; i++) {
+				NodeInfo place = places.get(i);
+				String predecessor = places.get((i + count - 1) % count).getNodeId();
+				String successor = places.get((i + 1) % count).getNodeId();
+				NodeInfo[] table = fingersOf(places, i);
+				updates.put(place.getNodeId(), () -> {
+					connectionTo(place.getNodeId()).takePlace(predecessor, successor, place.getStart(),
+							place.getEnd(), table);
+					return 0;
+				});
+
+				// new servers take over the start of the key range of the
+				// next existing server
+				LoadReport report = existing.get(place.getNodeId());
+				if (report != null && report.getStart() < place.getStart()) {
+					ArrayList<NodeInfo> owners = new ArrayList<NodeInfo>();
+					for (NodeInfo owner : places)
+						if (owner.getEnd() >= report.getStart() && owner.getEnd() < place.getStart())
+							owners.add(owner);
+					moves.put(place.getNodeId(), () -> connectionTo(place.getNodeId()).handOffFiles(owners));
+				}
+			}
+
+			Map<String, Integer> placed = inParallel(updates);
+			if (placed.size() < count)
+				log.error(0, "Bulk join : {} of {} servers failed to take their place", count - placed.size(),
+						count);
+			int moved = 0;
+			for (int files : inParallel(moves).values())
+				moved += files;
+
+			ArrayList<NodeInfo> added = new ArrayList<NodeInfo>();
+			for (NodeInfo place : places)
+				if (joining.contains(place.getNodeId()) && placed.containsKey(place.getNodeId()))
+					added.add(place);
+			log.info(0, "Bulk join added {} servers to a ring of {}, {} files handed over", added.size(), ring.size(),
+					moved);
+			metrics.time(Metrics.BULK_JOIN, start);
+			return added;
+		}
+	}
+
+	/**
+	 * Read the places of all servers of the ring, through their predecessors.
+	 * 
+	 * @return key range and predecessor of each server, null if a server
+	 *         can't be reached
+	 */
+	private List<LoadReport> readRing() {
+		List<LoadReport> ring = new ArrayList<LoadReport>();
+		Set<String> seen = new HashSet<String>();
+		LoadReport report = getLoad();
+		while (seen.add(report.getHostName())) {
+			ring.add(report);
+			String peer = report.getPredecessor();
+			if (seen.contains(peer))
+				break;
+			try {
+				report = connectionTo(peer).getLoad();
+			} catch (RemoteException e) {
+				log.error(0, "Bulk join refused, failed to read the ring at {} : {}", peer, e);
+				metrics.peerError(peer);
+				return null;
+			}
+		}
+		return ring;
+	}
+
+	/**
+	 * Return add requests of the new servers that can be reached, checked in
+	 * parallel.
+	 */
+	private List<AddRequest> reachable(List<AddRequest> requests) {
+		Map<String, Callable<Integer>> pings = new HashMap<String, Callable<Integer>>();
+		for (AddRequest request : requests)
+			pings.put(request.getHostName(), () -> {
+				connectionTo(request.getHostName()).getHostName();
+				return 0;
+			});
+		Map<String, Integer> answered = inParallel(pings);
+		List<AddRequest> reachable = new ArrayList<AddRequest>();
+		for (AddRequest request : requests)
+			if (answered.containsKey(request.getHostName()))
+				reachable.add(request);
+			else
+				log.warn(request.getRequestId(), "Bulk join skipped {}, unreachable", request.getHostName());
+		return reachable;
+	}
+
+	private void reject(AddRequest request) {
+		try {
+			connectionTo(request.getHostName())
+					.pushMessage("Failure : Another server already exist at same position in Chord");
+		} catch (RemoteException e) {
+			log.warn(request.getRequestId(), "Failed to reject {} : {}", request.getHostName(), e);
+		}
+	}
+
+	/**
+	 * Run calls to several servers in parallel and wait for all of them.
+	 * 
+	 * @param calls
+	 *            : call for each server
+	 * @return result of each server whose call succeeded
+	 */
+	private Map<String, Integer> inParallel(Map<String, Callable<Integer>> calls) {
+		Map<String, Future<Integer>> pending = new HashMap<String, Future<Integer>>();
+		for (Map.Entry<String, Callable<Integer>> call : calls.entrySet())
+			pending.put(call.getKey(), joinWorkers.submit(call.getValue()));
+		Map<String, Integer> results = new HashMap<String, Integer>();
+		for (Map.Entry<String, Future<Integer>> call : pending.entrySet()) {
+			try {
+				results.put(call.getKey(), call.getValue().get());
+			} catch (ExecutionException e) {
+				log.warn(0, "Bulk join call to {} failed : {}", call.getKey(), e.getCause());
+				metrics.peerError(call.getKey());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return results;
+	}
+
+	private S2SInterface connectionTo(String serverName) throws RemoteException {
+		S2SInterface server = getConnectionToServer(serverName);
+		if (server == null)
+			throw new RemoteException("Server unreachable : " + serverName);
+		return server;
+	}
+
+	/**
+	 * Return finger table of a server of a ring layout, the owners of the
+	 * positions 2^i after the end of its key range as fixFingers finds them.
+	 * 
+	 * @param places
+	 *            : key ranges of all servers, in ring order
+	 * @param index
+	 *            : index of the server
+	 * @return finger table
+	 */
+	private NodeInfo[] fingersOf(List<NodeInfo> places, int index) {
+		int ring = MAX_RANGE + 1;
+		int[] ends = new int[places.size()];
+		for (int i = 0; i < ends.length; i++)
+			ends[i] = places.get(i).getEnd();
+		List<NodeInfo> table = new ArrayList<NodeInfo>();
+		table.add(places.get((index + 1) % ends.length));
+		for (long step = 2; step < ring; step *= 2) {
+			int owner = Arrays.binarySearch(ends, (int) ((ends[index] + step) % ring));
+			if (owner < 0)
+				owner = -owner - 1;
+			table.add(places.get(owner % ends.length));
+		}
+		return table.toArray(new NodeInfo[table.size()]);
+	}
+
+	/**
+	 * This method is used to take the place computed for the current server
+	 * by a bulk join : its neighbors, key range and finger table at once.
+	 * 
+	 * @param predecessor
+	 * @param successor
+	 * @param start
+	 * @param end
+	 * @param table
+	 *            : finger table
+	 */
+	public void takePlace(String predecessor, String successor, int start, int end, NodeInfo[] table) {
+		synchronized (ringLock) {
+			pServer = predecessor;
+			sServer = successor;
+			keyRange[0] = start;
+			keyRange[1] = end;
+			fingers = table;
+			lastRangeChange = System.nanoTime();
+			inChord = true;
+		}
+
+		// take over erasure-coded files of the new key range held here
+		if (erasure != null)
+			adoptFragments();
+		publishSummary();
+		saveState();
+	}
+
+	/**
+	 * This method is used after a bulk join to move files the current server
+	 * no longer owns to the new servers owning them.
+	 * 
+	 * @param owners
+	 *            : key ranges of the new servers
+	 * @return number of files moved
+	 */
+	public int handOffFiles(List<NodeInfo> owners) {
+		Map<String, Set<String>> moves = new HashMap<String, Set<String>>();
+		for (String name : fileMap) {
+			int position = getPosition(name);
+			if (inKeyMap(position))
+				continue;
+			for (NodeInfo owner : owners)
+				if (position >= owner.getStart() && position <= owner.getEnd()) {
+					moves.computeIfAbsent(owner.getNodeId(), peer -> new HashSet<String>()).add(name);
+					break;
+				}
+		}
+		int moved = 0;
+		for (Map.Entry<String, Set<String>> files : moves.entrySet())
+			moved += moveFiles(files.getKey(), files.getValue(), false);
+		if (moved > 0) {
+			publishSummary();
+			saveState();
+		}
+		return moved;
+	}
+
+	/**
+	 * Return milliseconds after which a membership table that wasn't gossiped
+	 * is stale, three gossip periods, 0 if rounds are only run on demand.
+	 */
+	private long staleAfter() {
+		return config.getGossipPeriod() * 3000L;
+	}
+
+	/**
+	 * Put the current key range of the current server in its membership
+	 * table, with a new version if it changed.
+	 */
+	private void announce() {
+		Member own = membership.get(nodeId);
+		int[] range = range();
+		if (own != null && !own.hasLeft() && own.getStart() == range[0] && own.getEnd() == range[1])
+			return;
+		membership.merge(Collections.singletonList(new Member(nodeId, range[0], range[1], nextVersion(own), false)));
+	}
+
+	/**
+	 * Return version of a new entry of the current server, above the last one
+	 * even across restarts.
+	 */
+	private long nextVersion(Member own) {
+		return Math.max(own == null ? 0 : own.getVersion() + 1, System.currentTimeMillis());
+	}
+
+	/**
+	 * Mark the current server as left in its membership table, and send the
+	 * entry to the neighbors it hands its key range to.
+	 */
+	private void announceLeave() {
+		if (membership == null)
+			return;
+		ArrayList<Member> left = new ArrayList<Member>();
+		int[] range = range();
+		left.add(new Member(nodeId, range[0], range[1], nextVersion(membership.get(nodeId)), true));
+		membership.merge(left);
+		for (String neighbor : new LinkedHashSet<String>(Arrays.asList(pServer, sServer))) {
+			S2SInterface server = getConnectionToServer(neighbor);
+			try {
+				if (server != null)
+					server.mergeMembers(left);
+			} catch (RemoteException e) {
+				log.warn(0, "Failed to announce leaving to {} : {}", neighbor, e);
+			}
+		}
+	}
+
+	/**
+	 * This method is used to run one gossip round of the membership table in
+	 * one-hop mode : the versions of the table are sent to a random server of
+	 * the table, which answers with the entries it holds newer and asks for
+	 * those it holds older. Until the table is complete the fingers are drawn
+	 * from too, else servers knowing only each other would never learn more.
+	 */
+	void gossip() {
+		if (membership == null || !inChord)
 			return;
-
-		// create a new file search request packet and forward to successor
-		// server
-		Request packet = new Request();
-		packet.setFileName(fileName);
-		packet.setDestination(Math.abs(fileName.hashCode() % MAX_RANGE));
+		long start = System.nanoTime();
+		announce();
+		membership.purge();
+
+		Set<String> peers = new LinkedHashSet<String>();
+		for (Member member : membership.live())
+			peers.add(member.getNodeId());
+		NodeInfo[] table = fingers;
+		if (!membership.isComplete() && table != null)
+			for (NodeInfo finger : table)
+				peers.add(finger.getNodeId());
+		peers.add(sServer);
+		peers.remove(nodeId);
+		if (peers.isEmpty())
+			return;
+		String peer = new ArrayList<String>(peers).get(ThreadLocalRandom.current().nextInt(peers.size()));
 		try {
-			packet.setServer(new S2SImplementation(this));
-			S2SInterface server = getConnectionToServer(sServer);
-			server.forwardRequest(packet, null);
+			S2SInterface server = getConnectionToServer(peer);
+			if (server == null)
+				return;
+			MembershipDelta delta = server.exchangeMembers(nodeId, membership.digest());
+			metrics.add(Metrics.GOSSIP_ENTRIES, membership.merge(delta.getMembers()));
+			if (!delta.getWanted().isEmpty())
+				server.mergeMembers(membership.select(delta.getWanted()));
+			membership.gossiped();
 		} catch (RemoteException e) {
-			System.out.println("Failed to connect : " + sServer);
-			e.printStackTrace();
+			log.warn(0, "Gossip with {} failed : {}", peer, e);
+			metrics.peerError(peer);
 		}
+		metrics.time(Metrics.GOSSIP, start);
 	}
 
 	/**
-	 * ViewMessage method is used for message passing. The current server can
-	 * receive messages from another servers.
+	 * This method is used to answer a gossip round started by another server.
 	 * 
-	 * @param message
+	 * @param server
+	 *            : node id of the server
+	 * @param digest
+	 *            : versions of the entries of its table
+	 * @return entries held newer, and node ids of the entries it holds newer
 	 */
-	public void viewMessage(String message) {
-		System.out.println(message);
+	public MembershipDelta exchangeMembers(String server, HashMap<String, Long> digest) {
+		if (membership == null)
+			return new MembershipDelta(new ArrayList<Member>(), new ArrayList<String>());
+		// a server that left only passes on what it knows
+		if (inChord)
+			announce();
+		return new MembershipDelta(membership.newerThan(digest), membership.olderThan(digest));
 	}
 
 	/**
-	 * This method is used by a server on chord distributed system to upload a
-	 * file from its directory onto the network and it is saved at its right
-	 * destination server.
+	 * This method is used to merge membership entries sent by another server.
 	 * 
-	 * @param fileName
+	 * @param members
 	 */
-	private void uploadFile(String fileName) {
-
-		if (sServer.equals(getHostName() + domain))
-			return;
-
-		int dest = Math.abs(fileName.hashCode()) % MAX_RANGE;
-		File file = new File(lookupDirectory + fileName);
-		try {
-			System.out.println("Inserting file - successor @" + sServer);
-			// read file data
-			byte[] data = readFile(file);
-
-			// get connection to successor server and forward file data for
-			// write
-			S2SInterface server = getConnectionToServer(sServer);
-			server.insertFile(data, fileName, dest);
-
-			// delete the uploaded file from local directory
-			deleteFile(file);
-
-		} catch (FileNotFoundException e) {
-			System.out.println("Error : File not found.");
-			e.printStackTrace();
-		} catch (RemoteException e) {
-			System.out.println("Error : Failed to connect to successor.");
-			e.printStackTrace();
-		}
+	public void mergeMembers(List<Member> members) {
+		if (membership != null)
+			metrics.add(Metrics.GOSSIP_ENTRIES, membership.merge(members));
 	}
 
 	/**
-	 * This method is used to display all the information of the current server,
-	 * details include the host name, predecessor and successor nodes, and all
-	 * the files stored on this server.
+	 * Return membership table of the current server, null unless in one-hop
+	 * mode.
 	 */
-	private void viewInfo() {
-
-		System.out.println("***SERVER INFORMATION***");
-		System.out.println("Hostname : " + getHostName());
-		System.out.println("Connected servers:");
-		System.out.println("\tPredecessor : " + pServer);
-		System.out.println("\tSuccessor : " + sServer);
+	MembershipTable getMembership() {
+		return membership;
+	}
 
-		int count = 0;
-		System.out.println("\nFiles:");
-		Iterator<String> itr = fileMap.iterator();
-		while (itr.hasNext()) {
-			System.out.println("\t" + ++count + ". " + itr.next());
+	/**
+	 * Return key range and load of the current server, to be compared with
+	 * the load of its neighbors.
+	 * 
+	 * @return load report
+	 */
+	public LoadReport getLoad() {
+		int[] range;
+		String predecessor;
+		synchronized (ringLock) {
+			range = keyRange.clone();
+			predecessor = pServer;
 		}
+		return new LoadReport(nodeId, predecessor, range[0], range[1], requestRate, storedBytes());
+	}
 
-		System.out.println("*************************\n");
+	private LoadReport timedLoad(String peer, S2SInterface server) throws RemoteException {
+		long begin = transport.clockMicros();
+		LoadReport load = server.getLoad();
+		recordRtt(peer, begin);
+		return load;
 	}
 
 	/**
-	 * This method is used by a server to exit from a chord distributed network.
-	 * The server leaving from the network is responsible for sending all its
-	 * files on its successor server and also notify/ update both its successor
-	 * and predecessors details.
-	 * 
+	 * Return number of bytes of all files stored on the current server.
 	 */
-	private void exitNetwork() {
+	private long storedBytes() {
+		long bytes = 0;
+		for (String file : fileMap)
+			bytes += new File(lookupDirectory + file).length();
+		if (fragments != null)
+			bytes += fragments.bytes();
+		return bytes;
+	}
 
-		if (!inChord || pServer.equals(getHostName() + domain) || sServer.equals(getHostName() + domain))
+	/**
+	 * This method is used to run one round of key range balancing. If the
+	 * current server carries clearly more load than its predecessor or
+	 * successor, the part of its key range next to that neighbor is handed
+	 * over to it by moving their common boundary. Load counts both the
+	 * requests served, decayed by half every round, and the bytes stored.
+	 */
+	void balance() {
+		TreeMap<Integer, double[]> keys = keyLoad();
+		if (!inChord || sServer.equals(nodeId))
 			return;
 
-		if ((getHostName() + domain).equals(ENTRY_SERVER)) {
-			System.out.println("Entry point server in chord can't exit chord");
+		// give the last move time to show in the load of both servers
+		long cooldown = TimeUnit.SECONDS.toNanos(config.getBalancePeriod() * BALANCE_COOLDOWN);
+		if (lastRangeChange != 0 && System.nanoTime() - lastRangeChange < cooldown)
 			return;
+
+		String neighbor = pServer;
+		try {
+			S2SInterface server = getConnectionToServer(neighbor);
+			if (server != null && shedLoad(timedLoad(neighbor, server), keys, true))
+				return;
+			neighbor = sServer;
+			server = getConnectionToServer(neighbor);
+			if (server != null)
+				shedLoad(timedLoad(neighbor, server), keys, false);
+		} catch (RemoteException e) {
+			log.warn(0, "Failed to balance key range with {} : {}", neighbor, e);
+			metrics.peerError(neighbor);
 		}
+	}
 
-		// move files to successor server
-		moveFilesToServer(sServer, true);
+	/**
+	 * Decay the request history and return requests and bytes stored for each
+	 * key position in the key range of the current server.
+	 * 
+	 * @return position to {requests, bytes}
+	 */
+	private TreeMap<Integer, double[]> keyLoad() {
+		Map<Integer, LongAdder> counts = requestCounts;
+		requestCounts = new ConcurrentHashMap<Integer, LongAdder>();
+
+		Map<Integer, Double> history = new HashMap<Integer, Double>();
+		for (Map.Entry<Integer, Double> entry : requestHistory.entrySet())
+			if (entry.getValue() >= 0.1)
+				history.put(entry.getKey(), entry.getValue() / 2);
+		for (Map.Entry<Integer, LongAdder> entry : counts.entrySet())
+			history.merge(entry.getKey(), (double) entry.getValue().sum(), Double::sum);
+		requestHistory = history;
+
+		TreeMap<Integer, double[]> keys = new TreeMap<Integer, double[]>();
+		double rate = 0;
+		for (Map.Entry<Integer, Double> entry : history.entrySet()) {
+			if (!inKeyMap(entry.getKey()))
+				continue;
+			keys.put(entry.getKey(), new double[] { entry.getValue(), 0 });
+			rate += entry.getValue();
+		}
+		requestRate = rate;
 
-		// connect to predecessor and update its successor
-		// update predecessor -> successor = current -> successor
-		S2SInterface server = getConnectionToServer(pServer);
-		System.out.println("Updating values on: " + pServer);
-		try {
-			server.updateSuccessor(sServer);
+		for (String file : fileMap) {
+			int position = getPosition(file);
+			if (inKeyMap(position))
+				keys.computeIfAbsent(position, key -> new double[2])[1] += new File(lookupDirectory + file).length();
+		}
+		return keys;
+	}
 
-			// connect to successor server and update its predecessor, and range
-			// value
-			server = getConnectionToServer(sServer);
-			System.out.println("Updating values on: " + sServer);
-			server.updatePredecessor(pServer, keyRange[0], -1);
+	private static double share(double value, double total) {
+		return total == 0 ? 0 : value / total;
+	}
 
-			// reset predecessor and successor nodes to self.
-			inChord = false;
-			pServer = getHostName() + domain;
-			sServer = getHostName() + domain;
-		} catch (RemoteException e) {
-			e.printStackTrace();
+	/**
+	 * Hand over keys next to a neighbor if the current server carries clearly
+	 * more load. Keys are handed over until about half the difference is
+	 * moved, never so much that the neighbor ends up with more load than the
+	 * current server had, so the boundary doesn't swing back and forth.
+	 * 
+	 * @param neighbor
+	 *            : load of the predecessor or successor
+	 * @param keys
+	 *            : load of each key position of the current server
+	 * @param toPredecessor
+	 *            : true if the neighbor is the predecessor
+	 * @return true if the boundary was moved
+	 */
+	private boolean shedLoad(LoadReport neighbor, TreeMap<Integer, double[]> keys, boolean toPredecessor) {
+
+		// only with neighbors whose key range adjoins ours, not across the end
+		// of the key space
+		int[] range = range();
+		if (toPredecessor ? neighbor.getEnd() + 1 != range[0] : range[1] + 1 != neighbor.getStart())
+			return false;
+
+		double myRequests = 0;
+		long myBytes = 0;
+		for (double[] load : keys.values()) {
+			myRequests += load[0];
+			myBytes += (long) load[1];
+		}
+		double requests = myRequests + neighbor.getRequests();
+		long bytes = myBytes + neighbor.getBytes();
+		double mine = share(myRequests, requests) + share(myBytes, bytes);
+		double theirs = share(neighbor.getRequests(), requests) + share(neighbor.getBytes(), bytes);
+		double excess = mine - theirs;
+		if (excess < BALANCE_MIN_EXCESS || mine < BALANCE_RATIO * theirs)
+			return false;
+
+		NavigableMap<Integer, double[]> walk = toPredecessor ? keys : keys.descendingMap();
+		double moved = 0;
+		int boundary = -1;
+		for (Map.Entry<Integer, double[]> key : walk.entrySet()) {
+			double weight = share(key.getValue()[0], requests) + share(key.getValue()[1], bytes);
+			if (moved + weight >= excess)
+				break;
+			moved += weight;
+			boundary = key.getKey();
+			if (moved >= excess / 2)
+				break;
 		}
+		if (boundary < 0)
+			return false;
+
+		int start = toPredecessor ? boundary + 1 : range[0];
+		int end = toPredecessor ? range[1] : boundary - 1;
+		// the new end of the predecessor must be a valid range end
+		if (start > end || (toPredecessor && start - 1 <= 0))
+			return false;
+		return moveBoundary(neighbor, start, end, toPredecessor);
 	}
 
 	/**
-	 * While leaving a chord distributed network or while accepting a new server
-	 * as its predecessor, the current server moves some or all of its files
-	 * onto its adjacent servers in the network.
+	 * Shrink the key range of the current server to start - end and hand the
+	 * files outside it to the neighbor taking over that part. Files are copied
+	 * before the neighbor extends its range and deleted only after the
+	 * current server shrinks its own, so that every key stays served.
 	 * 
-	 * @param serverName
-	 * @param allFiles
+	 * @param neighbor
+	 * @param start
+	 * @param end
+	 * @param toPredecessor
+	 * @return true if the boundary was moved
 	 */
-	public void moveFilesToServer(String serverName, boolean allFiles) {
+	private boolean moveBoundary(LoadReport neighbor, int start, int end, boolean toPredecessor) {
+		long begin = System.nanoTime();
+		String target = neighbor.getHostName();
+		S2SInterface server = getConnectionToServer(target);
+		if (server == null)
+			return false;
+
+		Set<String> files = new HashSet<String>();
+		for (String file : fileMap) {
+			int position = getPosition(file);
+			if (toPredecessor ? position < start : position > end)
+				files.add(file);
+		}
 
-		// get iterator on all files in map
-		Iterator<String> itr = fileMap.iterator();
-		if (allFiles != true) {
-
-			// if not all files has to be copied.
-			// fetch files with hash-code less than key range start
-			HashSet<String> newMap = new HashSet<String>();
-			while (itr.hasNext()) {
-				String file = itr.next();
-				int position = Math.abs(file.hashCode()) % MAX_RANGE;
-				if (position < keyRange[0]) {
-					newMap.add(file);
-					itr.remove();
-				}
+		int count;
+		try {
+			count = copyFiles(server, files);
+			if (toPredecessor)
+				server.updatePredecessor(neighbor.getPredecessor(), -1, start - 1);
+			else
+				server.updatePredecessor(nodeId, end + 1, -1);
+			synchronized (ringLock) {
+				if (toPredecessor)
+					keyRange[0] = start;
+				else
+					keyRange[1] = end;
+				lastRangeChange = System.nanoTime();
 			}
-
-			// create new iterator
-			itr = newMap.iterator();
+		} catch (IOException e) {
+			log.warn(0, "Failed to move key range boundary with {} : {}", target, e);
+			metrics.peerError(target);
+			return false;
+		}
+		dropFiles(files);
+
+		// hand over files inserted while the boundary was moving
+		Set<String> late = new HashSet<String>();
+		for (String file : fileMap) {
+			int position = getPosition(file);
+			if (toPredecessor ? position < start : position > end)
+				late.add(file);
 		}
-
 		try {
-			int count = 0;
-			while (itr.hasNext()) {
-
-				// fetch all files data and forward it to the required server
-				File file = new File(lookupDirectory + itr.next());
-				byte[] buffer = readFile(file);
+			count += copyFiles(server, late);
+			dropFiles(late);
+		} catch (IOException e) {
+			log.warn(0, "Failed to hand over {} files to {} : {}", late.size(), target, e);
+			metrics.peerError(target);
+		}
 
-				// delete this file from the current server
-				deleteFile(file);
+		publishSummary();
+		saveState();
+		metrics.increment(Metrics.BALANCE_MOVES);
+		metrics.add(Metrics.BALANCE_FILES, count);
+		metrics.time(Metrics.BALANCE, begin);
+		int[] range = range();
+		log.info(0, "Key range now {} - {}, {} files handed over to {}", range[0], range[1], count, target);
+		return true;
+	}
 
-				S2SInterface server = getConnectionToServer(serverName);
-				server.insertFile(buffer, file.getName(), -1);
+	/**
+	 * Copy files of the current server to another server, without deleting
+	 * them.
+	 * 
+	 * @param server
+	 * @param files
+	 * @return number of files copied
+	 * @throws IOException
+	 */
+	private int copyFiles(S2SInterface server, Set<String> files) throws IOException {
+		int count = 0;
+		for (String name : files) {
+			File file = new File(lookupDirectory + name);
+			try {
+				if (erasure != null && !file.exists())
+					followOwner(name, server);
+				else
+					transferFile(server, file);
 				count++;
+			} catch (FileNotFoundException e) {
+				// deleted meanwhile, nothing to hand over
 			}
-
-			// if all files were moved, clear hashset of file names.
-			if (allFiles)
-				fileMap.clear();
-
-			System.out.println("@" + getHostName() + " - " + count + " files copied to Server : " + serverName);
-
-		} catch (FileNotFoundException e) {
-			System.out.println("Replication failed. File not found.");
-			e.printStackTrace();
-		} catch (Exception e) {
-			e.printStackTrace();
 		}
+		return count;
+	}
+
+	private void dropFiles(Set<String> files) {
+		for (String name : files)
+			releaseFile(name);
 	}
 
 	/**
-	 * This method is used to delete a file from the local directory of current
-	 * server
+	 * Remove a file the current server no longer owns. Its fragments, if it
+	 * is erasure-coded, are left to the servers holding them.
 	 * 
-	 * @param file
+	 * @param name
 	 */
-	private void deleteFile(File file) {
-		try {
-			Files.deleteIfExists(file.toPath());
-		} catch (IOException e) {
-			System.out.println("Error : File to be deleted not found.");
-			e.printStackTrace();
+	private void releaseFile(String name) {
+		fileMap.remove(name);
+		File file = new File(lookupDirectory + name);
+		if (file.exists()) {
+			deleteFile(file);
+		} else if (erasure != null) {
+			synchronized (filterLock) {
+				keyFilter.remove(name);
+			}
+			dropRebuilt(name);
 		}
 	}
 
 	/**
-	 * This method is used to raise request for joining the chord distributed
-	 * network. The current server is added to the chord network at its correct
-	 * position based upon its hash value.
+	 * Return node id and key range of the current server.
 	 * 
+	 * @return node information
+	 */
+	public NodeInfo getInfo() {
+		int[] range = range();
+		return new NodeInfo(nodeId, range[0], range[1]);
+	}
+
+	/**
+	 * Return clockwise distance between two positions on the ring.
+	 */
+	private int distance(int from, int to) {
+		int ring = MAX_RANGE + 1;
+		return ((to - from) % ring + ring) % ring;
+	}
+
+	/**
+	 * This method is used to refresh the finger table of the current server.
+	 * Finger i is the owner of the position 2^i after the end of its key
+	 * range. Owners come in ring order, so each one is searched starting from
+	 * the previous finger.
 	 */
-	private void enterNetwork() {
+	void fixFingers() {
+		if (!inChord || sServer.equals(nodeId)) {
+			fingers = null;
+			return;
+		}
 
-		// create a new add request packet and forward to the entry_server.
-		int dest = Math.abs(getHostName().hashCode()) % MAX_RANGE;
-		AddRequest addReq = new AddRequest(getHostName() + domain, dest);
-		S2SInterface entryServer = getConnectionToServer(ENTRY_SERVER);
+		long start = System.nanoTime();
+		int ring = MAX_RANGE + 1;
+		List<NodeInfo> table = new ArrayList<NodeInfo>();
+		String peer = sServer;
 		try {
-			entryServer.addNewServer(addReq);
-			inChord = true;
+			S2SInterface server = getConnectionToServer(peer);
+			if (server == null)
+				return;
+			NodeInfo finger = server.getInfo();
+			table.add(finger);
+			for (long step = 2; step < ring; step *= 2) {
+				int target = (int) ((keyRange[1] + step) % ring);
+				if (distance(keyRange[1], finger.getEnd()) < distance(keyRange[1], target)) {
+					peer = finger.getNodeId();
+					server = getConnectionToServer(peer);
+					if (server == null)
+						break;
+					finger = server.findOwner(target, 0);
+				}
+				table.add(finger);
+			}
 		} catch (RemoteException e) {
-			System.out
-					.println("@" + getHostName() + ": Not added to Chord Network. Failure connecting -" + ENTRY_SERVER);
+			// keep the previous table until the next refresh
+			log.warn(0, "Failed to refresh finger table through {} : {}", peer, e);
+			metrics.peerError(peer);
+			return;
 		}
+		chooseNearFingers(table);
+		fingers = table.toArray(new NodeInfo[table.size()]);
+		saveState();
+		metrics.time(Metrics.STABILIZE, start);
 	}
 
 	/**
-	 * This method is used by a server in the distributed network to get
-	 * connection to another server in the network, through RMI lookup.
+	 * Replace fingers by nearer servers making about the same progress. Finger
+	 * i may be any server starting before the position 2^(i+1) after the end
+	 * of our key range, so a few successors of its owner up to that position
+	 * are measured and the one with the lowest round trip time is kept. The
+	 * successor always stays finger 0.
 	 * 
-	 * @param serverName
-	 * @return
+	 * @param table
+	 *            : owners of the finger positions
 	 */
-	private S2SInterface getConnectionToServer(String serverName) {
-		System.out.println("@" + getHostName() + " - Connecting to : " + serverName);
-		String hostName = "rmi://" + serverName + ":" + PORT + "/server";
-		try {
-			return (S2SInterface) Naming.lookup(hostName);
-		} catch (MalformedURLException | RemoteException | NotBoundException e) {
-			System.out.println("@" + getHostName() + ": Failure connecting to -" + serverName);
+	private void chooseNearFingers(List<NodeInfo> table) {
+		int ring = MAX_RANGE + 1;
+		Set<String> probed = new HashSet<String>();
+		for (int i = 0; i < table.size(); i++) {
+			NodeInfo finger = table.get(i);
+			if (finger.getNodeId().equals(nodeId))
+				continue;
+			if (probed.add(finger.getNodeId()))
+				probe(finger.getNodeId());
+			if (i == 0)
+				continue;
+
+			long limit = Math.min(1L << (i + 1), ring);
+			NodeInfo nearest = finger;
+			NodeInfo candidate = finger;
+			for (int k = 0; k < PROXIMITY_SAMPLES; k++) {
+				try {
+					S2SInterface server = getConnectionToServer(candidate.getNodeId());
+					if (server == null)
+						break;
+					candidate = server.findOwner((candidate.getEnd() + 1) % ring, 0);
+				} catch (RemoteException e) {
+					metrics.peerError(candidate.getNodeId());
+					break;
+				}
+				if (candidate.getNodeId().equals(nodeId) || distance(keyRange[1], candidate.getStart()) >= limit)
+					break;
+				if (probed.add(candidate.getNodeId()))
+					probe(candidate.getNodeId());
+				long rtt = rtts.rtt(candidate.getNodeId());
+				long best = rtts.rtt(nearest.getNodeId());
+				if (rtt >= 0 && (best < 0 || rtt < best))
+					nearest = candidate;
+			}
+			table.set(i, nearest);
 		}
-		return null;
 	}
 
 	/**
-	 * This method is used to check if a value lies in the key range of current
-	 * server.
+	 * This method is used to find the server owning a key position. The
+	 * search is passed on through the finger tables, and through successors
+	 * only if a finger can't be reached or too many hops were taken. A finger
+	 * that hasn't answered by the 95th percentile of its latency is hedged
+	 * with the same search through the successor.
 	 * 
 	 * @param position
-	 * @return true/ false
+	 * @param hops
+	 *            : number of servers the search passed through
+	 * @return owner of the position
+	 * @throws RemoteException
+	 *             if the successor can't be reached
 	 */
-	public boolean inKeyMap(int position) {
-		return position >= keyRange[0] && position <= keyRange[1] ? true : false;
+	public NodeInfo findOwner(int position, int hops) throws RemoteException {
+		if (inKeyMap(position))
+			return getInfo();
+
+		String next = nextHop(position, hops);
+		if (!next.equals(sServer)) {
+			String successor = sServer;
+			try {
+				return calls.hedge("findOwner", next, () -> untimedConnection(next).findOwner(position, hops + 1),
+						successor, () -> untimedConnection(successor).findOwner(position, hops + 1));
+			} catch (RemoteException e) {
+				log.warn(0, "Finger {} unreachable, searching through successor : {}", next, e);
+				metrics.peerError(next);
+				dropFinger(next);
+			}
+		}
+		S2SInterface server = getConnectionToServer(sServer);
+		if (server == null)
+			throw new RemoteException("No route to position " + position + " : successor " + sServer + " unreachable");
+		return server.findOwner(position, hops + 1);
 	}
 
 	/**
-	 * This method is used to update host-name of the successor server of the
-	 * current server.
+	 * Return the server a search for a key position goes to next : the finger
+	 * owning the position, else the finger closest before it, else the
+	 * successor. Among fingers before the position making comparable
+	 * progress, the one with the lowest round trip time is taken.
 	 * 
-	 * @param hostName
+	 * In one-hop mode the first servers a search visits send it straight to
+	 * the owner in their membership table, as long as the table is fresh.
+	 * Later servers route through the fingers, so that stale tables can't
+	 * send a search back and forth.
+	 * 
+	 * @param position
+	 * @param hops
+	 * @return node id of the next server
 	 */
-	public void updateSuccessor(String hostName) {
-		sServer = hostName;
+	String nextHop(int position, int hops) {
+		if (membership != null && hops <= 1) {
+			Member owner = membership.isFresh(staleAfter()) ? membership.owner(position) : null;
+			if (owner != null && !owner.getNodeId().equals(nodeId)) {
+				metrics.increment(Metrics.ONE_HOP);
+				return owner.getNodeId();
+			}
+			metrics.increment(Metrics.ONE_HOP_STALE);
+		}
+
+		NodeInfo[] table = fingers;
+		if (table == null || hops > FINGER_HOP_LIMIT)
+			return sServer;
+
+		int remaining = distance(keyRange[1], position);
+		String next = sServer;
+		int progress = 0;
+		for (NodeInfo finger : table) {
+			if (finger.getNodeId().equals(nodeId))
+				continue;
+			if (position >= finger.getStart() && position <= finger.getEnd())
+				return finger.getNodeId();
+			int distance = distance(keyRange[1], finger.getEnd());
+			if (distance < remaining && distance > progress) {
+				next = finger.getNodeId();
+				progress = distance;
+			}
+		}
+
+		long best = rtts.rtt(next);
+		if (best < 0)
+			return next;
+		String nearest = next;
+		for (NodeInfo finger : table) {
+			int distance = distance(keyRange[1], finger.getEnd());
+			if (finger.getNodeId().equals(nodeId) || distance >= remaining || distance < progress * PROXIMITY_PROGRESS)
+				continue;
+			long rtt = rtts.rtt(finger.getNodeId());
+			if (rtt >= 0 && rtt < best) {
+				nearest = finger.getNodeId();
+				best = rtt;
+			}
+		}
+		if (!nearest.equals(next))
+			metrics.increment(Metrics.ROUTE_PROXIMITY);
+		return nearest;
 	}
 
 	/**
-	 * This method is used to update the Predecessor Hostname, key Space of the
-	 * current server
+	 * Remove a server that can't be reached from the finger table until the
+	 * next refresh. The successor is kept, as it is needed to route at all.
 	 * 
-	 * @param hostName
-	 * @param start
-	 * @param end
+	 * @param peer
 	 */
-	public void updatePredecessor(String hostName, int start, int end) {
-		pServer = hostName;
-		if (start > 0)
-			this.keyRange[0] = start;
-		if (end > 0)
-			this.keyRange[1] = end;
+	private void dropFinger(String peer) {
+		NodeInfo[] table = fingers;
+		if (table == null || peer.equals(sServer))
+			return;
+		List<NodeInfo> kept = new ArrayList<NodeInfo>();
+		for (NodeInfo finger : table)
+			if (!finger.getNodeId().equals(peer))
+				kept.add(finger);
+		fingers = kept.toArray(new NodeInfo[kept.size()]);
+		rtts.forget(peer);
 	}
 
 	/**
-	 * This method is responsible for forwarding a new server add request to its
-	 * successor server in the chord distributed network.
+	 * Record the round trip time of a call to another server.
 	 * 
-	 * @param request
+	 * @param peer
+	 * @param beginMicros
+	 *            : transport clock when the call started
 	 */
-	public void forwardServerAddRequest(AddRequest request) {
+	private void recordRtt(String peer, long beginMicros) {
+		long micros = transport.clockMicros() - beginMicros;
+		rtts.record(peer, micros);
+		metrics.histogram(Metrics.RTT).record(micros);
+	}
+
+	/**
+	 * Measure the round trip time to a server with a call doing no work.
+	 * 
+	 * @param peer
+	 */
+	private void probe(String peer) {
+		S2SInterface server = getConnectionToServer(peer);
+		if (server == null)
+			return;
+		long begin = transport.clockMicros();
 		try {
-			if (sServer.equals(getHostName() + domain))
-				return;
+			server.getInfo();
+			recordRtt(peer, begin);
+		} catch (RemoteException e) {
+			rtts.forget(peer);
+			metrics.peerError(peer);
+		}
+	}
 
-			// get connection and forward request to its successor server
-			S2SInterface server = getConnectionToServer(sServer);
-			System.out.println("Forwarding new node adding request to successor server : " + sServer);
-			server.addNewServer(request);
+	/**
+	 * This method is used to run a cluster query on the current server and on
+	 * all servers whose position lies after it and before a limit. The query
+	 * is passed on along a broadcast tree : each finger in that interval gets
+	 * the part of the interval up to the next finger, so the tree is about
+	 * log N levels deep. Results of the children are awaited in parallel until
+	 * the deadline, merged with the local result and returned; children that
+	 * don't answer in time are reported as missing.
+	 * 
+	 * @param query
+	 * @param limit
+	 *            : position the query stops before, the end of our own key
+	 *            range for the whole ring
+	 * @param listener
+	 *            : receives results of the current server and of each child
+	 *            as soon as they are known, may be null
+	 * @return aggregated result
+	 */
+	public QueryResult query(Query query, int limit, QueryListener listener) {
+		long start = System.nanoTime();
+		QueryResult result = localResult(query);
+		if (listener != null)
+			streamResult(listener, query, result);
+
+		// children get three quarters of the remaining time, so that their
+		// results are back before our own deadline
+		long now = System.currentTimeMillis();
+		Query forwarded = query.withDeadline(now + (query.getDeadline() - now) * 3 / 4);
+
+		List<NodeInfo> children = broadcastChildren(limit);
+		CompletionService<QueryResult> completion = new ExecutorCompletionService<QueryResult>(queryWorkers);
+		Map<Future<QueryResult>, String> pending = new HashMap<Future<QueryResult>, String>();
+		for (int i = 0; i < children.size(); i++) {
+			String child = children.get(i).getNodeId();
+			int childLimit = i + 1 < children.size() ? children.get(i + 1).getEnd() : limit;
+			pending.put(completion.submit(() -> {
+				S2SInterface server = getConnectionToServer(child);
+				if (server == null)
+					throw new RemoteException("Server unreachable : " + child);
+				return server.query(forwarded, childLimit, null);
+			}), child);
+		}
 
-		} catch (RemoteException e) {
-			System.out.println("Error : Couldn't forward new server add request to successor server :" + sServer);
+		while (!pending.isEmpty()) {
+			long wait = query.getDeadline() - System.currentTimeMillis();
+			Future<QueryResult> done = null;
+			try {
+				if (wait > 0)
+					done = completion.poll(wait, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (done == null)
+				break;
+
+			String child = pending.remove(done);
+			try {
+				QueryResult partial = done.get();
+				result.merge(partial, query.getMaxNames());
+				if (listener != null)
+					streamResult(listener, query, partial);
+			} catch (ExecutionException e) {
+				log.warn(query.getQueryId(), "Query failed on {} : {}", child, e.getCause());
+				metrics.peerError(child);
+				result.addMissing(child);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				result.addMissing(child);
+			}
 		}
 
+		for (Map.Entry<Future<QueryResult>, String> late : pending.entrySet()) {
+			late.getKey().cancel(true);
+			result.addMissing(late.getValue());
+			metrics.increment(Metrics.QUERY_MISSING);
+		}
+		metrics.time(Metrics.QUERY, start);
+		return result;
 	}
 
 	/**
-	 * This method is responsible for accepting a new server add request in the
-	 * key space of the current server. It includes updating the predecessor
-	 * details and updating values on new server.
-	 * 
-	 * @param request
+	 * Return result of a cluster query for the current server alone.
 	 */
-	public void insertPredecessorNode(AddRequest request) {
+	private QueryResult localResult(Query query) {
+		QueryResult result = new QueryResult();
+		result.addNode(nodeId, fileMap.size(), storedBytes());
+		if (query.getPrefix() != null)
+			for (String file : fileMap)
+				if (file.startsWith(query.getPrefix()))
+					result.addName(file, query.getMaxNames());
+		return result;
+	}
 
-		// check if the new server wants to get added at the same position as
-		// the current server, return with a failure in such a case
-		if (request.getDestination() == keyRange[1]) {
-			S2SInterface server = getConnectionToServer(request.getHostName());
+	private void streamResult(QueryListener listener, Query query, QueryResult partial) {
+		try {
+			listener.partialResult(query.getQueryId(), partial);
+		} catch (RemoteException e) {
+			log.warn(query.getQueryId(), "Failed to stream partial query result : {}", e);
+		}
+	}
+
+	/**
+	 * Return children of the current server in a broadcast tree covering the
+	 * positions after it and before a limit : the distinct fingers in that
+	 * interval, in ring order.
+	 * 
+	 * @param limit
+	 * @return children
+	 */
+	private List<NodeInfo> broadcastChildren(int limit) {
+		NodeInfo[] table = fingers;
+		if (table == null && !sServer.equals(nodeId)) {
+			// without fingers the query goes on through the successor only
+			S2SInterface server = getConnectionToServer(sServer);
 			try {
-				server.pushMessage("Failure : Another server already exist at same position in Chord");
+				if (server != null)
+					table = new NodeInfo[] { server.getInfo() };
 			} catch (RemoteException e) {
-				e.printStackTrace();
+				log.warn(0, "Failed to reach successor {} : {}", sServer, e);
+				metrics.peerError(sServer);
 			}
-			return;
 		}
 
-		String oldPredecessor = pServer;
-		int oldStartRange = keyRange[0];
+		List<NodeInfo> children = new ArrayList<NodeInfo>();
+		if (table == null)
+			return children;
+		int span = distance(keyRange[1], limit);
+		if (span == 0)
+			span = MAX_RANGE + 1;
+		int previous = 0;
+		for (NodeInfo finger : table) {
+			int distance = distance(keyRange[1], finger.getEnd());
+			if (finger.getNodeId().equals(nodeId) || distance <= previous || distance >= span)
+				continue;
+			children.add(finger);
+			previous = distance;
+		}
+		return children;
+	}
 
-		// update predecessor and starting key space on current server
-		pServer = request.getHostName();
-		keyRange[0] = request.getDestination() + 1;
+	/**
+	 * This method is used to run a cluster query from the console and print
+	 * its results, partial results are printed as they arrive.
+	 * 
+	 * @param prefix
+	 *            : prefix of file names to list, null for statistics only
+	 */
+	private void queryCluster(String prefix) {
+		if (fingers == null)
+			fixFingers();
 
-		// update previous predecessor
-		S2SInterface server = getConnectionToServer(oldPredecessor);
-		System.out.println("Updating successor for: " + oldPredecessor);
+		QueryProgress progress = new QueryProgress();
+		QueryListener listener = null;
 		try {
-			server.updateSuccessor(request.getHostName());
-
-			// update new predecessor server, with details of its successor and
-			// predecessors
-			server = getConnectionToServer(pServer);
-			System.out.println("Updating values on: " + pServer);
-			server.updatePredecessor(oldPredecessor, oldStartRange, request.getDestination());
-			server.updateSuccessor(getHostName() + domain);
+			listener = transport.exportCallback(progress, QueryListener.class);
 		} catch (RemoteException e) {
-			e.printStackTrace();
+			log.warn(0, "Partial results unavailable : {}", e);
 		}
-
-		// move files to new predecessor server
-		moveFilesToServer(pServer, false);
+		QueryResult result = query(new Query(prefix, 1000, QUERY_TIMEOUT), keyRange[1], listener);
+		if (listener != null)
+			transport.unexport(progress);
+		System.out.println(result.getSummary());
 	}
 }
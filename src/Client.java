@@ -1,147 +1,71 @@
-import java.io.BufferedInputStream;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.net.InetAddress;
-import java.net.MalformedURLException;
-import java.net.UnknownHostException;
-import java.rmi.Naming;
-import java.rmi.NotBoundException;
-import java.rmi.Remote;
-import java.rmi.RemoteException;
+import java.util.Arrays;
 import java.util.Scanner;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Console client of the chord network, uploading and downloading files
+ * through a {@link ChordClient}. Downloads run in the background, so that
+ * several can be requested without waiting for each to complete.
+ *
+ * Seeds of the network are set with the system property chord.seeds (comma
+ * separated, default kansas.cs.rit.edu). The client learns the other servers
+ * from any of them.
+ *
+ * @author Anurag Malik, am3926
+ *
+ */
+public class Client {
 
-public class Client implements Remote {
-
-	private String lookupDirectory;
 	private int PORT = 4040;
 	private static int MAX_RANGE = 1000;
-	private static String entry_server = "kansas.cs.rit.edu";
+	private Transport transport;
+	private ChordClient client;
 
 	public Client() {
-		lookupDirectory = System.getProperty("user.home") + "/Courses/dht/Client/";
+		String lookupDirectory = System.getProperty("user.home") + "/Courses/dht/Client/";
+		transport = Transport.newTransport(PORT);
+		client = new ChordClient(transport, Arrays.asList(System.getProperty("chord.seeds", NodeConfig.DEFAULT_ENTRY_SERVER).split(",")),
+				lookupDirectory, MAX_RANGE);
 	}
 
-	public String getHostName() {
-		try {
-			return InetAddress.getLocalHost().getHostName();
-		} catch (UnknownHostException e) {
-			e.printStackTrace();
-		}
-		return null;
-	} // getHostName
-
 	/**
-	 * this method is responsible for reading file data from the default lookup
-	 * directory on client machine and return its byte data.
-	 * 
-	 * @param fileName
-	 *            : name of file to be read
-	 * @return byte data read from file
-	 * @throws FileNotFoundException
-	 */
-	public byte[] readFile(String fileName) throws FileNotFoundException {
-
-		// lookup for file in default lookup directory
-		File file = new File(lookupDirectory + fileName);
-		if (!file.exists())
-			throw new FileNotFoundException();
-
-		// read data into byte array
-		byte buffer[] = new byte[(int) file.length()];
-		try {
-			BufferedInputStream input = new BufferedInputStream(new FileInputStream(file.getPath()));
-			input.read(buffer, 0, buffer.length);
-			input.close();
-		} catch (Exception exp) {
-			exp.printStackTrace();
-		}
-		return buffer;
-	} // readFile
-
-	/**
-	 * This method is responsible for connecting to any random servers on a
-	 * distributed systems network and upload a given file to the server.
-	 * 
+	 * This method is responsible for uploading a given file to the server
+	 * owning it on the distributed systems network.
+	 *
 	 * @param fileName
 	 *            : file to be uploaded
 	 */
 	public void sendToServer(String fileName) {
 		try {
-			byte[] data = readFile(fileName);
-
-			int dest = Math.abs(fileName.hashCode()) % MAX_RANGE;
-			
-			System.out.println("Sending file to : " + entry_server);
-			String registryURL = "rmi://" + entry_server + ":" + PORT + "/chord";
-			S2CInterface server = (S2CInterface) Naming.lookup(registryURL);
-
-			server.insertFile(data, fileName, dest);
-
-		} catch (MalformedURLException | RemoteException | NotBoundException e) {
-			System.out.println("Error : Unable to establish connection with server.");
-		} catch (FileNotFoundException e) {
-			System.out.println("Error : File reading error.\nFile not found.");
+			long bytes = client.upload(fileName).join();
+			System.out.println("File uploaded, " + bytes + " bytes sent.");
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof FileNotFoundException)
+				System.out.println("Error : File reading error.\nFile not found.");
+			else
+				System.out.println("Error : Unable to establish connection with server, upload again to resume.");
 		}
 	} // sendToServer
 
-	/**
-	 * This method is responsible for accepting file data from a server after a
-	 * download request has been made for a file and it is found of any of the
-	 * servers.
-	 * 
-	 * @param data
-	 *            : data of the file requested
-	 * @param fileName
-	 *            : name of file to be searched on servers
-	 * @return true if file is successfully down-loaded, false otherwise
-	 */
-	public boolean fileInsert(byte[] data, String fileName) {
-		FileOutputStream fos;
-		try {
-			// write the file data into default lookup directory
-			fos = new FileOutputStream(lookupDirectory + fileName);
-			fos.write(data);
-			fos.close();
-			System.out.println("File Insertion successful.");
-			return true;
-		} catch (IOException e) {
-			System.out.println("Failed to read input file.");
-			e.printStackTrace();
-		}
-		return false;
-	} // fileInsert
-
 	/**
 	 * This method is called to search and request for downloading a file from
-	 * servers.
-	 * 
-	 * @param client
-	 *            : reference of the client instance making download request.
+	 * servers. The answer is printed once it arrives.
+	 *
 	 * @param fileName
 	 *            : name of the file being request
-	 * @throws RemoteException
-	 * @throws NotBoundException
-	 * @throws MalformedURLException
 	 */
-	private static void downloadData(Client client, String fileName)
-			throws RemoteException, NotBoundException, MalformedURLException {
-
-		ClientInterface callBack = new ClientImplementation(client);
-		Request packet = new Request();
-		packet.setFileName(fileName);
-		packet.setClient(callBack);
-
-		int id = Math.abs((fileName).hashCode()) % MAX_RANGE;
-		packet.setDestination(id);
-		
-		System.out.println("@Client - Connecting to : " + entry_server);
-		String registryURL = "rmi://" + entry_server + ":" + client.PORT + "/chord";
-		S2CInterface server = (S2CInterface) Naming.lookup(registryURL);
-
-		server.requestFile(packet);
+	private void downloadData(String fileName) {
+		System.out.println("@Client - Requesting : " + fileName);
+		client.download(fileName).whenComplete((trace, error) -> {
+			if (error != null) {
+				System.out.println("Error : Download of " + fileName + " failed : " + error);
+				return;
+			}
+			System.out.println(trace.getTrace());
+			if (trace.isFound())
+				System.out.println("File Insertion successful.");
+		});
 	} // downloadData
 
 	public static void main(String args[]) {
@@ -170,7 +94,7 @@ public class Client implements Remote {
 					fileName = reader.next();
 
 					// request file to be downloaded from servers, if available
-					downloadData(client, fileName);
+					client.downloadData(fileName);
 					break;
 				case 3: // exit client service
 					exit = true;
@@ -180,6 +104,8 @@ public class Client implements Remote {
 				}
 			}
 			reader.close();
+			client.client.close();
+			client.transport.shutdown();
 		} catch (Exception e) {
 			System.out.println("Exception in Client: " + e);
 		}
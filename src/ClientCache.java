@@ -0,0 +1,206 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * ClientCache keeps copies of the files a client downloaded, with the digest
+ * of their content as version, so that downloading a cached file again only
+ * asks its owner to send it if it changed from that version. When it didn't,
+ * the owner answers with a short reply and the copy is taken from the cache.
+ *
+ * The cache is bounded in bytes, the least recently used copies are evicted
+ * first and files larger than the bound aren't cached. Its index is saved
+ * next to the copies, so that it survives restarts of the client.
+ *
+ * @author Anurag Malik, am3926
+ *
+ */
+public class ClientCache {
+
+	/**
+	 * Version and length of a cached copy.
+	 */
+	private static class Entry {
+		final long version;
+		final long length;
+
+		Entry(long version, long length) {
+			this.version = version;
+			this.length = length;
+		}
+	}
+
+	private final File directory;
+	private final File index;
+	private final long capacity;
+
+	// copies in access order, the eldest is evicted first
+	private final LinkedHashMap<String, Entry> entries;
+	private long bytes;
+
+	/**
+	 * @param directory
+	 *            : directory the copies are kept in
+	 * @param capacity
+	 *            : bytes cached at most, 0 to cache nothing
+	 */
+	public ClientCache(File directory, long capacity) {
+		this.directory = directory;
+		this.index = new File(directory.getPath() + ".index");
+		this.capacity = capacity;
+		entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+		if (capacity > 0)
+			loadIndex();
+	}
+
+	/**
+	 * Return version of the cached copy of a file.
+	 *
+	 * @param fileName
+	 * @return digest of the copy, null if the file isn't cached
+	 */
+	public synchronized Long version(String fileName) {
+		Entry entry = entries.get(fileName);
+		return entry == null ? null : entry.version;
+	}
+
+	/**
+	 * Keep a copy of a file just downloaded, replacing an older one.
+	 *
+	 * @param fileName
+	 * @param file
+	 *            : file downloaded
+	 */
+	public void store(String fileName, File file) {
+		if (capacity <= 0 || !file.exists() || file.length() > capacity)
+			return;
+		File copy = new File(directory, fileName + ".tmp." + Thread.currentThread().getId());
+		try {
+			directory.mkdirs();
+			Files.copy(file.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			long version = MerkleTree.digest(copy);
+			long length = copy.length();
+			synchronized (this) {
+				Files.move(copy.toPath(), new File(directory, fileName).toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+				Entry old = entries.put(fileName, new Entry(version, length));
+				if (old != null)
+					bytes -= old.length;
+				bytes += length;
+				evict();
+				saveIndex();
+			}
+		} catch (IOException e) {
+			copy.delete();
+		}
+	}
+
+	/**
+	 * Copy the cached version of a file to where it is downloaded, once its
+	 * owner answered it didn't change.
+	 *
+	 * @param fileName
+	 * @param version
+	 *            : version the owner confirmed
+	 * @param target
+	 *            : file to write
+	 * @return true if the copy was written, false if it was evicted or
+	 *         replaced meanwhile
+	 */
+	public synchronized boolean restore(String fileName, long version, File target) {
+		Entry entry = entries.get(fileName);
+		if (entry == null || entry.version != version)
+			return false;
+		try {
+			target.getParentFile().mkdirs();
+			Files.copy(new File(directory, fileName).toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			return true;
+		} catch (IOException e) {
+			drop(fileName);
+			saveIndex();
+			return false;
+		}
+	}
+
+	/**
+	 * Return bytes of the copies held.
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Return number of copies held.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+		while (bytes > capacity && eldest.hasNext()) {
+			Map.Entry<String, Entry> entry = eldest.next();
+			eldest.remove();
+			bytes -= entry.getValue().length;
+			new File(directory, entry.getKey()).delete();
+		}
+	}
+
+	private void drop(String fileName) {
+		Entry entry = entries.remove(fileName);
+		if (entry != null)
+			bytes -= entry.length;
+		new File(directory, fileName).delete();
+	}
+
+	/**
+	 * Read the index saved by an earlier client, keeping only the copies still
+	 * there whole.
+	 */
+	private void loadIndex() {
+		if (!index.exists())
+			return;
+		Properties saved = new Properties();
+		try (FileInputStream input = new FileInputStream(index)) {
+			saved.load(input);
+		} catch (IOException e) {
+			return;
+		}
+		for (String fileName : saved.stringPropertyNames()) {
+			String[] fields = saved.getProperty(fileName).split(",");
+			File copy = new File(directory, fileName);
+			try {
+				long length = Long.parseLong(fields[1]);
+				if (copy.length() == length) {
+					entries.put(fileName, new Entry(Long.parseLong(fields[0]), length));
+					bytes += length;
+				}
+			} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+				copy.delete();
+			}
+		}
+		evict();
+	}
+
+	private void saveIndex() {
+		Properties saved = new Properties();
+		for (Map.Entry<String, Entry> entry : entries.entrySet())
+			saved.setProperty(entry.getKey(), entry.getValue().version + "," + entry.getValue().length);
+		File temporary = new File(index.getPath() + ".tmp");
+		try {
+			try (FileOutputStream output = new FileOutputStream(temporary)) {
+				saved.store(output, null);
+			}
+			Files.move(temporary.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			temporary.delete();
+		}
+	}
+}
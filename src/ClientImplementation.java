@@ -1,47 +1,57 @@
 import java.rmi.RemoteException;
-import java.rmi.server.UnicastRemoteObject;
 
 /***
  * This class represents implementation of ClientInterface. It is responsible
  * for providing methods required to retrieve messages or file data from server.
+ * One instance is exported per {@link ChordClient}, and the answers it receives
+ * are matched with the requests of the client by request id.
  * 
  * @author Anurag Malik, am3926
  *
  */
-public class ClientImplementation extends UnicastRemoteObject implements ClientInterface {
+public class ClientImplementation implements ClientInterface {
 
-	private Client client;
-	static final long serialVersionUID = 1L;
+	private ChordClient client;
 
-	protected ClientImplementation() throws RemoteException {
-		super();
+	protected ClientImplementation() {
 	}
 
-	protected ClientImplementation(Client client) throws RemoteException {
-		super();
+	protected ClientImplementation(ChordClient client) {
 		this.client = client;
 	}
 
 	@Override
 	/*
-	 * Method used to insert messages to this client
+	 * Method used by servers to answer a request of this client
 	 * (non-Javadoc)
-	 * @see ClientInterface#pushTrace(java.lang.String)
+	 * @see ClientInterface#pushTrace(Trace)
 	 */
-	public void pushTrace(String trace) throws RemoteException {
-		System.out.println(trace);
+	public void pushTrace(Trace trace) throws RemoteException {
+		client.answer(trace);
 	}
 
 	@Override
 	/*
 	 * Method used by servers to push file data and trace message onto this client
 	 * (non-Javadoc)
-	 * @see ClientInterface#pushFile(byte[], java.lang.String, java.lang.String)
+	 * @see ClientInterface#pushFile(byte[], Trace, java.lang.String)
 	 */
-	public boolean pushFile(byte[] buffer, String trace, String fileName) throws RemoteException {
+	public boolean pushFile(byte[] buffer, Trace trace, String fileName) throws RemoteException {
+		boolean stored = client.fileInsert(buffer, fileName);
+		trace.setStatus(stored);
+		client.answer(trace);
+		return stored;
+	}
 
-		System.out.println(trace);
-		return client.fileInsert(buffer, fileName);
+	@Override
+	/*
+	 * Method used by servers to answer that a file requested didn't change
+	 * from the version cached by this client
+	 * (non-Javadoc)
+	 * @see ClientInterface#pushNotModified(Trace, java.lang.String, long)
+	 */
+	public void pushNotModified(Trace trace, String fileName, long version) throws RemoteException {
+		client.notModified(trace, fileName, version);
 	}
 
 	@Override
@@ -53,4 +63,19 @@ public class ClientImplementation extends UnicastRemoteObject implements ClientI
 	public String getAddress() throws RemoteException {
 		return client.getHostName();
 	}
+
+	@Override
+	public long beginTransfer(String transferId, String fileName, long size) throws RemoteException {
+		return client.beginTransfer(transferId, fileName, size);
+	}
+
+	@Override
+	public long writeChunk(String transferId, long offset, byte[] data) throws RemoteException {
+		return client.writeChunk(transferId, offset, data);
+	}
+
+	@Override
+	public boolean commitTransfer(String transferId) throws RemoteException {
+		return client.commitTransfer(transferId);
+	}
 } // ClientLogic
@@ -1,16 +1,19 @@
-import java.rmi.Remote;
 import java.rmi.RemoteException;
 /**
  * Interface providing callback functionality for interaction with the client machine
  * @author Anurag Malik, am3926
  *
  */
-public interface ClientInterface extends Remote {
-	// push message onto client machine
-	public void pushTrace(String trace) throws RemoteException;
+public interface ClientInterface extends TransferInterface {
+	// push trace of a request that found no file onto client machine
+	public void pushTrace(Trace trace) throws RemoteException;
 	
+	// answer a conditional request whose file didn't change from the version
+	// the client holds
+	public void pushNotModified(Trace trace, String fileName, long version) throws RemoteException;
+
 	// push request file data and trace onto client machine
-	public boolean pushFile(byte[] buffer, String trace, String fileName) throws RemoteException;
+	public boolean pushFile(byte[] buffer, Trace trace, String fileName) throws RemoteException;
 	
 	// request host name of the client machine
 	public String getAddress() throws RemoteException;
@@ -0,0 +1,19 @@
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * This interface provides methods for receiving a new version of a file as
+ * the changes from the copy already held, see {@link DeltaSync}. It is
+ * implemented by servers, for uploads and files handed over between servers.
+ * 
+ * @author Anurag Malik, am3926
+ *
+ */
+public interface DeltaInterface extends Remote {
+
+	// return block checksums of the copy of a file held, null if there is none
+	FileSignature getSignature(String fileName) throws RemoteException;
+
+	// rebuild a new version of a file from the copy held and the changes
+	boolean applyDelta(FileDelta delta) throws RemoteException;
+}
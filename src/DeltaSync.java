@@ -0,0 +1,265 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.rmi.RemoteException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * DeltaSync sends a new version of a file to a receiver holding an older one
+ * as only the data that changed, in the way of rsync. The receiver returns a
+ * {@link FileSignature} of its copy : a weak rolling checksum and a strong
+ * checksum of each block. The sender slides a window of one block over the
+ * new version; where the rolling checksum of the window matches a block, and
+ * the strong checksum confirms it, the block is referenced, else the byte is
+ * sent as literal data. The receiver rebuilds the new version from its copy
+ * and the {@link FileDelta}, and checks its digest.
+ *
+ * Files are processed whole in memory. Files larger than chord.delta.max
+ * (bytes, default 256MB), and deltas carrying more than half of the file as
+ * literal data, are sent whole instead.
+ *
+ * @author Anurag Malik, am3926
+ *
+ */
+public class DeltaSync {
+
+	static final long MAX_SIZE = Long.getLong("chord.delta.max", 256L * 1024 * 1024);
+	static final double MAX_LITERAL_SHARE = 0.5;
+	static final int MIN_BLOCK = 1024;
+	static final int MAX_BLOCK = 128 * 1024;
+
+	private DeltaSync() {
+	}
+
+	/**
+	 * Return block size for a file, about the square root of its length, which
+	 * balances the size of the signature against the literal data sent around
+	 * each change.
+	 */
+	static int blockSize(long length) {
+		int size = Integer.highestOneBit((int) Math.min(Integer.MAX_VALUE, (long) Math.sqrt(length)));
+		return Math.max(MIN_BLOCK, Math.min(MAX_BLOCK, size));
+	}
+
+	/**
+	 * Compute the signature of the copy of a file held.
+	 *
+	 * @param fileName
+	 * @param data
+	 *            : content of the copy
+	 * @return block checksums
+	 */
+	public static FileSignature signature(String fileName, byte[] data) {
+		int blockSize = blockSize(data.length);
+		int blocks = data.length / blockSize;
+		int[] weak = new int[blocks];
+		long[] strong = new long[blocks];
+		MessageDigest md5 = md5();
+		for (int i = 0; i < blocks; i++) {
+			weak[i] = weak(data, i * blockSize, blockSize);
+			strong[i] = strong(md5, data, i * blockSize, blockSize);
+		}
+		return new FileSignature(fileName, MerkleTree.digest(data), data.length, blockSize, weak, strong);
+	}
+
+	/**
+	 * Compute the changes of a new version of a file from the copy a
+	 * signature was taken of.
+	 *
+	 * @param signature
+	 * @param data
+	 *            : content of the new version
+	 * @return delta
+	 */
+	public static FileDelta delta(FileSignature signature, byte[] data) {
+		int blockSize = signature.getBlockSize();
+		Map<Integer, List<Integer>> blocks = new HashMap<Integer, List<Integer>>();
+		for (int i = 0; i < signature.getBlockCount(); i++)
+			blocks.computeIfAbsent(signature.getWeak(i), key -> new ArrayList<Integer>(1)).add(i);
+
+		List<Integer> sequence = new ArrayList<Integer>();
+		List<byte[]> literals = new ArrayList<byte[]>();
+		MessageDigest md5 = md5();
+		int literalStart = 0;
+		int offset = 0;
+		int a = 0;
+		int b = 0;
+		boolean rolling = false;
+		while (offset + blockSize <= data.length) {
+			if (!rolling) {
+				int sum = weak(data, offset, blockSize);
+				a = sum & 0xffff;
+				b = sum >>> 16;
+				rolling = true;
+			}
+			int match = -1;
+			List<Integer> candidates = blocks.get(a | (b << 16));
+			if (candidates != null) {
+				long sum = strong(md5, data, offset, blockSize);
+				for (int candidate : candidates)
+					if (signature.getStrong(candidate) == sum) {
+						match = candidate;
+						break;
+					}
+			}
+			if (match >= 0) {
+				if (literalStart < offset) {
+					sequence.add(-1);
+					literals.add(copy(data, literalStart, offset));
+				}
+				sequence.add(match);
+				offset += blockSize;
+				literalStart = offset;
+				rolling = false;
+				continue;
+			}
+
+			// slide the window by one byte
+			if (offset + blockSize < data.length) {
+				int out = data[offset] & 0xff;
+				int in = data[offset + blockSize] & 0xff;
+				a = (a - out + in) & 0xffff;
+				b = (b - blockSize * out + a) & 0xffff;
+			}
+			offset++;
+		}
+		if (literalStart < data.length) {
+			sequence.add(-1);
+			literals.add(copy(data, literalStart, data.length));
+		}
+
+		int[] entries = new int[sequence.size()];
+		for (int i = 0; i < entries.length; i++)
+			entries[i] = sequence.get(i);
+		return new FileDelta(signature.getFileName(), signature.getVersion(), blockSize, data.length,
+				MerkleTree.digest(data), entries, literals.toArray(new byte[literals.size()][]));
+	}
+
+	/**
+	 * Rebuild the new version of a file from the copy held and a delta.
+	 *
+	 * @param base
+	 *            : content of the copy held
+	 * @param delta
+	 * @return content of the new version
+	 * @throws IOException
+	 *             if the delta doesn't apply to the copy, or the result
+	 *             differs from the version sent
+	 */
+	public static byte[] apply(byte[] base, FileDelta delta) throws IOException {
+		if (MerkleTree.digest(base) != delta.getBaseVersion())
+			throw new IOException(delta.getFileName() + " changed since its signature was taken");
+		if (delta.getLength() > Integer.MAX_VALUE)
+			throw new IOException(delta.getFileName() + " is too large for a delta");
+		byte[] data = new byte[(int) delta.getLength()];
+		int blockSize = delta.getBlockSize();
+		int position = 0;
+		int literal = 0;
+		try {
+			for (int entry : delta.getSequence()) {
+				if (entry < 0) {
+					byte[] bytes = delta.getLiterals()[literal++];
+					System.arraycopy(bytes, 0, data, position, bytes.length);
+					position += bytes.length;
+				} else {
+					System.arraycopy(base, entry * blockSize, data, position, blockSize);
+					position += blockSize;
+				}
+			}
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("Malformed delta of " + delta.getFileName(), e);
+		}
+		if (position != data.length || MerkleTree.digest(data) != delta.getDigest())
+			throw new IOException("Delta of " + delta.getFileName() + " rebuilt a different file");
+		return data;
+	}
+
+	/**
+	 * Send a file to a receiver as the changes from the copy it holds.
+	 *
+	 * @param target
+	 *            : receiver
+	 * @param file
+	 *            : new version of the file
+	 * @param fileName
+	 *            : name the file is stored under
+	 * @param metrics
+	 *            : metrics counting deltas sent and bytes saved, may be null
+	 * @return number of bytes sent, -1 if the file must be sent whole : the
+	 *         receiver holds no copy, too much changed, or the delta didn't
+	 *         apply
+	 * @throws FileNotFoundException
+	 *             if the file doesn't exist
+	 * @throws IOException
+	 *             if the file can't be read, or the receiver can't be reached
+	 */
+	public static long send(DeltaInterface target, File file, String fileName, Metrics metrics)
+			throws IOException {
+		if (!file.exists())
+			throw new FileNotFoundException(file.getPath());
+		if (file.length() > MAX_SIZE)
+			return -1;
+		FileSignature signature = target.getSignature(fileName);
+		if (signature == null)
+			return -1;
+
+		byte[] data = Files.readAllBytes(file.toPath());
+		FileDelta delta = delta(signature, data);
+		if (delta.getLiteralBytes() > data.length * MAX_LITERAL_SHARE)
+			return -1;
+		try {
+			if (!target.applyDelta(delta))
+				return -1;
+		} catch (RemoteException e) {
+			// changed meanwhile on the receiver, the whole file is sent
+			return -1;
+		}
+		if (metrics != null) {
+			metrics.increment(Metrics.DELTA_SYNCS);
+			metrics.add(Metrics.DELTA_SAVED, Math.max(0, data.length - delta.getWireBytes()));
+		}
+		return delta.getWireBytes();
+	}
+
+	/**
+	 * Return weak checksum of a block : the sum of its bytes in the low 16
+	 * bits, and the sum of the bytes weighted by their distance to the end of
+	 * the block in the high 16 bits, so that it can be rolled one byte on.
+	 */
+	static int weak(byte[] data, int offset, int length) {
+		int a = 0;
+		int b = 0;
+		for (int i = 0; i < length; i++) {
+			int value = data[offset + i] & 0xff;
+			a += value;
+			b += (length - i) * value;
+		}
+		return (a & 0xffff) | ((b & 0xffff) << 16);
+	}
+
+	private static long strong(MessageDigest md5, byte[] data, int offset, int length) {
+		md5.update(data, offset, length);
+		return ByteBuffer.wrap(md5.digest()).getLong();
+	}
+
+	private static byte[] copy(byte[] data, int from, int to) {
+		byte[] bytes = new byte[to - from];
+		System.arraycopy(data, from, bytes, 0, bytes.length);
+		return bytes;
+	}
+
+	private static MessageDigest md5() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
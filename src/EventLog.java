@@ -0,0 +1,221 @@
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * EventLog writes server events off the request path. Request threads only
+ * copy an event into a slot of a preallocated ring buffer; a background
+ * writer thread formats and prints the events in order. When the buffer is
+ * full the event is dropped and counted instead of blocking the request, and
+ * the writer reports how many events were lost.
+ *
+ * Each event carries a level, the server it happened on, the correlation id of
+ * the request it belongs to (0 if none) and a message with {} placeholders.
+ * Up to three arguments are kept in the slot, events with more keep all of
+ * them in their argument array. Arguments without a placeholder are printed
+ * after the message. The minimum level printed is set with the system
+ * property chord.log.level (DEBUG, INFO, WARN, ERROR, default INFO) and the
+ * buffer size with chord.log.buffer (default 8192 events).
+ *
+ * @author Anurag Malik, am3926
+ *
+ */
+public class EventLog {
+
+	public enum Level {
+		DEBUG, INFO, WARN, ERROR
+	}
+
+	/**
+	 * Slot of the ring buffer, reused for every event written into it.
+	 */
+	private static class Event {
+		// sequence of the event held, written last by the producer
+		volatile long published = -1;
+		long time;
+		Level level;
+		String node;
+		long correlationId;
+		String message;
+		Object arg0;
+		Object arg1;
+		Object arg2;
+		// all arguments of an event with more than three, else null
+		Object[] args;
+		int count;
+	}
+
+	private static final Event[] ring;
+	private static final int mask;
+	private static final AtomicLong claimed = new AtomicLong();
+	private static final LongAdder dropped = new LongAdder();
+	private static volatile long consumed;
+	private static volatile Level threshold;
+	private static volatile PrintStream out;
+
+	static {
+		int size = Integer.highestOneBit(Math.max(16, Integer.getInteger("chord.log.buffer", 8192)));
+		ring = new Event[size];
+		for (int i = 0; i < size; i++)
+			ring[i] = new Event();
+		mask = size - 1;
+		threshold = Level.valueOf(System.getProperty("chord.log.level", "INFO").toUpperCase());
+
+		Thread writer = new Thread(EventLog::drain, "event-log-writer");
+		writer.setDaemon(true);
+		writer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(EventLog::flush, "event-log-flush"));
+	}
+
+	private final String node;
+
+	private EventLog(String node) {
+		this.node = node;
+	}
+
+	/**
+	 * Return the log of a server.
+	 *
+	 * @param node
+	 *            : host name written with every event
+	 * @return event log
+	 */
+	public static EventLog forNode(String node) {
+		return new EventLog(node);
+	}
+
+	public static void setLevel(Level level) {
+		threshold = level;
+	}
+
+	/**
+	 * Write events to a stream instead of System.out.
+	 *
+	 * @param stream
+	 *            : destination, null for System.out
+	 */
+	public static void setOutput(PrintStream stream) {
+		out = stream;
+	}
+
+	/**
+	 * Return number of events dropped because the buffer was full.
+	 */
+	public static long getDropped() {
+		return dropped.sum();
+	}
+
+	public static boolean isEnabled(Level level) {
+		return level.compareTo(threshold) >= 0;
+	}
+
+	public void debug(long correlationId, String message, Object... args) {
+		log(Level.DEBUG, correlationId, message, args);
+	}
+
+	public void info(long correlationId, String message, Object... args) {
+		log(Level.INFO, correlationId, message, args);
+	}
+
+	public void warn(long correlationId, String message, Object... args) {
+		log(Level.WARN, correlationId, message, args);
+	}
+
+	public void error(long correlationId, String message, Object... args) {
+		log(Level.ERROR, correlationId, message, args);
+	}
+
+	/**
+	 * Copy an event into the ring buffer, never waiting for the writer.
+	 */
+	public void log(Level level, long correlationId, String message, Object... args) {
+		if (level.compareTo(threshold) < 0)
+			return;
+
+		long sequence;
+		do {
+			sequence = claimed.get();
+			if (sequence - consumed >= ring.length) {
+				dropped.increment();
+				return;
+			}
+		} while (!claimed.compareAndSet(sequence, sequence + 1));
+
+		Event event = ring[(int) sequence & mask];
+		event.time = System.currentTimeMillis();
+		event.level = level;
+		event.node = node;
+		event.correlationId = correlationId;
+		event.message = message;
+		event.arg0 = args.length > 0 ? args[0] : null;
+		event.arg1 = args.length > 1 ? args[1] : null;
+		event.arg2 = args.length > 2 ? args[2] : null;
+		event.args = args.length > 3 ? args : null;
+		event.count = args.length;
+		event.published = sequence;
+	}
+
+	/**
+	 * Wait until all events written so far have been printed.
+	 */
+	public static void flush() {
+		long target = claimed.get();
+		long deadline = System.nanoTime() + 2000000000L;
+		while (consumed < target && System.nanoTime() < deadline)
+			LockSupport.parkNanos(100000);
+	}
+
+	private static void drain() {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+		StringBuilder line = new StringBuilder(256);
+		long reported = 0;
+		long sequence = 0;
+		while (true) {
+			Event event = ring[(int) sequence & mask];
+			if (event.published != sequence) {
+				LockSupport.parkNanos(200000);
+				continue;
+			}
+
+			line.setLength(0);
+			line.append(format.format(new Date(event.time))).append(' ');
+			line.append(event.level).append(event.level.name().length() == 4 ? "  " : " ");
+			line.append('[').append(event.node).append(']');
+			if (event.correlationId != 0)
+				line.append(" #").append(Long.toHexString(event.correlationId));
+			line.append(' ');
+			appendMessage(line, event);
+			event.arg0 = event.arg1 = event.arg2 = null;
+			event.args = null;
+
+			// free the slot for producers before printing
+			consumed = ++sequence;
+
+			long lost = dropped.sum();
+			if (lost > reported) {
+				line.append("\n(event log : ").append(lost - reported).append(" events dropped)");
+				reported = lost;
+			}
+			PrintStream stream = out == null ? System.out : out;
+			stream.println(line);
+		}
+	}
+
+	private static void appendMessage(StringBuilder line, Event event) {
+		String message = event.message;
+		Object[] args = event.args != null ? event.args : new Object[] { event.arg0, event.arg1, event.arg2 };
+		int arg = 0;
+		int from = 0;
+		int index;
+		while ((index = message.indexOf("{}", from)) >= 0 && arg < event.count) {
+			line.append(message, from, index).append(args[arg++]);
+			from = index + 2;
+		}
+		line.append(message, from, message.length());
+		for (String separator = " : "; arg < event.count; arg++, separator = ", ")
+			line.append(separator).append(args[arg]);
+	}
+}
@@ -0,0 +1,87 @@
+import java.io.Serializable;
+
+/**
+ * This class represents a new version of a file as the changes from a copy
+ * held by the receiver, see {@link DeltaSync}. The new version is a sequence
+ * of blocks of the receiver's copy and of literal data; an entry of the
+ * sequence is either the index of a block to copy or -1 for the next literal.
+ *
+ * @author Anurag Malik, am3926
+ *
+ */
+public class FileDelta implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	private final String fileName;
+	private final long baseVersion;
+	private final int blockSize;
+	private final long length;
+	private final long digest;
+	private final int[] sequence;
+	private final byte[][] literals;
+
+	public FileDelta(String fileName, long baseVersion, int blockSize, long length, long digest, int[] sequence,
+			byte[][] literals) {
+		this.fileName = fileName;
+		this.baseVersion = baseVersion;
+		this.blockSize = blockSize;
+		this.length = length;
+		this.digest = digest;
+		this.sequence = sequence;
+		this.literals = literals;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Get content digest of the copy the delta applies to.
+	 */
+	public long getBaseVersion() {
+		return baseVersion;
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Get length of the new version.
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Get content digest of the new version, checked once it is rebuilt.
+	 */
+	public long getDigest() {
+		return digest;
+	}
+
+	public int[] getSequence() {
+		return sequence;
+	}
+
+	public byte[][] getLiterals() {
+		return literals;
+	}
+
+	/**
+	 * Return number of bytes sent as literal data.
+	 */
+	public long getLiteralBytes() {
+		long bytes = 0;
+		for (byte[] literal : literals)
+			bytes += literal.length;
+		return bytes;
+	}
+
+	/**
+	 * Return approximate number of bytes the delta takes on the wire.
+	 */
+	public long getWireBytes() {
+		return getLiteralBytes() + 4L * sequence.length;
+	}
+}
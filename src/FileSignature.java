@@ -0,0 +1,65 @@
+import java.io.Serializable;
+
+/**
+ * This class represents the block checksums of the copy of a file a server
+ * holds, sent to a sender so that it can send only what changed, see
+ * {@link DeltaSync}. Each full block of the file has a weak rolling checksum,
+ * cheap to slide over the new version byte by byte, and a strong checksum
+ * confirming a match.
+ *
+ * @author Anurag Malik, am3926
+ *
+ */
+public class FileSignature implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	private final String fileName;
+	private final long version;
+	private final long length;
+	private final int blockSize;
+	private final int[] weak;
+	private final long[] strong;
+
+	public FileSignature(String fileName, long version, long length, int blockSize, int[] weak, long[] strong) {
+		this.fileName = fileName;
+		this.version = version;
+		this.length = length;
+		this.blockSize = blockSize;
+		this.weak = weak;
+		this.strong = strong;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Get content digest of the copy the checksums were taken of.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Get number of full blocks checksummed.
+	 */
+	public int getBlockCount() {
+		return weak.length;
+	}
+
+	public int getWeak(int block) {
+		return weak[block];
+	}
+
+	public long getStrong(int block) {
+		return strong[block];
+	}
+}
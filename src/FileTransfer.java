@@ -0,0 +1,175 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.rmi.RemoteException;
+import java.util.UUID;
+
+/**
+ * FileTransfer sends a file in chunks to a {@link TransferInterface}, reading
+ * it from disk one chunk at a time. When a call fails the transfer is started
+ * again after a pause, and continues from the offset the receiver
+ * checkpointed instead of from the beginning.
+ * 
+ * The chunk size is set with the system property chord.transfer.chunk (bytes,
+ * default 1MB) and the number of attempts with chord.transfer.attempts
+ * (default 5).
+ * 
+ * @author Anurag Malik, am3926
+ *
+ */
+public class FileTransfer {
+
+	static final int CHUNK_SIZE = Integer.getInteger("chord.transfer.chunk", 1024 * 1024);
+	static final int ATTEMPTS = Integer.getInteger("chord.transfer.attempts", 5);
+
+	/**
+	 * Reads a chunk of the file being sent. The chunk returned is only read
+	 * by the transfer, so it may be shared with other transfers.
+	 */
+	public interface ChunkReader {
+		byte[] read(long offset, int length) throws IOException;
+	}
+
+	private FileTransfer() {
+	}
+
+	/**
+	 * Return id of the transfer of a file from a sender. The id stays the same
+	 * as long as the file is unchanged, so that the transfer can be resumed
+	 * after the sender restarts.
+	 * 
+	 * @param sender
+	 *            : node id or host name of the sender
+	 * @param file
+	 * @return transfer id
+	 */
+	public static String transferId(String sender, File file) {
+		String key = sender + "/" + file.getName() + "/" + file.length() + "/" + file.lastModified();
+		return UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString();
+	}
+
+	/**
+	 * Return id of the transfer of a file for one request, so that transfers
+	 * of the same file to the same receiver running at the same time don't
+	 * share a session. The id stays the same for retries of the request.
+	 * 
+	 * @param sender
+	 *            : node id or host name of the sender
+	 * @param file
+	 * @param nonce
+	 *            : id of the request
+	 * @return transfer id
+	 */
+	public static String transferId(String sender, File file, long nonce) {
+		String key = sender + "/" + file.getName() + "/" + file.length() + "/" + file.lastModified() + "/" + nonce;
+		return UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString();
+	}
+
+	/**
+	 * Send a file and commit it on the receiver.
+	 * 
+	 * @param target
+	 *            : receiver
+	 * @param transferId
+	 * @param file
+	 *            : file to be sent
+	 * @param fileName
+	 *            : name the file is stored under
+	 * @param metrics
+	 *            : metrics counting retries and resumed transfers, may be
+	 *            null
+	 * @return number of bytes sent, less than the file size if the receiver
+	 *         already had a part of it
+	 * @throws FileNotFoundException
+	 *             if the file doesn't exist
+	 * @throws IOException
+	 *             if the file can't be read, or the receiver can't be reached
+	 *             after all attempts
+	 */
+	public static long send(TransferInterface target, String transferId, File file, String fileName,
+			Metrics metrics) throws IOException {
+		return send(target, transferId, file, fileName, metrics, (offset, length) -> readChunk(file, offset, length));
+	}
+
+	/**
+	 * Send a file and commit it on the receiver, reading its chunks through a
+	 * reader.
+	 * 
+	 * @param target
+	 *            : receiver
+	 * @param transferId
+	 * @param file
+	 *            : file to be sent
+	 * @param fileName
+	 *            : name the file is stored under
+	 * @param metrics
+	 *            : metrics counting retries and resumed transfers, may be
+	 *            null
+	 * @param reader
+	 *            : reader of the chunks of the file
+	 * @return number of bytes sent
+	 * @throws IOException
+	 */
+	public static long send(TransferInterface target, String transferId, File file, String fileName,
+			Metrics metrics, ChunkReader reader) throws IOException {
+		if (!file.exists())
+			throw new FileNotFoundException(file.getPath());
+
+		long size = file.length();
+		long sent = 0;
+		RemoteException failure = null;
+		for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+			try {
+				long offset = target.beginTransfer(transferId, fileName, size);
+				if (offset > 0 && metrics != null)
+					metrics.increment(Metrics.TRANSFER_RESUMED);
+
+				while (offset < size) {
+					int length = (int) Math.min(CHUNK_SIZE, size - offset);
+					byte[] chunk = reader.read(offset, length);
+					offset = target.writeChunk(transferId, offset, chunk);
+					sent += length;
+				}
+				if (target.commitTransfer(transferId))
+					return sent;
+				throw new RemoteException("Transfer of " + fileName + " not committed");
+			} catch (RemoteException e) {
+				failure = e;
+				if (metrics != null)
+					metrics.increment(Metrics.TRANSFER_RETRIES);
+				try {
+					Thread.sleep(100L << attempt);
+				} catch (InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+		throw failure;
+	}
+
+	/**
+	 * Read a chunk of a file from disk.
+	 * 
+	 * @param file
+	 * @param offset
+	 * @param length
+	 * @return chunk data
+	 * @throws IOException
+	 *             if the file is shorter than the chunk end
+	 */
+	public static byte[] readChunk(File file, long offset, int length) throws IOException {
+		byte[] chunk = new byte[length];
+		ByteBuffer buffer = ByteBuffer.wrap(chunk);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			while (buffer.hasRemaining())
+				if (channel.read(buffer, offset + buffer.position()) < 0)
+					throw new IOException("File " + file + " shrank while being sent");
+		}
+		return chunk;
+	}
+}
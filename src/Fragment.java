@@ -0,0 +1,95 @@
+import java.io.Serializable;
+import java.util.zip.CRC32;
+
+/**
+ * This class represents one erasure-coded fragment of a file, as stored on one
+ * of the servers following the owner of the file. It carries what is needed
+ * to rebuild the file from any k fragments : the coding parameters, the
+ * length of the file and the time it was stored.
+ *
+ * @author Anurag Malik, am3926
+ *
+ */
+public class Fragment implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	private final String fileName;
+	private final int index;
+	private final int dataFragments;
+	private final int parityFragments;
+	private final int length;
+	private final long modified;
+	private final byte[] data;
+	private final long checksum;
+
+	public Fragment(String fileName, int index, int dataFragments, int parityFragments, int length, long modified,
+			byte[] data) {
+		this.fileName = fileName;
+		this.index = index;
+		this.dataFragments = dataFragments;
+		this.parityFragments = parityFragments;
+		this.length = length;
+		this.modified = modified;
+		this.data = data;
+		this.checksum = checksum(data);
+	}
+
+	private static long checksum(byte[] data) {
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		return crc.getValue();
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Get index of the fragment, data fragments come first.
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	public int getDataFragments() {
+		return dataFragments;
+	}
+
+	public int getParityFragments() {
+		return parityFragments;
+	}
+
+	/**
+	 * Get length of the whole file.
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Get time the file was stored, kept on rebuilt copies.
+	 */
+	public long getModified() {
+		return modified;
+	}
+
+	public byte[] getData() {
+		return data;
+	}
+
+	/**
+	 * Check the fragment data against the checksum computed when it was
+	 * encoded.
+	 */
+	public boolean isIntact() {
+		return data != null && checksum(data) == checksum;
+	}
+
+	/**
+	 * Return a copy of this fragment with another index and data, for a
+	 * fragment computed again from the same file.
+	 */
+	public Fragment withData(int index, byte[] data) {
+		return new Fragment(fileName, index, dataFragments, parityFragments, length, modified, data);
+	}
+}
@@ -0,0 +1,219 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * FragmentStore keeps the erasure-coded {@link Fragment}s held by a server,
+ * one file per fragment in a directory next to the lookup directory. Only the
+ * newest version of each file is kept : storing a fragment of a file inserted
+ * again deletes the fragments of the earlier insert. Versions and indices
+ * held are kept in memory, read from the file names on start.
+ *
+ * @author Anurag Malik, am3926
+ *
+ */
+public class FragmentStore {
+
+	private static final String SUFFIX = ".frag";
+
+	/**
+	 * Version and indices of the fragments held of one file.
+	 */
+	private static class Held {
+		final long version;
+		final Set<Integer> indices = new TreeSet<Integer>();
+
+		Held(long version) {
+			this.version = version;
+		}
+	}
+
+	private final File directory;
+	private final Map<String, Held> held;
+
+	public FragmentStore(File directory) {
+		this.directory = directory;
+		held = new ConcurrentHashMap<String, Held>();
+		directory.mkdirs();
+		String[] files = directory.list();
+		if (files == null)
+			return;
+
+		// fragment files are named <file name>.<version>.<index>.frag
+		for (String file : files) {
+			if (!file.endsWith(SUFFIX))
+				continue;
+			String[] parts = file.substring(0, file.length() - SUFFIX.length()).split("\\.");
+			if (parts.length < 3)
+				continue;
+			try {
+				long version = Long.parseLong(parts[parts.length - 2]);
+				int index = Integer.parseInt(parts[parts.length - 1]);
+				String fileName = file.substring(0, file.length() - SUFFIX.length() - parts[parts.length - 1].length()
+						- parts[parts.length - 2].length() - 2);
+				Held current = held.get(fileName);
+				if (current == null || current.version < version) {
+					current = new Held(version);
+					held.put(fileName, current);
+				}
+				if (current.version == version)
+					current.indices.add(index);
+			} catch (NumberFormatException e) {
+				// not a fragment
+			}
+		}
+	}
+
+	private File file(String fileName, long version, int index) {
+		return new File(directory, fileName + "." + version + "." + index + SUFFIX);
+	}
+
+	/**
+	 * Store a fragment, replacing one with the same index and deleting the
+	 * fragments of older versions of the file.
+	 *
+	 * @param fragment
+	 * @return false if a newer version of the file is held, and the fragment
+	 *         ignored
+	 * @throws IOException
+	 */
+	public synchronized boolean store(Fragment fragment) throws IOException {
+		String fileName = fragment.getFileName();
+		Held current = held.get(fileName);
+		if (current != null && current.version > fragment.getModified())
+			return false;
+
+		File target = file(fileName, fragment.getModified(), fragment.getIndex());
+		File temporary = new File(target.getPath() + ".tmp");
+		try (ObjectOutputStream output = new ObjectOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temporary)))) {
+			output.writeObject(fragment);
+		}
+		Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+		if (current != null && current.version < fragment.getModified()) {
+			for (int index : current.indices)
+				delete(fileName, current.version, index);
+			current = null;
+		}
+		if (current == null) {
+			current = new Held(fragment.getModified());
+			held.put(fileName, current);
+		}
+		current.indices.add(fragment.getIndex());
+		return true;
+	}
+
+	/**
+	 * Return all intact fragments held of a file.
+	 *
+	 * @param fileName
+	 * @return fragments, empty if none is held
+	 */
+	public List<Fragment> get(String fileName) {
+		List<Fragment> fragments = new ArrayList<Fragment>();
+		long version = getVersion(fileName);
+		for (int index : getIndices(fileName)) {
+			try (ObjectInputStream input = new ObjectInputStream(
+					new BufferedInputStream(new FileInputStream(file(fileName, version, index))))) {
+				Fragment fragment = (Fragment) input.readObject();
+				if (fragment.isIntact())
+					fragments.add(fragment);
+			} catch (IOException | ClassNotFoundException e) {
+				// lost or damaged, rebuilt from other fragments
+			}
+		}
+		return fragments;
+	}
+
+	/**
+	 * Return indices of the fragments held of a file, those whose file was
+	 * lost are left out so that they are placed again.
+	 */
+	public synchronized int[] getIndices(String fileName) {
+		Held current = held.get(fileName);
+		if (current == null)
+			return new int[0];
+		return current.indices.stream().filter(index -> file(fileName, current.version, index).exists())
+				.mapToInt(Integer::intValue).toArray();
+	}
+
+	/**
+	 * Return version of the fragments held of a file, the time it was stored,
+	 * or -1 if none is held.
+	 */
+	public long getVersion(String fileName) {
+		Held current = held.get(fileName);
+		return current == null ? -1 : current.version;
+	}
+
+	/**
+	 * Delete a fragment.
+	 *
+	 * @param fileName
+	 * @param index
+	 */
+	public synchronized void drop(String fileName, int index) {
+		Held current = held.get(fileName);
+		if (current == null || !current.indices.remove(index))
+			return;
+		delete(fileName, current.version, index);
+		if (current.indices.isEmpty())
+			held.remove(fileName);
+	}
+
+	/**
+	 * Delete all fragments of a file older than a version.
+	 *
+	 * @param fileName
+	 * @param version
+	 */
+	public synchronized void dropOlder(String fileName, long version) {
+		Held current = held.get(fileName);
+		if (current == null || current.version >= version)
+			return;
+		for (int index : current.indices)
+			delete(fileName, current.version, index);
+		held.remove(fileName);
+	}
+
+	private void delete(String fileName, long version, int index) {
+		try {
+			Files.deleteIfExists(file(fileName, version, index).toPath());
+		} catch (IOException e) {
+			// left behind, ignored once out of the index
+		}
+	}
+
+	/**
+	 * Return names of all files a fragment is held of.
+	 */
+	public Set<String> names() {
+		return held.keySet();
+	}
+
+	/**
+	 * Return number of bytes of all fragments held.
+	 */
+	public long bytes() {
+		long bytes = 0;
+		File[] files = directory.listFiles();
+		if (files != null)
+			for (File file : files)
+				bytes += file.length();
+		return bytes;
+	}
+}
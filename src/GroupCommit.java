@@ -0,0 +1,390 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * GroupCommit makes file inserts of a server durable without syncing every
+ * file. Each insert appends a record with the file data to a journal and waits;
+ * a committer thread collects the records of concurrent inserts, up to a
+ * batch size or until a latency window since the first one has passed, appends
+ * them and syncs the journal once for the whole batch before releasing the
+ * waiting inserts.
+ *
+ * Data files are synced later, off the insert path, when the journal grows
+ * past a checkpoint size; the journal is then emptied. On start the journal
+ * left by a crash is replayed into the data directory. Deletes are journaled
+ * too, without waiting, so that a replay doesn't bring back files moved away.
+ * A file synced into the directory by other means, like a chunked transfer,
+ * is journaled without its data, so that a replay leaves it alone instead of
+ * writing an older version over it.
+ *
+ * @author Anurag Malik, am3926
+ *
+ */
+public class GroupCommit {
+
+	// journal size after which data files are synced and the journal emptied
+	static final long CHECKPOINT_BYTES = 64L * 1024 * 1024;
+
+	/**
+	 * Journaled insert or delete of a file, data is null for a delete and
+	 * {@link #STORED} for a file already synced in the directory.
+	 */
+	private static class Record {
+		final String fileName;
+		final byte[] data;
+		final long queued;
+		final CompletableFuture<Void> done;
+
+		Record(String fileName, byte[] data) {
+			this.fileName = fileName;
+			this.data = data;
+			this.queued = System.nanoTime();
+			this.done = new CompletableFuture<Void>();
+		}
+	}
+
+	// queued to stop the committer once earlier records are committed
+	private static final Record CLOSE = new Record("", null);
+
+	// data of a record superseding earlier records of a file without
+	// replacing it
+	private static final byte[] STORED = new byte[0];
+
+	private final File journal;
+	private final String directory;
+	private final int maxBatch;
+	private final long maxDelayMicros;
+	private final Metrics metrics;
+	private final LinkedBlockingQueue<Record> queue;
+	private final FileChannel channel;
+	private final Set<String> dirty;
+	private final Thread committer;
+	private volatile boolean closed;
+
+	/**
+	 * Open the journal of a data directory, replaying what a crash left in it.
+	 *
+	 * @param journal
+	 *            : journal file, outside the data directory
+	 * @param directory
+	 *            : data directory, ending with a separator
+	 * @param maxBatch
+	 *            : maximum number of records synced together
+	 * @param maxDelayMicros
+	 *            : maximum time the first record of a batch waits for others
+	 * @param metrics
+	 *            : metrics of the server
+	 * @throws IOException
+	 */
+	public GroupCommit(File journal, String directory, int maxBatch, long maxDelayMicros, Metrics metrics)
+			throws IOException {
+		this.journal = journal;
+		this.directory = directory;
+		this.maxBatch = Math.max(1, maxBatch);
+		this.maxDelayMicros = Math.max(0, maxDelayMicros);
+		this.metrics = metrics;
+		queue = new LinkedBlockingQueue<Record>();
+		dirty = new HashSet<String>();
+
+		replay();
+		journal.getAbsoluteFile().getParentFile().mkdirs();
+		channel = FileChannel.open(journal.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		syncDirectory(journal.getAbsoluteFile().getParentFile());
+
+		metrics.gauge(Metrics.COMMIT_BATCH_LIMIT, () -> this.maxBatch);
+		metrics.gauge(Metrics.COMMIT_DELAY_LIMIT, () -> this.maxDelayMicros);
+		committer = new Thread(this::commitLoop, "group-commit " + directory);
+		committer.setDaemon(true);
+		committer.start();
+	}
+
+	/**
+	 * Journal a file written to the data directory and wait until the journal
+	 * holding it is synced.
+	 *
+	 * @param fileName
+	 * @param data
+	 * @throws IOException
+	 *             if the journal couldn't be written or synced
+	 */
+	public void commit(String fileName, byte[] data) throws IOException {
+		Record record = new Record(fileName, data);
+		enqueue(record);
+		await(record);
+	}
+
+	/**
+	 * Journal a file already synced in the data directory and wait until the
+	 * journal holding it is synced, so that a replay keeps the file rather
+	 * than an earlier insert of it.
+	 *
+	 * @param fileName
+	 * @throws IOException
+	 *             if the journal couldn't be written or synced
+	 */
+	public void stored(String fileName) throws IOException {
+		Record record = new Record(fileName, STORED);
+		enqueue(record);
+		await(record);
+	}
+
+	private void await(Record record) throws IOException {
+		String fileName = record.fileName;
+		try {
+			record.done.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for commit of " + fileName);
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+		}
+		metrics.time(Metrics.COMMIT, record.queued);
+	}
+
+	/**
+	 * Journal a file deleted from the data directory, without waiting.
+	 *
+	 * @param fileName
+	 */
+	public void delete(String fileName) {
+		try {
+			enqueue(new Record(fileName, null));
+		} catch (IOException e) {
+			// closed, nothing left to replay the file from
+		}
+	}
+
+	private void enqueue(Record record) throws IOException {
+		if (closed)
+			throw new IOException("Journal closed : " + journal);
+		queue.add(record);
+	}
+
+	/**
+	 * Commit all records queued so far and close the journal.
+	 */
+	public void close() {
+		closed = true;
+		queue.add(CLOSE);
+		try {
+			committer.join(5000);
+			channel.close();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			// nothing more to write
+		}
+	}
+
+	private void commitLoop() {
+		List<Record> batch = new ArrayList<Record>(maxBatch);
+		boolean closing = false;
+		while (!closing) {
+			try {
+				Record first = queue.take();
+				closing = first == CLOSE;
+				if (!closing) {
+					batch.add(first);
+
+					// gather concurrent inserts until the batch is full or the
+					// first record has waited long enough
+					long deadline = first.queued + TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+					while (batch.size() < maxBatch) {
+						Record next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+						if (next == null)
+							break;
+						if (next == CLOSE) {
+							closing = true;
+							break;
+						}
+						batch.add(next);
+					}
+				}
+			} catch (InterruptedException e) {
+				closing = true;
+			}
+			if (!batch.isEmpty())
+				writeBatch(batch);
+			batch.clear();
+		}
+
+		// records queued while closing are never committed
+		Record record;
+		while ((record = queue.poll()) != null)
+			record.done.completeExceptionally(new IOException("Journal closed : " + journal));
+	}
+
+	private void writeBatch(List<Record> batch) {
+		IOException failure = null;
+		long start = System.nanoTime();
+		try {
+			for (Record record : batch)
+				writeRecord(record);
+			channel.force(false);
+		} catch (IOException e) {
+			failure = e;
+		}
+		metrics.histogram(Metrics.COMMIT_BATCH).record(batch.size());
+		metrics.time(Metrics.COMMIT_SYNC, start);
+
+		for (Record record : batch) {
+			if (failure != null) {
+				record.done.completeExceptionally(failure);
+				continue;
+			}
+			if (record.data == STORED)
+				dirty.remove(record.fileName);
+			else if (record.data != null)
+				dirty.add(record.fileName);
+			record.done.complete(null);
+		}
+
+		try {
+			if (failure == null && channel.size() > CHECKPOINT_BYTES)
+				checkpoint();
+		} catch (IOException e) {
+			// journal kept, checkpoint retried after the next batch
+		}
+	}
+
+	/**
+	 * Append a record : name length, name, data length (-1 for a delete, -2
+	 * for a file already synced), data and checksum of all of them.
+	 */
+	private void writeRecord(Record record) throws IOException {
+		byte[] name = record.fileName.getBytes(StandardCharsets.UTF_8);
+		int length = record.data == null ? 0 : record.data.length;
+		ByteBuffer header = ByteBuffer.allocate(8 + name.length);
+		header.putInt(name.length).put(name)
+				.putInt(record.data == STORED ? -2 : record.data == null ? -1 : length).flip();
+
+		CRC32 crc = new CRC32();
+		crc.update(header.array(), 0, header.limit());
+		if (record.data != null)
+			crc.update(record.data);
+		ByteBuffer trailer = ByteBuffer.allocate(8);
+		trailer.putLong(crc.getValue()).flip();
+
+		ByteBuffer data = record.data == null ? ByteBuffer.allocate(0) : ByteBuffer.wrap(record.data);
+		ByteBuffer[] buffers = { header, data, trailer };
+		while (header.hasRemaining() || data.hasRemaining() || trailer.hasRemaining())
+			channel.write(buffers);
+	}
+
+	/**
+	 * Sync data files written since the last checkpoint, then empty the
+	 * journal.
+	 */
+	private void checkpoint() throws IOException {
+		for (String fileName : dirty) {
+			try (FileChannel file = FileChannel.open(new File(directory + fileName).toPath(),
+					StandardOpenOption.WRITE)) {
+				file.force(true);
+			} catch (NoSuchFileException e) {
+				// deleted or moved away meanwhile
+			}
+		}
+		syncDirectory(new File(directory));
+		dirty.clear();
+		channel.truncate(0);
+		channel.position(0);
+		channel.force(true);
+		metrics.increment(Metrics.COMMIT_CHECKPOINTS);
+	}
+
+	/**
+	 * Replay a journal left by a crash : the last record of each file is
+	 * applied and synced, a torn record at the end is ignored. A file whose
+	 * last record says it was synced in the directory is left as it is.
+	 */
+	private void replay() throws IOException {
+		if (!journal.exists() || journal.length() == 0)
+			return;
+
+		Map<String, byte[]> files = new LinkedHashMap<String, byte[]>();
+		try (DataInputStream input = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(journal)))) {
+			while (true) {
+				int nameLength = input.readInt();
+				if (nameLength < 0 || nameLength > 65536)
+					break;
+				byte[] name = new byte[nameLength];
+				input.readFully(name);
+				int length = input.readInt();
+				if (length < -2 || length > journal.length())
+					break;
+				byte[] data = length < 0 ? null : new byte[length];
+				if (data != null)
+					input.readFully(data);
+
+				CRC32 crc = new CRC32();
+				ByteBuffer header = ByteBuffer.allocate(8 + nameLength);
+				header.putInt(nameLength).put(name).putInt(length);
+				crc.update(header.array());
+				if (data != null)
+					crc.update(data);
+				if (input.readLong() != crc.getValue())
+					break;
+
+				String fileName = new String(name, StandardCharsets.UTF_8);
+				files.remove(fileName);
+				if (length != -2)
+					files.put(fileName, data);
+			}
+		} catch (EOFException e) {
+			// torn record at the end of the journal
+		}
+
+		new File(directory).mkdirs();
+		for (Map.Entry<String, byte[]> file : files.entrySet()) {
+			File target = new File(directory + file.getKey());
+			if (file.getValue() == null) {
+				Files.deleteIfExists(target.toPath());
+				continue;
+			}
+			try (FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				ByteBuffer data = ByteBuffer.wrap(file.getValue());
+				while (data.hasRemaining())
+					channel.write(data);
+				channel.force(true);
+			}
+		}
+		syncDirectory(new File(directory));
+		metrics.add(Metrics.COMMIT_REPLAYED, files.size());
+	}
+
+	/**
+	 * Sync a directory so that files created in it survive a crash, where
+	 * the platform allows it.
+	 */
+	static void syncDirectory(File directory) {
+		try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException e) {
+			// directories can't be synced on this platform
+		}
+	}
+}
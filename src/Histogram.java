@@ -0,0 +1,127 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram records a distribution of non negative values with bounded
+ * relative error. Values are counted in log-linear buckets, 16 per power of
+ * two, so percentiles are accurate to about 6% whatever the range of values.
+ * Recording is lock free and safe from any number of threads.
+ *
+ * @author Anurag Malik, am3926
+ *
+ */
+public class Histogram {
+
+	private static final int SUB_BUCKETS = 16;
+	private static final int SUB_BITS = 4;
+
+	private final AtomicLongArray counts;
+	private final LongAdder count;
+	private final LongAdder sum;
+	private final AtomicLong max;
+
+	public Histogram() {
+		counts = new AtomicLongArray(64 * SUB_BUCKETS);
+		count = new LongAdder();
+		sum = new LongAdder();
+		max = new AtomicLong();
+	}
+
+	/**
+	 * Add a value to the histogram, negative values are counted as zero.
+	 *
+	 * @param value
+	 */
+	public void record(long value) {
+		if (value < 0)
+			value = 0;
+		counts.incrementAndGet(index(value));
+		count.increment();
+		sum.add(value);
+		long current;
+		while (value > (current = max.get()) && !max.compareAndSet(current, value))
+			;
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double) sum.sum() / n;
+	}
+
+	/**
+	 * Return the value below which the given percentage of recorded values
+	 * lie.
+	 *
+	 * @param percentile
+	 *            : between 0 and 100
+	 * @return highest value of the bucket holding the percentile
+	 */
+	public long getPercentile(double percentile) {
+		long total = 0;
+		for (int i = 0; i < counts.length(); i++)
+			total += counts.get(i);
+		if (total == 0)
+			return 0;
+
+		long target = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= target)
+				return Math.min(lowerBound(i + 1) - 1, max.get());
+		}
+		return max.get();
+	}
+
+	/**
+	 * Add all values recorded on another histogram to this one.
+	 *
+	 * @param other
+	 */
+	public void add(Histogram other) {
+		for (int i = 0; i < counts.length(); i++)
+			counts.addAndGet(i, other.counts.get(i));
+		count.add(other.count.sum());
+		sum.add(other.sum.sum());
+		long current;
+		long value = other.max.get();
+		while (value > (current = max.get()) && !max.compareAndSet(current, value))
+			;
+	}
+
+	/**
+	 * Summary of count, mean and main percentiles.
+	 */
+	@Override
+	public String toString() {
+		return String.format("count %d, mean %.1f, p50 %d, p90 %d, p99 %d, p99.9 %d, max %d", getCount(), getMean(),
+				getPercentile(50), getPercentile(90), getPercentile(99), getPercentile(99.9), getMax());
+	}
+
+	private static int index(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	private static long lowerBound(int index) {
+		if (index < SUB_BUCKETS)
+			return index;
+		int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+		int sub = index % SUB_BUCKETS;
+		if (exponent >= 63)
+			return Long.MAX_VALUE;
+		return (long) (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+	}
+}
@@ -0,0 +1,532 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LoadGenerator drives a chord network headless through {@link ChordClient},
+ * the library behind the upload and download paths of {@link Client}, and
+ * reports the throughput and latency distribution it reaches.
+ *
+ * Options are given as name=value arguments, for example:
+ *
+ * <pre>
+ * java LoadGenerator seeds=kansas.cs.rit.edu keys=10000 popularity=zipf reads=0.9 rate=500 duration=60 csv=run.csv
+ * </pre>
+ *
+ * <ul>
+ * <li>seeds : servers of the network, comma separated; or local=N to start a
+ * network of N servers in this JVM on ports from port (default 4040) of
+ * localhost, over the transport set by chord.transport, or over an in-memory
+ * network with memory=true</li>
+ * <li>keys : number of distinct files (default 1000), uploaded before the run
+ * unless preload=false</li>
+ * <li>popularity : uniform, zipf (exponent zipf.s, default 0.99) or hotspot
+ * (hot.share of the requests, default 0.9, go to hot.keys of the keys,
+ * default 0.1)</li>
+ * <li>size : file size in bytes (default 4096), with sizes fixed, uniform
+ * (between 0 and twice size) or exponential (mean size), at most maxsize
+ * (default 16 times size)</li>
+ * <li>reads : fraction of downloads, the rest are uploads (default 0.9)</li>
+ * <li>cache : bytes of downloaded files the reading client caches and
+ * revalidates with their owner (default 0, every download is sent whole)</li>
+ * <li>concurrency : requests in flight at most (default 16)</li>
+ * <li>rate : requests started per second, arriving at random as in an open
+ * system; 0 (default) runs a closed loop of concurrency clients each
+ * starting a request when its last one completes</li>
+ * <li>duration and warmup : seconds measured and run before measuring
+ * (default 30 and 5)</li>
+ * <li>csv : file the percentile distribution of each operation is written
+ * to</li>
+ * <li>keyspace : size of the key space of the network (default 1000)</li>
+ * <li>seed, verbose</li>
+ * </ul>
+ *
+ * In an open loop latencies are taken from the time a request was due to
+ * start, not from when it could be started, so that a saturated network
+ * doesn't hide the wait of the requests queued behind slow ones.
+ *
+ * @author Anurag Malik, am3926
+ *
+ */
+public class LoadGenerator {
+
+	// percentiles reported, as in an HDR histogram percentile distribution
+	private static final double[] PERCENTILES = { 50, 75, 90, 95, 99, 99.9, 99.99, 100 };
+
+	private static final String READ = "read";
+	private static final String WRITE = "write";
+	private static final String ALL = "all";
+
+	/**
+	 * Latencies and counts of one operation over one period.
+	 */
+	private static class Period {
+		final Map<String, Histogram> latencies = new HashMap<String, Histogram>();
+		final LongAdder errors = new LongAdder();
+		final LongAdder misses = new LongAdder();
+		final LongAdder bytes = new LongAdder();
+
+		Period() {
+			latencies.put(READ, new Histogram());
+			latencies.put(WRITE, new Histogram());
+			latencies.put(ALL, new Histogram());
+		}
+
+		void record(String operation, long micros) {
+			latencies.get(operation).record(micros);
+			latencies.get(ALL).record(micros);
+		}
+	}
+
+	private final Map<String, String> options;
+	private final PrintStream report;
+	private final Random random;
+	private final List<ChordServer> servers;
+	private final AtomicLong staged;
+	private Transport transport;
+	private ChordClient reader;
+	private ChordClient writer;
+	private File root;
+	private File stagingDirectory;
+
+	private String[] keys;
+	private double[] popularity;
+	private byte[] content;
+
+	// totals of the measured period, and of the current report interval
+	private volatile Period total;
+	private volatile Period interval;
+	private volatile boolean measuring;
+
+	public LoadGenerator(Map<String, String> options, PrintStream report) {
+		this.options = options;
+		this.report = report;
+		random = new Random(option("seed", 1L));
+		servers = new ArrayList<ChordServer>();
+		staged = new AtomicLong();
+	}
+
+	private long option(String name, long defaultValue) {
+		String value = options.get(name);
+		return value == null ? defaultValue : Long.parseLong(value);
+	}
+
+	private double option(String name, double defaultValue) {
+		String value = options.get(name);
+		return value == null ? defaultValue : Double.parseDouble(value);
+	}
+
+	private String option(String name, String defaultValue) {
+		String value = options.get(name);
+		return value == null ? defaultValue : value;
+	}
+
+	/**
+	 * Start the network if local, preload the keys, run the workload and
+	 * print its report.
+	 */
+	public void run() throws Exception {
+		root = Files.createTempDirectory("chord-load").toFile();
+		stagingDirectory = new File(root, "staging");
+		stagingDirectory.mkdirs();
+		try {
+			List<String> seeds = connect();
+			int keySpace = (int) option("keyspace", (long) NodeConfig.DEFAULT_KEY_SPACE);
+			reader = new ChordClient(transport, seeds, new File(root, "downloads").getPath() + "/", keySpace,
+					option("cache", 0L));
+			writer = new ChordClient(transport, seeds, new File(root, "uploads").getPath() + "/", keySpace);
+
+			createKeys();
+			if (!"false".equals(options.get("preload")))
+				preload();
+
+			long warmup = option("warmup", 5L);
+			long duration = option("duration", 30L);
+			report.println("Running " + describe() + " for " + duration + " s after " + warmup + " s of warm up");
+			total = new Period();
+			interval = new Period();
+			long start = System.nanoTime();
+			long measureFrom = start + TimeUnit.SECONDS.toNanos(warmup);
+			long end = measureFrom + TimeUnit.SECONDS.toNanos(duration);
+
+			Thread monitor = new Thread(() -> monitor(start, measureFrom, end), "load-monitor");
+			monitor.setDaemon(true);
+			monitor.start();
+			if (option("rate", 0.0) > 0)
+				openLoop(end);
+			else
+				closedLoop(end);
+			monitor.join();
+
+			printReport(duration);
+			String csv = options.get("csv");
+			if (csv != null)
+				writeCsv(new File(csv), duration);
+		} finally {
+			if (reader != null)
+				reader.close();
+			if (writer != null)
+				writer.close();
+			shutdown();
+			delete(root);
+		}
+	}
+
+	/**
+	 * Return servers to send requests to, starting a local network first if
+	 * asked for.
+	 */
+	private List<String> connect() throws IOException {
+		int local = (int) option("local", 0L);
+		if (local <= 0) {
+			transport = Transport.newTransport(NodeConfig.DEFAULT_PORT);
+			return Arrays.asList(option("seeds", NodeConfig.DEFAULT_ENTRY_SERVER).split(","));
+		}
+
+		boolean memory = "true".equals(options.get("memory"));
+		LocalNetwork network = memory ? new LocalNetwork() : null;
+		int port = (int) option("port", (long) NodeConfig.DEFAULT_PORT);
+		List<String> nodeIds = new ArrayList<String>();
+		for (int i = 0; i < local; i++) {
+			NodeConfig config = new NodeConfig();
+			config.setHostName(memory ? "n" + i + ".load" : "localhost");
+			config.setDomain("");
+			config.setPort(memory ? NodeConfig.DEFAULT_PORT : port + i);
+			config.setName("load-node-" + i);
+			config.setEntryServers(nodeIds.isEmpty() ? Arrays.asList(config.getNodeId()) : nodeIds);
+			config.setLookupDirectory(new File(root, "node" + i).getPath());
+			config.setKeySpace((int) option("keyspace", (long) NodeConfig.DEFAULT_KEY_SPACE));
+			Transport nodeTransport = memory ? network.transport(config.getNodeId())
+					: Transport.newTransport(NodeConfig.DEFAULT_PORT);
+			ChordServer server = new ChordServer(config, nodeTransport);
+			server.execServer();
+			if (i > 0)
+				server.enterNetwork();
+			servers.add(server);
+			nodeIds.add(config.getNodeId());
+		}
+		for (ChordServer server : servers)
+			server.fixFingers();
+		transport = memory ? network.transport("client.load") : Transport.newTransport(NodeConfig.DEFAULT_PORT);
+		report.println("Started " + local + " servers : " + nodeIds);
+		return nodeIds;
+	}
+
+	private void shutdown() {
+		for (ChordServer server : servers) {
+			server.shutdown();
+		}
+		if (transport != null)
+			transport.shutdown();
+	}
+
+	private String describe() {
+		double rate = option("rate", 0.0);
+		return keys.length + " keys, " + option("popularity", "uniform") + " popularity, "
+				+ option("sizes", "fixed") + " sizes of " + option("size", 4096L) + " bytes, "
+				+ (int) (option("reads", 0.9) * 100) + "% reads, concurrency " + option("concurrency", 16L)
+				+ (option("cache", 0L) > 0 ? ", cache of " + option("cache", 0L) + " bytes" : "")
+				+ (rate > 0 ? ", " + rate + " requests/s" : ", closed loop");
+	}
+
+	/**
+	 * Name the keys and compute the cumulative probability of each being
+	 * requested.
+	 */
+	private void createKeys() {
+		int count = (int) option("keys", 1000L);
+		keys = new String[count];
+		for (int i = 0; i < count; i++)
+			keys[i] = "load-" + i + ".dat";
+
+		double[] weights = new double[count];
+		String kind = option("popularity", "uniform");
+		if (kind.equals("zipf")) {
+			double exponent = option("zipf.s", 0.99);
+			for (int i = 0; i < count; i++)
+				weights[i] = 1 / Math.pow(i + 1, exponent);
+		} else if (kind.equals("hotspot")) {
+			int hot = Math.max(1, (int) (count * option("hot.keys", 0.1)));
+			double share = option("hot.share", 0.9);
+			for (int i = 0; i < count; i++)
+				weights[i] = i < hot ? share / hot : (1 - share) / Math.max(1, count - hot);
+		} else if (kind.equals("uniform")) {
+			Arrays.fill(weights, 1);
+		} else {
+			throw new IllegalArgumentException("Unknown popularity : " + kind);
+		}
+
+		// the most popular keys are spread over the ring, not next to each
+		// other in name order
+		for (int i = count - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			String key = keys[i];
+			keys[i] = keys[j];
+			keys[j] = key;
+		}
+		popularity = new double[count];
+		double sum = 0;
+		for (int i = 0; i < count; i++)
+			popularity[i] = sum += weights[i];
+		for (int i = 0; i < count; i++)
+			popularity[i] /= sum;
+
+		content = new byte[(int) option("maxsize", 16 * option("size", 4096L))];
+		random.nextBytes(content);
+	}
+
+	private String nextKey() {
+		int index = Arrays.binarySearch(popularity, ThreadLocalRandom.current().nextDouble());
+		if (index < 0)
+			index = -index - 1;
+		return keys[Math.min(index, keys.length - 1)];
+	}
+
+	private int nextSize() {
+		long size = option("size", 4096L);
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		String kind = option("sizes", "fixed");
+		if (kind.equals("uniform"))
+			size = random.nextLong(2 * size + 1);
+		else if (kind.equals("exponential"))
+			size = (long) (-size * Math.log(1 - random.nextDouble()));
+		else if (!kind.equals("fixed"))
+			throw new IllegalArgumentException("Unknown sizes : " + kind);
+		return (int) Math.min(size, content.length);
+	}
+
+	/**
+	 * Upload every key once, so that reads find them.
+	 */
+	private void preload() throws InterruptedException {
+		long start = System.nanoTime();
+		Semaphore permits = new Semaphore((int) option("concurrency", 16L));
+		LongAdder failed = new LongAdder();
+		for (String key : keys) {
+			permits.acquire();
+			write(key).whenComplete((bytes, error) -> {
+				if (error != null)
+					failed.increment();
+				permits.release();
+			});
+		}
+		permits.acquire((int) option("concurrency", 16L));
+		report.printf("Preloaded %d keys in %.1f s, %d failed%n", keys.length, (System.nanoTime() - start) / 1e9,
+				failed.sum());
+	}
+
+	/**
+	 * Write a file of random size and upload it under a key. The data is
+	 * staged under a name of its own, so that concurrent writes of one key
+	 * don't overwrite each other's source.
+	 */
+	private CompletableFuture<Long> write(String key) {
+		File file = new File(stagingDirectory, staged.incrementAndGet() + "-" + key);
+		int size = nextSize();
+		int offset = size == content.length ? 0 : ThreadLocalRandom.current().nextInt(content.length - size);
+		try {
+			Files.write(file.toPath(), Arrays.copyOfRange(content, offset, offset + size));
+		} catch (IOException e) {
+			CompletableFuture<Long> failed = new CompletableFuture<Long>();
+			failed.completeExceptionally(e);
+			return failed;
+		}
+		return writer.upload(file, key).whenComplete((bytes, error) -> file.delete());
+	}
+
+	/**
+	 * Start one request, and record its latency from the time it was due.
+	 *
+	 * @param due
+	 *            : nanoTime the request was due to start
+	 * @return future completed with the request
+	 */
+	private CompletableFuture<?> request(long due) {
+		String key = nextKey();
+		boolean read = ThreadLocalRandom.current().nextDouble() < option("reads", 0.9);
+		CompletableFuture<?> operation = read ? reader.download(key) : write(key);
+		return operation.whenComplete((result, error) -> {
+			long micros = (System.nanoTime() - due) / 1000;
+			if (!measuring)
+				return;
+			for (Period period : new Period[] { total, interval }) {
+				if (error != null) {
+					period.errors.increment();
+					continue;
+				}
+				period.record(read ? READ : WRITE, micros);
+				if (read && !((Trace) result).isFound())
+					period.misses.increment();
+				if (!read)
+					period.bytes.add((Long) result);
+			}
+		});
+	}
+
+	/**
+	 * Start requests at random arrival times of the configured rate until the
+	 * end, with at most concurrency in flight.
+	 */
+	private void openLoop(long end) throws InterruptedException {
+		double rate = option("rate", 0.0);
+		int concurrency = (int) option("concurrency", 16L);
+		Semaphore permits = new Semaphore(concurrency);
+		long due = System.nanoTime();
+		while (true) {
+			due += (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) / rate * 1e9);
+			if (due >= end)
+				break;
+			long wait = due - System.nanoTime();
+			if (wait > 0)
+				TimeUnit.NANOSECONDS.sleep(wait);
+			permits.acquire();
+			request(due).whenComplete((result, error) -> permits.release());
+		}
+		permits.acquire(concurrency);
+	}
+
+	/**
+	 * Run concurrency clients each starting its next request when the last
+	 * completes, until the end.
+	 */
+	private void closedLoop(long end) throws InterruptedException {
+		int concurrency = (int) option("concurrency", 16L);
+		List<Thread> clients = new ArrayList<Thread>();
+		for (int i = 0; i < concurrency; i++) {
+			Thread client = new Thread(() -> {
+				while (System.nanoTime() < end) {
+					try {
+						request(System.nanoTime()).join();
+					} catch (RuntimeException e) {
+						// counted by the request
+					}
+				}
+			}, "load-client-" + i);
+			client.start();
+			clients.add(client);
+		}
+		for (Thread client : clients)
+			client.join();
+	}
+
+	/**
+	 * Print throughput and latency of every second, and start measuring once
+	 * the warm up is over.
+	 */
+	private void monitor(long start, long measureFrom, long end) {
+		try {
+			long next = start;
+			while (next < end) {
+				next += TimeUnit.SECONDS.toNanos(1);
+				long wait = next - System.nanoTime();
+				if (wait > 0)
+					TimeUnit.NANOSECONDS.sleep(wait);
+				if (!measuring && System.nanoTime() >= measureFrom) {
+					total = new Period();
+					measuring = true;
+				}
+				Period last = interval;
+				interval = new Period();
+				Histogram all = last.latencies.get(ALL);
+				report.printf("%6.1f s %s : %7d ops/s, p50 %8.2f ms, p99 %8.2f ms, max %8.2f ms, errors %d%n",
+						(System.nanoTime() - start) / 1e9, measuring ? "measure" : "warm up", all.getCount(),
+						all.getPercentile(50) / 1000.0, all.getPercentile(99) / 1000.0, all.getMax() / 1000.0,
+						last.errors.sum());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		measuring = false;
+	}
+
+	private void printReport(long duration) {
+		Period period = total;
+		report.println("\n*** LOAD TEST ***");
+		report.println(describe());
+		for (String operation : new String[] { READ, WRITE, ALL }) {
+			Histogram latency = period.latencies.get(operation);
+			report.printf("%-5s : %d requests, %.1f requests/s%n", operation, latency.getCount(),
+					(double) latency.getCount() / duration);
+		}
+		report.printf("Misses : %d, errors : %d, uploaded : %.1f MB/s%n", period.misses.sum(), period.errors.sum(),
+				period.bytes.sum() / 1e6 / duration);
+		report.printf("%n%12s %12s %12s %14s%n", "Value(ms)", "Percentile", "TotalCount", "1/(1-Percentile)");
+		for (String operation : new String[] { READ, WRITE, ALL }) {
+			Histogram latency = period.latencies.get(operation);
+			if (latency.getCount() == 0)
+				continue;
+			report.println("# " + operation);
+			for (double percentile : PERCENTILES)
+				report.printf("%12.3f %12.6f %12d %14s%n", latency.getPercentile(percentile) / 1000.0,
+						percentile / 100, (long) Math.ceil(latency.getCount() * percentile / 100),
+						percentile == 100 ? "inf" : String.format("%.2f", 100 / (100 - percentile)));
+			report.printf("#[Mean = %.3f, Max = %.3f, Total count = %d]%n", latency.getMean() / 1000,
+					latency.getMax() / 1000.0, latency.getCount());
+		}
+	}
+
+	/**
+	 * Write the percentile distribution of each operation as CSV.
+	 */
+	private void writeCsv(File file, long duration) throws IOException {
+		Period period = total;
+		try (PrintWriter csv = new PrintWriter(file, "UTF-8")) {
+			csv.println("operation,percentile,latency_ms,count,requests_per_s,errors,misses");
+			for (String operation : new String[] { READ, WRITE, ALL }) {
+				Histogram latency = period.latencies.get(operation);
+				for (double percentile : PERCENTILES)
+					csv.printf("%s,%s,%.3f,%d,%.1f,%d,%d%n", operation, percentile,
+							latency.getPercentile(percentile) / 1000.0, latency.getCount(),
+							(double) latency.getCount() / duration, period.errors.sum(),
+							operation.equals(WRITE) ? 0 : period.misses.sum());
+			}
+		}
+		report.println("Percentiles written to " + file);
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children)
+				delete(child);
+		file.delete();
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<String, String>();
+		for (String arg : args) {
+			int index = arg.indexOf('=');
+			if (index > 0)
+				options.put(arg.substring(0, index), arg.substring(index + 1));
+		}
+
+		// servers and clients print on every request, keep the report
+		// readable
+		PrintStream report = System.out;
+		if (!"true".equals(options.get("verbose")))
+			System.setOut(new PrintStream(new OutputStream() {
+				@Override
+				public void write(int b) {
+				}
+			}));
+
+		new LoadGenerator(options, report).run();
+		report.flush();
+		System.exit(0);
+	}
+}
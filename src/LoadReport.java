@@ -0,0 +1,71 @@
+import java.io.Serializable;
+
+/**
+ * This class represents the load of a server as seen by its neighbors when
+ * balancing key ranges. It includes the key range of the server, its
+ * predecessor, the rate of requests for keys it owns and the bytes it stores.
+ *
+ * @author Anurag Malik, am3926
+ *
+ */
+public class LoadReport implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	private final String hostName;
+	private final String predecessor;
+	private final int start;
+	private final int end;
+	private final double requests;
+	private final long bytes;
+
+	public LoadReport(String hostName, String predecessor, int start, int end, double requests, long bytes) {
+		this.hostName = hostName;
+		this.predecessor = predecessor;
+		this.start = start;
+		this.end = end;
+		this.requests = requests;
+		this.bytes = bytes;
+	}
+
+	/**
+	 * Get node id of the server.
+	 */
+	public String getHostName() {
+		return hostName;
+	}
+
+	/**
+	 * Get node id of the predecessor of the server.
+	 */
+	public String getPredecessor() {
+		return predecessor;
+	}
+
+	/**
+	 * Get start of the key range of the server.
+	 */
+	public int getStart() {
+		return start;
+	}
+
+	/**
+	 * Get end of the key range of the server.
+	 */
+	public int getEnd() {
+		return end;
+	}
+
+	/**
+	 * Get decayed number of requests served per balancing period.
+	 */
+	public double getRequests() {
+		return requests;
+	}
+
+	/**
+	 * Get number of bytes stored by the server.
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+}
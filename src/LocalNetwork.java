@@ -0,0 +1,197 @@
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.rmi.ConnectException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LocalNetwork connects any number of {@link LocalTransport} instances inside
+ * one JVM. Calls are delivered by reference on the calling thread, so a whole
+ * lookup runs as one call chain. Latency is injected per link as simulated
+ * time, accumulated on the calling thread instead of sleeping, and failures
+ * are injected either by crashing a node or through a random failure rate.
+ * Stalls, such as garbage collection pauses of the callee, add a fixed delay
+ * to a random fraction of calls.
+ *
+ * @author Anurag Malik, am3926
+ *
+ */
+public class LocalNetwork {
+
+	/**
+	 * Latency of a single message between two addresses.
+	 */
+	public interface LinkLatency {
+		long micros(String from, String to);
+	}
+
+	private final Map<String, Map<String, Remote>> nodes;
+	private final Set<String> down;
+	private final Map<String, AtomicLong> calls;
+	private final AtomicLong totalCalls;
+	private final ThreadLocal<long[]> clock;
+	private volatile LinkLatency latency;
+	private volatile double failureRate;
+	private volatile double stallRate;
+	private volatile long stallMicros;
+
+	public LocalNetwork() {
+		nodes = new ConcurrentHashMap<String, Map<String, Remote>>();
+		down = ConcurrentHashMap.newKeySet();
+		calls = new ConcurrentHashMap<String, AtomicLong>();
+		totalCalls = new AtomicLong();
+		clock = ThreadLocal.withInitial(() -> new long[1]);
+		latency = (from, to) -> 0;
+	}
+
+	/**
+	 * Create the transport of a node reachable under the given address.
+	 *
+	 * @param address
+	 * @return transport bound to this network
+	 */
+	public Transport transport(String address) {
+		return new LocalTransport(this, address);
+	}
+
+	public void setLatency(LinkLatency latency) {
+		this.latency = latency;
+	}
+
+	public void setFailureRate(double failureRate) {
+		this.failureRate = failureRate;
+	}
+
+	/**
+	 * Make a random fraction of calls stall before they are answered.
+	 *
+	 * @param stallRate
+	 *            : fraction of calls that stall
+	 * @param stallMicros
+	 *            : simulated length of a stall
+	 */
+	public void setStalls(double stallRate, long stallMicros) {
+		this.stallRate = stallRate;
+		this.stallMicros = stallMicros;
+	}
+
+	/**
+	 * Make a node unreachable, all calls to it fail until it recovers.
+	 *
+	 * @param address
+	 */
+	public void crash(String address) {
+		down.add(address);
+	}
+
+	public void recover(String address) {
+		down.remove(address);
+	}
+
+	/**
+	 * Return number of calls delivered to a node.
+	 *
+	 * @param address
+	 * @return call count
+	 */
+	public long callsTo(String address) {
+		AtomicLong count = calls.get(address);
+		return count == null ? 0 : count.get();
+	}
+
+	public long totalCalls() {
+		return totalCalls.get();
+	}
+
+	public void resetCalls() {
+		calls.clear();
+		totalCalls.set(0);
+	}
+
+	/**
+	 * Return simulated time spent on links by the current thread, and reset
+	 * it.
+	 *
+	 * @return simulated microseconds since last reset
+	 */
+	public long takeSimulatedMicros() {
+		long[] elapsed = clock.get();
+		long micros = elapsed[0];
+		elapsed[0] = 0;
+		return micros;
+	}
+
+	/**
+	 * Return simulated time spent on links by the current thread, without
+	 * resetting it.
+	 *
+	 * @return simulated microseconds since last reset
+	 */
+	public long simulatedMicros() {
+		return clock.get()[0];
+	}
+
+	/**
+	 * Move simulated time of the current thread, backwards when a caller
+	 * stopped waiting before a call it made was answered.
+	 *
+	 * @param micros
+	 */
+	void adjustSimulatedMicros(long micros) {
+		clock.get()[0] += micros;
+	}
+
+	void bind(String address, String name, Remote object) {
+		nodes.computeIfAbsent(address, key -> new ConcurrentHashMap<String, Remote>()).put(name, object);
+	}
+
+	void unbind(String address, String name) {
+		Map<String, Remote> bound = nodes.get(address);
+		if (bound != null)
+			bound.remove(name);
+	}
+
+	void unbindAll(String address) {
+		nodes.remove(address);
+	}
+
+	/**
+	 * Find an object bound on a node, failing as a real lookup would if the
+	 * node is down or nothing is bound.
+	 */
+	Remote resolve(String address, String name) throws RemoteException {
+		if (down.contains(address))
+			throw new ConnectException("Node down : " + address);
+		Map<String, Remote> bound = nodes.get(address);
+		Remote object = bound == null ? null : bound.get(name);
+		if (object == null)
+			throw new NoSuchObjectException(name + "@" + address);
+		return object;
+	}
+
+	/**
+	 * Deliver a call from one node to an object bound on another.
+	 */
+	Object call(String from, String to, String name, Method method, Object[] args) throws Throwable {
+		if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate)
+			throw new ConnectException("Injected failure : " + from + " -> " + to);
+		Remote target = resolve(to, name);
+
+		clock.get()[0] += latency.micros(from, to);
+		if (stallRate > 0 && ThreadLocalRandom.current().nextDouble() < stallRate)
+			clock.get()[0] += stallMicros;
+		calls.computeIfAbsent(to, key -> new AtomicLong()).incrementAndGet();
+		totalCalls.incrementAndGet();
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+}
@@ -0,0 +1,94 @@
+import java.lang.reflect.Proxy;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LocalTransport provides the {@link Transport} for a node of an in-memory
+ * {@link LocalNetwork}. The node is reachable under a fixed address and the
+ * listening port is ignored.
+ *
+ * @author Anurag Malik, am3926
+ *
+ */
+public class LocalTransport implements Transport {
+
+	private final LocalNetwork network;
+	private final String address;
+	private final AtomicLong callbackIds;
+	private final Map<Remote, String> exportedNames;
+
+	public LocalTransport(LocalNetwork network, String address) {
+		this.network = network;
+		this.address = address;
+		callbackIds = new AtomicLong();
+		exportedNames = Collections.synchronizedMap(new IdentityHashMap<Remote, String>());
+	}
+
+	@Override
+	public void listen(String address) {
+		network.recover(address);
+	}
+
+	@Override
+	public <T extends Remote> T export(String name, T object, Class<T> type) throws RemoteException {
+		network.bind(address, name, object);
+		exportedNames.put(object, name);
+		return proxy(address, name, type);
+	}
+
+	@Override
+	public <T extends Remote> T exportCallback(T object, Class<T> type) throws RemoteException {
+		return export("callback-" + callbackIds.incrementAndGet(), object, type);
+	}
+
+	@Override
+	public void unexport(Remote object) {
+		String name = exportedNames.remove(object);
+		if (name != null)
+			network.unbind(address, name);
+	}
+
+	@Override
+	public <T extends Remote> T lookup(String address, String name, Class<T> type) throws RemoteException {
+		network.resolve(address, name);
+		return proxy(address, name, type);
+	}
+
+	@Override
+	public long clockMicros() {
+		return System.nanoTime() / 1000 + network.simulatedMicros();
+	}
+
+	@Override
+	public boolean isSimulated() {
+		return true;
+	}
+
+	@Override
+	public void adjustClock(long micros) {
+		network.adjustSimulatedMicros(micros);
+	}
+
+	@Override
+	public void shutdown() {
+		network.unbindAll(address);
+	}
+
+	private <T extends Remote> T proxy(final String to, final String name, Class<T> type) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+				(proxy, method, args) -> {
+					if (method.getDeclaringClass() == Object.class) {
+						if (method.getName().equals("equals"))
+							return proxy == args[0];
+						if (method.getName().equals("hashCode"))
+							return System.identityHashCode(proxy);
+						return "Local[" + name + "@" + to + "]";
+					}
+					return network.call(address, to, name, method, args);
+				}));
+	}
+}
@@ -0,0 +1,76 @@
+import java.io.Serializable;
+
+/**
+ * This class represents an entry of the membership table gossiped between
+ * servers in one-hop routing mode, see {@link MembershipTable}: the key range
+ * of a server, versioned by the server itself so that newer entries replace
+ * older ones wherever they meet, and whether the server left.
+ *
+ * @author Anurag Malik, am3926
+ *
+ */
+public class Member implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	private final String nodeId;
+	private final int start;
+	private final int end;
+	private final long version;
+	private final boolean left;
+
+	public Member(String nodeId, int start, int end, long version, boolean left) {
+		this.nodeId = nodeId;
+		this.start = start;
+		this.end = end;
+		this.version = version;
+		this.left = left;
+	}
+
+	/**
+	 * Get node id of the server.
+	 */
+	public String getNodeId() {
+		return nodeId;
+	}
+
+	/**
+	 * Get start of the key range of the server.
+	 */
+	public int getStart() {
+		return start;
+	}
+
+	/**
+	 * Get end of the key range of the server.
+	 */
+	public int getEnd() {
+		return end;
+	}
+
+	/**
+	 * Get version of the entry, increasing with every change the server makes
+	 * to it.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Check if the server left the chord network.
+	 */
+	public boolean hasLeft() {
+		return left;
+	}
+
+	/**
+	 * Return the server and key range as a finger table entry.
+	 */
+	public NodeInfo toNodeInfo() {
+		return new NodeInfo(nodeId, start, end);
+	}
+
+	@Override
+	public String toString() {
+		return nodeId + " [" + start + " - " + end + "] v" + version + (left ? " left" : "");
+	}
+}
@@ -0,0 +1,36 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/**
+ * This class represents the answer of a server to a gossip round started by
+ * another one: the entries of its membership table newer than those of the
+ * other server, and the node ids of the entries it wants from it in return.
+ *
+ * @author Anurag Malik, am3926
+ *
+ */
+public class MembershipDelta implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	private final ArrayList<Member> members;
+	private final ArrayList<String> wanted;
+
+	public MembershipDelta(ArrayList<Member> members, ArrayList<String> wanted) {
+		this.members = members;
+		this.wanted = wanted;
+	}
+
+	/**
+	 * Get entries newer than those of the server that started the round.
+	 */
+	public ArrayList<Member> getMembers() {
+		return members;
+	}
+
+	/**
+	 * Get node ids of the entries the server that started the round has newer.
+	 */
+	public ArrayList<String> getWanted() {
+		return wanted;
+	}
+}
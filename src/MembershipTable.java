@@ -0,0 +1,238 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * MembershipTable holds the key range of every server of the chord network,
+ * for one-hop routing: a request is sent straight to the server owning its
+ * key instead of through the finger tables.
+ *
+ * The table is spread by gossip. Each entry is versioned by the server it
+ * describes, and every round a server sends a random other server the
+ * versions it holds (its digest) and receives back only the entries that are
+ * newer, sending in return those the other server has older. Changes so reach
+ * all servers in about log N rounds, and each round moves the digest and the
+ * entries that changed rather than the whole table. Servers that left keep an
+ * entry marking it for chord.gossip.tombstone milliseconds (default 60000),
+ * so that an older entry of a server still in the table doesn't bring them
+ * back.
+ *
+ * The table is only trusted while the ranges of the servers in it cover the
+ * key space without gap or overlap, and while it was gossiped recently.
+ *
+ * @author Anurag Malik, am3926
+ *
+ */
+public class MembershipTable {
+
+	static final long TOMBSTONE = Long.getLong("chord.gossip.tombstone", 60000);
+
+	private final int keySpace;
+	private final ConcurrentHashMap<String, Member> members;
+
+	// local time servers were marked as having left, to forget them later
+	private final ConcurrentHashMap<String, Long> departures;
+
+	// servers in chord by the end of their key range, and whether their key
+	// ranges cover the key space, rebuilt on every change
+	private volatile NavigableMap<Integer, Member> ranges;
+	private volatile boolean complete;
+	private volatile long lastGossip;
+
+	/**
+	 * @param keySpace
+	 *            : last position of the key space
+	 */
+	public MembershipTable(int keySpace) {
+		this.keySpace = keySpace;
+		members = new ConcurrentHashMap<String, Member>();
+		departures = new ConcurrentHashMap<String, Long>();
+		ranges = new TreeMap<Integer, Member>();
+	}
+
+	/**
+	 * Return the entry of a server.
+	 *
+	 * @param nodeId
+	 * @return entry, null if the server isn't in the table
+	 */
+	public Member get(String nodeId) {
+		return members.get(nodeId);
+	}
+
+	/**
+	 * Merge entries received from another server, keeping the newest version
+	 * of each.
+	 *
+	 * @param entries
+	 * @return number of entries that changed the table
+	 */
+	public synchronized int merge(Collection<Member> entries) {
+		int changed = 0;
+		for (Member entry : entries) {
+			Member known = members.get(entry.getNodeId());
+			if (known != null && known.getVersion() >= entry.getVersion())
+				continue;
+			members.put(entry.getNodeId(), entry);
+			if (entry.hasLeft())
+				departures.put(entry.getNodeId(), System.currentTimeMillis());
+			else
+				departures.remove(entry.getNodeId());
+			changed++;
+		}
+		if (changed > 0)
+			rebuild();
+		return changed;
+	}
+
+	/**
+	 * Return versions of all entries held, sent to start a gossip round.
+	 */
+	public HashMap<String, Long> digest() {
+		HashMap<String, Long> digest = new HashMap<String, Long>();
+		for (Member entry : members.values())
+			digest.put(entry.getNodeId(), entry.getVersion());
+		return digest;
+	}
+
+	/**
+	 * Return entries newer than the versions of a digest, or missing from it.
+	 *
+	 * @param digest
+	 *            : versions held by another server
+	 * @return entries to send it
+	 */
+	public ArrayList<Member> newerThan(Map<String, Long> digest) {
+		ArrayList<Member> newer = new ArrayList<Member>();
+		for (Member entry : members.values()) {
+			Long version = digest.get(entry.getNodeId());
+			if (version == null || version < entry.getVersion())
+				newer.add(entry);
+		}
+		return newer;
+	}
+
+	/**
+	 * Return node ids of the entries a digest holds newer than this table.
+	 *
+	 * @param digest
+	 *            : versions held by another server
+	 * @return node ids of the entries to ask it for
+	 */
+	public ArrayList<String> olderThan(Map<String, Long> digest) {
+		ArrayList<String> older = new ArrayList<String>();
+		for (Map.Entry<String, Long> version : digest.entrySet()) {
+			Member entry = members.get(version.getKey());
+			if (entry == null || entry.getVersion() < version.getValue())
+				older.add(version.getKey());
+		}
+		return older;
+	}
+
+	/**
+	 * Return entries of some servers.
+	 *
+	 * @param nodeIds
+	 * @return entries held for these servers
+	 */
+	public ArrayList<Member> select(List<String> nodeIds) {
+		ArrayList<Member> selected = new ArrayList<Member>();
+		for (String nodeId : nodeIds) {
+			Member entry = members.get(nodeId);
+			if (entry != null)
+				selected.add(entry);
+		}
+		return selected;
+	}
+
+	/**
+	 * Return the server owning a key position.
+	 *
+	 * @param position
+	 * @return entry of the owner, null if no server in the table covers it
+	 */
+	public Member owner(int position) {
+		Map.Entry<Integer, Member> owner = ranges.ceilingEntry(position);
+		if (owner == null || owner.getValue().getStart() > position)
+			return null;
+		return owner.getValue();
+	}
+
+	/**
+	 * Return entries of the servers in chord, in ring order.
+	 */
+	public List<Member> live() {
+		return new ArrayList<Member>(ranges.values());
+	}
+
+	/**
+	 * Return number of servers in chord in the table.
+	 */
+	public int size() {
+		return ranges.size();
+	}
+
+	/**
+	 * Check if the key ranges of the servers in the table cover the key space
+	 * without gap or overlap.
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Record that a gossip round completed.
+	 */
+	public void gossiped() {
+		lastGossip = System.currentTimeMillis();
+	}
+
+	/**
+	 * Check if the table can be trusted for routing.
+	 *
+	 * @param maxAge
+	 *            : milliseconds since the last gossip round at most, 0 for
+	 *            no limit
+	 * @return true if the table is complete and recent enough
+	 */
+	public boolean isFresh(long maxAge) {
+		return complete && (maxAge <= 0 || System.currentTimeMillis() - lastGossip <= maxAge);
+	}
+
+	/**
+	 * Forget servers that left longer than the tombstone period ago.
+	 */
+	public synchronized void purge() {
+		long now = System.currentTimeMillis();
+		Iterator<Map.Entry<String, Long>> departure = departures.entrySet().iterator();
+		while (departure.hasNext()) {
+			Map.Entry<String, Long> left = departure.next();
+			if (now - left.getValue() > TOMBSTONE) {
+				departure.remove();
+				members.remove(left.getKey());
+			}
+		}
+	}
+
+	private void rebuild() {
+		TreeMap<Integer, Member> table = new TreeMap<Integer, Member>();
+		boolean covered = true;
+		for (Member entry : members.values())
+			if (!entry.hasLeft() && table.put(entry.getEnd(), entry) != null)
+				covered = false;
+		int next = 0;
+		for (Member entry : table.values()) {
+			if (entry.getStart() != next)
+				covered = false;
+			next = entry.getEnd() + 1;
+		}
+		ranges = table;
+		complete = covered && next == keySpace + 1;
+	}
+}
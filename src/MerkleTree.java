@@ -0,0 +1,218 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MerkleTree summarizes the files a server holds, by name and content digest,
+ * so that two servers can find the files they disagree about without
+ * comparing full lists.
+ *
+ * The tree is laid over the key space : the root covers all positions, each
+ * node splits its positions between {@link #FANOUT} children and the leaves
+ * are single positions. The hash of a node combines the hashes of all files
+ * positioned under it, with an exclusive or so that a file is added or
+ * removed by updating the nodes on its path only. Nodes without files are
+ * not stored.
+ *
+ * @author Anurag Malik, am3926
+ *
+ */
+public class MerkleTree {
+
+	public static final int FANOUT = 16;
+
+	private final int positions;
+	private final int depth;
+	// positions covered by one node of each level
+	private final int[] widths;
+	// hash of each node holding files, by level and index
+	private final List<Map<Integer, Long>> levels;
+	// digest of each file, by position and name
+	private final Map<Integer, Map<String, Long>> leaves;
+
+	/**
+	 * @param positions
+	 *            : number of positions of the key space
+	 */
+	public MerkleTree(int positions) {
+		this.positions = positions;
+		int depth = 0;
+		long width = 1;
+		while (width < positions) {
+			width *= FANOUT;
+			depth++;
+		}
+		this.depth = depth;
+		widths = new int[depth + 1];
+		levels = new ArrayList<Map<Integer, Long>>();
+		for (int level = 0; level <= depth; level++) {
+			widths[level] = (int) width;
+			width /= FANOUT;
+			levels.add(new HashMap<Integer, Long>());
+		}
+		leaves = new HashMap<Integer, Map<String, Long>>();
+	}
+
+	/**
+	 * Add a file, or change the digest of a file already in the tree.
+	 *
+	 * @param name
+	 * @param position
+	 * @param digest
+	 *            : digest of the file content
+	 */
+	public synchronized void put(String name, int position, long digest) {
+		Long previous = leaves.computeIfAbsent(position, key -> new HashMap<String, Long>()).put(name, digest);
+		if (previous != null)
+			update(position, entryHash(name, previous));
+		update(position, entryHash(name, digest));
+	}
+
+	/**
+	 * Remove a file.
+	 *
+	 * @param name
+	 * @param position
+	 */
+	public synchronized void remove(String name, int position) {
+		Map<String, Long> leaf = leaves.get(position);
+		Long previous = leaf == null ? null : leaf.remove(name);
+		if (previous == null)
+			return;
+		if (leaf.isEmpty())
+			leaves.remove(position);
+		update(position, entryHash(name, previous));
+	}
+
+	private void update(int position, long hash) {
+		for (int level = 0; level <= depth; level++) {
+			Map<Integer, Long> nodes = levels.get(level);
+			long value = nodes.getOrDefault(position / widths[level], 0L) ^ hash;
+			if (value == 0)
+				nodes.remove(position / widths[level]);
+			else
+				nodes.put(position / widths[level], value);
+		}
+	}
+
+	/**
+	 * Return level of the leaves, the root is level 0.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Return first position covered by a node.
+	 */
+	public int start(int level, int index) {
+		return index * widths[level];
+	}
+
+	/**
+	 * Return last position covered by a node.
+	 */
+	public int end(int level, int index) {
+		return (int) Math.min((long) (index + 1) * widths[level], positions) - 1;
+	}
+
+	/**
+	 * Return hashes of nodes of one level, 0 for nodes without files.
+	 *
+	 * @param level
+	 * @param indices
+	 * @return hash of each node
+	 */
+	public synchronized long[] hashes(int level, int[] indices) {
+		long[] hashes = new long[indices.length];
+		for (int i = 0; i < indices.length; i++)
+			hashes[i] = levels.get(level).getOrDefault(indices[i], 0L);
+		return hashes;
+	}
+
+	/**
+	 * Return names and digests of the files at some positions.
+	 *
+	 * @param positions
+	 * @return digest by name
+	 */
+	public synchronized HashMap<String, Long> keys(int[] positions) {
+		HashMap<String, Long> keys = new HashMap<String, Long>();
+		for (int position : positions) {
+			Map<String, Long> leaf = leaves.get(position);
+			if (leaf != null)
+				keys.putAll(leaf);
+		}
+		return keys;
+	}
+
+	/**
+	 * Return digest of a file in the tree, null if it isn't.
+	 */
+	public synchronized Long digest(String name, int position) {
+		Map<String, Long> leaf = leaves.get(position);
+		return leaf == null ? null : leaf.get(name);
+	}
+
+	/**
+	 * Return number of files in the tree.
+	 */
+	public synchronized int size() {
+		int size = 0;
+		for (Map<String, Long> leaf : leaves.values())
+			size += leaf.size();
+		return size;
+	}
+
+	private static long entryHash(String name, long digest) {
+		MessageDigest sha = sha();
+		sha.update(name.getBytes(StandardCharsets.UTF_8));
+		sha.update(ByteBuffer.allocate(8).putLong(digest).array());
+		return ByteBuffer.wrap(sha.digest()).getLong();
+	}
+
+	/**
+	 * Return digest of file content.
+	 *
+	 * @param data
+	 * @return first 64 bits of the SHA-256 of the data
+	 */
+	public static long digest(byte[] data) {
+		return ByteBuffer.wrap(sha().digest(data)).getLong();
+	}
+
+	/**
+	 * Return digest of the content of a file on disk.
+	 *
+	 * @param file
+	 * @return first 64 bits of the SHA-256 of the file
+	 * @throws IOException
+	 */
+	public static long digest(File file) throws IOException {
+		MessageDigest sha = sha();
+		byte[] buffer = new byte[64 * 1024];
+		try (InputStream input = new FileInputStream(file)) {
+			int read;
+			while ((read = input.read(buffer)) > 0)
+				sha.update(buffer, 0, read);
+		}
+		return ByteBuffer.wrap(sha.digest()).getLong();
+	}
+
+	private static MessageDigest sha() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 unavailable", e);
+		}
+	}
+}
@@ -0,0 +1,332 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Metrics holds the counters, gauges and latency histograms of one
+ * {@link ChordServer}. Every metric is also exported as an attribute of a JMX
+ * MBean named chord:type=Metrics,node=&lt;server&gt;, histograms as count,
+ * mean, percentile and max attributes, and a plain text dump is available
+ * through {@link #dump()}.
+ *
+ * Latencies are recorded in microseconds.
+ *
+ * @author Anurag Malik, am3926
+ *
+ */
+public class Metrics implements DynamicMBean {
+
+	// latency histograms
+	public static final String LOOKUP = "lookup";
+	public static final String FORWARD = "forward";
+	public static final String INSERT = "insert";
+	public static final String DOWNLOAD = "download";
+	public static final String MIGRATION = "migration";
+	public static final String BALANCE = "balance";
+	public static final String STABILIZE = "stabilize";
+	public static final String QUERY = "query";
+	// time an insert waits for its group commit, and time to write and sync
+	// one batch of the journal
+	public static final String COMMIT = "commit";
+	public static final String COMMIT_SYNC = "commit.sync";
+	// round trip times measured to other servers
+	public static final String RTT = "rtt";
+	// time of one anti-entropy exchange with a neighbor
+	public static final String SYNC = "sync";
+	// time to rebuild an erasure-coded file from its fragments
+	public static final String REBUILD = "erasure.rebuild";
+	// time to take the place of a snapshot again on restart
+	public static final String RESTORE = "restore";
+	// time of one gossip round of the membership table
+	public static final String GOSSIP = "gossip";
+	// time to place and hand files to the servers of a bulk join
+	public static final String BULK_JOIN = "join.bulk";
+
+	// distribution of hops taken by requests answered on this server
+	public static final String HOPS = "hops";
+	// distribution of inserts synced together
+	public static final String COMMIT_BATCH = "commit.batch";
+
+	// counters
+	public static final String BYTES_IN = "bytes.in";
+	public static final String BYTES_OUT = "bytes.out";
+	public static final String LOOKUP_MISS = "lookup.miss";
+	public static final String MIGRATED_FILES = "migration.files";
+	public static final String RPC_ERRORS = "rpc.errors";
+	public static final String BALANCE_MOVES = "balance.moves";
+	public static final String BALANCE_FILES = "balance.files";
+	public static final String QUERY_MISSING = "query.missing";
+	public static final String COMMIT_CHECKPOINTS = "commit.checkpoints";
+	public static final String COMMIT_REPLAYED = "commit.replayed";
+	// chunked transfers started again after a failed call, and transfers
+	// continued from a checkpoint of the receiver
+	public static final String TRANSFER_RETRIES = "transfer.retries";
+	public static final String TRANSFER_RESUMED = "transfer.resumed";
+	// reads that joined a read of the same file already in flight
+	public static final String READS_COALESCED = "reads.coalesced";
+	// hops sent to a nearer server than the one making the most progress
+	public static final String ROUTE_PROXIMITY = "route.proximity";
+	// fragments moved to another server of the chain, computed again from
+	// the other fragments, and files left with fewer fragments than needed
+	public static final String FRAGMENTS_MOVED = "fragments.moved";
+	public static final String FRAGMENTS_REGENERATED = "fragments.regenerated";
+	public static final String FRAGMENTS_LOST = "fragments.lost";
+	// Merkle tree hashes compared and files handed over by anti-entropy
+	public static final String SYNC_HASHES = "sync.hashes";
+	public static final String SYNC_KEYS = "sync.keys";
+	// calls to other servers past their adaptive deadline, reads that could
+	// be hedged, hedges sent to an alternate server and hedges answered first
+	public static final String RPC_TIMEOUTS = "rpc.timeouts";
+	public static final String HEDGE_CALLS = "hedge.calls";
+	public static final String HEDGES = "hedge.sent";
+	public static final String HEDGE_WINS = "hedge.wins";
+	// files sent or received as changes from an older copy, and bytes these
+	// deltas saved over sending the whole files
+	public static final String DELTA_SYNCS = "delta.syncs";
+	public static final String DELTA_SAVED = "delta.saved";
+	// hops sent straight to the owner from the membership table, hops routed
+	// through the fingers because the table was stale, and table entries
+	// received by gossip
+	public static final String ONE_HOP = "route.onehop";
+	public static final String ONE_HOP_STALE = "route.onehop.stale";
+	public static final String GOSSIP_ENTRIES = "gossip.entries";
+	// downloads answered as not modified from the version cached by the
+	// client, and bytes these answers saved
+	public static final String NOT_MODIFIED = "download.notmodified";
+	public static final String NOT_MODIFIED_SAVED = "download.notmodified.saved";
+	// snapshots taken again on restart, and found stale by the neighbors
+	public static final String RESTORED = "restore.done";
+	public static final String RESTORE_STALE = "restore.stale";
+
+	// lookups answered by key filters: skipped disk checks on the owner,
+	// filter matches for absent files, and misses answered before routing
+	public static final String BLOOM_NEGATIVES = "bloom.negatives";
+	public static final String BLOOM_FALSE_POSITIVES = "bloom.false.positives";
+	public static final String BLOOM_EARLY_MISSES = "bloom.early.misses";
+
+	// gauges
+	public static final String KEYS_STORED = "keys.stored";
+	public static final String LOG_DROPPED = "log.dropped";
+	public static final String READS_IN_FLIGHT = "reads.inflight";
+	public static final String FRAGMENTS_STORED = "fragments.stored";
+	// servers in chord in the membership table
+	public static final String MEMBERS = "members";
+	// decayed requests per balancing period and bytes stored
+	public static final String LOAD_REQUESTS = "load.requests";
+	public static final String LOAD_BYTES = "load.bytes";
+	// configured group commit batch size and latency window, named apart from
+	// the max of the commit.batch histogram
+	public static final String COMMIT_BATCH_LIMIT = "commit.batch.limit";
+	public static final String COMMIT_DELAY_LIMIT = "commit.delay.limit.us";
+	// false positive rate of the key filter in parts per million, observed
+	// on lookups and estimated from the bits set
+	public static final String BLOOM_FPP = "bloom.fpp.ppm";
+	public static final String BLOOM_FPP_ESTIMATED = "bloom.fpp.estimated.ppm";
+	// hedged reads in parts per million of the reads that could be hedged
+	public static final String HEDGE_RATE = "hedge.rate.ppm";
+
+	private final Map<String, LongAdder> counters;
+	private final Map<String, Histogram> histograms;
+	private final Map<String, LongSupplier> gauges;
+	private final Map<String, LongAdder> peerErrors;
+	private ObjectName name;
+
+	public Metrics() {
+		counters = new ConcurrentHashMap<String, LongAdder>();
+		histograms = new ConcurrentHashMap<String, Histogram>();
+		gauges = new ConcurrentHashMap<String, LongSupplier>();
+		peerErrors = new ConcurrentHashMap<String, LongAdder>();
+	}
+
+	public void increment(String counter) {
+		add(counter, 1);
+	}
+
+	public void add(String counter, long delta) {
+		counters.computeIfAbsent(counter, key -> new LongAdder()).add(delta);
+	}
+
+	public long count(String counter) {
+		LongAdder adder = counters.get(counter);
+		return adder == null ? 0 : adder.sum();
+	}
+
+	public Histogram histogram(String histogram) {
+		return histograms.computeIfAbsent(histogram, key -> new Histogram());
+	}
+
+	/**
+	 * Record time elapsed since an operation started.
+	 *
+	 * @param operation
+	 *            : histogram name
+	 * @param startNanos
+	 *            : System.nanoTime() taken when the operation started
+	 */
+	public void time(String operation, long startNanos) {
+		histogram(operation).record((System.nanoTime() - startNanos) / 1000);
+	}
+
+	public void gauge(String gauge, LongSupplier supplier) {
+		gauges.put(gauge, supplier);
+	}
+
+	/**
+	 * Count a failed call to another server.
+	 *
+	 * @param peer
+	 *            : host name of the server that could not be reached
+	 */
+	public void peerError(String peer) {
+		increment(RPC_ERRORS);
+		peerErrors.computeIfAbsent(peer, key -> new LongAdder()).increment();
+	}
+
+	/**
+	 * Register these metrics on the platform MBean server.
+	 *
+	 * @param node
+	 *            : host name of the server
+	 */
+	public void register(String node) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			name = new ObjectName("chord:type=Metrics,node=" + ObjectName.quote(node));
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+			server.registerMBean(this, name);
+		} catch (JMException e) {
+			System.out.println("Metrics : failed to register MBean " + e);
+		}
+	}
+
+	public void unregister() {
+		if (name == null)
+			return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch (JMException e) {
+			// already unregistered
+		}
+		name = null;
+	}
+
+	/**
+	 * Return all metrics as plain text, one per line.
+	 *
+	 * @return metrics dump
+	 */
+	public String dump() {
+		StringBuilder dump = new StringBuilder();
+		for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(histograms).entrySet())
+			dump.append('\t').append(entry.getKey())
+					.append(entry.getKey().equals(HOPS) || entry.getKey().equals(COMMIT_BATCH) ? "" : " (us)").append(" : ")
+					.append(entry.getValue()).append('\n');
+		for (Map.Entry<String, Long> entry : snapshot().entrySet())
+			dump.append('\t').append(entry.getKey()).append(" : ").append(entry.getValue()).append('\n');
+		return dump.toString();
+	}
+
+	/**
+	 * Return current values of all counters, gauges and per peer errors.
+	 */
+	private Map<String, Long> snapshot() {
+		Map<String, Long> values = new TreeMap<String, Long>();
+		for (Map.Entry<String, LongAdder> entry : counters.entrySet())
+			values.put(entry.getKey(), entry.getValue().sum());
+		for (Map.Entry<String, LongSupplier> entry : gauges.entrySet())
+			values.put(entry.getKey(), entry.getValue().getAsLong());
+		for (Map.Entry<String, LongAdder> entry : peerErrors.entrySet())
+			values.put(RPC_ERRORS + "." + entry.getKey(), entry.getValue().sum());
+		return values;
+	}
+
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		Map<String, Long> values = snapshot();
+		if (values.containsKey(attribute))
+			return values.get(attribute);
+
+		int index = attribute.lastIndexOf('.');
+		Histogram histogram = index < 0 ? null : histograms.get(attribute.substring(0, index));
+		if (histogram == null)
+			throw new AttributeNotFoundException(attribute);
+		String stat = attribute.substring(index + 1);
+		switch (stat) {
+		case "count":
+			return (double) histogram.getCount();
+		case "mean":
+			return histogram.getMean();
+		case "max":
+			return (double) histogram.getMax();
+		default:
+			if (stat.startsWith("p"))
+				return (double) histogram.getPercentile(Double.parseDouble(stat.substring(1).replace('_', '.')));
+			throw new AttributeNotFoundException(attribute);
+		}
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("Metrics are read only : " + attribute.getName());
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		AttributeList list = new AttributeList();
+		for (String attribute : attributes) {
+			try {
+				list.add(new Attribute(attribute, getAttribute(attribute)));
+			} catch (AttributeNotFoundException e) {
+				// skipped, as required for missing attributes
+			}
+		}
+		return list;
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+		if ("dump".equals(actionName))
+			return dump();
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+		for (String key : snapshot().keySet())
+			attributes.add(new MBeanAttributeInfo(key, "java.lang.Long", key, true, false, false));
+		for (String key : new TreeMap<String, Histogram>(histograms).keySet())
+			for (String stat : new String[] { "count", "mean", "p50", "p90", "p99", "p99_9", "max" })
+				attributes.add(new MBeanAttributeInfo(key + "." + stat, "java.lang.Double", key + " " + stat, true,
+						false, false));
+
+		MBeanOperationInfo dump = new MBeanOperationInfo("dump", "All metrics as plain text", null,
+				"java.lang.String", MBeanOperationInfo.INFO);
+		return new MBeanInfo(getClass().getName(), "Chord server metrics",
+				attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null,
+				new MBeanOperationInfo[] { dump }, null);
+	}
+}
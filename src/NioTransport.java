@@ -0,0 +1,639 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.rmi.NoSuchObjectException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.ServerException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * NioTransport provides the {@link Transport} as a binary RPC protocol over a
+ * single selector thread. Every peer is reached through one persistent
+ * connection, and any number of calls can be in flight on that connection at
+ * the same time; replies are matched to their calls by a call id.
+ *
+ * Each frame on the wire is laid out as: length (int, bytes following), kind
+ * (byte, call/reply/error), call id (long), payload. A call payload holds the
+ * bound name, the method signature and the arguments; a reply payload holds
+ * the return value or the thrown exception. Remote objects passed as arguments
+ * or return values travel as references and are turned into proxies on the
+ * receiving side.
+ *
+ * @author Anurag Malik, am3926
+ *
+ */
+public class NioTransport implements Transport {
+
+	private static final byte CALL = 0;
+	private static final byte REPLY = 1;
+	private static final byte ERROR = 2;
+
+	// kind and call id following the length of every frame
+	private static final int HEADER = 9;
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	// largest frame accepted from a peer, a longer one closes the connection
+	static final int MAX_FRAME = Integer.getInteger("chord.nio.frame.max", 256 * 1024 * 1024);
+
+	private final int defaultPort;
+	private final ConcurrentHashMap<String, Connection> connections;
+	private final ConcurrentHashMap<String, Remote> exported;
+	private final Map<Remote, String> exportedNames;
+	private final ConcurrentHashMap<Class<?>, Map<String, Method>> methods;
+	private final Queue<Runnable> pendingOps;
+	private final AtomicLong callIds;
+	private final AtomicLong callbackIds;
+	private final ExecutorService workers;
+
+	private Selector selector;
+	private ServerSocketChannel acceptor;
+	private volatile String localAddress;
+	private volatile boolean running;
+
+	public NioTransport(int defaultPort) {
+		this.defaultPort = defaultPort;
+		connections = new ConcurrentHashMap<String, Connection>();
+		exported = new ConcurrentHashMap<String, Remote>();
+		exportedNames = Collections.synchronizedMap(new IdentityHashMap<Remote, String>());
+		methods = new ConcurrentHashMap<Class<?>, Map<String, Method>>();
+		pendingOps = new ConcurrentLinkedQueue<Runnable>();
+		callIds = new AtomicLong();
+		callbackIds = new AtomicLong();
+		workers = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "nio-transport-worker");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@Override
+	public synchronized void listen(String address) throws IOException {
+		String[] hostPort = Transport.parseAddress(address, defaultPort);
+		listen(hostPort[0], Integer.parseInt(hostPort[1]));
+	}
+
+	/**
+	 * Accept connections on a port, handing out references to objects
+	 * exported on it under a host name.
+	 * 
+	 * @param host
+	 *            : host name peers connect back to
+	 * @param port
+	 *            : port to listen on, 0 for any free port
+	 * @throws IOException
+	 */
+	private synchronized void listen(String host, int port) throws IOException {
+		start();
+		acceptor = ServerSocketChannel.open();
+		acceptor.bind(new InetSocketAddress(port));
+		acceptor.configureBlocking(false);
+		localAddress = host + ":" + acceptor.socket().getLocalPort();
+		final ServerSocketChannel channel = acceptor;
+		schedule(() -> {
+			try {
+				channel.register(selector, SelectionKey.OP_ACCEPT);
+			} catch (IOException e) {
+				System.out.println("NioTransport : failed to accept on port " + port);
+			}
+		});
+	}
+
+	@Override
+	public <T extends Remote> T export(String name, T object, Class<T> type) throws RemoteException {
+		exported.put(name, object);
+		exportedNames.put(object, name);
+		return type.cast(newProxy(new RemoteRef(localAddress, name, type.getName())));
+	}
+
+	@Override
+	public <T extends Remote> T exportCallback(T object, Class<T> type) throws RemoteException {
+		// callbacks need an endpoint that peers can connect back to
+		synchronized (this) {
+			if (acceptor == null) {
+				try {
+					listen(InetAddress.getLocalHost().getHostName(), 0);
+				} catch (IOException e) {
+					throw new RemoteException("Unable to listen for callbacks", e);
+				}
+			}
+		}
+		return export("callback-" + callbackIds.incrementAndGet(), object, type);
+	}
+
+	@Override
+	public void unexport(Remote object) {
+		if (Proxy.isProxyClass(object.getClass())
+				&& Proxy.getInvocationHandler(object) instanceof RemoteInvocationHandler) {
+			RemoteRef ref = ((RemoteInvocationHandler) Proxy.getInvocationHandler(object)).ref;
+			Remote local = exported.remove(ref.name);
+			if (local != null)
+				exportedNames.remove(local);
+			return;
+		}
+		String name = exportedNames.remove(object);
+		if (name != null)
+			exported.remove(name);
+	}
+
+	@Override
+	public <T extends Remote> T lookup(String address, String name, Class<T> type) throws RemoteException {
+		// fail early if the peer can't be reached, as an RMI lookup would
+		connect(address);
+		return type.cast(newProxy(new RemoteRef(address, name, type.getName())));
+	}
+
+	@Override
+	public void shutdown() {
+		running = false;
+		if (selector != null)
+			selector.wakeup();
+		for (Connection connection : connections.values())
+			close(connection, new IOException("Transport shut down"));
+		try {
+			if (acceptor != null)
+				acceptor.close();
+		} catch (IOException e) {
+			// closing anyway
+		}
+		workers.shutdownNow();
+	}
+
+	/**
+	 * Open the selector and start the thread serving all connections of this
+	 * transport.
+	 */
+	private synchronized void start() throws IOException {
+		if (running)
+			return;
+		selector = Selector.open();
+		running = true;
+		Thread thread = new Thread(this::selectLoop, "nio-transport-selector");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Run an operation on the selector thread. Interest sets and registrations
+	 * are only changed from that thread.
+	 *
+	 * @param op
+	 */
+	private void schedule(Runnable op) {
+		pendingOps.add(op);
+		selector.wakeup();
+	}
+
+	private void selectLoop() {
+		while (running) {
+			try {
+				selector.select();
+				Runnable op;
+				while ((op = pendingOps.poll()) != null)
+					op.run();
+
+				Iterator<SelectionKey> itr = selector.selectedKeys().iterator();
+				while (itr.hasNext()) {
+					SelectionKey key = itr.next();
+					itr.remove();
+					if (!key.isValid())
+						continue;
+					if (key.isAcceptable()) {
+						accept();
+						continue;
+					}
+					Connection connection = (Connection) key.attachment();
+					try {
+						if (key.isReadable())
+							read(connection);
+						if (key.isValid() && key.isWritable())
+							write(connection);
+					} catch (IOException e) {
+						close(connection, e);
+					} catch (RuntimeException e) {
+						// a peer sending garbage loses its connection only
+						close(connection, new IOException("Failure handling " + connection.peer, e));
+					}
+				}
+			} catch (IOException e) {
+				System.out.println("NioTransport : selector failure " + e);
+			}
+		}
+		try {
+			selector.close();
+		} catch (IOException e) {
+			// shutting down
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = acceptor.accept();
+		if (channel == null)
+			return;
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		Connection connection = new Connection(channel, channel.getRemoteAddress().toString());
+		connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+	}
+
+	/**
+	 * Return the persistent connection to a peer, opening it on first use.
+	 *
+	 * @param address
+	 * @return open connection
+	 * @throws RemoteException
+	 */
+	private Connection connect(String address) throws RemoteException {
+		Connection connection = connections.get(address);
+		if (connection != null && !connection.closed)
+			return connection;
+
+		synchronized (connections) {
+			connection = connections.get(address);
+			if (connection != null && !connection.closed)
+				return connection;
+			try {
+				start();
+				String[] hostPort = Transport.parseAddress(address, defaultPort);
+				SocketChannel channel = SocketChannel
+						.open(new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1])));
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				final Connection opened = new Connection(channel, address);
+				schedule(() -> {
+					try {
+						opened.key = channel.register(selector, SelectionKey.OP_READ, opened);
+					} catch (IOException e) {
+						close(opened, e);
+					}
+				});
+				connections.put(address, opened);
+				return opened;
+			} catch (IOException | NumberFormatException e) {
+				throw new RemoteException("Failure connecting to " + address, e);
+			}
+		}
+	}
+
+	private void read(Connection connection) throws IOException {
+		if (connection.channel.read(connection.input) < 0)
+			throw new IOException("Connection closed by " + connection.peer);
+
+		ByteBuffer input = connection.input;
+		input.flip();
+		while (input.remaining() >= 4) {
+			int length = frameLength(connection, input.getInt(input.position()));
+			if (input.remaining() < 4 + length)
+				break;
+			input.getInt();
+			byte kind = input.get();
+			long id = input.getLong();
+			byte[] payload = new byte[length - HEADER];
+			input.get(payload);
+			received(connection, kind, id, payload);
+		}
+		input.compact();
+
+		// grow the buffer if the next frame doesn't fit in it
+		if (input.position() >= 4) {
+			int needed = 4 + frameLength(connection, input.getInt(0));
+			if (needed > input.capacity()) {
+				ByteBuffer larger = ByteBuffer.allocate(needed);
+				input.flip();
+				larger.put(input);
+				connection.input = larger;
+			}
+		}
+	}
+
+	private static int frameLength(Connection connection, int length) throws IOException {
+		if (length < HEADER || length > MAX_FRAME)
+			throw new IOException("Invalid frame length " + length + " from " + connection.peer);
+		return length;
+	}
+
+	private void write(Connection connection) throws IOException {
+		ByteBuffer buffer;
+		while ((buffer = connection.writes.peek()) != null) {
+			connection.channel.write(buffer);
+			if (buffer.hasRemaining())
+				return;
+			connection.writes.poll();
+		}
+		connection.key.interestOps(SelectionKey.OP_READ);
+	}
+
+	private void send(final Connection connection, byte kind, long id, byte[] payload) throws IOException {
+		if (payload.length > MAX_FRAME - HEADER)
+			throw new IOException("Frame of " + payload.length + " bytes larger than " + MAX_FRAME);
+		ByteBuffer frame = ByteBuffer.allocate(4 + HEADER + payload.length);
+		frame.putInt(HEADER + payload.length).put(kind).putLong(id).put(payload);
+		frame.flip();
+		connection.writes.add(frame);
+		schedule(() -> {
+			if (connection.key != null && connection.key.isValid())
+				connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		});
+	}
+
+	private void received(final Connection connection, byte kind, final long id, final byte[] payload) {
+		if (kind == CALL) {
+			workers.execute(() -> serve(connection, id, payload));
+			return;
+		}
+		CompletableFuture<Reply> call = connection.calls.remove(id);
+		if (call != null)
+			call.complete(new Reply(kind, payload));
+	}
+
+	private void close(Connection connection, IOException cause) {
+		if (connection == null)
+			return;
+		connection.closed = true;
+		connections.remove(connection.peer, connection);
+		try {
+			connection.channel.close();
+		} catch (IOException e) {
+			// closing anyway
+		}
+		for (CompletableFuture<Reply> call : connection.calls.values())
+			call.completeExceptionally(new RemoteException("Connection lost : " + connection.peer, cause));
+		connection.calls.clear();
+	}
+
+	/**
+	 * Execute a call received from a peer on the bound object and send back
+	 * its result.
+	 */
+	private void serve(Connection connection, long id, byte[] payload) {
+		byte kind = REPLY;
+		Object result;
+		try {
+			ObjectInputStream input = new RefInputStream(new ByteArrayInputStream(payload));
+			String name = (String) input.readObject();
+			String signature = (String) input.readObject();
+			Object[] args = (Object[]) input.readObject();
+
+			Remote target = exported.get(name);
+			if (target == null)
+				throw new NoSuchObjectException(name);
+			Method method = methodsOf(target.getClass()).get(signature);
+			if (method == null)
+				throw new NoSuchObjectException(name + "." + signature);
+			result = method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			kind = ERROR;
+			result = e.getCause();
+		} catch (Exception e) {
+			kind = ERROR;
+			result = e;
+		}
+
+		byte[] reply;
+		try {
+			reply = serialize(result);
+		} catch (IOException e) {
+			kind = ERROR;
+			try {
+				reply = serialize(new RemoteException("Unable to marshal reply", e));
+			} catch (IOException e1) {
+				return;
+			}
+		}
+		try {
+			send(connection, kind, id, reply);
+		} catch (IOException e) {
+			try {
+				send(connection, ERROR, id, serialize(new RemoteException("Unable to send reply", e)));
+			} catch (IOException e1) {
+				// the caller waits until the connection closes
+			}
+		}
+	}
+
+	/**
+	 * Send a call to a remote object and wait for its reply.
+	 */
+	private Object invoke(RemoteRef ref, Method method, Object[] args) throws Throwable {
+		Connection connection = connect(ref.address);
+		long id = callIds.incrementAndGet();
+		CompletableFuture<Reply> call = new CompletableFuture<Reply>();
+		connection.calls.put(id, call);
+		if (connection.closed) {
+			connection.calls.remove(id);
+			throw new RemoteException("Connection lost : " + ref.address);
+		}
+
+		try {
+			send(connection, CALL, id, serialize(ref.name, signature(method), args));
+		} catch (IOException e) {
+			connection.calls.remove(id);
+			throw new RemoteException("Unable to marshal call " + method.getName(), e);
+		}
+
+		Reply reply;
+		try {
+			reply = call.get();
+		} catch (InterruptedException e) {
+			connection.calls.remove(id);
+			Thread.currentThread().interrupt();
+			throw new RemoteException("Interrupted waiting for " + ref.address, e);
+		} catch (ExecutionException e) {
+			throw e.getCause();
+		}
+
+		Object value = new RefInputStream(new ByteArrayInputStream(reply.payload)).readObject();
+		if (reply.kind == REPLY)
+			return value;
+		if (value instanceof RemoteException || value instanceof RuntimeException || value instanceof Error)
+			throw (Throwable) value;
+		throw new ServerException("Exception on " + ref.address, (Exception) value);
+	}
+
+	private byte[] serialize(Object... values) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream output = new RefOutputStream(bytes);
+		for (Object value : values)
+			output.writeObject(value);
+		output.close();
+		return bytes.toByteArray();
+	}
+
+	private Object newProxy(RemoteRef ref) throws RemoteException {
+		try {
+			Class<?> type = Class.forName(ref.type);
+			return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+					new RemoteInvocationHandler(ref));
+		} catch (ClassNotFoundException e) {
+			throw new RemoteException("Unknown remote type " + ref.type, e);
+		}
+	}
+
+	private static String signature(Method method) {
+		return method.getName() + Arrays.toString(method.getParameterTypes());
+	}
+
+	/**
+	 * Map remote methods of an exported class by their signature. Methods are
+	 * taken from its remote interfaces so that non public implementations can
+	 * still be invoked.
+	 */
+	private Map<String, Method> methodsOf(Class<?> type) {
+		Map<String, Method> map = methods.get(type);
+		if (map != null)
+			return map;
+		map = new HashMap<String, Method>();
+		List<Class<?>> interfaces = new ArrayList<Class<?>>();
+		for (Class<?> c = type; c != null; c = c.getSuperclass())
+			interfaces.addAll(Arrays.asList(c.getInterfaces()));
+		for (Class<?> i : interfaces)
+			if (Remote.class.isAssignableFrom(i))
+				for (Method method : i.getMethods())
+					map.put(signature(method), method);
+		methods.put(type, map);
+		return map;
+	}
+
+	/**
+	 * Reference to an object exported by some transport, written in place of
+	 * remote objects.
+	 */
+	private static class RemoteRef implements Serializable {
+		private static final long serialVersionUID = 1L;
+		final String address;
+		final String name;
+		final String type;
+
+		RemoteRef(String address, String name, String type) {
+			this.address = address;
+			this.name = name;
+			this.type = type;
+		}
+	}
+
+	private class RemoteInvocationHandler implements InvocationHandler {
+		final RemoteRef ref;
+
+		RemoteInvocationHandler(RemoteRef ref) {
+			this.ref = ref;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getDeclaringClass() == Object.class) {
+				switch (method.getName()) {
+				case "equals":
+					return args[0] != null && Proxy.isProxyClass(args[0].getClass())
+							&& Proxy.getInvocationHandler(args[0]) instanceof RemoteInvocationHandler
+							&& ref.address.equals(((RemoteInvocationHandler) Proxy.getInvocationHandler(args[0])).ref.address)
+							&& ref.name.equals(((RemoteInvocationHandler) Proxy.getInvocationHandler(args[0])).ref.name);
+				case "hashCode":
+					return ref.address.hashCode() * 31 + ref.name.hashCode();
+				default:
+					return "Remote[" + ref.name + "@" + ref.address + "]";
+				}
+			}
+			return NioTransport.this.invoke(ref, method, args == null ? new Object[0] : args);
+		}
+	}
+
+	/**
+	 * Writes remote objects, proxies or locally exported objects, as
+	 * references.
+	 */
+	private class RefOutputStream extends ObjectOutputStream {
+		RefOutputStream(OutputStream out) throws IOException {
+			super(out);
+			enableReplaceObject(true);
+		}
+
+		@Override
+		protected Object replaceObject(Object obj) throws IOException {
+			if (obj instanceof Remote) {
+				if (Proxy.isProxyClass(obj.getClass())
+						&& Proxy.getInvocationHandler(obj) instanceof RemoteInvocationHandler)
+					return ((RemoteInvocationHandler) Proxy.getInvocationHandler(obj)).ref;
+				String name = exportedNames.get(obj);
+				if (name != null) {
+					for (Class<?> i : obj.getClass().getInterfaces())
+						if (Remote.class.isAssignableFrom(i) && i != Remote.class)
+							return new RemoteRef(localAddress, name, i.getName());
+				}
+			}
+			return obj;
+		}
+	}
+
+	/**
+	 * Turns references read from a peer back into proxies.
+	 */
+	private class RefInputStream extends ObjectInputStream {
+		RefInputStream(InputStream in) throws IOException {
+			super(in);
+			enableResolveObject(true);
+		}
+
+		@Override
+		protected Object resolveObject(Object obj) throws IOException {
+			if (obj instanceof RemoteRef)
+				return newProxy((RemoteRef) obj);
+			return obj;
+		}
+	}
+
+	private static class Reply {
+		final byte kind;
+		final byte[] payload;
+
+		Reply(byte kind, byte[] payload) {
+			this.kind = kind;
+			this.payload = payload;
+		}
+	}
+
+	private static class Connection {
+		final SocketChannel channel;
+		final String peer;
+		final Queue<ByteBuffer> writes = new ConcurrentLinkedQueue<ByteBuffer>();
+		final ConcurrentHashMap<Long, CompletableFuture<Reply>> calls = new ConcurrentHashMap<Long, CompletableFuture<Reply>>();
+		ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+		volatile SelectionKey key;
+		volatile boolean closed;
+
+		Connection(SocketChannel channel, String peer) {
+			this.channel = channel;
+			this.peer = peer;
+		}
+	}
+}
@@ -0,0 +1,357 @@
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * NodeConfig holds the settings that identify one {@link ChordServer}
+ * instance: host name and domain, listening port, entry servers of the chord
+ * network, data directory and key space size. Several instances can share a
+ * machine as long as each has its own port and data directory; a server on a
+ * port other than the default is known to the network as host:port and gets
+ * its own ring position.
+ *
+ * Settings are read from name=value arguments, for example:
+ *
+ * <pre>
+ * java ChordServer port=4041 dir=/disk2/chord/ seeds=kansas.cs.rit.edu,kansas.cs.rit.edu:4041
+ * </pre>
+ *
+ * falling back to system properties chord.&lt;name&gt; and then to defaults.
+ * Names are host, domain, port, seeds, dir, name, keyspace, balance,
+ * stabilize, durable, commitbatch, commitdelay, erasure, onehop and gossip.
+ *
+ * @author Anurag Malik, am3926
+ *
+ */
+public class NodeConfig {
+
+	public static final int DEFAULT_PORT = 4040;
+	public static final String DEFAULT_DOMAIN = ".cs.rit.edu";
+	public static final String DEFAULT_ENTRY_SERVER = "kansas.cs.rit.edu";
+	public static final int DEFAULT_KEY_SPACE = 1000;
+	public static final int DEFAULT_BALANCE_PERIOD = 30;
+	public static final int DEFAULT_STABILIZE_PERIOD = 10;
+	public static final int DEFAULT_COMMIT_BATCH = 64;
+	public static final long DEFAULT_COMMIT_DELAY = 2000;
+	public static final int DEFAULT_GOSSIP_PERIOD = 1;
+
+	private String hostName;
+	private String domain;
+	private int port;
+	private List<String> entryServers;
+	private String lookupDirectory;
+	private String name;
+	private int keySpace;
+	private int balancePeriod;
+	private int stabilizePeriod;
+	private boolean durable;
+	private int commitBatch;
+	private long commitDelay;
+	private int dataFragments;
+	private int parityFragments;
+	private boolean oneHop;
+	private int gossipPeriod;
+
+	public NodeConfig() {
+		domain = DEFAULT_DOMAIN;
+		port = DEFAULT_PORT;
+		entryServers = new ArrayList<String>(Arrays.asList(DEFAULT_ENTRY_SERVER));
+		keySpace = DEFAULT_KEY_SPACE;
+		balancePeriod = DEFAULT_BALANCE_PERIOD;
+		stabilizePeriod = DEFAULT_STABILIZE_PERIOD;
+		commitBatch = DEFAULT_COMMIT_BATCH;
+		commitDelay = DEFAULT_COMMIT_DELAY;
+		gossipPeriod = DEFAULT_GOSSIP_PERIOD;
+	}
+
+	/**
+	 * Read settings from name=value arguments and chord.* system properties.
+	 *
+	 * @param args
+	 * @return configuration
+	 */
+	public static NodeConfig fromArgs(String[] args) {
+		NodeConfig config = new NodeConfig();
+		config.setHostName(setting(args, "host", null));
+		config.setDomain(setting(args, "domain", DEFAULT_DOMAIN));
+		config.setPort(Integer.parseInt(setting(args, "port", String.valueOf(DEFAULT_PORT))));
+		config.setEntryServers(Arrays.asList(setting(args, "seeds", DEFAULT_ENTRY_SERVER).split(",")));
+		config.setLookupDirectory(setting(args, "dir", null));
+		config.setName(setting(args, "name", null));
+		config.setKeySpace(Integer.parseInt(setting(args, "keyspace", String.valueOf(DEFAULT_KEY_SPACE))));
+		config.setBalancePeriod(Integer.parseInt(setting(args, "balance", String.valueOf(DEFAULT_BALANCE_PERIOD))));
+		config.setStabilizePeriod(
+				Integer.parseInt(setting(args, "stabilize", String.valueOf(DEFAULT_STABILIZE_PERIOD))));
+		config.setDurable(Boolean.parseBoolean(setting(args, "durable", "false")));
+		config.setCommitBatch(Integer.parseInt(setting(args, "commitbatch", String.valueOf(DEFAULT_COMMIT_BATCH))));
+		config.setCommitDelay(Long.parseLong(setting(args, "commitdelay", String.valueOf(DEFAULT_COMMIT_DELAY))));
+		config.setErasure(setting(args, "erasure", null));
+		config.setOneHop(Boolean.parseBoolean(setting(args, "onehop", "false")));
+		config.setGossipPeriod(Integer.parseInt(setting(args, "gossip", String.valueOf(DEFAULT_GOSSIP_PERIOD))));
+		return config;
+	}
+
+	private static String setting(String[] args, String name, String defaultValue) {
+		for (String arg : args)
+			if (arg.startsWith(name + "="))
+				return arg.substring(name.length() + 1);
+		return System.getProperty("chord." + name, defaultValue);
+	}
+
+	/**
+	 * Return host name of the server, the local host name unless configured,
+	 * the loopback host name if the local host name can't be resolved.
+	 */
+	public String getHostName() {
+		if (hostName != null)
+			return hostName;
+		try {
+			return InetAddress.getLocalHost().getHostName();
+		} catch (UnknownHostException e) {
+			String loopback = InetAddress.getLoopbackAddress().getHostName();
+			System.out.println("NodeConfig : local host name unresolved, using " + loopback + " : " + e);
+			return loopback;
+		}
+	}
+
+	public void setHostName(String hostName) {
+		this.hostName = hostName;
+	}
+
+	public String getDomain() {
+		return domain;
+	}
+
+	public void setDomain(String domain) {
+		this.domain = domain;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	/**
+	 * Return addresses of the servers contacted to join the chord network, in
+	 * order of preference.
+	 */
+	public List<String> getEntryServers() {
+		return entryServers;
+	}
+
+	public void setEntryServers(List<String> entryServers) {
+		this.entryServers = new ArrayList<String>();
+		for (String server : entryServers)
+			if (!server.trim().isEmpty())
+				this.entryServers.add(server.trim());
+	}
+
+	/**
+	 * Return the data directory, by default one per host and port under the
+	 * home directory.
+	 */
+	public String getLookupDirectory() {
+		if (lookupDirectory != null)
+			return lookupDirectory.endsWith("/") ? lookupDirectory : lookupDirectory + "/";
+		String directory = System.getProperty("user.home") + "/Courses/chord/" + getHostName();
+		return (port == DEFAULT_PORT ? directory : directory + "-" + port) + "/";
+	}
+
+	public void setLookupDirectory(String lookupDirectory) {
+		this.lookupDirectory = lookupDirectory;
+	}
+
+	/**
+	 * Return the name hashed to place the server on the ring. Unless set it is
+	 * the host name, followed by the port when not the default one.
+	 */
+	public String getName() {
+		if (name != null)
+			return name;
+		return port == DEFAULT_PORT ? getHostName() : getHostName() + ":" + port;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Return address other servers use to reach this server.
+	 */
+	public String getNodeId() {
+		String address = getHostName() + domain;
+		return port == DEFAULT_PORT ? address : address + ":" + port;
+	}
+
+	public int getKeySpace() {
+		return keySpace;
+	}
+
+	public void setKeySpace(int keySpace) {
+		this.keySpace = keySpace;
+	}
+
+	/**
+	 * Return seconds between two rounds of key range balancing with the
+	 * neighbors, 0 if balancing is disabled.
+	 */
+	public int getBalancePeriod() {
+		return balancePeriod;
+	}
+
+	public void setBalancePeriod(int balancePeriod) {
+		this.balancePeriod = balancePeriod;
+	}
+
+	/**
+	 * Return seconds between two refreshes of the finger table, 0 if it is
+	 * only refreshed on demand.
+	 */
+	public int getStabilizePeriod() {
+		return stabilizePeriod;
+	}
+
+	public void setStabilizePeriod(int stabilizePeriod) {
+		this.stabilizePeriod = stabilizePeriod;
+	}
+
+	/**
+	 * Check if inserted files are acknowledged only once they survive a
+	 * crash, see {@link GroupCommit}.
+	 */
+	public boolean isDurable() {
+		return durable;
+	}
+
+	public void setDurable(boolean durable) {
+		this.durable = durable;
+	}
+
+	/**
+	 * Return maximum number of inserts synced together in durable mode.
+	 */
+	public int getCommitBatch() {
+		return commitBatch;
+	}
+
+	public void setCommitBatch(int commitBatch) {
+		this.commitBatch = commitBatch;
+	}
+
+	/**
+	 * Return maximum microseconds an insert waits for others to be synced
+	 * with in durable mode.
+	 */
+	public long getCommitDelay() {
+		return commitDelay;
+	}
+
+	public void setCommitDelay(long commitDelay) {
+		this.commitDelay = commitDelay;
+	}
+
+	/**
+	 * Set erasure coding of stored files from a k+m setting, for example 4+2
+	 * stores each file as 4 data and 2 parity fragments. Null or off stores
+	 * whole files. All servers of a network need the same setting.
+	 *
+	 * @param erasure
+	 */
+	public void setErasure(String erasure) {
+		if (erasure == null || erasure.equals("off")) {
+			dataFragments = 0;
+			parityFragments = 0;
+			return;
+		}
+		String[] counts = erasure.split("\\+");
+		if (counts.length != 2)
+			throw new IllegalArgumentException("Erasure setting must be k+m : " + erasure);
+		dataFragments = Integer.parseInt(counts[0].trim());
+		parityFragments = Integer.parseInt(counts[1].trim());
+	}
+
+	/**
+	 * Check if stored files are erasure coded, see {@link ReedSolomon}.
+	 */
+	public boolean isErasureCoded() {
+		return dataFragments > 0;
+	}
+
+	/**
+	 * Return number of data fragments a file is split into, 0 if files are
+	 * stored whole.
+	 */
+	public int getDataFragments() {
+		return dataFragments;
+	}
+
+	/**
+	 * Return number of parity fragments stored with the data fragments.
+	 */
+	public int getParityFragments() {
+		return parityFragments;
+	}
+
+	/**
+	 * Check if requests are sent straight to the server owning their key,
+	 * through a membership table gossiped between servers, see
+	 * {@link MembershipTable}.
+	 */
+	public boolean isOneHop() {
+		return oneHop;
+	}
+
+	public void setOneHop(boolean oneHop) {
+		this.oneHop = oneHop;
+	}
+
+	/**
+	 * Return seconds between two gossip rounds of the membership table in
+	 * one-hop mode, 0 if rounds are only run on demand.
+	 */
+	public int getGossipPeriod() {
+		return gossipPeriod;
+	}
+
+	public void setGossipPeriod(int gossipPeriod) {
+		this.gossipPeriod = gossipPeriod;
+	}
+
+	/**
+	 * Return journal of durable inserts, next to the data directory.
+	 */
+	public String getJournalFile() {
+		String directory = getLookupDirectory();
+		return directory.substring(0, directory.length() - 1) + ".journal";
+	}
+
+	/**
+	 * Return snapshot of the place of the server in the network, next to the
+	 * data directory, see {@link NodeState}.
+	 */
+	public String getStateFile() {
+		String directory = getLookupDirectory();
+		return directory.substring(0, directory.length() - 1) + ".state";
+	}
+
+	/**
+	 * Return directory of files being received, next to the data directory.
+	 */
+	public String getTransferDirectory() {
+		String directory = getLookupDirectory();
+		return directory.substring(0, directory.length() - 1) + ".transfers";
+	}
+
+	/**
+	 * Return directory of erasure-coded fragments, next to the data directory.
+	 */
+	public String getFragmentDirectory() {
+		String directory = getLookupDirectory();
+		return directory.substring(0, directory.length() - 1) + ".fragments";
+	}
+}
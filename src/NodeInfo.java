@@ -0,0 +1,50 @@
+import java.io.Serializable;
+
+/**
+ * This class represents a server of the chord network as known by another
+ * server, its node id and the key range it owned when the information was
+ * taken. It is used for entries of finger tables and for broadcast trees.
+ * 
+ * @author Anurag Malik, am3926
+ *
+ */
+public class NodeInfo implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	private final String nodeId;
+	private final int start;
+	private final int end;
+
+	public NodeInfo(String nodeId, int start, int end) {
+		this.nodeId = nodeId;
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * Get node id of the server.
+	 */
+	public String getNodeId() {
+		return nodeId;
+	}
+
+	/**
+	 * Get start of the key range of the server.
+	 */
+	public int getStart() {
+		return start;
+	}
+
+	/**
+	 * Get end of the key range of the server, used as its position on the
+	 * ring.
+	 */
+	public int getEnd() {
+		return end;
+	}
+
+	@Override
+	public String toString() {
+		return nodeId + " [" + start + " - " + end + "]";
+	}
+}
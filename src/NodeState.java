@@ -0,0 +1,128 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+
+/**
+ * This class represents a snapshot of the place of a server in the chord
+ * network : its identity, key range, neighbors, finger table and the names
+ * of the files it owns. It is saved whenever the place changes and
+ * periodically, so that a server restarting quickly can take its place again
+ * without joining and moving files.
+ *
+ * @author Anurag Malik, am3926
+ *
+ */
+public class NodeState implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	private final String nodeId;
+	private final int keySpace;
+	private final int start;
+	private final int end;
+	private final String predecessor;
+	private final String successor;
+	private final NodeInfo[] fingers;
+	private final String[] files;
+	private final long saved;
+
+	public NodeState(String nodeId, int keySpace, int start, int end, String predecessor, String successor,
+			NodeInfo[] fingers, Collection<String> files) {
+		this.nodeId = nodeId;
+		this.keySpace = keySpace;
+		this.start = start;
+		this.end = end;
+		this.predecessor = predecessor;
+		this.successor = successor;
+		this.fingers = fingers;
+		this.files = files.toArray(new String[0]);
+		this.saved = System.currentTimeMillis();
+	}
+
+	public String getNodeId() {
+		return nodeId;
+	}
+
+	public int getKeySpace() {
+		return keySpace;
+	}
+
+	public int getStart() {
+		return start;
+	}
+
+	public int getEnd() {
+		return end;
+	}
+
+	public String getPredecessor() {
+		return predecessor;
+	}
+
+	public String getSuccessor() {
+		return successor;
+	}
+
+	/**
+	 * Get finger table, null if it wasn't built yet.
+	 */
+	public NodeInfo[] getFingers() {
+		return fingers;
+	}
+
+	public String[] getFiles() {
+		return files;
+	}
+
+	/**
+	 * Get time the snapshot was taken, in milliseconds.
+	 */
+	public long getSaved() {
+		return saved;
+	}
+
+	/**
+	 * Replace the snapshot in a file in one step, once synced.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		File temporary = new File(file.getPath() + ".tmp");
+		try (FileOutputStream output = new FileOutputStream(temporary)) {
+			ObjectOutputStream objects = new ObjectOutputStream(output);
+			objects.writeObject(this);
+			objects.flush();
+			output.getFD().sync();
+		}
+		try {
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Read the snapshot saved in a file.
+	 *
+	 * @param file
+	 * @return snapshot, null if there is none or it can't be read
+	 */
+	public static NodeState read(File file) {
+		if (!file.exists())
+			return null;
+		try (ObjectInputStream input = new ObjectInputStream(new FileInputStream(file))) {
+			return (NodeState) input.readObject();
+		} catch (IOException | ClassNotFoundException | ClassCastException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,79 @@
+import java.io.Serializable;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * This class represents a cluster query packet, spread over all servers of
+ * the chord network. Every query collects key counts and stored bytes of each
+ * server; a query with a prefix also lists names of the files matching it. A
+ * query carries the time by which results must be back with the server that
+ * started it.
+ * 
+ * @author Anurag Malik, am3926
+ *
+ */
+public class Query implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	private final long queryId;
+	private final String prefix;
+	private final int maxNames;
+	private final long deadline;
+
+	/**
+	 * Create a query collecting statistics, and file names if a prefix is
+	 * given.
+	 * 
+	 * @param prefix
+	 *            : prefix of file names to list, null for statistics only
+	 * @param maxNames
+	 *            : maximum number of file names returned
+	 * @param timeoutMillis
+	 *            : time allowed for the whole query
+	 */
+	public Query(String prefix, int maxNames, long timeoutMillis) {
+		this(ThreadLocalRandom.current().nextLong(), prefix, maxNames, System.currentTimeMillis() + timeoutMillis);
+	}
+
+	private Query(long queryId, String prefix, int maxNames, long deadline) {
+		this.queryId = queryId;
+		this.prefix = prefix;
+		this.maxNames = maxNames;
+		this.deadline = deadline;
+	}
+
+	/**
+	 * Return a copy of this query with an earlier deadline, given to the
+	 * servers a server forwards the query to.
+	 * 
+	 * @param deadline
+	 * @return query
+	 */
+	public Query withDeadline(long deadline) {
+		return new Query(queryId, prefix, maxNames, Math.min(deadline, this.deadline));
+	}
+
+	/**
+	 * Get id correlating all events logged for this query.
+	 */
+	public long getQueryId() {
+		return queryId;
+	}
+
+	/**
+	 * Get prefix of file names listed, null if no names are listed.
+	 */
+	public String getPrefix() {
+		return prefix;
+	}
+
+	public int getMaxNames() {
+		return maxNames;
+	}
+
+	/**
+	 * Get time in milliseconds since epoch by which results are expected.
+	 */
+	public long getDeadline() {
+		return deadline;
+	}
+}
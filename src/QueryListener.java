@@ -0,0 +1,14 @@
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Interface providing callback functionality for receiving partial results of
+ * a cluster query while it is still running.
+ * 
+ * @author Anurag Malik, am3926
+ *
+ */
+public interface QueryListener extends Remote {
+	// push result of one part of the network, as soon as it is aggregated
+	public void partialResult(long queryId, QueryResult partial) throws RemoteException;
+}
@@ -0,0 +1,158 @@
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * This class represents the result of a cluster query for a part of the chord
+ * network. Results of servers are merged on the way back to the server that
+ * started the query, so that every server only sends one aggregated result.
+ * Statistics are kept per server, which also keeps a server reached twice
+ * from being counted twice.
+ * 
+ * @author Anurag Malik, am3926
+ *
+ */
+public class QueryResult implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	// node id -> { keys, bytes }
+	private final Map<String, long[]> nodes = new TreeMap<String, long[]>();
+	private final Set<String> names = new TreeSet<String>();
+	private final Set<String> missing = new TreeSet<String>();
+	private boolean truncated;
+	private int depth;
+
+	/**
+	 * Add statistics of one server.
+	 * 
+	 * @param nodeId
+	 * @param keys
+	 *            : number of files stored
+	 * @param bytes
+	 *            : bytes stored
+	 */
+	public void addNode(String nodeId, long keys, long bytes) {
+		nodes.put(nodeId, new long[] { keys, bytes });
+		missing.remove(nodeId);
+	}
+
+	/**
+	 * Add a file name matching the query, up to the maximum count.
+	 * 
+	 * @param name
+	 * @param maxNames
+	 */
+	public void addName(String name, int maxNames) {
+		if (names.size() < maxNames)
+			names.add(name);
+		else if (!names.contains(name))
+			truncated = true;
+	}
+
+	/**
+	 * Record a server whose part of the network didn't answer in time.
+	 * 
+	 * @param nodeId
+	 */
+	public void addMissing(String nodeId) {
+		if (!nodes.containsKey(nodeId))
+			missing.add(nodeId);
+	}
+
+	/**
+	 * Merge the result of another part of the network into this one.
+	 * 
+	 * @param result
+	 * @param maxNames
+	 */
+	public void merge(QueryResult result, int maxNames) {
+		for (Map.Entry<String, long[]> node : result.nodes.entrySet())
+			addNode(node.getKey(), node.getValue()[0], node.getValue()[1]);
+		for (String name : result.names)
+			addName(name, maxNames);
+		for (String node : result.missing)
+			addMissing(node);
+		truncated |= result.truncated;
+		depth = Math.max(depth, result.depth + 1);
+	}
+
+	public int getNodeCount() {
+		return nodes.size();
+	}
+
+	public long getKeyCount() {
+		long keys = 0;
+		for (long[] node : nodes.values())
+			keys += node[0];
+		return keys;
+	}
+
+	public long getBytes() {
+		long bytes = 0;
+		for (long[] node : nodes.values())
+			bytes += node[1];
+		return bytes;
+	}
+
+	/**
+	 * Return number of files stored per server.
+	 */
+	public Map<String, Long> getKeysPerNode() {
+		Map<String, Long> keys = new TreeMap<String, Long>();
+		for (Map.Entry<String, long[]> node : nodes.entrySet())
+			keys.put(node.getKey(), node.getValue()[0]);
+		return keys;
+	}
+
+	public Set<String> getNames() {
+		return names;
+	}
+
+	/**
+	 * Return servers whose part of the network didn't answer in time.
+	 */
+	public Set<String> getMissing() {
+		return missing;
+	}
+
+	/**
+	 * Check if more file names matched than were returned.
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	/**
+	 * Return number of levels of the broadcast tree that answered.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Return all details of the result in string format.
+	 * 
+	 * @return
+	 */
+	public String getSummary() {
+		StringBuilder summary = new StringBuilder("*** CLUSTER ***\nServers : ").append(nodes.size());
+		summary.append(", keys : ").append(getKeyCount()).append(", bytes : ").append(getBytes());
+		summary.append(", tree depth : ").append(depth);
+		for (Map.Entry<String, long[]> node : nodes.entrySet())
+			summary.append("\n\t").append(node.getKey()).append(" : ").append(node.getValue()[0]).append(" keys, ")
+					.append(node.getValue()[1]).append(" bytes");
+		if (!names.isEmpty() || truncated) {
+			summary.append("\nFiles :");
+			for (String name : names)
+				summary.append("\n\t").append(name);
+			if (truncated)
+				summary.append("\n\t...");
+		}
+		if (!missing.isEmpty())
+			summary.append("\nNo answer in time from : ").append(missing);
+		return summary.append('\n').toString();
+	}
+}
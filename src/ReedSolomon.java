@@ -0,0 +1,204 @@
+/**
+ * ReedSolomon splits data into k data fragments and computes m parity
+ * fragments, so that the data can be rebuilt from any k of the k + m
+ * fragments. Arithmetic is done in GF(2^8); the parity rows of the coding
+ * matrix form a Cauchy matrix, which keeps every k by k sub-matrix of the
+ * systematic matrix invertible.
+ *
+ * @author Anurag Malik, am3926
+ *
+ */
+public class ReedSolomon {
+
+	private static final byte[] EXP = new byte[512];
+	private static final int[] LOG = new int[256];
+
+	static {
+		// powers of the generator 2 modulo the polynomial x^8+x^4+x^3+x^2+1
+		int value = 1;
+		for (int i = 0; i < 255; i++) {
+			EXP[i] = (byte) value;
+			LOG[value] = i;
+			value <<= 1;
+			if (value >= 256)
+				value ^= 0x11d;
+		}
+		for (int i = 255; i < 512; i++)
+			EXP[i] = EXP[i - 255];
+	}
+
+	private final int dataFragments;
+	private final int parityFragments;
+
+	// row i gives fragment i as a combination of the data fragments
+	private final byte[][] matrix;
+
+	/**
+	 * @param dataFragments
+	 *            : number of fragments the data is split into
+	 * @param parityFragments
+	 *            : number of parity fragments, fragments that can be lost
+	 */
+	public ReedSolomon(int dataFragments, int parityFragments) {
+		if (dataFragments < 1 || parityFragments < 0 || dataFragments + parityFragments > 256)
+			throw new IllegalArgumentException("Unsupported fragments : " + dataFragments + "+" + parityFragments);
+		this.dataFragments = dataFragments;
+		this.parityFragments = parityFragments;
+		matrix = new byte[dataFragments + parityFragments][dataFragments];
+		for (int i = 0; i < dataFragments; i++)
+			matrix[i][i] = 1;
+		for (int j = 0; j < parityFragments; j++)
+			for (int i = 0; i < dataFragments; i++)
+				matrix[dataFragments + j][i] = inverse((dataFragments + j) ^ i);
+	}
+
+	public int getDataFragments() {
+		return dataFragments;
+	}
+
+	public int getParityFragments() {
+		return parityFragments;
+	}
+
+	/**
+	 * Return size of each fragment of data of a given length.
+	 */
+	public int fragmentSize(int length) {
+		return Math.max(1, (length + dataFragments - 1) / dataFragments);
+	}
+
+	/**
+	 * Split data into data fragments, padded with zeros, and compute the
+	 * parity fragments.
+	 *
+	 * @param data
+	 * @return k + m fragments of equal size
+	 */
+	public byte[][] encode(byte[] data) {
+		int size = fragmentSize(data.length);
+		byte[][] fragments = new byte[dataFragments + parityFragments][size];
+		for (int i = 0; i < dataFragments; i++) {
+			int from = i * size;
+			if (from < data.length)
+				System.arraycopy(data, from, fragments[i], 0, Math.min(size, data.length - from));
+		}
+		for (int j = 0; j < parityFragments; j++)
+			for (int i = 0; i < dataFragments; i++)
+				multiplyAdd(matrix[dataFragments + j][i], fragments[i], fragments[dataFragments + j]);
+		return fragments;
+	}
+
+	/**
+	 * Rebuild data from any k fragments.
+	 *
+	 * @param fragments
+	 *            : fragments by index, null where missing
+	 * @param length
+	 *            : length of the data encoded
+	 * @return data
+	 * @throws IllegalArgumentException
+	 *             if fewer than k fragments are given
+	 */
+	public byte[] decode(byte[][] fragments, int length) {
+		int[] rows = new int[dataFragments];
+		int found = 0;
+		for (int i = 0; i < fragments.length && found < dataFragments; i++)
+			if (fragments[i] != null)
+				rows[found++] = i;
+		if (found < dataFragments)
+			throw new IllegalArgumentException("Only " + found + " of " + dataFragments + " fragments available");
+
+		int size = fragments[rows[0]].length;
+		byte[] data = new byte[length];
+		boolean systematic = rows[dataFragments - 1] == dataFragments - 1;
+		if (systematic) {
+			for (int i = 0; i < dataFragments; i++)
+				copy(fragments[i], i, size, data);
+			return data;
+		}
+
+		// data fragments are the inverse of the rows of the fragments found
+		// applied to those fragments
+		byte[][] decoding = new byte[dataFragments][];
+		for (int i = 0; i < dataFragments; i++)
+			decoding[i] = matrix[rows[i]].clone();
+		byte[][] inverse = invert(decoding);
+		for (int i = 0; i < dataFragments; i++) {
+			byte[] fragment;
+			if (rows[i] == i) {
+				fragment = fragments[i];
+			} else {
+				fragment = new byte[size];
+				for (int j = 0; j < dataFragments; j++)
+					multiplyAdd(inverse[i][j], fragments[rows[j]], fragment);
+			}
+			copy(fragment, i, size, data);
+		}
+		return data;
+	}
+
+	private static void copy(byte[] fragment, int index, int size, byte[] data) {
+		int from = index * size;
+		if (from < data.length)
+			System.arraycopy(fragment, 0, data, from, Math.min(size, data.length - from));
+	}
+
+	/**
+	 * Add coefficient * source to target, element by element.
+	 */
+	private static void multiplyAdd(byte coefficient, byte[] source, byte[] target) {
+		if (coefficient == 0)
+			return;
+		int log = LOG[coefficient & 0xff];
+		for (int i = 0; i < source.length; i++)
+			if (source[i] != 0)
+				target[i] ^= EXP[log + LOG[source[i] & 0xff]];
+	}
+
+	private static byte multiply(byte a, byte b) {
+		if (a == 0 || b == 0)
+			return 0;
+		return EXP[LOG[a & 0xff] + LOG[b & 0xff]];
+	}
+
+	private static byte inverse(int value) {
+		return EXP[255 - LOG[value]];
+	}
+
+	/**
+	 * Invert a square matrix by Gauss-Jordan elimination.
+	 */
+	private static byte[][] invert(byte[][] matrix) {
+		int n = matrix.length;
+		byte[][] inverse = new byte[n][n];
+		for (int i = 0; i < n; i++)
+			inverse[i][i] = 1;
+		for (int column = 0; column < n; column++) {
+			int pivot = column;
+			while (matrix[pivot][column] == 0)
+				pivot++;
+			byte[] swap = matrix[pivot];
+			matrix[pivot] = matrix[column];
+			matrix[column] = swap;
+			swap = inverse[pivot];
+			inverse[pivot] = inverse[column];
+			inverse[column] = swap;
+
+			byte scale = inverse(matrix[column][column] & 0xff);
+			for (int j = 0; j < n; j++) {
+				matrix[column][j] = multiply(matrix[column][j], scale);
+				inverse[column][j] = multiply(inverse[column][j], scale);
+			}
+			for (int row = 0; row < n; row++) {
+				byte factor = matrix[row][column];
+				if (row == column || factor == 0)
+					continue;
+				for (int j = 0; j < n; j++) {
+					matrix[row][j] ^= multiply(factor, matrix[column][j]);
+					inverse[row][j] ^= multiply(factor, inverse[column][j]);
+				}
+			}
+		}
+		return inverse;
+	}
+}
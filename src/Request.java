@@ -1,4 +1,5 @@
 import java.io.Serializable;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * This class represents a Request packet. It includes details of file download
@@ -13,10 +14,14 @@ public class Request implements Serializable {
 	private S2SInterface server;
 	private String fileName;
 	private int destination;
+	private long requestId;
+	private boolean conditional;
+	private long version;
 
 	public Request() {
 		this.fileName = null;
 		this.destination = 0;
+		this.requestId = ThreadLocalRandom.current().nextLong();
 	}
 
 	/**
@@ -69,6 +74,57 @@ public class Request implements Serializable {
 		this.client = callBack;
 	}
 
+	/**
+	 * Return id correlating all events logged for this request packet.
+	 * 
+	 * @return
+	 */
+	public long getRequestId() {
+		return requestId;
+	}
+
+	public void setRequestId(long requestId) {
+		this.requestId = requestId;
+	}
+
+	/**
+	 * Return true if the file is only to be sent if it changed from the
+	 * version the requester holds.
+	 * 
+	 * @return
+	 */
+	public boolean isConditional() {
+		return conditional;
+	}
+
+	/**
+	 * Return digest of the copy the requester holds.
+	 * 
+	 * @return
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Ask for the file to be sent only if it changed from a version.
+	 * 
+	 * @param version
+	 *            : digest of the copy the requester holds
+	 */
+	public void setVersion(long version) {
+		this.version = version;
+		this.conditional = true;
+	}
+
+	/**
+	 * Ask for the file to be sent whatever the requester holds.
+	 */
+	public void clearVersion() {
+		this.version = 0;
+		this.conditional = false;
+	}
+
 	public S2SInterface getServer() {
 		return server;
 	}
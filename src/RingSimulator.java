@@ -0,0 +1,658 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * RingSimulator runs a whole Chord ring of {@link ChordServer} instances inside
+ * one JVM over a {@link LocalNetwork}, and reports how the ring behaves for
+ * join, lookup and leave workloads: hop-count distribution, lookup latency
+ * percentiles, per-node key and load balance, and the reach and depth of a
+ * cluster query.
+ *
+ * Options are given as name=value arguments, for example:
+ *
+ * <pre>
+ * java RingSimulator nodes=1000 keys=20000 lookups=10000 keyspace=1000000 latency=500
+ * </pre>
+ *
+ * Other options are jitter (microseconds added per link), datacenters and wan
+ * (nodes are spread over this many data centers, links between them take wan
+ * more microseconds, 20000 by default), failures (rate of failed calls),
+ * stalls and stall (fraction of calls stalled, as by a garbage collection
+ * pause of the callee, and microseconds they stall, 200000 by default),
+ * leave, restart and crash (fraction of nodes; restarted nodes come back from
+ * their saved state), bulk (true to bootstrap the ring with one bulk join
+ * instead of joining nodes one by one), grow (fraction of nodes added with a
+ * bulk join after the first lookups), balance (rounds of key range balancing
+ * run after the first lookups), readers (clients downloading one file of
+ * hotsize bytes, 4MB by default, at the same time), onehop (true to route through membership
+ * tables gossiped after each change of the ring, instead of the fingers
+ * alone), seed, verbose and keep (keep the data directory of the simulated
+ * nodes).
+ *
+ * @author Anurag Malik, am3926
+ *
+ */
+public class RingSimulator {
+
+	// call chains are as deep as the number of hops of a lookup
+	private static final long STACK_SIZE = 512L * 1024 * 1024;
+
+	// first nodes, that later nodes join through
+	private static final int SEEDS = 3;
+	private static final int MAX_GOSSIP_ROUNDS = 50;
+
+	private final Map<String, String> options;
+	private final Random random;
+	private final LocalNetwork network;
+	private final List<ChordServer> servers;
+	private final List<String> names;
+	private final Map<String, NodeConfig> configs;
+	private final PrintStream report;
+	private Transport clientTransport;
+	private List<String> keys;
+	private int keySpace;
+	private File root;
+
+	public RingSimulator(Map<String, String> options, PrintStream report) {
+		this.options = options;
+		this.report = report;
+		random = new Random(option("seed", 1));
+		network = new LocalNetwork();
+		servers = new ArrayList<ChordServer>();
+		names = new ArrayList<String>();
+		configs = new HashMap<String, NodeConfig>();
+	}
+
+	private long option(String name, long defaultValue) {
+		String value = options.get(name);
+		return value == null ? defaultValue : Long.parseLong(value);
+	}
+
+	private double option(String name, double defaultValue) {
+		String value = options.get(name);
+		return value == null ? defaultValue : Double.parseDouble(value);
+	}
+
+	/**
+	 * Run all workloads and print their reports.
+	 */
+	public void run() throws IOException {
+		int nodes = (int) option("nodes", 100);
+		keySpace = (int) option("keyspace", 1000000);
+		final long latencyMicros = option("latency", 0L);
+		final long jitterMicros = option("jitter", 0L);
+		final int datacenters = (int) option("datacenters", 1L);
+		final long wanMicros = option("wan", 20000L);
+		network.setLatency((from, to) -> latencyMicros
+				+ (jitterMicros > 0 ? Math.abs(from.hashCode() ^ to.hashCode()) % jitterMicros : 0)
+				+ (Math.floorMod(from.hashCode(), datacenters) != Math.floorMod(to.hashCode(), datacenters)
+						? wanMicros : 0));
+
+		root = Files.createTempDirectory("chord-sim").toFile();
+		clientTransport = network.transport("client.sim");
+		report.println("Simulating " + nodes + " nodes, key space " + keySpace + ", data in " + root);
+
+		createServers(nodes);
+		if ("true".equals(options.get("bulk"))) {
+			bulkJoin("BULK JOIN", 1);
+		} else {
+			join();
+			stabilize();
+		}
+		gossip("GOSSIP");
+		insert((int) option("keys", 10 * nodes));
+		printBalance("after join");
+
+		network.setFailureRate(option("failures", 0.0));
+		network.setStalls(option("stalls", 0.0), option("stall", 200000L));
+		lookup("lookup", (int) option("lookups", 10 * nodes));
+		query();
+		int readers = (int) option("readers", 0L);
+		if (readers > 0)
+			hotReads(readers, (int) option("hotsize", 4L * 1024 * 1024));
+
+		int rounds = (int) option("balance", 0L);
+		if (rounds > 0) {
+			rebalance(rounds);
+			printBalance("after rebalancing");
+			lookup("lookup after rebalancing", (int) option("lookups", 10 * nodes));
+		}
+
+		int growing = (int) (option("grow", 0.0) * nodes);
+		if (growing > 0) {
+			network.setFailureRate(0);
+			int from = servers.size();
+			createServers(growing);
+			bulkJoin("GROW", from);
+			gossip("GOSSIP AFTER GROW");
+			printBalance("after grow");
+			network.setFailureRate(option("failures", 0.0));
+			lookup("lookup after grow", (int) option("lookups", 10 * nodes));
+		}
+
+		int leaving = (int) (option("leave", 0.1) * nodes);
+		if (leaving > 0) {
+			network.setFailureRate(0);
+			leave(leaving);
+			gossip("GOSSIP AFTER LEAVE");
+			printBalance("after leave");
+			network.setFailureRate(option("failures", 0.0));
+			lookup("lookup after leave", (int) option("lookups", 10 * nodes));
+		}
+
+		int restarting = (int) (option("restart", 0.0) * servers.size());
+		if (restarting > 0) {
+			restart(restarting);
+			gossip("GOSSIP AFTER RESTART");
+			lookup("lookup after restart", (int) option("lookups", 10 * nodes));
+		}
+
+		int crashing = (int) (option("crash", 0.0) * servers.size());
+		if (crashing > 0) {
+			for (int i = 0; i < crashing; i++)
+				network.crash(names.get(1 + random.nextInt(names.size() - 1)));
+			lookup("lookup with " + crashing + " crashed nodes", (int) option("lookups", 10 * nodes));
+		}
+
+		if (!"true".equals(options.get("keep")))
+			delete(root);
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children)
+				delete(child);
+		file.delete();
+	}
+
+	private void createServers(int nodes) {
+		for (int i = 0; i < nodes; i++) {
+			String name = "n" + Long.toHexString(random.nextLong() & Long.MAX_VALUE) + ".sim";
+			File directory = new File(root, name);
+			directory.mkdirs();
+			NodeConfig config = new NodeConfig();
+			config.setHostName(name);
+			config.setDomain("");
+			config.setEntryServers(
+					names.isEmpty() ? Arrays.asList(name) : names.subList(0, Math.min(SEEDS, names.size())));
+			config.setLookupDirectory(directory.getPath());
+			config.setKeySpace(keySpace);
+			// balancing rounds and finger refreshes are run by the simulator,
+			// not in the background
+			config.setBalancePeriod(0);
+			config.setStabilizePeriod(0);
+			if ("true".equals(options.get("onehop"))) {
+				config.setOneHop(true);
+				config.setGossipPeriod(0);
+			}
+			ChordServer server = new ChordServer(config, network.transport(name));
+			server.execServer();
+			servers.add(server);
+			names.add(name);
+			configs.put(name, config);
+		}
+	}
+
+	private void join() {
+		Samples latency = new Samples();
+		Samples messages = new Samples();
+		int rejected = 0;
+		for (int i = 1; i < servers.size(); i++) {
+			ChordServer server = servers.get(i);
+			long calls = network.totalCalls();
+			long start = System.nanoTime();
+			network.takeSimulatedMicros();
+			runDeep(server::enterNetwork);
+			latency.add((System.nanoTime() - start) / 1000 + network.takeSimulatedMicros());
+			messages.add(network.totalCalls() - calls);
+			if (server.getSuccessor().equals(server.getNodeId()))
+				rejected++;
+		}
+
+		report.println("\n*** JOIN ***");
+		report.println("Joins : " + (servers.size() - 1) + ", rejected (position taken) : " + rejected);
+		report.println("Messages per join : " + messages.summary());
+		report.println("Join latency (ms) : " + latency.percentiles(1000.0));
+	}
+
+	/**
+	 * Add the servers from an index on to the ring at once, through a bulk
+	 * join coordinated by the entry server. Calls the coordinator makes in
+	 * parallel aren't charged simulated latency.
+	 */
+	private void bulkJoin(String title, int from) {
+		ArrayList<AddRequest> requests = new ArrayList<AddRequest>();
+		for (int i = from; i < servers.size(); i++)
+			requests.add(servers.get(i).joinRequest());
+		long migrated = -migratedFiles();
+		long calls = network.totalCalls();
+		long start = System.nanoTime();
+		network.takeSimulatedMicros();
+		List<List<NodeInfo>> added = new ArrayList<List<NodeInfo>>();
+		runDeep(() -> added.add(servers.get(0).addNewServers(requests)));
+		long elapsed = (System.nanoTime() - start) / 1000 + network.takeSimulatedMicros();
+		migrated += migratedFiles();
+
+		report.println("\n*** " + title + " ***");
+		report.println("Joins : " + requests.size() + ", rejected (position taken) : "
+				+ (requests.size() - added.get(0).size()) + ", files migrated : " + migrated);
+		report.println("Messages per join : " + (network.totalCalls() - calls) / Math.max(1, requests.size())
+				+ ", time (ms) : " + elapsed / 1000.0);
+	}
+
+	private void insert(int count) {
+		keys = new ArrayList<String>();
+		for (int i = 0; i < count; i++) {
+			String key = "file-" + Long.toHexString(random.nextLong() & Long.MAX_VALUE) + ".dat";
+			keys.add(key);
+			String entry = names.get(random.nextInt(names.size()));
+			runDeep(() -> {
+				try {
+					S2SInterface server = clientTransport.lookup(entry, Transport.SERVER, S2SInterface.class);
+					server.insertFile(key.getBytes(), key, Math.abs(key.hashCode()) % keySpace);
+				} catch (RemoteException e) {
+					// counted as missing on lookup
+				}
+			});
+		}
+	}
+
+	private void lookup(String title, int count) {
+		network.resetCalls();
+		final Samples latency = new Samples();
+		final Map<Integer, Integer> hops = new TreeMap<Integer, Integer>();
+		final AtomicInteger found = new AtomicInteger();
+		final AtomicInteger failed = new AtomicInteger();
+		final int misses = count / 10;
+
+		runDeep(() -> {
+			for (int i = 0; i < count; i++) {
+				// one in ten lookups is for a file that doesn't exist
+				String key = i < misses ? "missing-" + i : keys.get(random.nextInt(keys.size()));
+				String entry = names.get(random.nextInt(names.size()));
+				Request request = new Request();
+				request.setFileName(key);
+				request.setDestination(Math.abs(key.hashCode()) % keySpace);
+				Trace trace = new Trace();
+
+				network.takeSimulatedMicros();
+				long start = System.nanoTime();
+				try {
+					S2SInterface server = clientTransport.lookup(entry, Transport.SERVER, S2SInterface.class);
+					if (server.forwardRequest(request, trace))
+						found.incrementAndGet();
+				} catch (RemoteException | RuntimeException e) {
+					failed.incrementAndGet();
+					continue;
+				}
+				latency.add((System.nanoTime() - start) / 1000 + network.takeSimulatedMicros());
+				Integer n = hops.get(trace.getHopCount());
+				hops.put(trace.getHopCount(), n == null ? 1 : n + 1);
+			}
+		});
+
+		report.println("\n*** " + title.toUpperCase() + " ***");
+		report.println("Lookups : " + count + ", existing keys : " + (count - misses) + ", found : " + found
+				+ ", failed : " + failed);
+		report.println("Lookup latency (ms) : " + latency.percentiles(1000.0));
+		Samples hopSamples = new Samples();
+		for (Map.Entry<Integer, Integer> entry : hops.entrySet())
+			for (int i = 0; i < entry.getValue(); i++)
+				hopSamples.add(entry.getKey());
+		report.println("Hops : " + hopSamples.summary() + ", " + hopSamples.percentiles(1));
+		report.println("Hop distribution :");
+		printHistogram(hops);
+
+		Samples load = new Samples();
+		for (String name : names)
+			load.add(network.callsTo(name));
+		report.println("Calls per node : " + load.summary());
+		printDeadlines();
+	}
+
+	/**
+	 * Print calls timed out and reads hedged on all servers so far.
+	 */
+	private void printDeadlines() {
+		long timeouts = 0, reads = 0, hedges = 0, wins = 0;
+		for (ChordServer server : servers) {
+			Metrics metrics = server.getMetrics();
+			timeouts += metrics.count(Metrics.RPC_TIMEOUTS);
+			reads += metrics.count(Metrics.HEDGE_CALLS);
+			hedges += metrics.count(Metrics.HEDGES);
+			wins += metrics.count(Metrics.HEDGE_WINS);
+		}
+		report.println("Calls timed out : " + timeouts + ", hedged reads : " + hedges + " of " + reads
+				+ String.format(" (%.2f%%)", reads == 0 ? 0 : hedges * 100.0 / reads) + ", hedges answered first : "
+				+ wins);
+	}
+
+	private void leave(int count) {
+		List<Integer> order = new ArrayList<Integer>();
+		for (int i = 0; i < servers.size(); i++)
+			order.add(i);
+		Collections.shuffle(order, random);
+
+		List<ChordServer> left = new ArrayList<ChordServer>();
+		Samples latency = new Samples();
+		for (int i = 0; i < count && i < order.size(); i++) {
+			ChordServer server = servers.get(order.get(i));
+			long start = System.nanoTime();
+			network.takeSimulatedMicros();
+			runDeep(server::exitNetwork);
+			latency.add((System.nanoTime() - start) / 1000 + network.takeSimulatedMicros());
+			left.add(server);
+		}
+		for (ChordServer server : left) {
+			names.remove(server.getHostName());
+			servers.remove(server);
+		}
+
+		report.println("\n*** LEAVE ***");
+		report.println("Leaves : " + left.size() + ", remaining nodes : " + servers.size());
+		report.println("Leave latency (ms) : " + latency.percentiles(1000.0));
+	}
+
+	/**
+	 * Stop servers and start them again from their saved state, one after
+	 * the other.
+	 */
+	private void restart(int count) {
+		Samples latency = new Samples();
+		Samples messages = new Samples();
+		int restored = 0;
+		long migrated = -migratedFiles();
+		for (int i = 0; i < count; i++) {
+			int index = 1 + random.nextInt(servers.size() - 1);
+			ChordServer stopped = servers.get(index);
+			String name = stopped.getHostName();
+			stopped.shutdown();
+			migrated += stopped.getMetrics().count(Metrics.MIGRATED_FILES);
+
+			long calls = network.totalCalls();
+			long start = System.nanoTime();
+			network.takeSimulatedMicros();
+			ChordServer server = new ChordServer(configs.get(name), network.transport(name));
+			runDeep(() -> {
+				server.execServer();
+				if (!server.isInChord())
+					server.enterNetwork();
+			});
+			latency.add((System.nanoTime() - start) / 1000 + network.takeSimulatedMicros());
+			messages.add(network.totalCalls() - calls);
+			if (server.getMetrics().count(Metrics.RESTORED) > 0)
+				restored++;
+			servers.set(index, server);
+		}
+		migrated += migratedFiles();
+
+		report.println("\n*** RESTART ***");
+		report.println("Restarts : " + count + ", restored from saved state : " + restored + ", joined again : "
+				+ (count - restored) + ", files migrated : " + migrated);
+		report.println("Messages per restart : " + messages.summary());
+		report.println("Restart latency (ms) : " + latency.percentiles(1000.0));
+	}
+
+	private long migratedFiles() {
+		long files = 0;
+		for (ChordServer server : servers)
+			files += server.getMetrics().count(Metrics.MIGRATED_FILES);
+		return files;
+	}
+
+	private void stabilize() {
+		long calls = network.totalCalls();
+		long start = System.nanoTime();
+		network.takeSimulatedMicros();
+		runDeep(() -> {
+			for (ChordServer server : servers)
+				server.fixFingers();
+		});
+		long elapsed = (System.nanoTime() - start) / 1000 + network.takeSimulatedMicros();
+
+		report.println("\n*** FINGER TABLES ***");
+		report.println("Messages per node : " + (network.totalCalls() - calls) / Math.max(1, servers.size())
+				+ ", time (ms) : " + elapsed / 1000.0);
+	}
+
+	/**
+	 * Download one file from many clients at the same time, and report how
+	 * many chunk reads the owner shared between the downloads.
+	 */
+	private void hotReads(int readers, int size) throws IOException {
+		List<String> seeds = names.subList(0, Math.min(SEEDS, names.size()));
+		File hot = new File(root, "hot.dat");
+		byte[] data = new byte[size];
+		random.nextBytes(data);
+		Files.write(hot.toPath(), data);
+
+		List<ChordClient> clients = new ArrayList<ChordClient>();
+		for (int i = 0; i < readers; i++)
+			clients.add(new ChordClient(network.transport("reader" + i + ".sim"), seeds,
+					new File(root, "reader" + i).getPath() + "/", keySpace, 0));
+		long coalesced = -coalescedReads();
+		int completed = 0;
+		try {
+			clients.get(0).upload(hot, "hot.dat").get();
+			List<CompletableFuture<Trace>> downloads = new ArrayList<CompletableFuture<Trace>>();
+			for (ChordClient client : clients)
+				downloads.add(client.download("hot.dat"));
+			for (CompletableFuture<Trace> download : downloads)
+				if (download.get().isFound())
+					completed++;
+		} catch (InterruptedException | ExecutionException e) {
+			report.println("Hot reads failed : " + e);
+		} finally {
+			for (ChordClient client : clients)
+				client.close();
+		}
+		coalesced += coalescedReads();
+
+		report.println("\n*** HOT READS ***");
+		report.println("Readers : " + readers + ", downloads completed : " + completed + ", reads coalesced : "
+				+ coalesced);
+	}
+
+	private long coalescedReads() {
+		long reads = 0;
+		for (ChordServer server : servers)
+			reads += server.getMetrics().count(Metrics.READS_COALESCED);
+		return reads;
+	}
+
+	/**
+	 * Run gossip rounds on all servers until every membership table holds
+	 * the whole ring, when in one-hop mode.
+	 */
+	private void gossip(String title) {
+		if (!"true".equals(options.get("onehop")))
+			return;
+		long calls = network.totalCalls();
+		int rounds = 0;
+		while (rounds < MAX_GOSSIP_ROUNDS && !converged()) {
+			runDeep(() -> {
+				for (ChordServer server : servers)
+					server.gossip();
+			});
+			rounds++;
+		}
+
+		report.println("\n*** " + title + " ***");
+		report.println("Rounds : " + rounds + (converged() ? "" : " (not converged)") + ", messages per node : "
+				+ (network.totalCalls() - calls) / Math.max(1, servers.size()));
+	}
+
+	private boolean converged() {
+		for (ChordServer server : servers) {
+			MembershipTable table = server.getMembership();
+			if (!table.isComplete() || table.size() != servers.size())
+				return false;
+		}
+		return true;
+	}
+
+	private void query() {
+		ChordServer server = servers.get(random.nextInt(servers.size()));
+		long calls = network.totalCalls();
+		long start = System.nanoTime();
+		final QueryResult[] result = new QueryResult[1];
+		runDeep(() -> result[0] = server.query(new Query(null, 0, 30000), server.getInfo().getEnd(), null));
+		long elapsed = (System.nanoTime() - start) / 1000;
+
+		int stored = 0;
+		for (ChordServer node : servers)
+			stored += node.getKeyCount();
+		report.println("\n*** CLUSTER QUERY ***");
+		report.println("Servers reached : " + result[0].getNodeCount() + " of " + servers.size() + ", missing : "
+				+ result[0].getMissing().size() + ", keys : " + result[0].getKeyCount() + " of " + stored);
+		report.println("Tree depth : " + result[0].getDepth() + ", messages : " + (network.totalCalls() - calls)
+				+ ", time (ms) : " + elapsed / 1000.0);
+	}
+
+	private void rebalance(int rounds) {
+		long calls = network.totalCalls();
+		long start = System.nanoTime();
+		network.takeSimulatedMicros();
+		runDeep(() -> {
+			for (int round = 0; round < rounds; round++)
+				for (ChordServer server : servers)
+					server.balance();
+		});
+		long elapsed = (System.nanoTime() - start) / 1000 + network.takeSimulatedMicros();
+
+		long moves = 0;
+		long files = 0;
+		for (ChordServer server : servers) {
+			moves += server.getMetrics().count(Metrics.BALANCE_MOVES);
+			files += server.getMetrics().count(Metrics.BALANCE_FILES);
+		}
+		report.println("\n*** REBALANCING ***");
+		report.println("Rounds : " + rounds + ", boundary moves : " + moves + ", files handed over : " + files);
+		report.println("Messages : " + (network.totalCalls() - calls) + ", time (ms) : " + elapsed / 1000.0);
+	}
+
+	private void printBalance(String title) {
+		Samples keyCounts = new Samples();
+		for (ChordServer server : servers)
+			keyCounts.add(server.getKeyCount());
+		report.println("\n*** KEY BALANCE " + title.toUpperCase() + " ***");
+		report.println("Keys per node : " + keyCounts.summary());
+		report.println("Keys per node : " + keyCounts.percentiles(1));
+	}
+
+	private void printHistogram(Map<Integer, Integer> histogram) {
+		int total = 0;
+		for (int count : histogram.values())
+			total += count;
+		// group hop counts into at most 20 rows
+		int max = histogram.isEmpty() ? 0 : Collections.max(histogram.keySet());
+		int width = Math.max(1, (max + 20) / 20);
+		Map<Integer, Integer> rows = new TreeMap<Integer, Integer>();
+		for (Map.Entry<Integer, Integer> entry : histogram.entrySet())
+			rows.merge(entry.getKey() / width * width, entry.getValue(), Integer::sum);
+		for (Map.Entry<Integer, Integer> row : rows.entrySet()) {
+			int bar = total == 0 ? 0 : row.getValue() * 50 / total;
+			String label = width == 1 ? String.valueOf(row.getKey())
+					: row.getKey() + "-" + (row.getKey() + width - 1);
+			report.printf("\t%9s : %7d %s%n", label, row.getValue(), repeat('#', bar));
+		}
+	}
+
+	private static String repeat(char c, int count) {
+		char[] chars = new char[count];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+
+	/**
+	 * Run a workload on a thread with a stack deep enough for long call chains.
+	 */
+	private static void runDeep(Runnable work) {
+		Thread thread = new Thread(null, work, "simulation", STACK_SIZE);
+		thread.start();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Collects values and reports their distribution.
+	 */
+	private static class Samples {
+		private long[] values = new long[1024];
+		private int size;
+
+		synchronized void add(long value) {
+			if (size == values.length)
+				values = Arrays.copyOf(values, size * 2);
+			values[size++] = value;
+		}
+
+		synchronized String summary() {
+			if (size == 0)
+				return "n/a";
+			long sum = 0, min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+			for (int i = 0; i < size; i++) {
+				sum += values[i];
+				min = Math.min(min, values[i]);
+				max = Math.max(max, values[i]);
+			}
+			double mean = (double) sum / size;
+			double variance = 0;
+			for (int i = 0; i < size; i++)
+				variance += (values[i] - mean) * (values[i] - mean);
+			double deviation = Math.sqrt(variance / size);
+			return String.format("min %d, mean %.2f, max %d, stddev/mean %.2f", min, mean, max,
+					mean == 0 ? 0 : deviation / mean);
+		}
+
+		synchronized String percentiles(double scale) {
+			if (size == 0)
+				return "n/a";
+			long[] sorted = Arrays.copyOf(values, size);
+			Arrays.sort(sorted);
+			return String.format("p50 %.2f, p90 %.2f, p99 %.2f, p99.9 %.2f, max %.2f", sorted[size / 2] / scale,
+					sorted[(int) (size * 0.9)] / scale, sorted[(int) (size * 0.99)] / scale,
+					sorted[(int) (size * 0.999)] / scale, sorted[size - 1] / scale);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		Map<String, String> options = new HashMap<String, String>();
+		for (String arg : args) {
+			int index = arg.indexOf('=');
+			if (index > 0)
+				options.put(arg.substring(0, index), arg.substring(index + 1));
+		}
+
+		// servers print on every hop, keep the report readable
+		PrintStream report = System.out;
+		if (!"true".equals(options.get("verbose")))
+			System.setOut(new PrintStream(new OutputStream() {
+				@Override
+				public void write(int b) {
+				}
+			}));
+
+		new RingSimulator(options, report).run();
+		report.flush();
+	}
+}
@@ -0,0 +1,89 @@
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.rmi.Naming;
+import java.rmi.NoSuchObjectException;
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * RmiTransport provides the {@link Transport} on top of java.rmi. Objects are
+ * exported through {@link UnicastRemoteObject} and bound on an RMI registry
+ * created on the listening port.
+ *
+ * @author Anurag Malik, am3926
+ *
+ */
+public class RmiTransport implements Transport {
+
+	private int defaultPort;
+	private Registry registry;
+
+	// objects exported, released on shutdown so that a server restarted in
+	// the same JVM can export again
+	private final Set<Remote> exported;
+
+	public RmiTransport(int defaultPort) {
+		this.defaultPort = defaultPort;
+		exported = ConcurrentHashMap.newKeySet();
+	}
+
+	@Override
+	public void listen(String address) throws IOException {
+		registry = LocateRegistry.createRegistry(Integer.parseInt(Transport.parseAddress(address, defaultPort)[1]));
+	}
+
+	@Override
+	public <T extends Remote> T export(String name, T object, Class<T> type) throws RemoteException {
+		T stub = exportCallback(object, type);
+		registry.rebind(name, stub);
+		return stub;
+	}
+
+	@Override
+	public <T extends Remote> T exportCallback(T object, Class<T> type) throws RemoteException {
+		T stub = type.cast(UnicastRemoteObject.exportObject(object, 0));
+		exported.add(object);
+		return stub;
+	}
+
+	@Override
+	public void unexport(Remote object) {
+		exported.remove(object);
+		try {
+			UnicastRemoteObject.unexportObject(object, true);
+		} catch (NoSuchObjectException e) {
+			// already released
+		}
+	}
+
+	@Override
+	public <T extends Remote> T lookup(String address, String name, Class<T> type) throws RemoteException {
+		String[] hostPort = Transport.parseAddress(address, defaultPort);
+		String url = "rmi://" + hostPort[0] + ":" + hostPort[1] + "/" + name;
+		try {
+			return type.cast(Naming.lookup(url));
+		} catch (MalformedURLException | NotBoundException e) {
+			throw new RemoteException("Lookup failed : " + url, e);
+		}
+	}
+
+	@Override
+	public void shutdown() {
+		for (Remote object : exported)
+			unexport(object);
+		if (registry != null) {
+			try {
+				UnicastRemoteObject.unexportObject(registry, true);
+			} catch (NoSuchObjectException e) {
+				// registry was never exported
+			}
+			registry = null;
+		}
+	}
+}
@@ -0,0 +1,98 @@
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * RttEstimator keeps a smoothed round trip time per peer, from calls timed on
+ * regular traffic and from probes. As in TCP, each sample moves the smoothed
+ * value by 1/8 and the mean deviation by 1/4 of the difference, so a single
+ * slow call doesn't change the estimate much.
+ *
+ * @author Anurag Malik, am3926
+ *
+ */
+public class RttEstimator {
+
+	/**
+	 * Smoothed round trip time and mean deviation of one peer, in
+	 * microseconds.
+	 */
+	private static class Estimate {
+		double rtt;
+		double deviation;
+	}
+
+	private final ConcurrentHashMap<String, Estimate> peers;
+
+	public RttEstimator() {
+		peers = new ConcurrentHashMap<String, Estimate>();
+	}
+
+	/**
+	 * Record the time a call to a peer took.
+	 *
+	 * @param peer
+	 * @param micros
+	 */
+	public void record(String peer, long micros) {
+		Estimate estimate = peers.computeIfAbsent(peer, key -> new Estimate());
+		synchronized (estimate) {
+			if (estimate.rtt == 0) {
+				estimate.rtt = Math.max(1, micros);
+				estimate.deviation = micros / 2.0;
+				return;
+			}
+			estimate.deviation += (Math.abs(estimate.rtt - micros) - estimate.deviation) / 4;
+			estimate.rtt += (micros - estimate.rtt) / 8;
+		}
+	}
+
+	/**
+	 * Return smoothed round trip time to a peer.
+	 *
+	 * @param peer
+	 * @return microseconds, -1 if the peer was never measured
+	 */
+	public long rtt(String peer) {
+		Estimate estimate = peers.get(peer);
+		if (estimate == null)
+			return -1;
+		synchronized (estimate) {
+			return (long) estimate.rtt;
+		}
+	}
+
+	/**
+	 * Return mean deviation of the round trip time to a peer.
+	 *
+	 * @param peer
+	 * @return microseconds, -1 if the peer was never measured
+	 */
+	public long deviation(String peer) {
+		Estimate estimate = peers.get(peer);
+		if (estimate == null)
+			return -1;
+		synchronized (estimate) {
+			return (long) estimate.deviation;
+		}
+	}
+
+	/**
+	 * Drop the estimate of a peer that left.
+	 *
+	 * @param peer
+	 */
+	public void forget(String peer) {
+		peers.remove(peer);
+	}
+
+	/**
+	 * Return round trip times of all measured peers, sorted by peer.
+	 */
+	public Map<String, Long> snapshot() {
+		Map<String, Long> snapshot = new TreeMap<String, Long>();
+		for (String peer : peers.keySet())
+			snapshot.put(peer, rtt(peer));
+		return snapshot;
+	}
+}
@@ -1,6 +1,6 @@
 import java.io.File;
 import java.rmi.RemoteException;
-import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
 
 /**
  * This class provides implementation of the {@link S2CInterface}. It provides
@@ -10,18 +10,16 @@ import java.rmi.server.UnicastRemoteObject;
  * @author Anurag Malik, am3926
  *
  */
-public class S2CImplementation extends UnicastRemoteObject implements S2CInterface {
-	private static final long serialVersionUID = 1L;
+public class S2CImplementation implements S2CInterface {
 	private ChordServer server;
 
-	public S2CImplementation(ChordServer server) throws RemoteException {
-		super();
+	public S2CImplementation(ChordServer server) {
 		this.server = server;
 	}
 
 	@Override
 	public boolean searchFile(Request request, ClientInterface client) throws RemoteException {
-		System.out.println("New request for file '" + request.getFileName() + "' from :" + client.getAddress());
+		server.getLog().info(request.getRequestId(), "New search for file '{}'", request.getFileName());
 		String fileName = request.getFileName();
 		// setNode(request.getDestination());
 
@@ -42,24 +40,69 @@ public class S2CImplementation extends UnicastRemoteObject implements S2CInterfa
 	}
 
 	@Override
-	public synchronized boolean requestFile(Request request) throws RemoteException {
+	public boolean requestFile(Request request) throws RemoteException {
 
-		System.out.println(
-				"New request for file '" + request.getFileName() + "' from : " + request.getClient().getAddress());
+		long start = System.nanoTime();
 		Trace trace = new Trace();
+		trace.arrive(server.getHostName());
+
+		// requests are served concurrently, so that downloads of the same
+		// file share their reads
+		trace.startProcessing();
+		server.getLog().info(request.getRequestId(), "New request for file '{}'", request.getFileName());
 		String fileName = request.getFileName();
-		if (checkRange(request.getDestination())) {
-			if (server.getFile(fileName) != null) {
-				server.sendFile(new File(fileName), request, trace);
-				return true;
+		try {
+			if (checkRange(request.getDestination())) {
+				File file = server.getFile(fileName);
+				if (file != null) {
+					server.sendFile(file, request, trace);
+					return true;
+				} else
+					server.sendMiss(request, trace);
+			} else if (server.isKnownMiss(fileName, request.getDestination())) {
+				server.sendMiss(request, trace);
 			} else {
-				request.getClient().pushTrace(trace.getTrace());
+				return server.forwardRequest(request, trace);
 			}
-		} else {
-			return server.forwardRequest(request, trace);
+			return false;
+		} finally {
+			server.getMetrics().time(Metrics.LOOKUP, start);
 		}
-		return false;
+	}
+
+	@Override
+	public NodeInfo locate(int position) throws RemoteException {
+		return server.findOwner(position, 0);
+	}
+
+	@Override
+	public ArrayList<NodeInfo> getMembers() {
+		return server.getMembers();
+	}
+
+	@Override
+	public long beginTransfer(String transferId, String fileName, long size) throws RemoteException {
+		return server.beginTransfer(transferId, fileName, size);
+	}
+
+	@Override
+	public long writeChunk(String transferId, long offset, byte[] data) throws RemoteException {
+		return server.writeChunk(transferId, offset, data);
+	}
 
+	@Override
+	public boolean commitTransfer(String transferId) throws RemoteException {
+		return server.commitTransfer(transferId);
+	}
+
+	@Override
+	public FileSignature getSignature(String fileName) {
+		return server.getSignature(fileName);
+	}
+
+	@Override
+	public boolean applyDelta(FileDelta delta) throws RemoteException {
+		return server.applyDelta(delta);
 	}
 
 	private boolean checkRange(int position) {
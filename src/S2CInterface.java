@@ -1,5 +1,5 @@
-import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.ArrayList;
 
 /**
  * S2CInterface provides methods for interaction between client and servers,
@@ -7,7 +7,7 @@ import java.rmi.RemoteException;
  * @author Anurag Malik, am3926
  *
  */
-public interface S2CInterface extends Remote {
+public interface S2CInterface extends TransferInterface, DeltaInterface {
 
 	// search if a file is present on a server
 	boolean searchFile(Request request, ClientInterface client) throws RemoteException;
@@ -17,4 +17,10 @@ public interface S2CInterface extends Remote {
 
 	// request a file to be searched and down loaded from server
 	boolean requestFile(Request request) throws RemoteException;
+
+	// find the server owning a key position, to upload a file to it in chunks
+	NodeInfo locate(int position) throws RemoteException;
+
+	// return key ranges of the servers of the ring known to the server
+	ArrayList<NodeInfo> getMembers() throws RemoteException;
 }
@@ -1,6 +1,8 @@
 import java.io.File;
 import java.rmi.RemoteException;
-import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * S2SImplementation provides implementation of the {@link S2SInterface} It
@@ -10,35 +12,38 @@ import java.rmi.server.UnicastRemoteObject;
  * @author Anurag Malik, am3926
  *
  */
-public class S2SImplementation extends UnicastRemoteObject implements S2SInterface {
+public class S2SImplementation implements S2SInterface {
 
-	private static final long serialVersionUID = 1L;
 	private ChordServer server;
 
-	public S2SImplementation(ChordServer server) throws RemoteException {
-		super();
+	public S2SImplementation(ChordServer server) {
 		this.server = server;
 	}
 
 	@Override
 	public boolean forwardRequest(Request request, Trace trace) throws RemoteException {
-		
+
+		// a server that left may still be in stale finger tables, the caller
+		// then goes through its successor
+		if (!server.isInChord())
+			throw new RemoteException(server.getNodeId() + " is not in the chord network");
 		if (trace == null)
 			trace = new Trace();
+		trace.arrive(server.getHostName());
+		trace.startProcessing();
 
-		System.out.println("New request for file '" + request.getFileName() + "'");
+		server.getLog().info(request.getRequestId(), "New request for file '{}'", request.getFileName());
 		String fileName = request.getFileName();
 
 		if (checkRange(request.getDestination())) {
-			if (server.getFile(fileName) != null) {
-				server.sendFile(new File(fileName), request, trace);
+			File file = server.getFile(fileName);
+			if (file != null) {
+				server.sendFile(file, request, trace);
 				return true;
-			} else {
-				if (request.getClient() != null)
-					request.getClient().pushTrace(trace.getTrace());
-				else if (request.getServer() != null)
-					request.getServer().pushMessage(trace.getTrace());
-			}
+			} else
+				server.sendMiss(request, trace);
+		} else if (server.isKnownMiss(fileName, request.getDestination())) {
+			server.sendMiss(request, trace);
 		} else {
 			return server.forwardRequest(request, trace);
 		}
@@ -71,6 +76,21 @@ public class S2SImplementation extends UnicastRemoteObject implements S2SInterfa
 			server.forwardServerAddRequest(request);
 	}
 
+	@Override
+	public ArrayList<NodeInfo> addNewServers(ArrayList<AddRequest> requests) {
+		return server.addNewServers(requests);
+	}
+
+	@Override
+	public void takePlace(String predecessor, String successor, int start, int end, NodeInfo[] fingers) {
+		server.takePlace(predecessor, successor, start, end, fingers);
+	}
+
+	@Override
+	public int handOffFiles(ArrayList<NodeInfo> owners) {
+		return server.handOffFiles(owners);
+	}
+
 	@Override
 	public void updateSuccessor(String serverName) {
 		server.updateSuccessor(serverName);
@@ -86,4 +106,111 @@ public class S2SImplementation extends UnicastRemoteObject implements S2SInterfa
 		server.viewMessage(trace);		
 	}
 
+	@Override
+	public void pushTrace(Trace trace) {
+		server.viewMessage(trace.getTrace());
+	}
+
+	@Override
+	public void pushSummary(String serverName, int start, int end, BloomFilter summary) {
+		server.receiveSummary(serverName, start, end, summary);
+	}
+
+	@Override
+	public void addSummaryKey(String serverName, String fileName) {
+		server.receiveSummaryKey(serverName, fileName);
+	}
+
+	@Override
+	public LoadReport getLoad() {
+		return server.getLoad();
+	}
+
+	@Override
+	public NodeInfo getInfo() {
+		return server.getInfo();
+	}
+
+	@Override
+	public NodeInfo findOwner(int position, int hops) throws RemoteException {
+		if (!server.isInChord())
+			throw new RemoteException(server.getNodeId() + " is not in the chord network");
+		return server.findOwner(position, hops);
+	}
+
+	@Override
+	public QueryResult query(Query query, int limit, QueryListener listener) {
+		return server.query(query, limit, listener);
+	}
+
+	@Override
+	public long beginTransfer(String transferId, String fileName, long size) throws RemoteException {
+		return server.beginTransfer(transferId, fileName, size);
+	}
+
+	@Override
+	public long writeChunk(String transferId, long offset, byte[] data) throws RemoteException {
+		return server.writeChunk(transferId, offset, data);
+	}
+
+	@Override
+	public boolean commitTransfer(String transferId) throws RemoteException {
+		return server.commitTransfer(transferId);
+	}
+
+	@Override
+	public FileSignature getSignature(String fileName) {
+		return server.getSignature(fileName);
+	}
+
+	@Override
+	public boolean applyDelta(FileDelta delta) throws RemoteException {
+		return server.applyDelta(delta);
+	}
+
+	@Override
+	public int[] heldFragments(String fileName, long version) {
+		return server.heldFragments(fileName, version);
+	}
+
+	@Override
+	public Fragment[] getFragments(String fileName) {
+		return server.getFragments(fileName);
+	}
+
+	@Override
+	public void storeFragment(Fragment fragment) throws RemoteException {
+		server.storeFragment(fragment);
+	}
+
+	@Override
+	public void dropFragment(String fileName, int index) {
+		server.dropFragment(fileName, index);
+	}
+
+	@Override
+	public long[] merkleHashes(int level, int[] indices) {
+		return server.merkleHashes(level, indices);
+	}
+
+	@Override
+	public HashMap<String, Long> merkleKeys(int[] positions) {
+		return server.merkleKeys(positions);
+	}
+
+	@Override
+	public MembershipDelta exchangeMembers(String serverName, HashMap<String, Long> digest) {
+		return server.exchangeMembers(serverName, digest);
+	}
+
+	@Override
+	public void mergeMembers(ArrayList<Member> members) {
+		server.mergeMembers(members);
+	}
+
+	@Override
+	public int handOverKeys(String owner, Map<String, Long> modified) throws RemoteException {
+		return server.handOverKeys(owner, modified);
+	}
+
 }
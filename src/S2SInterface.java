@@ -1,5 +1,7 @@
-import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * This interface provideSs methods for interaction between two servers.
@@ -7,7 +9,7 @@ import java.rmi.RemoteException;
  * @author Anurag Malik, am3926
  *
  */
-public interface S2SInterface extends Remote {
+public interface S2SInterface extends TransferInterface, DeltaInterface {
 
 	// receive forwarded request from another server
 	boolean forwardRequest(Request packet, Trace trace) throws RemoteException;
@@ -21,6 +23,17 @@ public interface S2SInterface extends Remote {
 	// request for adding new server to the network 
 	void addNewServer(AddRequest request) throws RemoteException;
 
+	// add several new servers at once, return the places of those added
+	ArrayList<NodeInfo> addNewServers(ArrayList<AddRequest> requests) throws RemoteException;
+
+	// take neighbors, key range and finger table computed by a bulk join
+	void takePlace(String predecessor, String successor, int start, int end, NodeInfo[] fingers)
+			throws RemoteException;
+
+	// move files out of the key range to their owners among new servers,
+	// return the number of files moved
+	int handOffFiles(ArrayList<NodeInfo> owners) throws RemoteException;
+
 	// update details of the successor server machine in network
 	void updateSuccessor(String server) throws RemoteException;
 
@@ -30,4 +43,57 @@ public interface S2SInterface extends Remote {
 	// push message on the server machine
 	void pushMessage(String trace) throws RemoteException;
 
+	// push trace of a file search made by the server machine
+	void pushTrace(Trace trace) throws RemoteException;
+
+	// receive key filter and key range of a server, null filter if it left
+	void pushSummary(String server, int start, int end, BloomFilter summary) throws RemoteException;
+
+	// add a newly stored file to the key filter received from a server
+	void addSummaryKey(String server, String fileName) throws RemoteException;
+
+	// return key range and load of the server machine, to balance key ranges
+	LoadReport getLoad() throws RemoteException;
+
+	// return node id and key range of the server machine
+	NodeInfo getInfo() throws RemoteException;
+
+	// find the server owning a key position, through finger tables
+	NodeInfo findOwner(int position, int hops) throws RemoteException;
+
+	// run a cluster query on the servers positioned up to limit, return their
+	// aggregated result and stream partial results to the listener if any
+	QueryResult query(Query query, int limit, QueryListener listener) throws RemoteException;
+
+	// return indices of the fragments of a file held by the server machine,
+	// of the given version or any version for -1
+	int[] heldFragments(String fileName, long version) throws RemoteException;
+
+	// return fragments of a file held by the server machine
+	Fragment[] getFragments(String fileName) throws RemoteException;
+
+	// store a fragment of an erasure-coded file
+	void storeFragment(Fragment fragment) throws RemoteException;
+
+	// delete a fragment of a file held by the server machine
+	void dropFragment(String fileName, int index) throws RemoteException;
+
+	// return hashes of nodes of one level of the Merkle tree of the server
+	// machine
+	long[] merkleHashes(int level, int[] indices) throws RemoteException;
+
+	// return names and content digests of the files at the given positions
+	HashMap<String, Long> merkleKeys(int[] positions) throws RemoteException;
+
+	// merge the entries of a membership digest the server holds newer, and
+	// return them with the node ids of the entries it wants in return
+	MembershipDelta exchangeMembers(String server, HashMap<String, Long> digest) throws RemoteException;
+
+	// merge membership entries sent by another server
+	void mergeMembers(ArrayList<Member> members) throws RemoteException;
+
+	// send files of the owner's key range held by the server machine to the
+	// owner when newer than its copy, and delete them
+	int handOverKeys(String owner, Map<String, Long> modified) throws RemoteException;
+
 }
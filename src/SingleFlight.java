@@ -0,0 +1,158 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * SingleFlight lets concurrent loads of the same key share one load. The
+ * first caller for a key runs the load, callers arriving while it is in
+ * flight wait for it and get the same value. Nothing is kept once the load
+ * completes, so later callers load again.
+ * 
+ * A value can also be shared for longer with {@link #acquire}: it is kept
+ * until every caller that acquired it released it, so that callers reading
+ * it piece by piece, like transfers of the same file, share one load.
+ * 
+ * @author Anurag Malik, am3926
+ *
+ * @param <K>
+ *            : key type
+ * @param <V>
+ *            : value type, shared between callers so never modified
+ */
+public class SingleFlight<K, V> {
+
+	/**
+	 * Load of the value of a key.
+	 */
+	public interface Loader<V> {
+		V load() throws IOException;
+	}
+
+	/**
+	 * Value kept while acquired, with the number of callers holding it.
+	 */
+	private static class Shared<V> {
+		final CompletableFuture<V> value = new CompletableFuture<V>();
+		int holders;
+	}
+
+	private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight;
+	private final ConcurrentHashMap<K, Shared<V>> shared;
+	private final Metrics metrics;
+	private final String counter;
+
+	/**
+	 * @param metrics
+	 *            : metrics of the server
+	 * @param counter
+	 *            : counter of callers that joined a load in flight
+	 */
+	public SingleFlight(Metrics metrics, String counter) {
+		this.metrics = metrics;
+		this.counter = counter;
+		inFlight = new ConcurrentHashMap<K, CompletableFuture<V>>();
+		shared = new ConcurrentHashMap<K, Shared<V>>();
+	}
+
+	/**
+	 * Return the value of a key, joining a load of it already in flight.
+	 * 
+	 * @param key
+	 * @param loader
+	 *            : load run if none is in flight
+	 * @return value
+	 * @throws IOException
+	 *             if the shared load failed
+	 */
+	public V get(K key, Loader<V> loader) throws IOException {
+		CompletableFuture<V> future = new CompletableFuture<V>();
+		CompletableFuture<V> running = inFlight.putIfAbsent(key, future);
+		if (running != null) {
+			metrics.increment(counter);
+			return join(key, running);
+		}
+
+		try {
+			V value = loader.load();
+			future.complete(value);
+			return value;
+		} catch (IOException | RuntimeException e) {
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(key, future);
+		}
+	}
+
+	/**
+	 * Return the value of a key and keep it until released, joining a load or
+	 * a value already held by other callers. Every call must be followed by
+	 * {@link #release}, unless it threw.
+	 * 
+	 * @param key
+	 * @param loader
+	 *            : load run if the value isn't held
+	 * @return value
+	 * @throws IOException
+	 *             if the shared load failed
+	 */
+	public V acquire(K key, Loader<V> loader) throws IOException {
+		boolean[] first = new boolean[1];
+		Shared<V> entry = shared.compute(key, (k, held) -> {
+			if (held == null) {
+				held = new Shared<V>();
+				first[0] = true;
+			}
+			held.holders++;
+			return held;
+		});
+		try {
+			if (!first[0]) {
+				metrics.increment(counter);
+				return join(key, entry.value);
+			}
+			try {
+				V value = loader.load();
+				entry.value.complete(value);
+				return value;
+			} catch (IOException | RuntimeException e) {
+				entry.value.completeExceptionally(e);
+				throw e;
+			}
+		} catch (IOException | RuntimeException e) {
+			release(key);
+			throw e;
+		}
+	}
+
+	/**
+	 * Release a value acquired, dropping it once no caller holds it.
+	 * 
+	 * @param key
+	 */
+	public void release(K key) {
+		shared.computeIfPresent(key, (k, held) -> --held.holders == 0 ? null : held);
+	}
+
+	/**
+	 * Return number of loads in flight and values held.
+	 */
+	public int size() {
+		return inFlight.size() + shared.size();
+	}
+
+	private V join(K key, CompletableFuture<V> running) throws IOException {
+		try {
+			return running.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for load of " + key);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+}
@@ -1,23 +1,108 @@
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.ListIterator;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Trace class represents a trace of request being served on a distributed
- * systems network. Each server node adds its details to the trace for a file
- * search or download request.
- * 
+ * systems network. Each server node the request visits records a span with its
+ * arrival and departure time, the time the request waited before being
+ * processed and the action taken.
+ *
+ * Only a sample of requests is traced in detail, set through the system
+ * property chord.trace.sample (fraction between 0 and 1, default 1). On
+ * requests that are not sampled only the number of hops is counted.
+ *
  * @author Anurag Malik, am3926
  *
  */
 public class Trace implements Serializable {
-	private static final long serialVersionUID = 1L;
+	private static final long serialVersionUID = 2L;
+
+	// microsecond clock, anchored on the wall clock when this class loads
+	private static final long BASE_MICROS = System.currentTimeMillis() * 1000;
+	private static final long BASE_NANOS = System.nanoTime();
+
+	private static volatile double sampleRate = Double.parseDouble(System.getProperty("chord.trace.sample", "1"));
+
+	/**
+	 * Action taken by a server for a request.
+	 */
+	public enum Action {
+		FORWARD, HIT, NOT_MODIFIED, MISS, ERROR
+	}
+
+	/**
+	 * Visit of a request on one server, times in microseconds since epoch.
+	 */
+	public static class Span implements Serializable {
+		private static final long serialVersionUID = 1L;
+		private final String node;
+		private final long arrival;
+		private long started;
+		private long departure;
+		private Action action;
+
+		Span(String node, long arrival) {
+			this.node = node;
+			this.arrival = arrival;
+			this.started = arrival;
+		}
+
+		public String getNode() {
+			return node;
+		}
+
+		public long getArrival() {
+			return arrival;
+		}
+
+		public long getDeparture() {
+			return departure;
+		}
+
+		/**
+		 * Time the request waited on the server before being processed.
+		 */
+		public long getQueueMicros() {
+			return started - arrival;
+		}
+
+		public Action getAction() {
+			return action;
+		}
+	}
+
 	private boolean status;
-	private ArrayList<String> trace;
+	private long requestId;
+	private final boolean sampled;
+	private int hops;
+	private ArrayList<Span> spans;
+	private transient Span current;
 
 	public Trace() {
 		status = false;
-		trace = new ArrayList<String>();
+		sampled = sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+		if (sampled)
+			spans = new ArrayList<Span>();
+	}
+
+	/**
+	 * Set fraction of new requests traced in detail.
+	 *
+	 * @param rate
+	 *            : between 0 (none) and 1 (all)
+	 */
+	public static void setSampleRate(double rate) {
+		sampleRate = rate;
+	}
+
+	/**
+	 * Current time in microseconds since epoch.
+	 */
+	static long now() {
+		return BASE_MICROS + (System.nanoTime() - BASE_NANOS) / 1000;
 	}
 
 	/**
@@ -30,12 +115,86 @@ public class Trace implements Serializable {
 		this.status = status;
 	}
 
+	public boolean isFound() {
+		return status;
+	}
+
 	/**
-	 * Add host name of a server who received a file search request.
-	 * @param hostname
+	 * Return id of the request traced, so that a client can match the trace
+	 * pushed back to it with the request it made.
+	 * @return
 	 */
-	public void addToTrace(String hostname) {
-		trace.add(hostname);
+	public long getRequestId() {
+		return requestId;
+	}
+
+	public void setRequestId(long requestId) {
+		this.requestId = requestId;
+	}
+
+	public boolean isSampled() {
+		return sampled;
+	}
+
+	/**
+	 * Record arrival of the request on a server.
+	 * @param node
+	 */
+	public void arrive(String node) {
+		if (!sampled)
+			return;
+		current = new Span(node, now());
+		spans.add(current);
+	}
+
+	/**
+	 * Record that the server starts processing the request, time since arrival
+	 * is counted as queue time.
+	 */
+	public void startProcessing() {
+		if (current != null)
+			current.started = now();
+	}
+
+	/**
+	 * Record departure of the request from the server it arrived on.
+	 * @param node
+	 * @param action
+	 */
+	public void depart(String node, Action action) {
+		if (action == Action.FORWARD)
+			hops++;
+		if (!sampled)
+			return;
+
+		// spans are sent with the request, the current one is found again
+		// after a copy
+		Span span = current;
+		if (span == null && !spans.isEmpty() && spans.get(spans.size() - 1).departure == 0)
+			span = spans.get(spans.size() - 1);
+		if (span == null || !span.node.equals(node)) {
+			span = new Span(node, now());
+			spans.add(span);
+		}
+		span.departure = now();
+		span.action = action;
+		current = null;
+	}
+
+	/**
+	 * Return number of times the request was forwarded.
+	 * @return
+	 */
+	public int getHopCount() {
+		return hops;
+	}
+
+	/**
+	 * Return spans recorded for the request, empty if it wasn't sampled.
+	 * @return
+	 */
+	public List<Span> getSpans() {
+		return spans == null ? Collections.<Span>emptyList() : Collections.unmodifiableList(spans);
 	}
 
 	/**
@@ -43,15 +202,20 @@ public class Trace implements Serializable {
 	 * @return
 	 */
 	public String getTrace() {
-		String trace = "*** RESPONSE ***\nStatus : File not Found";
-		if (status == false)
-			return trace;
-
-		trace = "*** RESPONSE ***\nStatus : File Found\nTrace :\n\t";
-		ListIterator<String> iterator = this.trace.listIterator();
-		while (iterator.hasNext())
-			trace += iterator.next() + "\n\t";
+		StringBuilder trace = new StringBuilder("*** RESPONSE ***\nStatus : ");
+		trace.append(status ? "File Found" : "File not Found");
+		trace.append("\nHops : ").append(hops);
+		if (!sampled)
+			return trace.append("\nTrace : not sampled").toString();
 
-		return trace;
+		trace.append("\nTrace :");
+		long start = spans.isEmpty() ? 0 : spans.get(0).arrival;
+		for (Span span : spans) {
+			trace.append("\n\t").append(span.node);
+			trace.append(" [").append(span.action).append("] arrived +").append(span.arrival - start).append("us");
+			trace.append(", queued ").append(span.getQueueMicros()).append("us");
+			trace.append(", served ").append(span.departure - span.started).append("us");
+		}
+		return trace.append('\n').toString();
 	}
 }
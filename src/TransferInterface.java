@@ -0,0 +1,23 @@
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * This interface provides methods for receiving a file in chunks, so that an
+ * interrupted transfer can continue from the last chunk received. It is
+ * implemented by servers, for uploads and files handed over between servers,
+ * and by clients for downloads.
+ * 
+ * @author Anurag Malik, am3926
+ *
+ */
+public interface TransferInterface extends Remote {
+
+	// start or resume receiving a file, return offset to continue from
+	long beginTransfer(String transferId, String fileName, long size) throws RemoteException;
+
+	// receive file data written at an offset, return offset to continue from
+	long writeChunk(String transferId, long offset, byte[] data) throws RemoteException;
+
+	// store the file once all its data is received
+	boolean commitTransfer(String transferId) throws RemoteException;
+}
@@ -0,0 +1,324 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * TransferStore keeps files being received in chunks. Data of each transfer is
+ * written to a partial file, and the offset reached is checkpointed next to
+ * it once the data is synced : after every chunk for a durable store, else
+ * every chord.transfer.checkpoint bytes (default 8MB). A transfer interrupted
+ * by a failed call, or by a restart of the receiver, continues from the last
+ * checkpoint. The partial file is moved into place when the transfer is
+ * committed, a transfer received in one chunk is never checkpointed.
+ * 
+ * Transfers left idle for chord.transfer.idle milliseconds (default 30
+ * minutes) are abandoned : their file is closed and their partial file and
+ * checkpoint deleted.
+ * 
+ * @author Anurag Malik, am3926
+ *
+ */
+public class TransferStore {
+
+	// transfers committed recently, so that a commit retried after a lost
+	// reply doesn't start the transfer again
+	private static final int COMPLETED_KEPT = 1024;
+
+	static final long CHECKPOINT_BYTES = Long.getLong("chord.transfer.checkpoint", 8L * 1024 * 1024);
+	static final long IDLE_TIMEOUT = Long.getLong("chord.transfer.idle", 30L * 60 * 1000);
+
+	/**
+	 * Transfer in progress.
+	 */
+	private static class Session {
+		final String transferId;
+		final String fileName;
+		final long size;
+		long offset;
+		long checkpointed;
+		long used;
+		FileChannel channel;
+
+		Session(String transferId, String fileName, long size) {
+			this.transferId = transferId;
+			this.fileName = fileName;
+			this.size = size;
+		}
+	}
+
+	private final File directory;
+	private final boolean durable;
+	private final Map<String, Session> sessions;
+	private final Map<String, File> completed;
+	private volatile long swept;
+
+	/**
+	 * @param directory
+	 *            : directory for partial files and checkpoints, outside the
+	 *            directory files are stored in
+	 * @param durable
+	 *            : true to checkpoint every chunk, and sync files before they
+	 *            are moved into place
+	 */
+	public TransferStore(File directory, boolean durable) {
+		this.directory = directory;
+		this.durable = durable;
+		sessions = new ConcurrentHashMap<String, Session>();
+		completed = Collections.synchronizedMap(new LinkedHashMap<String, File>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, File> eldest) {
+				return size() > COMPLETED_KEPT;
+			}
+		});
+	}
+
+	/**
+	 * Start receiving a file, or resume receiving it from the last checkpoint.
+	 * A transfer begun again once completed, after a lost reply to its commit,
+	 * is told it is complete while the file it stored is still there; it
+	 * starts over if the file was deleted or moved away since.
+	 * 
+	 * @param transferId
+	 * @param fileName
+	 * @param size
+	 *            : size of the whole file
+	 * @return offset the sender continues from, the size if the file is
+	 *         already committed
+	 * @throws IOException
+	 */
+	public long begin(String transferId, String fileName, long size) throws IOException {
+		expire();
+		File stored = completed.get(transferId);
+		if (stored != null) {
+			if (stored.getName().equals(fileName) && stored.length() == size)
+				return size;
+			completed.remove(transferId);
+		}
+		Session session = open(transferId, fileName, size);
+		synchronized (session) {
+			return session.offset;
+		}
+	}
+
+	private Session open(String transferId, String fileName, long size) throws IOException {
+		if (!transferId.matches("[A-Za-z0-9-]+"))
+			throw new IOException("Invalid transfer id : " + transferId);
+		Session session = sessions.get(transferId);
+		if (session != null)
+			return session;
+
+		synchronized (this) {
+			session = sessions.get(transferId);
+			if (session != null)
+				return session;
+			directory.mkdirs();
+			session = new Session(transferId, fileName, size);
+
+			// continue a transfer interrupted by a restart
+			Properties checkpoint = readCheckpoint(transferId);
+			if (checkpoint != null && fileName.equals(checkpoint.getProperty("file"))
+					&& size == Long.parseLong(checkpoint.getProperty("size")))
+				session.offset = Long.parseLong(checkpoint.getProperty("offset"));
+
+			session.channel = FileChannel.open(part(transferId), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			session.channel.truncate(session.offset);
+			if (session.channel.size() < session.offset)
+				session.offset = session.channel.size();
+			session.checkpointed = session.offset;
+			session.used = System.currentTimeMillis();
+			sessions.put(transferId, session);
+			return session;
+		}
+	}
+
+	/**
+	 * Write a chunk of a file. A chunk for another offset than the one
+	 * reached, sent again after a lost reply, is ignored.
+	 * 
+	 * @param transferId
+	 * @param offset
+	 * @param data
+	 * @return offset the sender continues from
+	 * @throws IOException
+	 */
+	public long write(String transferId, long offset, byte[] data) throws IOException {
+		Session session = sessions.get(transferId);
+		if (session == null)
+			throw new IOException("Unknown transfer : " + transferId);
+		synchronized (session) {
+			if (!session.channel.isOpen())
+				throw new IOException("Unknown transfer : " + transferId);
+			session.used = System.currentTimeMillis();
+			if (offset != session.offset)
+				return session.offset;
+			if (offset + data.length > session.size)
+				throw new IOException("Transfer " + transferId + " goes past the size of " + session.fileName);
+
+			ByteBuffer buffer = ByteBuffer.wrap(data);
+			long position = offset;
+			while (buffer.hasRemaining())
+				position += session.channel.write(buffer, position);
+
+			session.offset = position;
+
+			// checkpoint only data that survives a crash, the last chunk is
+			// followed by the commit
+			if (position < session.size && (durable || position - session.checkpointed >= CHECKPOINT_BYTES)) {
+				session.channel.force(false);
+				writeCheckpoint(session);
+				session.checkpointed = position;
+			}
+			return session.offset;
+		}
+	}
+
+	/**
+	 * Move a completely received file into a directory.
+	 * 
+	 * @param transferId
+	 * @param target
+	 *            : directory the file is stored in
+	 * @return the file stored, null if it was already committed
+	 * @throws IOException
+	 *             if the file isn't completely received
+	 */
+	public File complete(String transferId, File target) throws IOException {
+		Session session = sessions.get(transferId);
+		if (session == null) {
+			if (completed.containsKey(transferId))
+				return null;
+			throw new IOException("Unknown transfer : " + transferId);
+		}
+		synchronized (session) {
+			if (!session.channel.isOpen())
+				throw new IOException("Unknown transfer : " + transferId);
+			if (session.offset != session.size)
+				throw new IOException("Transfer of " + session.fileName + " incomplete : " + session.offset + " of "
+						+ session.size + " bytes");
+			if (durable)
+				session.channel.force(false);
+			session.channel.close();
+			File file = new File(target, session.fileName);
+			try {
+				Files.move(part(transferId), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(part(transferId), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			Files.deleteIfExists(checkpoint(transferId));
+			sessions.remove(transferId);
+			completed.put(transferId, file);
+			return file;
+		}
+	}
+
+	/**
+	 * Abandon transfers idle for longer than the idle timeout, and delete the
+	 * partial files and checkpoints of transfers no longer in progress, like
+	 * those left by an earlier run.
+	 */
+	public void expire() {
+		long now = System.currentTimeMillis();
+		for (Session session : sessions.values()) {
+			synchronized (session) {
+				if (!session.channel.isOpen() || now - session.used <= IDLE_TIMEOUT)
+					continue;
+				try {
+					session.channel.close();
+					Files.deleteIfExists(part(session.transferId));
+					Files.deleteIfExists(checkpoint(session.transferId));
+				} catch (IOException e) {
+					// left to the sweep of the directory
+				}
+				sessions.remove(session.transferId, session);
+			}
+		}
+
+		// the directory is only listed once a minute
+		if (now - swept < 60000)
+			return;
+		swept = now;
+		File[] files = directory.listFiles();
+		if (files == null)
+			return;
+		for (File file : files) {
+			String name = file.getName();
+			int end = name.indexOf('.');
+			if (end > 0 && !sessions.containsKey(name.substring(0, end)) && now - file.lastModified() > IDLE_TIMEOUT)
+				file.delete();
+		}
+	}
+
+	/**
+	 * Return number of transfers in progress.
+	 */
+	public int size() {
+		return sessions.size();
+	}
+
+	/**
+	 * Return name of the file received by a transfer in progress.
+	 */
+	public String getFileName(String transferId) {
+		Session session = sessions.get(transferId);
+		return session == null ? null : session.fileName;
+	}
+
+	private Path part(String transferId) {
+		return new File(directory, transferId + ".part").toPath();
+	}
+
+	private Path checkpoint(String transferId) {
+		return new File(directory, transferId + ".checkpoint").toPath();
+	}
+
+	private Properties readCheckpoint(String transferId) {
+		File file = checkpoint(transferId).toFile();
+		if (!file.exists())
+			return null;
+		Properties checkpoint = new Properties();
+		try (InputStream input = new FileInputStream(file)) {
+			checkpoint.load(input);
+			return checkpoint;
+		} catch (IOException | IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Replace the checkpoint of a transfer in one step.
+	 */
+	private void writeCheckpoint(Session session) throws IOException {
+		Properties checkpoint = new Properties();
+		checkpoint.setProperty("file", session.fileName);
+		checkpoint.setProperty("size", String.valueOf(session.size));
+		checkpoint.setProperty("offset", String.valueOf(session.offset));
+		File temporary = new File(directory, session.transferId + ".checkpoint.tmp");
+		try (OutputStream output = new FileOutputStream(temporary)) {
+			checkpoint.store(output, null);
+		}
+		try {
+			Files.move(temporary.toPath(), checkpoint(session.transferId), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temporary.toPath(), checkpoint(session.transferId), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
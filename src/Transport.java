@@ -0,0 +1,91 @@
+import java.io.IOException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Transport abstracts the mechanism servers and clients use to make their
+ * remote endpoints ({@link S2SInterface}, {@link S2CInterface} and
+ * {@link ClientInterface}) reachable, and to connect to the endpoints of other
+ * machines. Addresses are either a plain host name, in which case the default
+ * port of the transport is used, or of the form host:port.
+ *
+ * The implementation is selected with the system property chord.transport,
+ * "rmi" (default) or "nio".
+ *
+ * @author Anurag Malik, am3926
+ *
+ */
+public interface Transport {
+
+	// name under which the server to client endpoint is bound
+	String CHORD = "chord";
+
+	// name under which the server to server endpoint is bound
+	String SERVER = "server";
+
+	// start accepting connections on the port of the address the endpoint is
+	// reached at, host or host:port, and hand out references to that address
+	void listen(String address) throws IOException;
+
+	// bind a local object under a well known name, return its remote reference
+	<T extends Remote> T export(String name, T object, Class<T> type) throws RemoteException;
+
+	// make an anonymous callback object reachable, return its remote reference
+	<T extends Remote> T exportCallback(T object, Class<T> type) throws RemoteException;
+
+	// release an object exported earlier
+	void unexport(Remote object);
+
+	// connect to an object bound under a name on another machine
+	<T extends Remote> T lookup(String address, String name, Class<T> type) throws RemoteException;
+
+	// stop accepting connections and close all open connections
+	void shutdown();
+
+	// current time in microseconds used to measure calls, simulated
+	// transports add the latency they inject on links
+	default long clockMicros() {
+		return System.nanoTime() / 1000;
+	}
+
+	// true if calls run on the calling thread and their latency is only
+	// added to the clock, deadlines then apply to the simulated time
+	default boolean isSimulated() {
+		return false;
+	}
+
+	// move the clock of the calling thread, used by simulated transports to
+	// take back time a caller would not have waited
+	default void adjustClock(long micros) {
+	}
+
+	/**
+	 * Create the transport configured through chord.transport system property.
+	 *
+	 * @param defaultPort
+	 *            : port used for addresses without an explicit port
+	 * @return new transport instance
+	 */
+	static Transport newTransport(int defaultPort) {
+		String kind = System.getProperty("chord.transport", "rmi");
+		if ("nio".equalsIgnoreCase(kind))
+			return new NioTransport(defaultPort);
+		return new RmiTransport(defaultPort);
+	}
+
+	/**
+	 * Split an address into host name and port.
+	 *
+	 * @param address
+	 *            : host or host:port
+	 * @param defaultPort
+	 *            : port used if address has none
+	 * @return host name at index 0 and port at index 1
+	 */
+	static String[] parseAddress(String address, int defaultPort) {
+		int index = address.lastIndexOf(':');
+		if (index < 0)
+			return new String[] { address, String.valueOf(defaultPort) };
+		return new String[] { address.substring(0, index), address.substring(index + 1) };
+	}
+}